@@ -0,0 +1,39 @@
+package com.theokanning.openai.batch;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a batch input file
+ * https://platform.openai.com/docs/api-reference/batch/request-input
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRequestLine {
+
+    /**
+     * A developer-provided per-request id that will be used to match outputs to inputs. Must be unique for each request in a batch.
+     */
+    @JsonProperty("custom_id")
+    private String customId;
+
+    /**
+     * The HTTP method to be used for the request. Currently only POST is supported.
+     */
+    private String method;
+
+    /**
+     * The OpenAI API relative URL to be used for the request, e.g. /v1/chat/completions.
+     */
+    private String url;
+
+    /**
+     * The request body, e.g. a ChatCompletionRequest or an EmbeddingRequest.
+     */
+    private Object body;
+}
@@ -0,0 +1,89 @@
+package com.theokanning.openai.embedding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
+import java.util.Base64;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Conversions of {@link Embedding#getEmbedding()}, which is a list of numbers with the default encoding format
+ * and a base64 string of little-endian float32 with {@code encoding_format=base64}
+ */
+public class EmbeddingVectors {
+
+    private EmbeddingVectors() {
+    }
+
+    /**
+     * @param embedding a list of numbers or a base64 string
+     */
+    public static float[] toFloatArray(Object embedding) {
+        if (embedding instanceof String) {
+            return fromBytes(Base64.getDecoder().decode((String) embedding));
+        }
+        if (embedding instanceof List) {
+            List<?> list = (List<?>) embedding;
+            float[] vector = new float[list.size()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = ((Number) list.get(i)).floatValue();
+            }
+            return vector;
+        }
+        throw new IllegalArgumentException("not an embedding: " + (embedding == null ? null : embedding.getClass()));
+    }
+
+    /**
+     * @return the vector in the form of the given encoding format, base64 or a list of doubles
+     */
+    public static Object toEmbedding(float[] vector, String encodingFormat) {
+        if ("base64".equals(encodingFormat)) {
+            return Base64.getEncoder().encodeToString(toBytes(vector));
+        }
+        return asDoubleList(vector);
+    }
+
+    /**
+     * @return a read-only list view of the vector
+     */
+    public static List<Double> asDoubleList(float[] vector) {
+        return new FloatList(vector);
+    }
+
+    /**
+     * @return the vector as little-endian float32, the layout of the base64 encoding format
+     */
+    public static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    public static float[] fromBytes(byte[] bytes) {
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("float32 vector expected, got " + bytes.length + " bytes");
+        }
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    private static final class FloatList extends AbstractList<Double> implements RandomAccess {
+        private final float[] vector;
+
+        FloatList(float[] vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public Double get(int index) {
+            return (double) vector[index];
+        }
+
+        @Override
+        public int size() {
+            return vector.length;
+        }
+    }
+}
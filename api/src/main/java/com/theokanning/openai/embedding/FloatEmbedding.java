@@ -0,0 +1,37 @@
+package com.theokanning.openai.embedding;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import lombok.Data;
+
+import java.nio.FloatBuffer;
+
+/**
+ * An {@link Embedding} whose vector is decoded straight into a float[], from a json array as well as from the
+ * base64 encoding format, without a boxed Double per dimension
+ */
+@Data
+public class FloatEmbedding {
+
+    /**
+     * The type of object returned, should be "embedding"
+     */
+    String object;
+
+    /**
+     * The embedding vector
+     */
+    @JsonDeserialize(using = FloatVectorDeserializer.class)
+    float[] embedding;
+
+    /**
+     * The position of this embedding in the list
+     */
+    Integer index;
+
+    /**
+     * @return a read-only buffer over the vector, without copying it
+     */
+    public FloatBuffer asFloatBuffer() {
+        return FloatBuffer.wrap(embedding).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,35 @@
+package com.theokanning.openai.embedding;
+
+import com.theokanning.openai.Usage;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * An {@link EmbeddingResult} with primitive float vectors
+ *
+ * https://platform.openai.com/docs/api-reference/embeddings/create
+ */
+@Data
+public class FloatEmbeddingResult {
+
+    /**
+     * The model used for generating embeddings
+     */
+    String model;
+
+    /**
+     * The type of object returned, should be "list"
+     */
+    String object;
+
+    /**
+     * A list of the calculated embeddings
+     */
+    List<FloatEmbedding> data;
+
+    /**
+     * The API usage for this request
+     */
+    Usage usage;
+}
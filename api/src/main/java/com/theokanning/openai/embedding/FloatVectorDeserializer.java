@@ -0,0 +1,43 @@
+package com.theokanning.openai.embedding;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads an embedding vector into a float[], either from a json array of numbers (the default encoding format)
+ * or from a base64 string of little-endian float32 ({@code encoding_format=base64}).
+ * Numbers are read token by token into a growing float[], base64 is decoded by the parser into bytes,
+ * no boxed number or intermediate list is created.
+ */
+public class FloatVectorDeserializer extends JsonDeserializer<float[]> {
+
+    @Override
+    public float[] deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return EmbeddingVectors.fromBytes(p.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS));
+        }
+        if (token != JsonToken.START_ARRAY) {
+            return (float[]) ctxt.handleUnexpectedToken(float[].class, p);
+        }
+        float[] vector = new float[1536];
+        int size = 0;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                return (float[]) ctxt.handleUnexpectedToken(float[].class, p);
+            }
+            if (size == vector.length) {
+                vector = Arrays.copyOf(vector, size * 2);
+            }
+            // the parser's double path allocates less than getFloatValue on Java 8
+            vector[size++] = (float) p.getDoubleValue();
+        }
+        return size == vector.length ? vector : Arrays.copyOf(vector, size);
+    }
+}
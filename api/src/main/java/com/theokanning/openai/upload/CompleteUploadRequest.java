@@ -0,0 +1,30 @@
+package com.theokanning.openai.upload;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Completes an upload, its parts are joined in the given order
+ * <p>
+ * https://platform.openai.com/docs/api-reference/uploads/complete
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CompleteUploadRequest {
+
+    /**
+     * The ordered list of part ids.
+     */
+    @JsonProperty("part_ids")
+    @NonNull
+    List<String> partIds;
+
+    /**
+     * The optional md5 checksum of the file contents, checked against the uploaded bytes.
+     */
+    String md5;
+}
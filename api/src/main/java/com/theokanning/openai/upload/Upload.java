@@ -0,0 +1,49 @@
+package com.theokanning.openai.upload;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.theokanning.openai.file.File;
+import lombok.Data;
+
+/**
+ * An upload of a large file in parts, completed into a {@link File}
+ * <p>
+ * https://platform.openai.com/docs/api-reference/uploads/object
+ */
+@Data
+public class Upload {
+
+    String id;
+
+    /**
+     * The object type, which is always "upload".
+     */
+    String object;
+
+    /**
+     * The intended number of bytes to be uploaded.
+     */
+    Long bytes;
+
+    @JsonProperty("created_at")
+    Long createdAt;
+
+    String filename;
+
+    String purpose;
+
+    /**
+     * The status of the upload: pending, completed, cancelled or expired.
+     */
+    String status;
+
+    /**
+     * The time in epoch seconds after which the upload expires.
+     */
+    @JsonProperty("expires_at")
+    Long expiresAt;
+
+    /**
+     * The file created once the upload is completed.
+     */
+    File file;
+}
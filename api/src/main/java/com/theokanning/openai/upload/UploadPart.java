@@ -0,0 +1,26 @@
+package com.theokanning.openai.upload;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * A chunk of bytes added to an {@link Upload}
+ * <p>
+ * https://platform.openai.com/docs/api-reference/uploads/part-object
+ */
+@Data
+public class UploadPart {
+
+    String id;
+
+    /**
+     * The object type, which is always "upload.part".
+     */
+    String object;
+
+    @JsonProperty("created_at")
+    Long createdAt;
+
+    @JsonProperty("upload_id")
+    String uploadId;
+}
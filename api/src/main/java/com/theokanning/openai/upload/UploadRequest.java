@@ -0,0 +1,41 @@
+package com.theokanning.openai.upload;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * Starts an upload that parts are added to
+ * <p>
+ * https://platform.openai.com/docs/api-reference/uploads/create
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadRequest {
+
+    /**
+     * The name of the file to create.
+     */
+    @NonNull
+    String filename;
+
+    /**
+     * The intended purpose of the file, e.g. "batch" or "fine-tune".
+     */
+    @NonNull
+    String purpose;
+
+    /**
+     * The number of bytes in the file, the parts must add up to it.
+     */
+    @NonNull
+    Long bytes;
+
+    /**
+     * The MIME type of the file, supported by the purpose.
+     */
+    @JsonProperty("mime_type")
+    @NonNull
+    String mimeType;
+}
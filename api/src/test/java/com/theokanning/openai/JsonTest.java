@@ -32,6 +32,7 @@ import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.embedding.EmbeddingRequest;
 import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
 import com.theokanning.openai.file.File;
 import com.theokanning.openai.fine_tuning.FineTuningEvent;
 import com.theokanning.openai.fine_tuning.FineTuningJob;
@@ -41,6 +42,10 @@ import com.theokanning.openai.image.ImageResult;
 import com.theokanning.openai.model.Model;
 import com.theokanning.openai.moderation.ModerationRequest;
 import com.theokanning.openai.moderation.ModerationResult;
+import com.theokanning.openai.upload.CompleteUploadRequest;
+import com.theokanning.openai.upload.Upload;
+import com.theokanning.openai.upload.UploadPart;
+import com.theokanning.openai.upload.UploadRequest;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -59,6 +64,7 @@ public class JsonTest {
             DeleteResult.class,
             EmbeddingRequest.class,
             EmbeddingResult.class,
+            FloatEmbeddingResult.class,
             File.class,
             FineTuningEvent.class,
             FineTuningJob.class,
@@ -71,7 +77,11 @@ public class JsonTest {
             ModerationRequest.class,
             ModerationResult.class,
             BatchRequest.class,
-            Batch.class
+            Batch.class,
+            UploadRequest.class,
+            Upload.class,
+            UploadPart.class,
+            CompleteUploadRequest.class
     })
     void objectMatchesJson(Class<?> clazz) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
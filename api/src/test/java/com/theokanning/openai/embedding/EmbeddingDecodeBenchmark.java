@@ -0,0 +1,108 @@
+package com.theokanning.openai.embedding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding cost of an embeddings response: json floats vs base64, into {@link EmbeddingResult} (boxed Doubles)
+ * vs {@link FloatEmbeddingResult} (float[]).
+ * <p>
+ * Run with the GC profiler to get the allocated bytes per decoded response (gc.alloc.rate.norm):
+ * <pre>
+ * mvn -pl api test-compile
+ * java -cp api/target/test-classes:api/target/classes:$(cat classpath.txt) com.theokanning.openai.embedding.EmbeddingDecodeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddingDecodeBenchmark {
+
+    @Param({"1536", "3072"})
+    int dimensions;
+
+    @Param({"16"})
+    int inputs;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] jsonFloats;
+    private byte[] jsonBase64;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder floats = new StringBuilder("{\"object\":\"list\",\"model\":\"text-embedding-3-large\",\"data\":[");
+        StringBuilder base64 = new StringBuilder(floats);
+        for (int i = 0; i < inputs; i++) {
+            float[] vector = new float[dimensions];
+            StringBuilder array = new StringBuilder();
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] = (float) random.nextGaussian() / 40;
+                array.append(d == 0 ? "" : ",").append(vector[d]);
+            }
+            String separator = i == 0 ? "" : ",";
+            floats.append(separator).append("{\"object\":\"embedding\",\"index\":").append(i)
+                    .append(",\"embedding\":[").append(array).append("]}");
+            base64.append(separator).append("{\"object\":\"embedding\",\"index\":").append(i)
+                    .append(",\"embedding\":\"").append(Base64.getEncoder().encodeToString(EmbeddingVectors.toBytes(vector))).append("\"}");
+        }
+        String usage = "],\"usage\":{\"prompt_tokens\":8,\"total_tokens\":8}}";
+        jsonFloats = floats.append(usage).toString().getBytes(StandardCharsets.UTF_8);
+        jsonBase64 = base64.append(usage).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public EmbeddingResult jsonFloatsToDoubleLists() throws IOException {
+        return mapper.readValue(jsonFloats, EmbeddingResult.class);
+    }
+
+    @Benchmark
+    public FloatEmbeddingResult jsonFloatsToFloatArrays() throws IOException {
+        return mapper.readValue(jsonFloats, FloatEmbeddingResult.class);
+    }
+
+    @Benchmark
+    public float[][] base64ToStringsThenFloatArrays() throws IOException {
+        EmbeddingResult result = mapper.readValue(jsonBase64, EmbeddingResult.class);
+        float[][] vectors = new float[result.getData().size()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = EmbeddingVectors.toFloatArray(result.getData().get(i).getEmbedding());
+        }
+        return vectors;
+    }
+
+    @Benchmark
+    public FloatEmbeddingResult base64ToFloatArrays() throws IOException {
+        return mapper.readValue(jsonBase64, FloatEmbeddingResult.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(EmbeddingDecodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
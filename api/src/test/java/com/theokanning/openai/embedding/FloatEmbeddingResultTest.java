@@ -0,0 +1,51 @@
+package com.theokanning.openai.embedding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FloatEmbeddingResultTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void decodesJsonArrays() throws IOException {
+        FloatEmbeddingResult result = mapper.readValue(response("[0.25,-1,3.5e-3]"), FloatEmbeddingResult.class);
+
+        assertArrayEquals(new float[]{0.25f, -1f, 0.0035f}, result.getData().get(0).getEmbedding());
+        assertEquals(0, result.getData().get(0).getIndex());
+        assertEquals(8, result.getUsage().getTotalTokens());
+    }
+
+    @Test
+    void decodesBase64() throws IOException {
+        float[] vector = new float[2000];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) Math.sin(i);
+        }
+        String base64 = Base64.getEncoder().encodeToString(EmbeddingVectors.toBytes(vector));
+
+        FloatEmbeddingResult result = mapper.readValue(response("\"" + base64 + "\""), FloatEmbeddingResult.class);
+
+        assertArrayEquals(vector, result.getData().get(0).getEmbedding());
+        assertEquals(vector.length, result.getData().get(0).asFloatBuffer().remaining());
+    }
+
+    @Test
+    void bothEncodingsMatchTheBoxedResult() throws IOException {
+        String json = response("[0.0023064255,-0.009327292,-0.0028842222]");
+        EmbeddingResult boxed = mapper.readValue(json, EmbeddingResult.class);
+        FloatEmbeddingResult floats = mapper.readValue(json, FloatEmbeddingResult.class);
+
+        assertArrayEquals(EmbeddingVectors.toFloatArray(boxed.getData().get(0).getEmbedding()), floats.getData().get(0).getEmbedding());
+    }
+
+    private static String response(String embedding) {
+        return "{\"object\":\"list\",\"model\":\"text-embedding-3-small\",\"data\":[{\"object\":\"embedding\",\"index\":0,"
+                + "\"embedding\":" + embedding + "}],\"usage\":{\"prompt_tokens\":8,\"total_tokens\":8}}";
+    }
+}
@@ -32,6 +32,7 @@ import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.embedding.EmbeddingRequest;
 import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
 import com.theokanning.openai.file.File;
 import com.theokanning.openai.fine_tuning.FineTuningEvent;
 import com.theokanning.openai.fine_tuning.FineTuningJob;
@@ -42,11 +43,16 @@ import com.theokanning.openai.image.ImageResult;
 import com.theokanning.openai.model.Model;
 import com.theokanning.openai.moderation.ModerationRequest;
 import com.theokanning.openai.moderation.ModerationResult;
+import com.theokanning.openai.upload.CompleteUploadRequest;
+import com.theokanning.openai.upload.Upload;
+import com.theokanning.openai.upload.UploadPart;
+import com.theokanning.openai.upload.UploadRequest;
 import io.reactivex.Single;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
+import retrofit2.Response;
 import retrofit2.http.*;
 
 import java.time.LocalDate;
@@ -80,11 +86,31 @@ public interface OpenAiApi {
     @POST("embeddings")
     Single<EmbeddingResult> createEmbeddings(@Body EmbeddingRequest request);
 
+    @POST("embeddings")
+    Single<FloatEmbeddingResult> createFloatEmbeddings(@Body EmbeddingRequest request);
+
+    @Streaming
+    @POST("embeddings")
+    Call<ResponseBody> createEmbeddingsStream(@Body EmbeddingRequest request);
+
 
     @Multipart
     @POST("files")
     Single<File> uploadFile(@Part("purpose") RequestBody purpose, @Part MultipartBody.Part file);
 
+    @POST("uploads")
+    Single<Upload> createUpload(@Body UploadRequest request);
+
+    @Multipart
+    @POST("uploads/{upload_id}/parts")
+    Single<UploadPart> addUploadPart(@Path("upload_id") String uploadId, @Part MultipartBody.Part data);
+
+    @POST("uploads/{upload_id}/complete")
+    Single<Upload> completeUpload(@Path("upload_id") String uploadId, @Body CompleteUploadRequest request);
+
+    @POST("uploads/{upload_id}/cancel")
+    Single<Upload> cancelUpload(@Path("upload_id") String uploadId);
+
     @GET("files")
     Single<OpenAiResponse<File>> listFiles();
 
@@ -98,6 +124,13 @@ public interface OpenAiApi {
     @GET("files/{file_id}/content")
     Single<ResponseBody> retrieveFileContent(@Path("file_id") String fileId);
 
+    /**
+     * @param range e.g. "bytes=1024-", the response is 206 when the server honours it
+     */
+    @Streaming
+    @GET("files/{file_id}/content")
+    Single<Response<ResponseBody>> retrieveFileContent(@Path("file_id") String fileId, @Header("Range") String range);
+
     @POST("fine_tuning/jobs")
     Single<FineTuningJob> createFineTuningJob(@Body FineTuningJobRequest request);
 
@@ -135,6 +168,7 @@ public interface OpenAiApi {
     @POST("audio/translations")
     Single<TranslationResult> createTranslation(@Body RequestBody requestBody);
 
+    @Streaming
     @POST("audio/speech")
     Single<ResponseBody> createSpeech(@Body CreateSpeechRequest requestBody);
 
@@ -22,11 +22,13 @@ public class OrganizationAndProjectHeaderInterceptor implements Interceptor {
 
     @Override
     public Response intercept(Chain chain) throws IOException {
-        Request request = chain.request()
-                .newBuilder()
-                .header("OpenAI-Organization", organization)
-                .header("OpenAI-Project", project)
-                .build();
-        return chain.proceed(request);
+        Request.Builder builder = chain.request().newBuilder();
+        if (organization != null) {
+            builder.header("OpenAI-Organization", organization);
+        }
+        if (project != null) {
+            builder.header("OpenAI-Project", project);
+        }
+        return chain.proceed(builder.build());
     }
 }
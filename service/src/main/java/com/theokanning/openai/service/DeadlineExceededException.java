@@ -0,0 +1,11 @@
+package com.theokanning.openai.service;
+
+/**
+ * A call ran out of the time given by its {@link RequestOptions}, or was rejected because no time was left.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
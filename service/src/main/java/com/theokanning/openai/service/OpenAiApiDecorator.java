@@ -0,0 +1,91 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.client.OpenAiApi;
+import io.reactivex.Single;
+import retrofit2.Call;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Objects;
+
+/**
+ * Base class for wrapping an {@link OpenAiApi} with extra behaviour (hedging, deadlines, circuit breaking...).
+ * <p>
+ * Every api method is forwarded to the delegate, and the returned {@link Single} or {@link Call} is passed
+ * through {@link #decorateSingle} / {@link #decorateCall}. Both are cold: subscribing to the Single again or
+ * cloning the Call sends a new http request, which is what decorators rely on to re-issue a call.
+ * <p>
+ * The decorated api is a drop-in for the original one, e.g. {@code new OpenAiService(decorator.getApi())}
+ */
+public abstract class OpenAiApiDecorator implements InvocationHandler {
+
+    protected final OpenAiApi delegate;
+
+    private final OpenAiApi api;
+
+    protected OpenAiApiDecorator(OpenAiApi delegate) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate api must not be null");
+        this.api = (OpenAiApi) Proxy.newProxyInstance(OpenAiApi.class.getClassLoader(), new Class<?>[]{OpenAiApi.class}, this);
+    }
+
+    /**
+     * @return the decorated api
+     */
+    public OpenAiApi getApi() {
+        return api;
+    }
+
+    /**
+     * Decorates an api call returning a {@link Single}.
+     *
+     * @param method the api method that was invoked
+     * @param args   the arguments of the invocation, may be null
+     * @param single the cold Single returned by the delegate
+     */
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        return single;
+    }
+
+    /**
+     * Decorates an api call returning a {@link Call}, these are the streaming endpoints.
+     *
+     * @param method the api method that was invoked
+     * @param args   the arguments of the invocation, may be null
+     * @param call   the un-executed Call returned by the delegate
+     */
+    protected <T> Call<T> decorateCall(Method method, Object[] args, Call<T> call) {
+        return call;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "(" + delegate + ")";
+                default:
+                    return method.invoke(this, args);
+            }
+        }
+        Object result;
+        try {
+            result = method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Single) {
+            return decorateSingle(method, args, (Single<Object>) result);
+        }
+        if (result instanceof Call) {
+            return decorateCall(method, args, (Call<Object>) result);
+        }
+        return result;
+    }
+}
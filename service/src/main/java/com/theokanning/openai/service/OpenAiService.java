@@ -39,6 +39,8 @@ import com.theokanning.openai.completion.CompletionResult;
 import com.theokanning.openai.completion.chat.*;
 import com.theokanning.openai.embedding.EmbeddingRequest;
 import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.FloatEmbedding;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
 import com.theokanning.openai.file.File;
 import com.theokanning.openai.fine_tuning.FineTuningEvent;
 import com.theokanning.openai.fine_tuning.FineTuningJob;
@@ -53,12 +55,29 @@ import com.theokanning.openai.moderation.ModerationRequest;
 import com.theokanning.openai.moderation.ModerationResult;
 import com.theokanning.openai.service.assistant_stream.AssistantResponseBodyCallback;
 import com.theokanning.openai.service.assistant_stream.AssistantSSE;
+import com.theokanning.openai.service.batch.BatchOutputReader;
+import com.theokanning.openai.service.batch.BatchResult;
+import com.theokanning.openai.service.cache.EmbeddingCache;
+import com.theokanning.openai.service.cache.EmbeddingCacheApiDecorator;
+import com.theokanning.openai.service.cache.ResponseCache;
+import com.theokanning.openai.service.cache.ResponseCacheApiDecorator;
+import com.theokanning.openai.service.cache.SemanticCache;
+import com.theokanning.openai.service.cache.SemanticCacheApiDecorator;
+import com.theokanning.openai.service.download.FileDownloader;
+import com.theokanning.openai.service.embedding.EmbeddingStreamReader;
+import com.theokanning.openai.service.upload.MultipartUploader;
+import com.theokanning.openai.upload.CompleteUploadRequest;
+import com.theokanning.openai.upload.Upload;
+import com.theokanning.openai.upload.UploadPart;
+import com.theokanning.openai.upload.UploadRequest;
 import io.reactivex.BackpressureStrategy;
+import io.reactivex.Emitter;
 import io.reactivex.Flowable;
 import io.reactivex.Single;
 import okhttp3.*;
 import retrofit2.Call;
 import retrofit2.HttpException;
+import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
 import retrofit2.converter.jackson.JacksonConverterFactory;
@@ -73,6 +92,9 @@ import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
@@ -167,6 +189,47 @@ public class OpenAiService {
         this.executorService = executorService;
     }
 
+    /**
+     * Returns a service sharing this one's api and executor, whose calls are bounded by the given options.
+     * <pre>{@code
+     * service.withOptions(RequestOptions.builder().timeout(Duration.ofSeconds(2)).build()).createEmbeddings(request);
+     * }</pre>
+     *
+     * @param options per-call timeouts and deadline
+     */
+    public OpenAiService withOptions(RequestOptions options) {
+        return new OpenAiService(new RequestOptionsApiDecorator(api, options).getApi(), executorService);
+    }
+
+    /**
+     * Returns a service sharing this one's api and executor, serving deterministic chat completions and
+     * completions from the given cache.
+     *
+     * @param cache response cache, may be shared by several services
+     */
+    public OpenAiService withResponseCache(ResponseCache cache) {
+        return new OpenAiService(new ResponseCacheApiDecorator(api, cache).getApi(), executorService);
+    }
+
+    /**
+     * Returns a service sharing this one's api and executor, embedding only the texts missing from the given cache.
+     *
+     * @param cache embedding cache, may be shared by several services
+     */
+    public OpenAiService withEmbeddingCache(EmbeddingCache cache) {
+        return new OpenAiService(new EmbeddingCacheApiDecorator(api, cache).getApi(), executorService);
+    }
+
+    /**
+     * Returns a service sharing this one's api and executor, answering chat completions from the given cache
+     * when a similar enough question was asked before.
+     *
+     * @param cache semantic cache, may be shared by several services
+     */
+    public OpenAiService withSemanticCache(SemanticCache cache) {
+        return new OpenAiService(new SemanticCacheApiDecorator(api, cache).getApi(), executorService);
+    }
+
     public List<Model> listModels() {
         return execute(api.listModels()).data;
     }
@@ -193,6 +256,72 @@ public class OpenAiService {
 
     public Flowable<ChatCompletionChunk> streamChatCompletion(ChatCompletionRequest request) {
         request.setStream(true);
+        return streamChatCompletion(api, request);
+    }
+
+    /**
+     * Streams a chat completion under per-call deadlines.
+     * <p>
+     * If no chunk arrives within the first chunk deadline the call is cancelled and re-issued, to the next of
+     * {@link StreamDeadlines#getAlternates()} if any. If the stream stalls or runs out of total time, it fails with a
+     * {@link StreamTimeoutException} holding the chunks received so far.
+     *
+     * @param request   the chat completion request
+     * @param deadlines the deadlines of this call
+     */
+    public Flowable<ChatCompletionChunk> streamChatCompletion(ChatCompletionRequest request, StreamDeadlines deadlines) {
+        request.setStream(true);
+        List<OpenAiApi> endpoints = new ArrayList<>();
+        endpoints.add(api);
+        endpoints.addAll(deadlines.getAlternates());
+        return Flowable.defer(() -> {
+            AtomicInteger attempts = new AtomicInteger();
+            List<ChatCompletionChunk> received = Collections.synchronizedList(new ArrayList<>());
+            AtomicBoolean totalExpired = new AtomicBoolean();
+
+            Flowable<ChatCompletionChunk> chunks = Flowable.defer(() -> {
+                        OpenAiApi endpoint = endpoints.get(attempts.getAndIncrement() % endpoints.size());
+                        Flowable<ChatCompletionChunk> attempt = streamChatCompletion(endpoint, request);
+                        if (deadlines.getFirstChunkTimeout() == null) {
+                            return attempt;
+                        }
+                        return attempt.timeout(timer(deadlines.getFirstChunkTimeout(), deadlines),
+                                        chunk -> Flowable.<Long>never())
+                                .onErrorResumeNext((Throwable e) -> Flowable.error(e instanceof TimeoutException
+                                        ? new StreamTimeoutException(StreamTimeoutException.Kind.FIRST_CHUNK, new ArrayList<>())
+                                        : e));
+                    })
+                    .retry((count, e) -> count <= deadlines.getMaxReissues() && e instanceof StreamTimeoutException
+                            && ((StreamTimeoutException) e).getKind() == StreamTimeoutException.Kind.FIRST_CHUNK);
+
+            if (deadlines.getChunkGapTimeout() != null) {
+                chunks = chunks.timeout(Flowable.<Long>never(), chunk -> timer(deadlines.getChunkGapTimeout(), deadlines));
+            }
+            chunks = chunks.doOnNext(received::add)
+                    .onErrorResumeNext((Throwable e) -> {
+                        if (!(e instanceof TimeoutException)) {
+                            return Flowable.error(e);
+                        }
+                        if (deadlines.isCompleteOnStall()) {
+                            return Flowable.empty();
+                        }
+                        return Flowable.error(new StreamTimeoutException(StreamTimeoutException.Kind.CHUNK_GAP, new ArrayList<>(received)));
+                    });
+            if (deadlines.getTotalTimeout() != null) {
+                chunks = chunks.takeUntil(timer(deadlines.getTotalTimeout(), deadlines).doOnNext(tick -> totalExpired.set(true)))
+                        .concatWith(Flowable.defer(() -> totalExpired.get()
+                                ? Flowable.<ChatCompletionChunk>error(new StreamTimeoutException(StreamTimeoutException.Kind.TOTAL, new ArrayList<>(received)))
+                                : Flowable.<ChatCompletionChunk>empty()));
+            }
+            return chunks;
+        });
+    }
+
+    private static Flowable<Long> timer(Duration duration, StreamDeadlines deadlines) {
+        return Flowable.timer(duration.toNanos(), TimeUnit.NANOSECONDS, deadlines.getScheduler());
+    }
+
+    private static Flowable<ChatCompletionChunk> streamChatCompletion(OpenAiApi api, ChatCompletionRequest request) {
         return stream(api.createChatCompletionStream(request), ChatCompletionChunk.class, new BiConsumer<ChatCompletionChunk, SSE>() {
             @Override
             public void accept(ChatCompletionChunk chatCompletionChunk, SSE sse) {
@@ -211,6 +340,29 @@ public class OpenAiService {
         return execute(api.createEmbeddings(request));
     }
 
+    /**
+     * Creates embeddings decoded into float[] rather than lists of Double.
+     * Vectors are requested base64 encoded, a quarter of the json size, unless the request sets an encoding format.
+     */
+    public FloatEmbeddingResult createFloatEmbeddings(EmbeddingRequest request) {
+        return execute(api.createFloatEmbeddings(withBase64Default(request)));
+    }
+
+    /**
+     * Emits the embeddings of the response as they are parsed from the body, see {@link EmbeddingStreamReader}.
+     * The request is sent on subscribe and the body is read on demand from the subscribing thread.
+     */
+    public Flowable<FloatEmbedding> streamEmbeddings(EmbeddingRequest request) {
+        return Flowable.defer(() -> streamEmbeddings(api.createEmbeddingsStream(withBase64Default(request))));
+    }
+
+    private static EmbeddingRequest withBase64Default(EmbeddingRequest request) {
+        if (request.getEncodingFormat() != null) {
+            return request;
+        }
+        return new EmbeddingRequest(request.getModel(), request.getInput(), "base64", request.getDimensions(), request.getUser());
+    }
+
     public List<File> listFiles() {
         return execute(api.listFiles()).data;
     }
@@ -232,6 +384,33 @@ public class OpenAiService {
         return execute(api.retrieveFileContent(fileId));
     }
 
+    /**
+     * Requests the content of a file from the given offset, see {@link FileDownloader} to save it.
+     * The response is 206 when the server honoured the range and 200 when it sends the whole file; it is returned
+     * whatever its status, its body must be closed.
+     */
+    public Response<ResponseBody> retrieveFileContent(String fileId, long offset) {
+        return api.retrieveFileContent(fileId, "bytes=" + offset + "-").blockingGet();
+    }
+
+    /**
+     * Emits the lines of a batch output or error file as they are parsed from the body, see {@link BatchOutputReader}.
+     * The file is requested on subscribe and the body is read on demand from the subscribing thread.
+     *
+     * @param bodyType type of the response bodies, e.g. ChatCompletionResult.class
+     */
+    public <T> Flowable<BatchResult<T>> streamBatchResults(String fileId, Class<T> bodyType) {
+        return Flowable.generate(() -> new BatchOutputReader<>(retrieveFileContent(fileId).byteStream(), bodyType),
+                (BatchOutputReader<T> reader, Emitter<BatchResult<T>> emitter) -> {
+                    BatchResult<T> result = reader.next();
+                    if (result != null) {
+                        emitter.onNext(result);
+                    } else {
+                        emitter.onComplete();
+                    }
+                }, BatchOutputReader::close);
+    }
+
     public FineTuningJob createFineTuningJob(FineTuningJobRequest request) {
         return execute(api.createFineTuningJob(request));
     }
@@ -289,6 +468,28 @@ public class OpenAiService {
         return execute(api.uploadFile(purposeBody, body));
     }
 
+    /**
+     * Starts an upload of a file in parts, see {@link MultipartUploader} to upload a large file in parallel
+     */
+    public Upload createUpload(UploadRequest request) {
+        return execute(api.createUpload(request));
+    }
+
+    /**
+     * Adds a part of at most 64 MB to an upload, the body is written to the connection as it is sent
+     */
+    public UploadPart addUploadPart(String uploadId, RequestBody data) {
+        return execute(api.addUploadPart(uploadId, MultipartBody.Part.createFormData("data", "part", data)));
+    }
+
+    public Upload completeUpload(String uploadId, CompleteUploadRequest request) {
+        return execute(api.completeUpload(uploadId, request));
+    }
+
+    public Upload cancelUpload(String uploadId) {
+        return execute(api.cancelUpload(uploadId));
+    }
+
 
     public Batch createBatch(BatchRequest request) {
         return execute(api.createBatch(request));
@@ -298,6 +499,33 @@ public class OpenAiService {
         return execute(api.retrieveBatch(batchId));
     }
 
+    /**
+     * Executes the call on subscribe and emits its embeddings one by one, honouring backpressure: the body is only
+     * read as far as the subscriber has requested. Cancelling closes the body.
+     *
+     * @param apiCall The api call
+     */
+    public static Flowable<FloatEmbedding> streamEmbeddings(Call<ResponseBody> apiCall) {
+        return Flowable.generate(() -> {
+            Response<ResponseBody> response = apiCall.execute();
+            if (!response.isSuccessful()) {
+                HttpException e = new HttpException(response);
+                if (response.errorBody() == null) {
+                    throw e;
+                }
+                throw new OpenAiHttpException(mapper.readValue(response.errorBody().string(), OpenAiError.class), e, e.code());
+            }
+            return new EmbeddingStreamReader(response.body().byteStream());
+        }, (EmbeddingStreamReader reader, Emitter<FloatEmbedding> emitter) -> {
+            FloatEmbedding embedding = reader.next();
+            if (embedding != null) {
+                emitter.onNext(embedding);
+            } else {
+                emitter.onComplete();
+            }
+        }, EmbeddingStreamReader::close);
+    }
+
     public static Flowable<AssistantSSE> assistantStream(Call<ResponseBody> apiCall) {
         return Flowable.create(emitter -> apiCall.enqueue(new AssistantResponseBodyCallback(emitter)), BackpressureStrategy.BUFFER);
     }
@@ -691,7 +919,10 @@ public class OpenAiService {
      * @param emitDone If true the last message ([DONE]) is emitted
      */
     public static Flowable<SSE> stream(Call<ResponseBody> apiCall, boolean emitDone) {
-        return Flowable.create(emitter -> apiCall.enqueue(new ResponseBodyCallback(emitter, emitDone)), BackpressureStrategy.BUFFER);
+        return Flowable.create(emitter -> {
+            emitter.setCancellable(apiCall::cancel);
+            apiCall.enqueue(new ResponseBodyCallback(emitter, emitDone));
+        }, BackpressureStrategy.BUFFER);
     }
 
     /**
@@ -0,0 +1,62 @@
+package com.theokanning.openai.service;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Per-call options, see {@link OpenAiService#withOptions(RequestOptions)}
+ * <p>
+ * A call gets the smallest of its timeout and the time left until the deadline. These bound the call on top of the
+ * http client's own timeouts: to give a single endpoint more time than the client's read timeout, build the service
+ * with a large (or zero) read timeout and shorten the other calls here.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class RequestOptions {
+
+    /**
+     * Timeout of every call, from the moment it is sent. Null means no per-call timeout.
+     */
+    private final Duration timeout;
+
+    /**
+     * Timeouts of specific {@link com.theokanning.openai.client.OpenAiApi} methods, overriding {@link #timeout},
+     * e.g. {@code methodTimeout("createTranscription", Duration.ofMinutes(10))}
+     */
+    @Singular
+    private final Map<String, Duration> methodTimeouts;
+
+    /**
+     * Absolute deadline shared by all calls. Calls sent after it are rejected without reaching the network.
+     */
+    private final Instant deadline;
+
+    /**
+     * Scheduler of the timeout timers
+     */
+    @Builder.Default
+    private final Scheduler scheduler = Schedulers.computation();
+
+    /**
+     * @param method the api method name
+     * @return the time left for a call to the method sent now in nanos, or {@link Long#MAX_VALUE} if it is unbounded
+     */
+    long remainingNanos(String method) {
+        long remaining = Long.MAX_VALUE;
+        Duration timeout = methodTimeouts.getOrDefault(method, this.timeout);
+        if (timeout != null) {
+            remaining = timeout.toNanos();
+        }
+        if (deadline != null) {
+            remaining = Math.min(remaining, Duration.between(Instant.now(), deadline).toNanos());
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,60 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.client.OpenAiApi;
+import io.reactivex.Single;
+import retrofit2.Call;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Applies {@link RequestOptions} to every call of an api.
+ * <p>
+ * Calls returning a {@link Single} are bounded with {@link Single#timeout}, which disposes and so cancels the http call.
+ * Streaming calls get the time as their OkHttp call timeout, which spans the whole response body.
+ * A call with no time left fails before being sent.
+ */
+public class RequestOptionsApiDecorator extends OpenAiApiDecorator {
+
+    private final RequestOptions options;
+
+    public RequestOptionsApiDecorator(OpenAiApi delegate, RequestOptions options) {
+        super(delegate);
+        this.options = options;
+    }
+
+    @Override
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        return Single.defer(() -> {
+            long remaining = options.remainingNanos(method.getName());
+            if (remaining == Long.MAX_VALUE) {
+                return single;
+            }
+            if (remaining <= 0) {
+                return Single.error(rejected(method));
+            }
+            return single.timeout(remaining, TimeUnit.NANOSECONDS, options.getScheduler())
+                    .onErrorResumeNext(e -> Single.error(e instanceof TimeoutException
+                            ? new DeadlineExceededException(method.getName() + " did not complete within " + TimeUnit.NANOSECONDS.toMillis(remaining) + "ms")
+                            : e));
+        });
+    }
+
+    @Override
+    protected <T> Call<T> decorateCall(Method method, Object[] args, Call<T> call) {
+        long remaining = options.remainingNanos(method.getName());
+        if (remaining == Long.MAX_VALUE) {
+            return call;
+        }
+        if (remaining <= 0) {
+            throw rejected(method);
+        }
+        call.timeout().timeout(remaining, TimeUnit.NANOSECONDS);
+        return call;
+    }
+
+    private static DeadlineExceededException rejected(Method method) {
+        return new DeadlineExceededException(method.getName() + " rejected, its deadline has already passed");
+    }
+}
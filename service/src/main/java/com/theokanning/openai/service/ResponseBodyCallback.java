@@ -93,6 +93,10 @@ public class ResponseBodyCallback implements Callback<ResponseBody> {
 
     @Override
     public void onFailure(Call<ResponseBody> call, Throwable t) {
+        if (emitter.isCancelled()) {
+            // the subscriber went away and cancelled the call, nobody is left to notify
+            return;
+        }
         emitter.onError(t);
     }
 }
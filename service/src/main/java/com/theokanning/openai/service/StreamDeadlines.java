@@ -0,0 +1,63 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.client.OpenAiApi;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Per-call deadlines of a streaming chat completion, see {@link OpenAiService#streamChatCompletion(com.theokanning.openai.completion.chat.ChatCompletionRequest, StreamDeadlines)}
+ * <p>
+ * Every deadline is optional, a null value disables it.
+ */
+@Getter
+@Builder
+public class StreamDeadlines {
+
+    /**
+     * Maximum time until the first chunk. When it expires the call is cancelled and re-issued,
+     * at most {@link #maxReissues} times.
+     */
+    private final Duration firstChunkTimeout;
+
+    /**
+     * Maximum time between two chunks. When it expires the stream fails with a {@link StreamTimeoutException}
+     * holding the chunks received so far, or completes if {@link #completeOnStall} is set.
+     */
+    private final Duration chunkGapTimeout;
+
+    /**
+     * Maximum duration of the whole stream, re-issues included.
+     */
+    private final Duration totalTimeout;
+
+    /**
+     * How many times the call is re-issued after a first chunk timeout.
+     */
+    @Builder.Default
+    private final int maxReissues = 1;
+
+    /**
+     * Apis the call is re-issued to, in turn with the service's own api.
+     * Empty means re-issues go to the same endpoint.
+     */
+    @Singular
+    private final List<OpenAiApi> alternates;
+
+    /**
+     * Complete the stream normally instead of failing when it stalls after the first chunk.
+     */
+    @Builder.Default
+    private final boolean completeOnStall = false;
+
+    /**
+     * Scheduler of the deadline timers
+     */
+    @Builder.Default
+    private final Scheduler scheduler = Schedulers.computation();
+}
@@ -0,0 +1,65 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.completion.chat.ChatCompletionChoice;
+import com.theokanning.openai.completion.chat.ChatCompletionChunk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A streaming call exceeded one of its {@link StreamDeadlines}.
+ * The chunks received before the deadline are kept so the partial result is not lost.
+ */
+public class StreamTimeoutException extends RuntimeException {
+
+    public enum Kind {
+        /**
+         * no chunk arrived within {@link StreamDeadlines#getFirstChunkTimeout()}, after all re-issues
+         */
+        FIRST_CHUNK,
+        /**
+         * the stream stalled for longer than {@link StreamDeadlines#getChunkGapTimeout()}
+         */
+        CHUNK_GAP,
+        /**
+         * the stream did not finish within {@link StreamDeadlines#getTotalTimeout()}
+         */
+        TOTAL
+    }
+
+    private final Kind kind;
+
+    private final List<ChatCompletionChunk> partialChunks;
+
+    public StreamTimeoutException(Kind kind, List<ChatCompletionChunk> partialChunks) {
+        super("Stream deadline exceeded: " + kind + " after " + partialChunks.size() + " chunks");
+        this.kind = kind;
+        this.partialChunks = Collections.unmodifiableList(partialChunks);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the chunks received before the deadline expired
+     */
+    public List<ChatCompletionChunk> getPartialChunks() {
+        return partialChunks;
+    }
+
+    /**
+     * @return the content of the first choice accumulated from {@link #getPartialChunks()}
+     */
+    public String getPartialContent() {
+        StringBuilder content = new StringBuilder();
+        for (ChatCompletionChunk chunk : partialChunks) {
+            List<ChatCompletionChoice> choices = chunk.getChoices();
+            if (choices != null && !choices.isEmpty() && choices.get(0).getMessage() != null
+                    && choices.get(0).getMessage().getContent() != null) {
+                content.append(choices.get(0).getMessage().getContent());
+            }
+        }
+        return content.toString();
+    }
+}
@@ -0,0 +1,42 @@
+package com.theokanning.openai.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Budget of units per minute, e.g. tokens or requests, refilled continuously, that lets a minute worth of units
+ * through at once. Callers block in {@link #acquire(long)} until their units are available.
+ */
+public final class TokenBucket {
+    private final double capacity;
+    private final double perNano;
+    private double available;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long perMinute) {
+        if (perMinute <= 0) {
+            throw new IllegalArgumentException("perMinute must be positive");
+        }
+        this.capacity = perMinute;
+        this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.available = capacity;
+    }
+
+    /**
+     * Takes the units, or a minute worth of them if more, waiting for them to be refilled if needed
+     */
+    public synchronized void acquire(long units) throws InterruptedException {
+        double wanted = Math.min(units, capacity);
+        refill();
+        while (available < wanted) {
+            TimeUnit.NANOSECONDS.sleep((long) Math.ceil((wanted - available) / perNano));
+            refill();
+        }
+        available -= wanted;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) * perNano);
+        refilledAt = now;
+    }
+}
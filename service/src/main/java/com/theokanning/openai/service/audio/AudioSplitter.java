@@ -0,0 +1,214 @@
+package com.theokanning.openai.service.audio;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds where to cut PCM audio and writes the segments as WAV files, both streaming: only the loudness of each
+ * 10 ms window is kept in memory, about 1.4 MB for an hour.
+ */
+final class AudioSplitter {
+
+    static final int WINDOW_MILLIS = 10;
+
+    private AudioSplitter() {
+    }
+
+    /**
+     * @return in when it is PCM, a converting stream otherwise
+     * @throws IllegalArgumentException when the encoding can not be converted to PCM
+     */
+    static AudioInputStream pcm(AudioInputStream in) {
+        AudioFormat.Encoding encoding = in.getFormat().getEncoding();
+        if (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding)) {
+            return in;
+        }
+        return AudioSystem.getAudioInputStream(AudioFormat.Encoding.PCM_SIGNED, in);
+    }
+
+    /**
+     * Reads the whole stream and measures the mean square of the samples of each window
+     */
+    static Analysis analyse(AudioInputStream in) throws IOException {
+        AudioFormat format = in.getFormat();
+        int frameSize = format.getFrameSize();
+        int windowFrames = Math.max(1, Math.round(format.getFrameRate() * WINDOW_MILLIS / 1000));
+        int bytesPerSample = (format.getSampleSizeInBits() + 7) / 8;
+        boolean signed = AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding());
+        byte[] buffer = new byte[windowFrames * frameSize];
+        float[] loudness = new float[1024];
+        int windows = 0;
+        long frames = 0;
+        int read;
+        while ((read = readFully(in, buffer)) > 0) {
+            int bytes = read - read % frameSize;
+            double sum = 0;
+            int samples = 0;
+            for (int i = 0; i + bytesPerSample <= bytes; i += bytesPerSample) {
+                double sample = sample(buffer, i, bytesPerSample, signed, format.isBigEndian());
+                sum += sample * sample;
+                samples++;
+            }
+            if (windows == loudness.length) {
+                loudness = Arrays.copyOf(loudness, windows * 2);
+            }
+            loudness[windows++] = samples > 0 ? (float) (sum / samples) : 0;
+            frames += bytes / frameSize;
+        }
+        return new Analysis(format, Arrays.copyOf(loudness, windows), windowFrames, frames);
+    }
+
+    /**
+     * Cuts the audio at the quietest stretch between the minimum and the maximum segment duration
+     */
+    static List<Segment> plan(Analysis analysis, LongAudioConfig config) {
+        float[] loudness = analysis.loudness;
+        int maxWindows = (int) Math.max(1, config.getMaxSegmentDuration().toMillis() / WINDOW_MILLIS);
+        int minWindows = (int) Math.min(maxWindows, Math.max(1, config.getMinSegmentDuration().toMillis() / WINDOW_MILLIS));
+        int smooth = (int) Math.max(1, config.getSilenceWindow().toMillis() / WINDOW_MILLIS);
+        double[] prefix = new double[loudness.length + 1];
+        for (int i = 0; i < loudness.length; i++) {
+            prefix[i + 1] = prefix[i] + loudness[i];
+        }
+        List<Long> cuts = new ArrayList<>();
+        cuts.add(0L);
+        int start = 0;
+        while (loudness.length - start > maxWindows) {
+            // the middle of the longest run of cuts about as quiet as the quietest, away from the speech around it
+            double quietest = Double.MAX_VALUE;
+            int runStart = start + minWindows;
+            int runLength = 0;
+            int bestStart = runStart;
+            int bestLength = 0;
+            for (int cut = start + minWindows; cut <= start + maxWindows; cut++) {
+                int from = Math.max(0, cut - smooth / 2);
+                int to = Math.min(loudness.length, from + smooth);
+                double mean = (prefix[to] - prefix[from]) / Math.max(1, to - from);
+                double tolerance = quietest * 0.05 + 1e-12;
+                if (mean < quietest - tolerance) {
+                    quietest = mean;
+                    runStart = cut;
+                    runLength = 1;
+                    bestStart = cut;
+                    bestLength = 1;
+                } else if (mean <= quietest + tolerance) {
+                    if (cut == runStart + runLength) {
+                        runLength++;
+                    } else {
+                        runStart = cut;
+                        runLength = 1;
+                    }
+                    if (runLength > bestLength) {
+                        bestStart = runStart;
+                        bestLength = runLength;
+                    }
+                }
+            }
+            int best = bestStart + bestLength / 2;
+            cuts.add((long) best * analysis.windowFrames);
+            start = best;
+        }
+        cuts.add(analysis.frames);
+        long overlap = (long) (config.getOverlap().toMillis() * (double) analysis.format.getFrameRate() / 1000);
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            long keepFrom = cuts.get(i);
+            long keepUntil = cuts.get(i + 1);
+            segments.add(new Segment(i, Math.max(0, keepFrom - overlap), Math.min(analysis.frames, keepUntil + overlap),
+                    keepFrom, keepUntil, i == cuts.size() - 2));
+        }
+        return segments;
+    }
+
+    /**
+     * Writes the frames of a segment read from in, positioned at the start of the audio, to a WAV file
+     */
+    static void write(AudioInputStream in, Segment segment, Path file) throws IOException {
+        AudioFormat format = in.getFormat();
+        long skip = segment.fromFrame * format.getFrameSize();
+        while (skip > 0) {
+            long skipped = in.skip(skip);
+            if (skipped <= 0) {
+                if (in.read(new byte[format.getFrameSize()]) <= 0) {
+                    throw new IOException("audio ended before frame " + segment.fromFrame);
+                }
+                skipped = format.getFrameSize();
+            }
+            skip -= skipped;
+        }
+        AudioSystem.write(new AudioInputStream(in, format, segment.toFrame - segment.fromFrame), AudioFileFormat.Type.WAVE,
+                file.toFile());
+    }
+
+    private static int readFully(AudioInputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * @return the sample at offset, between -1 and 1
+     */
+    private static double sample(byte[] buffer, int offset, int bytes, boolean signed, boolean bigEndian) {
+        long value = 0;
+        for (int b = 0; b < bytes; b++) {
+            value = (value << 8) | (buffer[bigEndian ? offset + b : offset + bytes - 1 - b] & 0xff);
+        }
+        int bits = bytes * 8;
+        if (signed) {
+            value = (value << (64 - bits)) >> (64 - bits);
+        } else {
+            value -= 1L << (bits - 1);
+        }
+        return value / (double) (1L << (bits - 1));
+    }
+
+    static final class Analysis {
+        final AudioFormat format;
+        final float[] loudness;
+        final int windowFrames;
+        final long frames;
+
+        Analysis(AudioFormat format, float[] loudness, int windowFrames, long frames) {
+            this.format = format;
+            this.loudness = loudness;
+            this.windowFrames = windowFrames;
+            this.frames = frames;
+        }
+    }
+
+    /**
+     * Audio sent for one request, from fromFrame to toFrame, of which only the transcription starting between
+     * keepFrom and keepUntil is kept
+     */
+    static final class Segment {
+        final int index;
+        final long fromFrame;
+        final long toFrame;
+        final long keepFrom;
+        final long keepUntil;
+        final boolean last;
+
+        Segment(int index, long fromFrame, long toFrame, long keepFrom, long keepUntil, boolean last) {
+            this.index = index;
+            this.fromFrame = fromFrame;
+            this.toFrame = toFrame;
+            this.keepFrom = keepFrom;
+            this.keepUntil = keepUntil;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.theokanning.openai.service.audio;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link ChatSpeechPipeline}
+ */
+@Getter
+@Builder
+public class ChatSpeechConfig {
+
+    @Builder.Default
+    private final String speechModel = "tts-1";
+
+    @Builder.Default
+    private final String voice = "alloy";
+
+    /**
+     * One of mp3, aac, opus and pcm, whose audio can be concatenated
+     */
+    @Builder.Default
+    private final String responseFormat = "mp3";
+
+    /**
+     * From 0.25 to 4.0, null for the default speed
+     */
+    private final Double speed;
+
+    /**
+     * Shortest text sent at the end of a sentence; a shorter sentence is spoken with the next one
+     */
+    @Builder.Default
+    private final int minSentenceCharacters = 20;
+
+    /**
+     * Shortest text sent at the end of a clause, after a comma, semicolon, colon or dash
+     */
+    @Builder.Default
+    private final int minClauseCharacters = 80;
+
+    /**
+     * Longest text sent in one request, cut at a space when the reply has no boundary before
+     */
+    @Builder.Default
+    private final int maxSegmentCharacters = 4096;
+
+    /**
+     * Segments synthesized at once
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 3;
+
+    /**
+     * Sends of a segment, the first included, while it fails with 408, 429, 5xx or an io error
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Wait before the second attempt of a segment, doubled at each retry
+     */
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * Longest wait between two attempts of a segment
+     */
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofSeconds(30);
+}
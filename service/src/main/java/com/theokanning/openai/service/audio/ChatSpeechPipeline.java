@@ -0,0 +1,167 @@
+package com.theokanning.openai.service.audio;
+
+import com.theokanning.openai.audio.CreateSpeechRequest;
+import com.theokanning.openai.completion.chat.AssistantMessage;
+import com.theokanning.openai.completion.chat.ChatCompletionChunk;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.disposables.Disposable;
+import okio.Buffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Speaks a chat reply while it is being generated: the streamed text is cut into sentences, or clauses when they
+ * are long, and each one is sent to createSpeech as soon as it is complete rather than after the whole reply.
+ * <pre>{@code
+ * ChatSpeechStats stats = new ChatSpeechPipeline(service, ChatSpeechConfig.builder().voice("nova").build())
+ *         .speak(chatRequest, audioLine);
+ * log.info("first audio after {}", stats.getTimeToFirstAudio());
+ * }</pre>
+ * Up to {@link ChatSpeechConfig#getMaxConcurrentRequests()} segments are synthesized or waiting to be written at
+ * once, and their audio is written in order to the {@link OutputStream}, flushed after each segment, while the
+ * reply keeps streaming; past that, reading the reply waits for the output. The stats tell apart the time to the
+ * first token, to the first segment and to the first audio byte.
+ */
+public class ChatSpeechPipeline {
+
+    private static final List<String> CONCATENABLE_FORMATS = Arrays.asList("mp3", "aac", "opus", "pcm");
+
+    private final OpenAiService service;
+    private final ChatSpeechConfig config;
+
+    public ChatSpeechPipeline(OpenAiService service, ChatSpeechConfig config) {
+        if (config.getMaxConcurrentRequests() <= 0 || config.getMaxAttempts() <= 0 || config.getMaxSegmentCharacters() <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests, maxAttempts and maxSegmentCharacters must be positive");
+        }
+        if (!CONCATENABLE_FORMATS.contains(config.getResponseFormat())) {
+            throw new IllegalArgumentException("responseFormat must be one of " + CONCATENABLE_FORMATS + " to be concatenated");
+        }
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * Streams the reply to request and writes its speech to out, which is not closed; returns once all of it is
+     * written
+     */
+    public ChatSpeechStats speak(ChatCompletionRequest request, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        SpeechSegmenter segmenter = new SpeechSegmenter(config.getMinSentenceCharacters(), config.getMinClauseCharacters(),
+                config.getMaxSegmentCharacters());
+        // the audio of each segment in order, then a future of null at the end of the reply
+        BlockingQueue<Future<Buffer>> audio = new LinkedBlockingQueue<>();
+        // segments dispatched and not written yet
+        Semaphore held = new Semaphore(config.getMaxConcurrentRequests());
+        StringBuilder text = new StringBuilder();
+        AtomicLong firstToken = new AtomicLong(-1);
+        AtomicLong firstSegment = new AtomicLong(-1);
+        AtomicInteger segments = new AtomicInteger();
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(config.getMaxConcurrentRequests(), runnable -> {
+            Thread thread = new Thread(runnable, "openai-chat-speech-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Consumer<String> dispatcher = segment -> {
+            firstSegment.compareAndSet(-1, System.nanoTime() - start);
+            int index = segments.getAndIncrement();
+            CreateSpeechRequest speechRequest = CreateSpeechRequest.builder()
+                    .model(config.getSpeechModel())
+                    .voice(config.getVoice())
+                    .responseFormat(config.getResponseFormat())
+                    .speed(config.getSpeed())
+                    .input(segment)
+                    .build();
+            try {
+                held.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                audio.add(pool.submit(() -> LongSpeechSynthesizer.synthesize(service, speechRequest, index,
+                        config.getMaxAttempts(), config.getInitialBackoff(), config.getMaxBackoff())));
+            } catch (RejectedExecutionException e) {
+                // the caller stopped reading after a failure
+                held.release();
+            }
+        };
+        Disposable subscription = service.streamChatCompletion(request).subscribe(chunk -> {
+            String delta = content(chunk);
+            if (delta == null || delta.isEmpty()) {
+                return;
+            }
+            firstToken.compareAndSet(-1, System.nanoTime() - start);
+            text.append(delta);
+            segmenter.append(delta).forEach(dispatcher);
+        }, error -> {
+            CompletableFuture<Buffer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(error);
+            audio.add(failed);
+        }, () -> {
+            segmenter.finish().forEach(dispatcher);
+            audio.add(CompletableFuture.completedFuture(null));
+        });
+        long bytes = 0;
+        long firstAudio = -1;
+        try {
+            Buffer next;
+            while ((next = audio.take().get()) != null) {
+                bytes += next.size();
+                next.writeTo(out);
+                out.flush();
+                held.release();
+                if (firstAudio < 0) {
+                    firstAudio = System.nanoTime() - start;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while speaking", e);
+        } finally {
+            subscription.dispose();
+            pool.shutdownNow();
+            // lets a dispatch waiting for room find the pool shut down
+            held.release(config.getMaxConcurrentRequests());
+            for (Future<Buffer> future : audio) {
+                future.cancel(true);
+            }
+        }
+        return new ChatSpeechStats(text.toString(), segments.get(), bytes, duration(firstToken.get()),
+                duration(firstSegment.get()), duration(firstAudio), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private static String content(ChatCompletionChunk chunk) {
+        if (chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+            return null;
+        }
+        AssistantMessage message = chunk.getChoices().get(0).getMessage();
+        return message != null ? message.getContent() : null;
+    }
+
+    private static Duration duration(long nanos) {
+        return nanos >= 0 ? Duration.ofNanos(nanos) : null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.theokanning.openai.service.audio;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a {@link ChatSpeechPipeline} reply. The times are measured from the call, null when nothing arrived.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ChatSpeechStats {
+
+    /**
+     * Text of the reply, as spoken
+     */
+    private final String text;
+
+    /**
+     * Speech requests the reply was split into
+     */
+    private final int segments;
+
+    /**
+     * Audio bytes written
+     */
+    private final long bytes;
+
+    /**
+     * Until the first text of the reply
+     */
+    private final Duration timeToFirstToken;
+
+    /**
+     * Until the first segment was complete and sent to createSpeech
+     */
+    private final Duration timeToFirstSegment;
+
+    /**
+     * Until the first audio bytes were written, what a listener waits before playback starts
+     */
+    private final Duration timeToFirstAudio;
+
+    private final Duration elapsed;
+}
@@ -0,0 +1,69 @@
+package com.theokanning.openai.service.audio;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link LongAudioTranscriber}
+ */
+@Getter
+@Builder
+public class LongAudioConfig {
+
+    /**
+     * Longest segment sent in one request, overlap excluded. Keep it under the upload limit: 10 minutes of
+     * 16 kHz 16 bit mono WAV are about 19 MB.
+     */
+    @Builder.Default
+    private final Duration maxSegmentDuration = Duration.ofMinutes(10);
+
+    /**
+     * Shortest segment but the last one: the cut is made at the quietest stretch between the minimum and the maximum
+     */
+    @Builder.Default
+    private final Duration minSegmentDuration = Duration.ofMinutes(5);
+
+    /**
+     * Length of the stretch whose loudness is averaged to find the quietest cut
+     */
+    @Builder.Default
+    private final Duration silenceWindow = Duration.ofMillis(300);
+
+    /**
+     * Audio added on each side of a cut, so a word cut in one segment is whole in the other
+     */
+    @Builder.Default
+    private final Duration overlap = Duration.ofSeconds(2);
+
+    /**
+     * Segments transcribed at once
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 4;
+
+    /**
+     * Sends of a segment, the first included, while it fails with 408, 429, 5xx or an io error
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Wait before the second attempt of a segment, doubled at each retry
+     */
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * Longest wait between two attempts of a segment
+     */
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofSeconds(30);
+
+    /**
+     * Directory of the segment files, null for the default temporary directory
+     */
+    private final Path tempDirectory;
+}
@@ -0,0 +1,267 @@
+package com.theokanning.openai.service.audio;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.audio.CreateTranscriptionRequest;
+import com.theokanning.openai.audio.TranscriptionResult;
+import com.theokanning.openai.audio.TranscriptionSegment;
+import com.theokanning.openai.audio.Words;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+import retrofit2.HttpException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transcribes recordings longer than a single request allows: the audio is cut at its quiet stretches, the
+ * segments are transcribed in parallel and their results stitched into one {@link TranscriptionResult}.
+ * <pre>{@code
+ * TranscriptionResult result = new LongAudioTranscriber(service, LongAudioConfig.builder().build())
+ *         .transcribe(CreateTranscriptionRequest.builder().model("whisper-1").build(), Paths.get("meeting.wav"));
+ * }</pre>
+ * Input is WAV, or any format javax.sound reads and converts to PCM, or raw PCM of a given format. Each segment is
+ * streamed from the source to a temporary WAV file, deleted once transcribed.
+ * <p>
+ * Segments overlap by {@link LongAudioConfig#getOverlap()} on each side of a cut. With timestamps, the default
+ * verbose_json format, segments and words are moved to the time of the whole recording and each one is kept from
+ * the request in which it starts on the right side of the cut, which drops the copies from the overlaps. Without
+ * them, the words repeated at the junction of two texts are dropped.
+ */
+@Slf4j
+public class LongAudioTranscriber {
+
+    private static final int MAX_TEXT_OVERLAP_WORDS = 30;
+
+    private final OpenAiService service;
+    private final LongAudioConfig config;
+
+    public LongAudioTranscriber(OpenAiService service, LongAudioConfig config) {
+        if (config.getMaxConcurrentRequests() <= 0 || config.getMaxAttempts() <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests and maxAttempts must be positive");
+        }
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * @param request response_format must be json or verbose_json, verbose_json when null
+     * @param audio   WAV file, or another format javax.sound can read
+     */
+    public TranscriptionResult transcribe(CreateTranscriptionRequest request, Path audio) throws IOException {
+        return transcribe(request, () -> {
+            try {
+                return AudioSplitter.pcm(AudioSystem.getAudioInputStream(new BufferedInputStream(Files.newInputStream(audio))));
+            } catch (UnsupportedAudioFileException e) {
+                throw new IllegalArgumentException("unsupported audio file " + audio, e);
+            }
+        });
+    }
+
+    /**
+     * @param pcm    headerless PCM samples
+     * @param format encoding, rate, sample size, channels and byte order of the samples
+     */
+    public TranscriptionResult transcribe(CreateTranscriptionRequest request, Path pcm, AudioFormat format) throws IOException {
+        long frames = Files.size(pcm) / format.getFrameSize();
+        return transcribe(request, () -> AudioSplitter.pcm(
+                new AudioInputStream(new BufferedInputStream(Files.newInputStream(pcm)), format, frames)));
+    }
+
+    private TranscriptionResult transcribe(CreateTranscriptionRequest request, AudioSource source) throws IOException {
+        String responseFormat = request.getResponseFormat() != null ? request.getResponseFormat() : "verbose_json";
+        if (!responseFormat.equals("json") && !responseFormat.equals("verbose_json")) {
+            throw new IllegalArgumentException("response_format must be json or verbose_json to be stitched");
+        }
+        CreateTranscriptionRequest segmentRequest = CreateTranscriptionRequest.builder()
+                .model(request.getModel())
+                .prompt(request.getPrompt())
+                .responseFormat(responseFormat)
+                .temperature(request.getTemperature())
+                .language(request.getLanguage())
+                .timestampGranularities(request.getTimestampGranularities())
+                .build();
+        AudioSplitter.Analysis analysis;
+        try (AudioInputStream in = source.open()) {
+            analysis = AudioSplitter.analyse(in);
+        }
+        List<AudioSplitter.Segment> segments = AudioSplitter.plan(analysis, config);
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(segments.size(), config.getMaxConcurrentRequests()), runnable -> {
+            Thread thread = new Thread(runnable, "openai-transcription-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<TranscriptionResult>> futures = new ArrayList<>();
+            for (AudioSplitter.Segment segment : segments) {
+                futures.add(pool.submit(() -> transcribe(segmentRequest, source, segment)));
+            }
+            List<TranscriptionResult> results = new ArrayList<>();
+            for (Future<TranscriptionResult> future : futures) {
+                results.add(future.get());
+            }
+            return merge(segments, results, analysis.format.getFrameRate(), analysis.frames);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while transcribing", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private TranscriptionResult transcribe(CreateTranscriptionRequest request, AudioSource source,
+                                           AudioSplitter.Segment segment) throws IOException, InterruptedException {
+        Path file = config.getTempDirectory() != null
+                ? Files.createTempFile(config.getTempDirectory(), "segment-" + segment.index + "-", ".wav")
+                : Files.createTempFile("segment-" + segment.index + "-", ".wav");
+        try {
+            try (AudioInputStream in = source.open()) {
+                AudioSplitter.write(in, segment, file);
+            }
+            long backoff = config.getInitialBackoff().toMillis();
+            for (int attempt = 1; ; attempt++) {
+                boolean retriable;
+                RuntimeException failure;
+                try {
+                    return service.createTranscription(request, file.toFile());
+                } catch (OpenAiHttpException e) {
+                    failure = e;
+                    retriable = isRetriable(e.statusCode);
+                } catch (HttpException e) {
+                    failure = e;
+                    retriable = isRetriable(e.code());
+                } catch (RuntimeException e) {
+                    failure = e;
+                    retriable = true;
+                }
+                if (!retriable || attempt >= config.getMaxAttempts()) {
+                    throw failure;
+                }
+                log.warn("transcription of segment {} failed, retrying", segment.index, failure);
+                TimeUnit.MILLISECONDS.sleep(backoff);
+                backoff = Math.min(backoff * 2, config.getMaxBackoff().toMillis());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    static TranscriptionResult merge(List<AudioSplitter.Segment> segments, List<TranscriptionResult> results,
+                                     float frameRate, long frames) {
+        TranscriptionResult merged = new TranscriptionResult();
+        boolean timed = results.stream().allMatch(result -> result.getSegments() != null);
+        boolean withWords = results.stream().allMatch(result -> result.getWords() != null);
+        List<TranscriptionSegment> mergedSegments = new ArrayList<>();
+        List<Words> mergedWords = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            AudioSplitter.Segment segment = segments.get(i);
+            TranscriptionResult result = results.get(i);
+            double offset = segment.fromFrame / frameRate;
+            double keepFrom = segment.keepFrom / frameRate;
+            double keepUntil = segment.keepUntil / frameRate;
+            if (merged.getLanguage() == null) {
+                merged.setLanguage(result.getLanguage());
+            }
+            if (merged.getTask() == null) {
+                merged.setTask(result.getTask());
+            }
+            if (timed) {
+                for (TranscriptionSegment part : result.getSegments()) {
+                    if (part.getStart() != null && keeps(segment, offset + part.getStart(), keepFrom, keepUntil)) {
+                        part.setStart(offset + part.getStart());
+                        part.setEnd(part.getEnd() != null ? offset + part.getEnd() : null);
+                        part.setId(mergedSegments.size());
+                        mergedSegments.add(part);
+                        append(text, part.getText(), false);
+                    }
+                }
+            } else {
+                append(text, result.getText(), i > 0);
+            }
+            if (withWords) {
+                for (Words word : result.getWords()) {
+                    if (word.getStart() != null && keeps(segment, offset + word.getStart(), keepFrom, keepUntil)) {
+                        word.setStart(offset + word.getStart());
+                        word.setEnd(word.getEnd() != null ? offset + word.getEnd() : null);
+                        mergedWords.add(word);
+                    }
+                }
+            }
+        }
+        merged.setText(text.toString());
+        merged.setDuration(frames / (double) frameRate);
+        merged.setSegments(timed ? mergedSegments : null);
+        merged.setWords(withWords ? mergedWords : null);
+        return merged;
+    }
+
+    private static boolean keeps(AudioSplitter.Segment segment, double start, double keepFrom, double keepUntil) {
+        return (segment.index == 0 || start >= keepFrom) && (segment.last || start < keepUntil);
+    }
+
+    /**
+     * Appends next to text, dropping its first words when they repeat the last ones of text
+     */
+    private static void append(StringBuilder text, String next, boolean overlapping) {
+        if (next == null || next.trim().isEmpty()) {
+            return;
+        }
+        String[] words = next.trim().split("\\s+");
+        int skip = 0;
+        if (overlapping && text.length() > 0) {
+            String[] previous = text.toString().split("\\s+");
+            for (int k = Math.min(MAX_TEXT_OVERLAP_WORDS, Math.min(previous.length, words.length)); k > 0; k--) {
+                boolean same = true;
+                for (int j = 0; j < k && same; j++) {
+                    same = normalize(previous[previous.length - k + j]).equals(normalize(words[j]));
+                }
+                if (same) {
+                    skip = k;
+                    break;
+                }
+            }
+        }
+        for (int i = skip; i < words.length; i++) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(words[i]);
+        }
+    }
+
+    private static String normalize(String word) {
+        return word.replaceAll("[\\p{Punct}]", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isRetriable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Opens the audio from its start, as PCM
+     */
+    private interface AudioSource {
+        AudioInputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,58 @@
+package com.theokanning.openai.service.audio;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Configuration of a {@link LongSpeechSynthesizer}
+ */
+@Getter
+@Builder
+public class LongSpeechConfig {
+
+    /**
+     * Longest text sent in one request, at most the 4096 characters createSpeech accepts
+     */
+    @Builder.Default
+    private final int maxSegmentCharacters = 4096;
+
+    /**
+     * Longest text of the first segment, kept short so its audio and the playback start early
+     */
+    @Builder.Default
+    private final int firstSegmentCharacters = 400;
+
+    /**
+     * Segments requested or waiting to be written at once, which bounds both the requests in flight and the audio
+     * held in memory
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 4;
+
+    /**
+     * Sends of a segment, the first included, while it fails with 408, 429, 5xx or an io error
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Wait before the second attempt of a segment, doubled at each retry
+     */
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * Longest wait between two attempts of a segment
+     */
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofSeconds(30);
+
+    /**
+     * Language of the text, for the sentence boundaries
+     */
+    @Builder.Default
+    private final Locale locale = Locale.ROOT;
+}
@@ -0,0 +1,223 @@
+package com.theokanning.openai.service.audio;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.audio.CreateSpeechRequest;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.BreakIterator;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads texts longer than the 4096 characters of a createSpeech request: the text is split at sentence boundaries,
+ * the segments are synthesized in parallel and their audio is written in order to an {@link OutputStream}.
+ * <pre>{@code
+ * try (OutputStream out = Files.newOutputStream(Paths.get("article.mp3"))) {
+ *     new LongSpeechSynthesizer(service, LongSpeechConfig.builder().build())
+ *             .synthesize(CreateSpeechRequest.builder().model("tts-1").voice("alloy").input(article).build(), out);
+ * }
+ * }</pre>
+ * Each segment is written and flushed as soon as it and all the segments before it are ready, so playback starts
+ * after the first segment, which is kept short, rather than after the whole text. At most
+ * {@link LongSpeechConfig#getMaxConcurrentRequests()} segments are requested or held in memory at once.
+ * <p>
+ * The audio of the segments is concatenated as is, which gives a playable stream for mp3, aac, opus and pcm but not
+ * for wav and flac, whose files have a header; those formats are rejected.
+ */
+@Slf4j
+public class LongSpeechSynthesizer {
+
+    private static final List<String> CONCATENABLE_FORMATS = Arrays.asList("mp3", "aac", "opus", "pcm");
+
+    private final OpenAiService service;
+    private final LongSpeechConfig config;
+
+    public LongSpeechSynthesizer(OpenAiService service, LongSpeechConfig config) {
+        if (config.getMaxConcurrentRequests() <= 0 || config.getMaxAttempts() <= 0
+                || config.getFirstSegmentCharacters() <= 0 || config.getMaxSegmentCharacters() <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests, maxAttempts and segment lengths must be positive");
+        }
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * @param request its input may be of any length; response_format must be mp3, aac, opus or pcm, mp3 when null
+     * @param out     receives the audio, flushed after each segment but not closed
+     */
+    public SpeechStats synthesize(CreateSpeechRequest request, OutputStream out) throws IOException {
+        if (request.getResponseFormat() != null && !CONCATENABLE_FORMATS.contains(request.getResponseFormat())) {
+            throw new IllegalArgumentException("response_format must be one of " + CONCATENABLE_FORMATS + " to be concatenated");
+        }
+        long start = System.nanoTime();
+        List<String> segments = split(request.getInput(), config.getLocale(), config.getFirstSegmentCharacters(),
+                config.getMaxSegmentCharacters());
+        if (segments.isEmpty()) {
+            return new SpeechStats(0, 0, 0, Duration.ZERO, Duration.ofNanos(System.nanoTime() - start));
+        }
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(segments.size(), config.getMaxConcurrentRequests()), runnable -> {
+            Thread thread = new Thread(runnable, "openai-speech-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<Buffer>> pending = new ArrayDeque<>();
+        int characters = 0;
+        long bytes = 0;
+        Duration timeToFirstAudio = null;
+        try {
+            int next = 0;
+            while (next < segments.size() && pending.size() < config.getMaxConcurrentRequests()) {
+                pending.add(submit(pool, request, segments, next++));
+            }
+            int written = 0;
+            while (!pending.isEmpty()) {
+                Buffer audio = pending.poll().get();
+                if (next < segments.size()) {
+                    pending.add(submit(pool, request, segments, next++));
+                }
+                bytes += audio.size();
+                audio.writeTo(out);
+                out.flush();
+                if (timeToFirstAudio == null) {
+                    timeToFirstAudio = Duration.ofNanos(System.nanoTime() - start);
+                }
+                characters += segments.get(written++).length();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while synthesizing", e);
+        } finally {
+            for (Future<Buffer> future : pending) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+        return new SpeechStats(segments.size(), characters, bytes, timeToFirstAudio,
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private Future<Buffer> submit(ExecutorService pool, CreateSpeechRequest request, List<String> segments, int index) {
+        CreateSpeechRequest segmentRequest = CreateSpeechRequest.builder()
+                .model(request.getModel())
+                .input(segments.get(index))
+                .voice(request.getVoice())
+                .responseFormat(request.getResponseFormat())
+                .speed(request.getSpeed())
+                .build();
+        return pool.submit(() -> synthesize(service, segmentRequest, index, config.getMaxAttempts(),
+                config.getInitialBackoff(), config.getMaxBackoff()));
+    }
+
+    /**
+     * Reads the whole audio of one segment, retrying on 408, 429, 5xx and io errors
+     */
+    static Buffer synthesize(OpenAiService service, CreateSpeechRequest request, int index, int maxAttempts,
+                             Duration initialBackoff, Duration maxBackoff) throws IOException, InterruptedException {
+        long backoff = initialBackoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            boolean retriable;
+            Exception failure;
+            try (ResponseBody body = service.createSpeech(request)) {
+                Buffer audio = new Buffer();
+                body.source().readAll(audio);
+                return audio;
+            } catch (OpenAiHttpException e) {
+                failure = e;
+                retriable = isRetriable(e.statusCode);
+            } catch (HttpException e) {
+                failure = e;
+                retriable = isRetriable(e.code());
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+                retriable = true;
+            }
+            if (!retriable || attempt >= maxAttempts) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            log.warn("speech of segment {} failed, retrying", index, failure);
+            TimeUnit.MILLISECONDS.sleep(backoff);
+            backoff = Math.min(backoff * 2, maxBackoff.toMillis());
+        }
+    }
+
+    /**
+     * Packs whole sentences into segments of at most limit characters, firstLimit for the first one. A sentence
+     * longer than a segment is cut at its last whitespace that fits, or anywhere when it has none.
+     */
+    static List<String> split(String text, Locale locale, int firstLimit, int limit) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        BreakIterator sentences = BreakIterator.getSentenceInstance(locale);
+        sentences.setText(text);
+        for (int start = sentences.first(), end = sentences.next(); end != BreakIterator.DONE; start = end, end = sentences.next()) {
+            String sentence = text.substring(start, end);
+            if (current.length() > 0 && current.length() + sentence.trim().length() > limit(segments, firstLimit, limit)) {
+                add(segments, current);
+            }
+            while (current.length() == 0 && sentence.trim().length() > limit(segments, firstLimit, limit)) {
+                sentence = sentence.trim();
+                int cut = cut(sentence, limit(segments, firstLimit, limit));
+                current.append(sentence, 0, cut);
+                add(segments, current);
+                sentence = sentence.substring(cut);
+            }
+            current.append(sentence);
+        }
+        add(segments, current);
+        return segments;
+    }
+
+    private static int limit(List<String> segments, int firstLimit, int limit) {
+        return segments.isEmpty() ? Math.min(firstLimit, limit) : limit;
+    }
+
+    /**
+     * @return where to cut text longer than limit: at its last whitespace that fits, or at limit
+     */
+    static int cut(String sentence, int limit) {
+        for (int i = limit; i > 0; i--) {
+            if (Character.isWhitespace(sentence.charAt(i))) {
+                return i;
+            }
+        }
+        return Character.isHighSurrogate(sentence.charAt(limit - 1)) && limit > 1 ? limit - 1 : limit;
+    }
+
+    private static void add(List<String> segments, StringBuilder current) {
+        String segment = current.toString().trim();
+        if (!segment.isEmpty()) {
+            segments.add(segment);
+        }
+        current.setLength(0);
+    }
+
+    private static boolean isRetriable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+}
@@ -0,0 +1,97 @@
+package com.theokanning.openai.service.audio;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts text arriving in pieces into segments to be spoken, as soon as a segment is complete: at the end of a
+ * sentence, at a line break, or at the end of a clause once the text is long enough to be worth a request
+ */
+final class SpeechSegmenter {
+
+    private static final String SENTENCE_ENDS = ".!?…";
+    private static final String CLAUSE_ENDS = ",;:—";
+    /**
+     * Ends of a sentence that are not followed by a space
+     */
+    private static final String CLOSED_SENTENCE_ENDS = "。！？";
+    private static final String CLOSINGS = "\"'”’)]»";
+
+    private final int minSentenceCharacters;
+    private final int minClauseCharacters;
+    private final int maxCharacters;
+    private final StringBuilder pending = new StringBuilder();
+    private int scanned;
+
+    SpeechSegmenter(int minSentenceCharacters, int minClauseCharacters, int maxCharacters) {
+        this.minSentenceCharacters = minSentenceCharacters;
+        this.minClauseCharacters = minClauseCharacters;
+        this.maxCharacters = maxCharacters;
+    }
+
+    /**
+     * @return the segments completed by text, possibly none
+     */
+    List<String> append(String text) {
+        pending.append(text);
+        List<String> segments = new ArrayList<>();
+        while (scanned < pending.length()) {
+            int boundary = boundary(scanned);
+            if (boundary > 0) {
+                emit(segments, boundary);
+            } else if (scanned >= maxCharacters) {
+                emit(segments, LongSpeechSynthesizer.cut(pending.toString(), maxCharacters));
+            } else {
+                scanned++;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return the text left once the stream ended, possibly none
+     */
+    List<String> finish() {
+        List<String> segments = new ArrayList<>();
+        while (pending.length() > maxCharacters) {
+            emit(segments, LongSpeechSynthesizer.cut(pending.toString(), maxCharacters));
+        }
+        emit(segments, pending.length());
+        return segments;
+    }
+
+    /**
+     * @return where a segment ends when the text is cut before the character at index, 0 when it is not
+     */
+    private int boundary(int index) {
+        char c = pending.charAt(index);
+        if (CLOSED_SENTENCE_ENDS.indexOf(c) >= 0) {
+            return index + 1;
+        }
+        if (!Character.isWhitespace(c) || index == 0) {
+            return 0;
+        }
+        if (c == '\n') {
+            return index;
+        }
+        int last = index - 1;
+        while (last > 0 && CLOSINGS.indexOf(pending.charAt(last)) >= 0) {
+            last--;
+        }
+        char end = pending.charAt(last);
+        if (SENTENCE_ENDS.indexOf(end) >= 0 && index >= minSentenceCharacters
+                || CLAUSE_ENDS.indexOf(end) >= 0 && index >= minClauseCharacters) {
+            return index;
+        }
+        return 0;
+    }
+
+    private void emit(List<String> segments, int end) {
+        String segment = pending.substring(0, end).trim();
+        if (!segment.isEmpty()) {
+            segments.add(segment);
+        }
+        pending.delete(0, end);
+        scanned = 0;
+    }
+}
@@ -0,0 +1,35 @@
+package com.theokanning.openai.service.audio;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a {@link LongSpeechSynthesizer} synthesis
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class SpeechStats {
+
+    /**
+     * Requests the text was split into
+     */
+    private final int segments;
+
+    private final int characters;
+
+    /**
+     * Audio bytes written
+     */
+    private final long bytes;
+
+    /**
+     * From the call to the first audio bytes written, what a listener waits before playback starts
+     */
+    private final Duration timeToFirstAudio;
+
+    private final Duration elapsed;
+}
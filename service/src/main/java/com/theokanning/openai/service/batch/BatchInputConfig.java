@@ -0,0 +1,59 @@
+package com.theokanning.openai.service.batch;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of a {@link BatchInputWriter}
+ */
+@Getter
+@Builder
+public class BatchInputConfig {
+
+    /**
+     * Directory the shards are written to, created if missing
+     */
+    @NonNull
+    private final Path directory;
+
+    /**
+     * Shards are named {@code <prefix>-00000.jsonl}, {@code <prefix>-00001.jsonl}...
+     */
+    @Builder.Default
+    private final String prefix = "batch-input";
+
+    /**
+     * Url of the lines that do not have one
+     */
+    @Builder.Default
+    private final String endpoint = "/v1/chat/completions";
+
+    /**
+     * Maximum requests of a shard, the api accepts up to 50 000 per batch
+     */
+    @Builder.Default
+    private final int maxLines = 50_000;
+
+    /**
+     * Maximum size of a shard in bytes, the api accepts files up to 200 MB
+     */
+    @Builder.Default
+    private final long maxBytes = 200L * 1024 * 1024;
+
+    /**
+     * Maximum estimated input tokens of a shard, so that a batch fits in the enqueued token limit of the model,
+     * 0 for no limit. Tokens are only counted when a limit is set.
+     */
+    @Builder.Default
+    private final long maxTokens = 0;
+
+    /**
+     * Tokenizer used to estimate the input tokens of the requests
+     */
+    @Builder.Default
+    private final EncodingType encoding = EncodingType.CL100K_BASE;
+}
@@ -0,0 +1,33 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Shards written by a {@link BatchInputWriter}, in order
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BatchInputManifest {
+
+    private final List<BatchShard> shards;
+
+    /**
+     * Number of requests of all the shards
+     */
+    private final long lines;
+
+    /**
+     * Size of all the shards in bytes
+     */
+    private final long bytes;
+
+    /**
+     * Estimated input tokens of all the shards, 0 if tokens were not counted
+     */
+    private final long tokens;
+}
@@ -0,0 +1,180 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.knuddels.jtokkit.api.Encoding;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.utils.TikTokensUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Writes batch input files from a lazy sequence of requests, starting a new shard before a file would exceed
+ * {@link BatchInputConfig#getMaxLines()}, {@link BatchInputConfig#getMaxBytes()} or
+ * {@link BatchInputConfig#getMaxTokens()}.
+ * <pre>{@code
+ * BatchInputWriter writer = new BatchInputWriter(BatchInputConfig.builder().directory(Paths.get("batches")).build());
+ * BatchInputManifest manifest = writer.write(requests.map(request -> BatchRequestLine.builder()
+ *         .customId(request.getId())
+ *         .body(request.getChatCompletionRequest())
+ *         .build()));
+ * for (BatchShard shard : manifest.getShards()) {
+ *     File file = service.uploadFile("batch", shard.getPath().toString());
+ * }
+ * }</pre>
+ * Each line is serialized by one reused generator into a reused buffer, so its size is known before it is
+ * appended to the current shard, and only the lines of the current shard are held: their custom ids, to reject
+ * duplicates within a batch. Memory does not grow with the number of requests.
+ */
+public class BatchInputWriter {
+
+    private final BatchInputConfig config;
+    private final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private final ObjectWriter bodyWriter = mapper.writer();
+    private final Encoding encoding;
+
+    public BatchInputWriter(BatchInputConfig config) {
+        if (config.getMaxLines() <= 0 || config.getMaxBytes() <= 0 || config.getMaxTokens() < 0) {
+            throw new IllegalArgumentException("shard limits must be positive");
+        }
+        this.config = config;
+        this.encoding = config.getMaxTokens() > 0 ? TikTokensUtil.getEncoding(config.getEncoding()) : null;
+    }
+
+    public BatchInputManifest write(Stream<BatchRequestLine> requests) {
+        return write(requests.iterator());
+    }
+
+    /**
+     * Writes the requests to as many shards as needed, replacing existing files of the same names
+     *
+     * @throws IllegalArgumentException if a request has no custom id or body, is repeated within a shard, or
+     *                                  alone exceeds a shard limit
+     */
+    public BatchInputManifest write(Iterator<BatchRequestLine> requests) {
+        try {
+            Files.createDirectories(config.getDirectory());
+            List<BatchShard> shards = new ArrayList<>();
+            ByteArrayOutputStream line = new ByteArrayOutputStream(4096);
+            ShardOutput shard = null;
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(line)) {
+                generator.setRootValueSeparator(null);
+                while (requests.hasNext()) {
+                    BatchRequestLine request = requests.next();
+                    line.reset();
+                    writeLine(generator, request);
+                    line.write('\n');
+                    long tokens = encoding != null ? BatchTokens.estimate(request.getBody(), encoding, line.size()) : 0;
+                    if (line.size() > config.getMaxBytes() || (encoding != null && tokens > config.getMaxTokens())) {
+                        throw new IllegalArgumentException("request " + request.getCustomId() + " alone exceeds the shard limits");
+                    }
+                    if (shard != null && !shard.fits(line.size(), tokens)) {
+                        shards.add(shard.finish());
+                        shard = null;
+                    }
+                    if (shard == null) {
+                        shard = new ShardOutput(shards.size());
+                    }
+                    shard.append(line, request.getCustomId(), tokens);
+                }
+                if (shard != null) {
+                    shards.add(shard.finish());
+                    shard = null;
+                }
+            } finally {
+                if (shard != null) {
+                    shard.close();
+                }
+            }
+            long lines = 0;
+            long bytes = 0;
+            long tokens = 0;
+            for (BatchShard written : shards) {
+                lines += written.getLines();
+                bytes += written.getBytes();
+                tokens += written.getTokens();
+            }
+            return new BatchInputManifest(shards, lines, bytes, tokens);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine(JsonGenerator generator, BatchRequestLine request) throws IOException {
+        if (request.getCustomId() == null || request.getBody() == null) {
+            throw new IllegalArgumentException("batch requests need a custom id and a body");
+        }
+        generator.writeStartObject();
+        generator.writeStringField("custom_id", request.getCustomId());
+        generator.writeStringField("method", request.getMethod() != null ? request.getMethod() : "POST");
+        generator.writeStringField("url", request.getUrl() != null ? request.getUrl() : config.getEndpoint());
+        generator.writeFieldName("body");
+        bodyWriter.writeValue(generator, request.getBody());
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    /**
+     * The shard being written
+     */
+    private final class ShardOutput implements Closeable {
+        private final int index;
+        private final Path path;
+        private final OutputStream out;
+        private final Set<String> customIds = new HashSet<>();
+        private long bytes;
+        private long tokens;
+        private String firstCustomId;
+        private String lastCustomId;
+
+        ShardOutput(int index) throws IOException {
+            this.index = index;
+            this.path = config.getDirectory().resolve(String.format("%s-%05d.jsonl", config.getPrefix(), index));
+            this.out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+        }
+
+        boolean fits(int lineBytes, long lineTokens) {
+            return customIds.size() < config.getMaxLines()
+                    && bytes + lineBytes <= config.getMaxBytes()
+                    && (encoding == null || tokens + lineTokens <= config.getMaxTokens());
+        }
+
+        void append(ByteArrayOutputStream line, String customId, long lineTokens) throws IOException {
+            if (!customIds.add(customId)) {
+                throw new IllegalArgumentException("custom id " + customId + " is repeated in " + path);
+            }
+            line.writeTo(out);
+            bytes += line.size();
+            tokens += lineTokens;
+            if (firstCustomId == null) {
+                firstCustomId = customId;
+            }
+            lastCustomId = customId;
+        }
+
+        BatchShard finish() throws IOException {
+            close();
+            return new BatchShard(index, path, customIds.size(), bytes, tokens, firstCustomId, lastCustomId);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
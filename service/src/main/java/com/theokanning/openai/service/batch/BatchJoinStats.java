@@ -0,0 +1,34 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of a {@link BatchResultJoiner#join} run
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BatchJoinStats {
+
+    /**
+     * Results joined to their input
+     */
+    private final long matched;
+
+    /**
+     * Inputs without a result, passed on with a null result
+     */
+    private final long missing;
+
+    /**
+     * Results whose custom id is not an input, passed on with a null input
+     */
+    private final long unknown;
+
+    /**
+     * Partitions the inputs were spilled to, 0 if they were joined in memory
+     */
+    private final int partitions;
+}
@@ -0,0 +1,460 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.theokanning.openai.batch.Batch;
+import com.theokanning.openai.batch.BatchRequest;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.batch.RequestCounts;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs batch jobs end to end: uploads their shards, creates the batches, polls them, streams their results to a
+ * consumer and resubmits the requests that failed for a retriable reason.
+ * <pre>{@code
+ * BatchOrchestrator orchestrator = new BatchOrchestrator(service, BatchOrchestratorConfig.builder()
+ *         .workDirectory(Paths.get("batches"))
+ *         .maxInFlight(8)
+ *         .build());
+ * orchestrator.submit(writer.write(requests), ChatCompletionResult.class,
+ *         (input, result) -> store.save(input.getCustomId(), result)).join();
+ * }</pre>
+ * All the state lives on one scheduler thread, which never waits on the network: uploads, polls and downloads run on
+ * {@link BatchOrchestratorConfig#getMaxConcurrentTransfers()} transfer threads and hand their outcome back to it. At most
+ * {@link BatchOrchestratorConfig#getMaxInFlight()} batches, and {@link BatchOrchestratorConfig#getMaxEnqueuedTokens()}
+ * tokens, are in flight across jobs; the next shards wait in submission order.
+ * <p>
+ * A batch is polled after {@link BatchOrchestratorConfig#getMinPollInterval()}, then at an interval growing with its
+ * age; once its request counts show progress, at half the time they project it still needs, and as often as
+ * allowed while it is finalizing.
+ * <p>
+ * Expired batches are collected like completed ones. Requests without result, expired or answered 408, 429 or 5xx
+ * are written to a new shard and submitted again, up to {@link BatchOrchestratorConfig#getMaxAttempts()} times;
+ * other failures are passed on. The consumer is called from the transfer threads, one call at a time per job.
+ */
+@Slf4j
+public class BatchOrchestrator implements AutoCloseable {
+
+    private static final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private static final ObjectWriter lineWriter = mapper.writerFor(BatchRequestLine.class);
+
+    private final OpenAiService service;
+    private final BatchOrchestratorConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService transfers;
+    private final BatchResultJoiner joiner;
+
+    // scheduler thread only
+    private final Deque<Tracked> queue = new ArrayDeque<>();
+    private final Set<Tracked> inFlight = new HashSet<>();
+    private final Set<Job<?>> jobs = new HashSet<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong enqueuedTokens = new AtomicLong();
+    private final LongAdder completedBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder succeededRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder resubmittedRequests = new LongAdder();
+
+    public BatchOrchestrator(OpenAiService service, BatchOrchestratorConfig config) {
+        if (config.getMaxInFlight() <= 0 || config.getMaxConcurrentTransfers() <= 0 || config.getMaxAttempts() <= 0) {
+            throw new IllegalArgumentException("maxInFlight, maxConcurrentTransfers and maxAttempts must be positive");
+        }
+        this.service = service;
+        this.config = config;
+        this.joiner = new BatchResultJoiner(config.getWorkDirectory().resolve("spill"), config.getMaxInMemoryBytes());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "openai-batch-orchestrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threads = new AtomicInteger();
+        this.transfers = Executors.newFixedThreadPool(config.getMaxConcurrentTransfers(), runnable -> {
+            Thread thread = new Thread(runnable, "openai-batch-transfer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the shards of a job
+     *
+     * @param bodyType type of the response bodies, e.g. ChatCompletionResult.class
+     * @param consumer receives each input with its successful result, or with its last failed or missing (null)
+     *                 result
+     * @return completed once every request has been passed on, or exceptionally if a batch of the job could not
+     * be created or failed as a whole
+     */
+    public <T> CompletableFuture<Void> submit(BatchInputManifest manifest, Class<T> bodyType,
+                                              BiConsumer<BatchRequestLine, BatchResult<T>> consumer) {
+        Job<T> job = new Job<>(bodyType, consumer);
+        if (manifest.getShards().isEmpty()) {
+            job.future.complete(null);
+            return job.future;
+        }
+        scheduler.execute(() -> {
+            jobs.add(job);
+            for (BatchShard shard : manifest.getShards()) {
+                enqueue(new Tracked(job, shard, 1));
+            }
+            pump();
+        });
+        return job.future;
+    }
+
+    public BatchOrchestratorStats getStats() {
+        return new BatchOrchestratorStats(queued.get(), inFlightCount.get(), enqueuedTokens.get(),
+                completedBatches.sum(), failedBatches.sum(), polls.sum(), succeededRequests.sum(),
+                failedRequests.sum(), resubmittedRequests.sum());
+    }
+
+    /**
+     * Stops polling and fails the jobs not done yet. Batches already created keep running on the server.
+     */
+    @Override
+    public void close() {
+        try {
+            scheduler.submit(() -> {
+                for (Job<?> job : jobs) {
+                    job.future.completeExceptionally(new IllegalStateException("batch orchestrator is closed"));
+                }
+            }).get();
+        } catch (Exception e) {
+            log.warn("could not fail the pending batch jobs", e);
+        }
+        scheduler.shutdownNow();
+        transfers.shutdownNow();
+    }
+
+    private void enqueue(Tracked tracked) {
+        tracked.job.outstanding++;
+        queue.add(tracked);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Starts queued shards while there is room in flight
+     */
+    private void pump() {
+        while (!queue.isEmpty() && inFlight.size() < config.getMaxInFlight()) {
+            Tracked next = queue.peek();
+            if (config.getMaxEnqueuedTokens() > 0 && !inFlight.isEmpty()
+                    && enqueuedTokens.get() + next.shard.getTokens() > config.getMaxEnqueuedTokens()) {
+                return;
+            }
+            queue.poll();
+            queued.decrementAndGet();
+            if (next.job.future.isDone()) {
+                done(next);
+                continue;
+            }
+            inFlight.add(next);
+            inFlightCount.incrementAndGet();
+            enqueuedTokens.addAndGet(next.shard.getTokens());
+            onTransfers(() -> create(next));
+        }
+    }
+
+    private void create(Tracked tracked) {
+        try {
+            String fileId = service.uploadFile("batch", tracked.shard.getPath().toString()).getId();
+            Batch batch = service.createBatch(BatchRequest.builder()
+                    .inputFileId(fileId)
+                    .endpoint(config.getEndpoint())
+                    .completionWindow(config.getCompletionWindow())
+                    .build());
+            onScheduler(() -> {
+                tracked.fileId = fileId;
+                tracked.batchId = batch.getId();
+                tracked.createdAtMillis = System.currentTimeMillis();
+                schedulePoll(tracked, config.getMinPollInterval().toMillis());
+            });
+        } catch (Exception e) {
+            onScheduler(() -> fail(tracked, e));
+        }
+    }
+
+    /**
+     * Hands the outcome of a transfer back to the scheduler thread, unless the orchestrator was closed meanwhile
+     */
+    private void onScheduler(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("batch orchestrator closed during a transfer");
+        }
+    }
+
+    /**
+     * Starts a transfer, unless the orchestrator was closed meanwhile
+     */
+    private void onTransfers(Runnable task) {
+        try {
+            transfers.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("batch orchestrator closed before a transfer");
+        }
+    }
+
+    private void schedulePoll(Tracked tracked, long delayMillis) {
+        try {
+            scheduler.schedule(() -> onTransfers(() -> poll(tracked)), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("batch orchestrator closed before polling batch {}", tracked.batchId);
+        }
+    }
+
+    /**
+     * Retrieves the batch on a transfer thread, a slow poll would otherwise hold up every other batch
+     */
+    private void poll(Tracked tracked) {
+        polls.increment();
+        try {
+            Batch batch = service.retrieveBatch(tracked.batchId);
+            onScheduler(() -> polled(tracked, batch));
+        } catch (Exception e) {
+            log.warn("could not poll batch {}", tracked.batchId, e);
+            onScheduler(() -> schedulePoll(tracked, nextPollMillis(tracked, null)));
+        }
+    }
+
+    private void polled(Tracked tracked, Batch batch) {
+        String status = batch.getStatus();
+        if ("completed".equals(status) || "expired".equals(status)) {
+            onTransfers(() -> collect(tracked, batch));
+        } else if ("failed".equals(status) || "cancelled".equals(status)) {
+            String reason = batch.getErrors() != null && batch.getErrors().getData() != null && !batch.getErrors().getData().isEmpty()
+                    ? ": " + batch.getErrors().getData().get(0).getMessage() : "";
+            fail(tracked, new IllegalStateException("batch " + tracked.batchId + " " + status + reason));
+        } else {
+            schedulePoll(tracked, nextPollMillis(tracked, batch));
+        }
+    }
+
+    private long nextPollMillis(Tracked tracked, Batch batch) {
+        long min = config.getMinPollInterval().toMillis();
+        long max = config.getMaxPollInterval().toMillis();
+        if (batch != null && "finalizing".equals(batch.getStatus())) {
+            return min;
+        }
+        long age = System.currentTimeMillis() - tracked.createdAtMillis;
+        long delay = age / 8;
+        RequestCounts counts = batch != null ? batch.getRequestCounts() : null;
+        if (counts != null && counts.getTotal() != null && counts.getCompleted() != null && counts.getFailed() != null) {
+            long done = counts.getCompleted() + counts.getFailed();
+            if (done > 0 && done < counts.getTotal()) {
+                delay = Math.min(delay, age * (counts.getTotal() - done) / done / 2);
+            }
+        }
+        return Math.max(min, Math.min(max, delay));
+    }
+
+    /**
+     * Streams the results of a batch to the consumer and writes the requests to resubmit to new shards
+     */
+    @SuppressWarnings("unchecked")
+    private <T> void collect(Tracked tracked, Batch batch) {
+        Job<T> job = (Job<T>) tracked.job;
+        Path retries = config.getWorkDirectory().resolve("retry-" + tracked.batchId + ".jsonl");
+        try {
+            Files.createDirectories(config.getWorkDirectory());
+            List<InputStream> outputs = new ArrayList<>();
+            if (batch.getOutputFileId() != null) {
+                outputs.add(service.retrieveFileContent(batch.getOutputFileId()).byteStream());
+            }
+            if (batch.getErrorFileId() != null) {
+                outputs.add(service.retrieveFileContent(batch.getErrorFileId()).byteStream());
+            }
+            long retried = 0;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(retries))) {
+                Retries<T> handler = new Retries<>(job, tracked.attempt < config.getMaxAttempts(), out);
+                joiner.join(Collections.singletonList(tracked.shard.getPath()), outputs, job.bodyType, handler);
+                retried = handler.retried;
+            }
+            List<BatchShard> shards = Collections.emptyList();
+            if (retried > 0) {
+                resubmittedRequests.add(retried);
+                try (MappingIterator<BatchRequestLine> lines = mapper.readerFor(BatchRequestLine.class).readValues(retries.toFile())) {
+                    shards = new BatchInputWriter(BatchInputConfig.builder()
+                            .directory(config.getWorkDirectory())
+                            .prefix("retry-" + tracked.batchId)
+                            .endpoint(config.getEndpoint())
+                            .maxTokens(config.getMaxEnqueuedTokens())
+                            .build()).write(lines).getShards();
+                }
+            }
+            Files.delete(retries);
+            if (config.isDeleteInputFiles()) {
+                deleteQuietly(tracked.fileId);
+            }
+            List<BatchShard> next = shards;
+            onScheduler(() -> collected(tracked, next));
+        } catch (Exception e) {
+            onScheduler(() -> fail(tracked, e));
+        }
+    }
+
+    private void collected(Tracked tracked, List<BatchShard> retries) {
+        completedBatches.increment();
+        leave(tracked);
+        for (BatchShard shard : retries) {
+            enqueue(new Tracked(tracked.job, shard, tracked.attempt + 1));
+        }
+        done(tracked);
+        pump();
+    }
+
+    private void fail(Tracked tracked, Exception e) {
+        failedBatches.increment();
+        leave(tracked);
+        tracked.job.future.completeExceptionally(e);
+        done(tracked);
+        pump();
+    }
+
+    private void leave(Tracked tracked) {
+        if (inFlight.remove(tracked)) {
+            inFlightCount.decrementAndGet();
+            enqueuedTokens.addAndGet(-tracked.shard.getTokens());
+        }
+        if (tracked.attempt > 1) {
+            try {
+                Files.deleteIfExists(tracked.shard.getPath());
+            } catch (IOException e) {
+                log.warn("could not delete {}", tracked.shard.getPath(), e);
+            }
+        }
+    }
+
+    private void done(Tracked tracked) {
+        Job<?> job = tracked.job;
+        if (--job.outstanding == 0) {
+            jobs.remove(job);
+            job.future.complete(null);
+        }
+    }
+
+    private void deleteQuietly(String fileId) {
+        try {
+            service.deleteFile(fileId);
+        } catch (Exception e) {
+            log.warn("could not delete batch input file {}", fileId, e);
+        }
+    }
+
+    /**
+     * Whether a failed request may succeed if submitted again
+     */
+    private static boolean isRetriable(BatchResult<?> result) {
+        if (result == null) {
+            return true;
+        }
+        int status = result.getStatusCode();
+        if (status == 0) {
+            return result.getError() != null && "batch_expired".equals(result.getError().getCode());
+        }
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    /**
+     * Passes results on and writes the requests to resubmit
+     */
+    private final class Retries<T> implements BiConsumer<BatchRequestLine, BatchResult<T>> {
+        private final Job<T> job;
+        private final boolean canRetry;
+        private final OutputStream out;
+        long retried;
+
+        Retries(Job<T> job, boolean canRetry, OutputStream out) {
+            this.job = job;
+            this.canRetry = canRetry;
+            this.out = out;
+        }
+
+        @Override
+        public void accept(BatchRequestLine input, BatchResult<T> result) {
+            if (input == null) {
+                log.warn("batch result for unknown custom id {}", result.getCustomId());
+                return;
+            }
+            if (result != null && result.isSuccess()) {
+                succeededRequests.increment();
+            } else if (canRetry && isRetriable(result)) {
+                try {
+                    // writeValue(out, ...) would close the shared stream after the first line
+                    out.write(lineWriter.writeValueAsBytes(input));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                retried++;
+                return;
+            } else {
+                failedRequests.increment();
+            }
+            synchronized (job) {
+                job.consumer.accept(input, result);
+            }
+        }
+    }
+
+    private static final class Job<T> {
+        final Class<T> bodyType;
+        final BiConsumer<BatchRequestLine, BatchResult<T>> consumer;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        /**
+         * Shards queued or in flight, scheduler thread only
+         */
+        int outstanding;
+
+        Job(Class<T> bodyType, BiConsumer<BatchRequestLine, BatchResult<T>> consumer) {
+            this.bodyType = bodyType;
+            this.consumer = consumer;
+        }
+    }
+
+    private static final class Tracked {
+        final Job<?> job;
+        final BatchShard shard;
+        final int attempt;
+        String fileId;
+        String batchId;
+        long createdAtMillis;
+
+        Tracked(Job<?> job, BatchShard shard, int attempt) {
+            this.job = job;
+            this.shard = shard;
+            this.attempt = attempt;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link BatchOrchestrator}
+ */
+@Getter
+@Builder
+public class BatchOrchestratorConfig {
+
+    /**
+     * Directory of the resubmission shards and of the join spill files
+     */
+    @NonNull
+    private final Path workDirectory;
+
+    /**
+     * Endpoint of the batches, the url of their input lines
+     */
+    @Builder.Default
+    private final String endpoint = "/v1/chat/completions";
+
+    @Builder.Default
+    private final String completionWindow = "24h";
+
+    /**
+     * Maximum batches created and not yet collected
+     */
+    @Builder.Default
+    private final int maxInFlight = 4;
+
+    /**
+     * Maximum estimated input tokens of the batches in flight, see {@link BatchShard#getTokens()}, 0 for no limit.
+     * A shard is always submitted when nothing is in flight.
+     */
+    @Builder.Default
+    private final long maxEnqueuedTokens = 0;
+
+    /**
+     * Uploads and downloads run at the same time
+     */
+    @Builder.Default
+    private final int maxConcurrentTransfers = 2;
+
+    /**
+     * Shortest time between two polls of a batch, also the delay of the first poll
+     */
+    @Builder.Default
+    private final Duration minPollInterval = Duration.ofSeconds(10);
+
+    /**
+     * Longest time between two polls of a batch
+     */
+    @Builder.Default
+    private final Duration maxPollInterval = Duration.ofMinutes(10);
+
+    /**
+     * Submissions of a request, the first included, before its failure is passed on
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Memory budget of the join of a batch's results to its input, see {@link BatchResultJoiner}
+     */
+    @Builder.Default
+    private final long maxInMemoryBytes = 64L * 1024 * 1024;
+
+    /**
+     * Whether uploaded input files are deleted once their batch is collected
+     */
+    @Builder.Default
+    private final boolean deleteInputFiles = true;
+}
@@ -0,0 +1,56 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters and gauges of a {@link BatchOrchestrator}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BatchOrchestratorStats {
+
+    /**
+     * Shards waiting for a slot
+     */
+    private final int queuedShards;
+
+    /**
+     * Batches created or being created, and not yet collected
+     */
+    private final int inFlightBatches;
+
+    /**
+     * Estimated input tokens of the batches in flight
+     */
+    private final long enqueuedTokens;
+
+    /**
+     * Batches whose results were collected
+     */
+    private final long completedBatches;
+
+    /**
+     * Batches that could not be created, failed validation or were cancelled
+     */
+    private final long failedBatches;
+
+    private final long polls;
+
+    /**
+     * Requests passed on with a successful result
+     */
+    private final long succeededRequests;
+
+    /**
+     * Requests passed on with a failed or missing result, after their last attempt
+     */
+    private final long failedRequests;
+
+    /**
+     * Requests submitted again after a retriable failure
+     */
+    private final long resubmittedRequests;
+}
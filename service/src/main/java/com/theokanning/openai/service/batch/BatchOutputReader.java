@@ -0,0 +1,126 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.theokanning.openai.OpenAiError;
+import com.theokanning.openai.service.OpenAiService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the lines of a batch output or error file one at a time with Jackson's streaming parser, decoding the
+ * response bodies into {@code T}, so only the current line is held in memory however large the file is.
+ * <pre>{@code
+ * try (BatchOutputReader<ChatCompletionResult> reader = new BatchOutputReader<>(
+ *         service.retrieveFileContent(batch.getOutputFileId()).byteStream(), ChatCompletionResult.class)) {
+ *     BatchResult<ChatCompletionResult> result;
+ *     while ((result = reader.next()) != null) {
+ *         answers.put(result.getCustomId(), result.getBody());
+ *     }
+ * }
+ * }</pre>
+ * A body is decoded as an error when its status is not 2xx; if it comes before its status, it is buffered as
+ * tokens until the status is known.
+ */
+public class BatchOutputReader<T> implements Closeable {
+
+    private static final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private static final ObjectReader errorReader = mapper.readerFor(OpenAiError.class);
+    private static final ObjectReader errorDetailsReader = mapper.readerFor(OpenAiError.OpenAiErrorDetails.class);
+
+    private final JsonParser parser;
+    private final ObjectReader bodyReader;
+
+    public BatchOutputReader(InputStream in, Class<T> bodyType) throws IOException {
+        this.parser = mapper.getFactory().createParser(in);
+        this.bodyReader = mapper.readerFor(bodyType);
+    }
+
+    /**
+     * @return the next line, or null once the file has been read
+     */
+    public BatchResult<T> next() throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("a batch output line must be a json object");
+        }
+        String id = null;
+        String customId = null;
+        Response response = new Response();
+        OpenAiError.OpenAiErrorDetails error = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                id = parser.getValueAsString();
+            } else if ("custom_id".equals(field)) {
+                customId = parser.getValueAsString();
+            } else if ("response".equals(field) && value == JsonToken.START_OBJECT) {
+                readResponse(response);
+            } else if ("error".equals(field) && value == JsonToken.START_OBJECT) {
+                error = errorDetailsReader.readValue(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new BatchResult<>(id, customId, response.statusCode, response.requestId, response.body,
+                response.error != null ? response.error : error);
+    }
+
+    private void readResponse(Response response) throws IOException {
+        TokenBuffer pending = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("status_code".equals(field)) {
+                response.statusCode = parser.getValueAsInt();
+            } else if ("request_id".equals(field)) {
+                response.requestId = parser.getValueAsString();
+            } else if ("body".equals(field) && value == JsonToken.START_OBJECT) {
+                if (response.statusCode != 0) {
+                    readBody(parser, response);
+                } else {
+                    pending = new TokenBuffer(parser);
+                    pending.copyCurrentStructure(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (pending != null) {
+            try (JsonParser buffered = pending.asParser(parser.getCodec())) {
+                buffered.nextToken();
+                readBody(buffered, response);
+            }
+        }
+    }
+
+    private void readBody(JsonParser body, Response response) throws IOException {
+        if (response.statusCode >= 200 && response.statusCode < 300) {
+            response.body = bodyReader.readValue(body);
+        } else {
+            OpenAiError error = errorReader.readValue(body);
+            response.error = error.getError();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+
+    private final class Response {
+        int statusCode;
+        String requestId;
+        T body;
+        OpenAiError.OpenAiErrorDetails error;
+    }
+}
@@ -0,0 +1,48 @@
+package com.theokanning.openai.service.batch;
+
+import com.theokanning.openai.OpenAiError;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * One line of a batch output or error file, see {@link BatchOutputReader}
+ *
+ * @param <T> type of the response body, e.g. ChatCompletionResult or EmbeddingResult
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BatchResult<T> {
+
+    /**
+     * Id of the batch request
+     */
+    private final String id;
+
+    /**
+     * Custom id of the input line
+     */
+    private final String customId;
+
+    /**
+     * Http status of the response, 0 if the request was not executed
+     */
+    private final int statusCode;
+
+    private final String requestId;
+
+    /**
+     * Response body, null if the request failed
+     */
+    private final T body;
+
+    /**
+     * Error of the response or of the line, null if the request succeeded
+     */
+    private final OpenAiError.OpenAiErrorDetails error;
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300 && body != null;
+    }
+}
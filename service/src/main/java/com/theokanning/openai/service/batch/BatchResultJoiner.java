@@ -0,0 +1,340 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.service.OpenAiService;
+import okio.BufferedSource;
+import okio.Okio;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Joins batch results back to the input lines they answer, by custom id.
+ * <pre>{@code
+ * BatchResultJoiner joiner = new BatchResultJoiner(Paths.get("/tmp"), 256L * 1024 * 1024);
+ * joiner.join(inputFiles, Arrays.asList(output.byteStream(), errors.byteStream()), ChatCompletionResult.class,
+ *         (input, result) -> store.save(input.getCustomId(), input.getBody(), result));
+ * }</pre>
+ * When the input files fit in {@code maxInMemoryBytes}, their lines are kept in a map by custom id and the outputs
+ * streamed against it. Otherwise both sides are first split by hash of custom id into at most 64 partition files,
+ * the partitions whose inputs still do not fit split again the same way, and the partitions joined one at a time.
+ * The write buffers of the partition files share the memory budget. Lines are moved as raw bytes and only decoded
+ * when they are passed on.
+ * <p>
+ * Results are passed on as they are read, then every input left without a result is passed on with a null result.
+ */
+public class BatchResultJoiner {
+
+    private static final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private static final ObjectReader inputReader = mapper.readerFor(BatchRequestLine.class);
+    private static final JsonFactory factory = mapper.getFactory();
+
+    /**
+     * Partition files open at once per side, so that a split holds twice as many file descriptors
+     */
+    private static final int MAX_PARTITIONS = 64;
+    /**
+     * Times a partition is split again, 64^4 partitions are far more than any batch needs
+     */
+    private static final int MAX_LEVELS = 4;
+    private static final int MIN_BUFFER_BYTES = 1024;
+    private static final int MAX_BUFFER_BYTES = 16 * 1024;
+
+    private final Path spillDirectory;
+    private final long maxInMemoryBytes;
+
+    /**
+     * @param spillDirectory   where partition files are written when the inputs do not fit in memory
+     * @param maxInMemoryBytes size of the input lines held at once
+     */
+    public BatchResultJoiner(Path spillDirectory, long maxInMemoryBytes) {
+        if (maxInMemoryBytes <= 0) {
+            throw new IllegalArgumentException("maxInMemoryBytes must be positive");
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxInMemoryBytes = maxInMemoryBytes;
+    }
+
+    /**
+     * @param inputs   batch input files, e.g. the shards of a {@link BatchInputManifest}
+     * @param outputs  batch output and error files, closed once read
+     * @param bodyType type of the response bodies
+     * @param consumer receives each input with its result, the input is null for an unknown custom id and the
+     *                 result null for an input without result
+     */
+    public <T> BatchJoinStats join(List<Path> inputs, List<InputStream> outputs, Class<T> bodyType,
+                                   BiConsumer<BatchRequestLine, BatchResult<T>> consumer) throws IOException {
+        long inputBytes = 0;
+        for (Path input : inputs) {
+            inputBytes += Files.size(input);
+        }
+        Counters counters = new Counters();
+        if (inputBytes <= maxInMemoryBytes) {
+            joinInMemory(inputs, outputs, bodyType, consumer, counters);
+            return counters.stats(0);
+        }
+        Files.createDirectories(spillDirectory);
+        Path directory = Files.createTempDirectory(spillDirectory, "batch-join");
+        try {
+            Partitions inputPartitions = partitions(directory, "input", inputBytes, 0);
+            Partitions outputPartitions = partitions(directory, "output", inputBytes, 0);
+            try {
+                for (Path input : inputs) {
+                    try (BufferedSource source = Okio.buffer(Okio.source(input))) {
+                        inputPartitions.split(source);
+                    }
+                }
+                for (InputStream output : outputs) {
+                    try (BufferedSource source = Okio.buffer(Okio.source(output))) {
+                        outputPartitions.split(source);
+                    }
+                }
+            } finally {
+                inputPartitions.close();
+                outputPartitions.close();
+            }
+            return counters.stats(joinPartitions(inputPartitions, outputPartitions, bodyType, consumer, counters));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static <T> void joinInMemory(List<Path> inputs, List<InputStream> outputs, Class<T> bodyType,
+                                         BiConsumer<BatchRequestLine, BatchResult<T>> consumer, Counters counters) throws IOException {
+        Map<String, byte[]> lines = new HashMap<>();
+        for (Path input : inputs) {
+            try (BufferedSource source = Okio.buffer(Okio.source(input))) {
+                readInputs(source, lines);
+            }
+        }
+        for (InputStream output : outputs) {
+            try (InputStream in = output) {
+                joinOutputs(in, lines, bodyType, consumer, counters);
+            }
+        }
+        passMissing(lines, consumer, counters);
+    }
+
+    /**
+     * Joins each pair of partitions, splitting again the ones whose inputs still do not fit in memory
+     *
+     * @return the number of partitions joined
+     */
+    private <T> int joinPartitions(Partitions inputPartitions, Partitions outputPartitions, Class<T> bodyType,
+                                   BiConsumer<BatchRequestLine, BatchResult<T>> consumer, Counters counters) throws IOException {
+        int joined = 0;
+        for (int partition = 0; partition < inputPartitions.count(); partition++) {
+            Path input = inputPartitions.path(partition);
+            Path output = outputPartitions.path(partition);
+            long inputBytes = Files.size(input);
+            // past the last level the remaining lines share their hash codes and would not split any further
+            if (inputBytes <= maxInMemoryBytes || inputPartitions.level + 1 == MAX_LEVELS) {
+                joinInMemory(Collections.singletonList(input), Collections.singletonList(Files.newInputStream(output)),
+                        bodyType, consumer, counters);
+                joined++;
+            } else {
+                String name = "-" + partition;
+                Partitions inputSplit = partitions(inputPartitions.directory, inputPartitions.side + name, inputBytes,
+                        inputPartitions.level + 1);
+                Partitions outputSplit = partitions(outputPartitions.directory, outputPartitions.side + name, inputBytes,
+                        outputPartitions.level + 1);
+                try (BufferedSource inputSource = Okio.buffer(Okio.source(input));
+                     BufferedSource outputSource = Okio.buffer(Okio.source(output))) {
+                    inputSplit.split(inputSource);
+                    outputSplit.split(outputSource);
+                } finally {
+                    inputSplit.close();
+                    outputSplit.close();
+                }
+                joined += joinPartitions(inputSplit, outputSplit, bodyType, consumer, counters);
+            }
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+        return joined;
+    }
+
+    /**
+     * @return partition files for one side of inputs of the given size, at most {@link #MAX_PARTITIONS} of them
+     * with write buffers that together stay within the memory budget
+     */
+    private Partitions partitions(Path directory, String side, long inputBytes, int level) throws IOException {
+        int count = (int) Math.max(2, Math.min(MAX_PARTITIONS, (inputBytes * 3 / 2 + maxInMemoryBytes - 1) / maxInMemoryBytes));
+        int bufferSize = (int) Math.max(MIN_BUFFER_BYTES, Math.min(MAX_BUFFER_BYTES, maxInMemoryBytes / (2L * count)));
+        return new Partitions(directory, side, count, level, bufferSize);
+    }
+
+    private static void readInputs(BufferedSource source, Map<String, byte[]> lines) throws IOException {
+        byte[] line;
+        while ((line = nextLine(source)) != null) {
+            String customId = customId(line);
+            if (lines.put(customId, line) != null) {
+                throw new IOException("custom id " + customId + " is repeated in the inputs");
+            }
+        }
+    }
+
+    private static <T> void joinOutputs(InputStream in, Map<String, byte[]> lines, Class<T> bodyType,
+                                        BiConsumer<BatchRequestLine, BatchResult<T>> consumer, Counters counters) throws IOException {
+        try (BatchOutputReader<T> reader = new BatchOutputReader<>(in, bodyType)) {
+            BatchResult<T> result;
+            while ((result = reader.next()) != null) {
+                byte[] line = result.getCustomId() != null ? lines.remove(result.getCustomId()) : null;
+                if (line != null) {
+                    counters.matched++;
+                    consumer.accept(inputReader.readValue(line), result);
+                } else {
+                    counters.unknown++;
+                    consumer.accept(null, result);
+                }
+            }
+        }
+    }
+
+    private static <T> void passMissing(Map<String, byte[]> lines, BiConsumer<BatchRequestLine, BatchResult<T>> consumer,
+                                        Counters counters) throws IOException {
+        for (byte[] line : lines.values()) {
+            counters.missing++;
+            consumer.accept(inputReader.readValue(line), null);
+        }
+        lines.clear();
+    }
+
+    /**
+     * @return the next non blank line with its line break, or null at the end of the source
+     */
+    static byte[] nextLine(BufferedSource source) throws IOException {
+        while (!source.exhausted()) {
+            long end = source.indexOf((byte) '\n');
+            byte[] line = end < 0 ? source.readByteArray() : source.readByteArray(end + 1);
+            for (byte b : line) {
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                    return line;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the top level custom_id of a json line, without decoding the rest of it
+     */
+    static String customId(byte[] line) throws IOException {
+        try (JsonParser parser = factory.createParser(line)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("custom_id".equals(field)) {
+                        return parser.getValueAsString();
+                    }
+                    parser.skipChildren();
+                }
+            }
+        }
+        throw new IOException("batch line without custom_id");
+    }
+
+    /**
+     * @return the partition of a custom id at a level of splitting, independent of its partitions at the other levels
+     */
+    static int partition(String customId, int level, int partitions) {
+        // murmur3 fmix64 of the hash code with a seed per level, every bit of the result depends on both
+        long h = customId.hashCode() ^ (level + 1) * 0x9e37_79b9_7f4a_7c15L;
+        h = (h ^ (h >>> 33)) * 0xff51_afd7_ed55_8ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ce_b9fe_1a85_ec53L;
+        h ^= h >>> 33;
+        return (int) ((h >>> 32) % partitions);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listed = Files.list(directory)) {
+            listed.forEach(files::add);
+        }
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Files the lines of one side are split into, by hash of custom id mixed with the level so that a partition
+     * split again spreads over all the new ones
+     */
+    private static final class Partitions {
+        private final Path directory;
+        private final String side;
+        private final int level;
+        private final OutputStream[] files;
+
+        Partitions(Path directory, String side, int count, int level, int bufferSize) throws IOException {
+            this.directory = directory;
+            this.side = side;
+            this.level = level;
+            this.files = new OutputStream[count];
+            try {
+                for (int i = 0; i < count; i++) {
+                    files[i] = new BufferedOutputStream(Files.newOutputStream(path(i)), bufferSize);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        int count() {
+            return files.length;
+        }
+
+        Path path(int partition) {
+            return directory.resolve(side + "-" + partition + ".jsonl");
+        }
+
+        void split(BufferedSource source) throws IOException {
+            byte[] line;
+            while ((line = nextLine(source)) != null) {
+                OutputStream file = files[partition(customId(line), level, files.length)];
+                file.write(line);
+                if (line[line.length - 1] != '\n') {
+                    file.write('\n');
+                }
+            }
+        }
+
+
+        void close() throws IOException {
+            for (OutputStream file : files) {
+                if (file != null) {
+                    file.close();
+                }
+            }
+        }
+    }
+
+    private static final class Counters {
+        long matched;
+        long missing;
+        long unknown;
+
+        BatchJoinStats stats(int partitions) {
+            return new BatchJoinStats(matched, missing, unknown, partitions);
+        }
+    }
+}
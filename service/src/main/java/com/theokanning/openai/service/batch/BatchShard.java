@@ -0,0 +1,42 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.file.Path;
+
+/**
+ * A batch input file written by a {@link BatchInputWriter}, to be uploaded with the purpose "batch"
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BatchShard {
+
+    /**
+     * Position of the shard, from 0
+     */
+    private final int index;
+
+    private final Path path;
+
+    /**
+     * Number of requests
+     */
+    private final int lines;
+
+    /**
+     * Size of the file in bytes
+     */
+    private final long bytes;
+
+    /**
+     * Estimated input tokens of the requests, 0 if tokens were not counted
+     */
+    private final long tokens;
+
+    private final String firstCustomId;
+
+    private final String lastCustomId;
+}
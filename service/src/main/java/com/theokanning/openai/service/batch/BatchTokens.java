@@ -0,0 +1,52 @@
+package com.theokanning.openai.service.batch;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.utils.TikTokensUtil;
+
+import java.util.List;
+
+/**
+ * Estimates of the input tokens of batch requests
+ */
+final class BatchTokens {
+
+    private BatchTokens() {
+    }
+
+    /**
+     * Input tokens of chat and embedding requests, a quarter of the serialized size for other requests
+     *
+     * @param bytes size of the serialized request
+     */
+    static long estimate(Object body, Encoding encoding, int bytes) {
+        if (body instanceof ChatCompletionRequest) {
+            // every message is framed by a few tokens, see TikTokensUtil.tokens(String, List)
+            long tokens = 3;
+            for (ChatMessage message : ((ChatCompletionRequest) body).getMessages()) {
+                String text = message.getTextContent();
+                tokens += 4 + (text != null ? TikTokensUtil.tokens(encoding, text) : 0);
+            }
+            return tokens;
+        }
+        if (body instanceof EmbeddingRequest) {
+            return embeddingTokens(((EmbeddingRequest) body).getInput(), encoding);
+        }
+        return bytes / 4;
+    }
+
+    private static long embeddingTokens(Object input, Encoding encoding) {
+        if (input instanceof String) {
+            return TikTokensUtil.tokens(encoding, (String) input);
+        }
+        long tokens = 0;
+        if (input instanceof List) {
+            for (Object item : (List<?>) input) {
+                tokens += item instanceof Integer ? 1 : embeddingTokens(item, encoding);
+            }
+        }
+        return tokens;
+    }
+}
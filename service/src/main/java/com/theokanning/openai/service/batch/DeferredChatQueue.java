@@ -0,0 +1,302 @@
+package com.theokanning.openai.service.batch;
+
+import com.theokanning.openai.OpenAiError;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends latency tolerant chat completions through the Batch API, at half the price and outside the synchronous
+ * rate limits, and falls back to createChatCompletion for the ones about to miss their deadline.
+ * <pre>{@code
+ * DeferredChatQueue queue = new DeferredChatQueue(service, orchestrator, DeferredQueueConfig.builder()
+ *         .workDirectory(Paths.get("deferred"))
+ *         .build());
+ * CompletableFuture<ChatCompletionResult> summary = queue.submit(request, Instant.now().plus(Duration.ofHours(12)));
+ * }</pre>
+ * Requests accumulate until {@link DeferredQueueConfig#getMaxBatchSize()} of them are pending or the first has
+ * waited {@link DeferredQueueConfig#getMaxLinger()}, then are written to a shard and submitted to the
+ * {@link BatchOrchestrator}, which must be configured for /v1/chat/completions. Each future is completed as the
+ * output of its batch is streamed.
+ * <p>
+ * A request still unanswered {@link DeferredQueueConfig#getFallbackMargin()} before its deadline is sent
+ * synchronously, and so is one whose batch failed, expired or left it without a retriable answer; whichever answer
+ * comes first completes the future. A request the batch rejected with a 4xx fails with an
+ * {@link OpenAiHttpException} instead.
+ */
+@Slf4j
+public class DeferredChatQueue implements AutoCloseable {
+
+    private final OpenAiService service;
+    private final BatchOrchestrator orchestrator;
+    private final DeferredQueueConfig config;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ExecutorService fallbackRequests;
+    private final Map<String, Deferred> outstanding = new ConcurrentHashMap<>();
+    /**
+     * Tells apart the shards and custom ids of queues sharing a work directory, or of a restarted process
+     */
+    private final String queueId = UUID.randomUUID().toString();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private volatile boolean closed;
+
+    // scheduler thread only
+    private final Set<Deferred> pending = new LinkedHashSet<>();
+    private ScheduledFuture<?> lingerFlush;
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder batched = new LongAdder();
+    private final LongAdder completedByBatch = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public DeferredChatQueue(OpenAiService service, BatchOrchestrator orchestrator, DeferredQueueConfig config) {
+        if (config.getMaxBatchSize() <= 0 || config.getMaxConcurrentFallbacks() <= 0) {
+            throw new IllegalArgumentException("maxBatchSize and maxConcurrentFallbacks must be positive");
+        }
+        this.service = service;
+        this.orchestrator = orchestrator;
+        this.config = config;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "openai-deferred-queue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // deadline checks are cancelled as requests complete, drop them from the queue rather than at their time
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        AtomicInteger threads = new AtomicInteger();
+        this.fallbackRequests = Executors.newFixedThreadPool(config.getMaxConcurrentFallbacks(), runnable -> {
+            Thread thread = new Thread(runnable, "openai-deferred-fallback-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param deadline time by which the answer is needed
+     * @return completed with the answer, from the batch or from the synchronous fallback
+     */
+    public CompletableFuture<ChatCompletionResult> submit(ChatCompletionRequest request, Instant deadline) {
+        Deferred deferred = new Deferred("deferred-" + queueId + "-" + ids.incrementAndGet(), request);
+        if (closed) {
+            deferred.future.completeExceptionally(new IllegalStateException("deferred queue is closed"));
+            return deferred.future;
+        }
+        submitted.increment();
+        outstanding.put(deferred.customId, deferred);
+        long fallbackInMillis = deadline.toEpochMilli() - config.getFallbackMargin().toMillis() - System.currentTimeMillis();
+        if (fallbackInMillis <= 0) {
+            fallback(deferred);
+            return deferred.future;
+        }
+        deferred.deadlineCheck = scheduler.schedule(() -> fallback(deferred), fallbackInMillis, TimeUnit.MILLISECONDS);
+        scheduler.execute(() -> {
+            if (deferred.answered.get() || deferred.fallenBack.get()) {
+                return;
+            }
+            pending.add(deferred);
+            pendingCount.incrementAndGet();
+            if (pending.size() >= config.getMaxBatchSize()) {
+                flush();
+            } else if (lingerFlush == null) {
+                lingerFlush = scheduler.schedule(this::flush, config.getMaxLinger().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+        return deferred.future;
+    }
+
+    /**
+     * Sends the pending requests in a batch now
+     */
+    public void flushNow() {
+        scheduler.execute(this::flush);
+    }
+
+    public DeferredQueueStats getStats() {
+        return new DeferredQueueStats(submitted.sum(), batched.sum(), completedByBatch.sum(), fallbacks.sum(),
+                failed.sum(), pendingCount.get(), outstanding.size());
+    }
+
+    /**
+     * Stops accepting requests and sends the pending ones in a batch. Threads stop once every request is answered;
+     * the orchestrator is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.execute(() -> {
+            flush();
+            shutdownIfDone();
+        });
+    }
+
+    private void flush() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Deferred> batch = new ArrayList<>(pending);
+        pending.clear();
+        pendingCount.addAndGet(-batch.size());
+        BatchInputManifest manifest;
+        try {
+            manifest = new BatchInputWriter(BatchInputConfig.builder()
+                    .directory(config.getWorkDirectory())
+                    .prefix("deferred-" + queueId + "-" + flushes.incrementAndGet())
+                    .build()).write(batch.stream().map(deferred -> BatchRequestLine.builder()
+                    .customId(deferred.customId)
+                    .body(deferred.request)
+                    .build()));
+        } catch (RuntimeException e) {
+            log.warn("could not write a deferred batch, sending its {} requests synchronously", batch.size(), e);
+            batch.forEach(this::fallback);
+            return;
+        }
+        batched.add(batch.size());
+        orchestrator.submit(manifest, ChatCompletionResult.class, this::onResult).whenComplete((ignored, error) -> {
+            for (BatchShard shard : manifest.getShards()) {
+                try {
+                    Files.deleteIfExists(shard.getPath());
+                } catch (IOException e) {
+                    log.warn("could not delete {}", shard.getPath(), e);
+                }
+            }
+            if (error != null) {
+                log.warn("deferred batch failed, sending its unanswered requests synchronously", error);
+                for (Deferred deferred : batch) {
+                    if (!deferred.answered.get()) {
+                        fallback(deferred);
+                    }
+                }
+            }
+        });
+    }
+
+    private void onResult(BatchRequestLine input, BatchResult<ChatCompletionResult> result) {
+        Deferred deferred = outstanding.get(input.getCustomId());
+        if (deferred == null) {
+            return;
+        }
+        if (result != null && result.isSuccess()) {
+            complete(deferred, result.getBody(), completedByBatch);
+        } else if (result != null && result.getStatusCode() >= 400 && result.getStatusCode() < 500
+                && result.getStatusCode() != 408 && result.getStatusCode() != 429) {
+            OpenAiError.OpenAiErrorDetails error = result.getError() != null ? result.getError()
+                    : new OpenAiError.OpenAiErrorDetails("batch request failed with status " + result.getStatusCode(), null, null, null);
+            fail(deferred, new OpenAiHttpException(new OpenAiError(error), null, result.getStatusCode()));
+        } else {
+            fallback(deferred);
+        }
+    }
+
+    private void fallback(Deferred deferred) {
+        if (deferred.answered.get() || !deferred.fallenBack.compareAndSet(false, true)) {
+            return;
+        }
+        fallbacks.increment();
+        onScheduler(() -> {
+            if (pending.remove(deferred)) {
+                pendingCount.decrementAndGet();
+            }
+        });
+        fallbackRequests.execute(() -> {
+            try {
+                complete(deferred, service.createChatCompletion(deferred.request), null);
+            } catch (Exception e) {
+                fail(deferred, e);
+            }
+        });
+    }
+
+    private void complete(Deferred deferred, ChatCompletionResult result, LongAdder counter) {
+        if (claim(deferred, counter)) {
+            deferred.future.complete(result);
+        }
+    }
+
+    private void fail(Deferred deferred, Exception e) {
+        if (claim(deferred, failed)) {
+            deferred.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Settles the request once, with its stats updated before its future completes
+     */
+    private boolean claim(Deferred deferred, LongAdder counter) {
+        if (!deferred.answered.compareAndSet(false, true)) {
+            return false;
+        }
+        if (counter != null) {
+            counter.increment();
+        }
+        outstanding.remove(deferred.customId);
+        ScheduledFuture<?> deadlineCheck = deferred.deadlineCheck;
+        if (deadlineCheck != null) {
+            deadlineCheck.cancel(false);
+        }
+        if (closed && outstanding.isEmpty()) {
+            onScheduler(this::shutdownIfDone);
+        }
+        return true;
+    }
+
+    private void onScheduler(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down once every request was answered, nothing left to update
+        }
+    }
+
+    private void shutdownIfDone() {
+        if (outstanding.isEmpty() && pending.isEmpty()) {
+            scheduler.shutdown();
+            fallbackRequests.shutdown();
+        }
+    }
+
+    private static final class Deferred {
+        final String customId;
+        final ChatCompletionRequest request;
+        final CompletableFuture<ChatCompletionResult> future = new CompletableFuture<>();
+        final AtomicBoolean fallenBack = new AtomicBoolean();
+        final AtomicBoolean answered = new AtomicBoolean();
+        volatile ScheduledFuture<?> deadlineCheck;
+
+        Deferred(String customId, ChatCompletionRequest request) {
+            this.customId = customId;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link DeferredChatQueue}
+ */
+@Getter
+@Builder
+public class DeferredQueueConfig {
+
+    /**
+     * Directory the batch input shards are written to
+     */
+    @NonNull
+    private final Path workDirectory;
+
+    /**
+     * Requests accumulated before they are sent as a batch
+     */
+    @Builder.Default
+    private final int maxBatchSize = 10_000;
+
+    /**
+     * Longest time the first request of a batch waits for others before the batch is sent anyway
+     */
+    @Builder.Default
+    private final Duration maxLinger = Duration.ofMinutes(5);
+
+    /**
+     * Time before its deadline at which a request not answered yet is sent synchronously, enough for the
+     * synchronous call to complete
+     */
+    @Builder.Default
+    private final Duration fallbackMargin = Duration.ofMinutes(10);
+
+    /**
+     * Synchronous fallback requests in flight
+     */
+    @Builder.Default
+    private final int maxConcurrentFallbacks = 8;
+}
@@ -0,0 +1,49 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of a {@link DeferredChatQueue}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DeferredQueueStats {
+
+    /**
+     * Requests accepted
+     */
+    private final long submitted;
+
+    /**
+     * Requests sent in a batch
+     */
+    private final long batched;
+
+    /**
+     * Requests answered by a batch
+     */
+    private final long completedByBatch;
+
+    /**
+     * Requests sent synchronously, because their deadline was near or their batch failed them
+     */
+    private final long fallbacks;
+
+    /**
+     * Requests completed exceptionally
+     */
+    private final long failed;
+
+    /**
+     * Requests waiting to be sent in a batch
+     */
+    private final int pending;
+
+    /**
+     * Requests not answered yet
+     */
+    private final int outstanding;
+}
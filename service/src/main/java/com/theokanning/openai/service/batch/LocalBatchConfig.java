@@ -0,0 +1,54 @@
+package com.theokanning.openai.service.batch;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link LocalBatchExecutor}
+ */
+@Getter
+@Builder
+public class LocalBatchConfig {
+
+    /**
+     * Maximum requests in flight
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 32;
+
+    /**
+     * Requests sent per minute, 0 for no limit
+     */
+    @Builder.Default
+    private final long requestsPerMinute = 0;
+
+    /**
+     * Estimated input tokens sent per minute, 0 for no limit
+     */
+    @Builder.Default
+    private final long tokensPerMinute = 0;
+
+    /**
+     * Tokenizer used to estimate the input tokens of the requests
+     */
+    @Builder.Default
+    private final EncodingType encoding = EncodingType.CL100K_BASE;
+
+    /**
+     * Sends of a request, the first included, while it fails with 408, 429, 5xx or an io error
+     */
+    @Builder.Default
+    private final int maxAttempts = 5;
+
+    /**
+     * Wait before the second attempt, doubled at each retry
+     */
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofSeconds(1);
+
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofMinutes(1);
+}
@@ -0,0 +1,329 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.knuddels.jtokkit.api.Encoding;
+import com.theokanning.openai.OpenAiError;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.TokenBucket;
+import com.theokanning.openai.utils.TikTokensUtil;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import okio.BufferedSource;
+import okio.Okio;
+import retrofit2.HttpException;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs a batch input file against the synchronous endpoints, for urgent reruns or servers without the Batch API,
+ * and writes output and error files in the Batch API format, readable by {@link BatchOutputReader} and
+ * {@link BatchResultJoiner}.
+ * <pre>{@code
+ * LocalBatchExecutor executor = new LocalBatchExecutor(service, LocalBatchConfig.builder()
+ *         .maxConcurrentRequests(64)
+ *         .tokensPerMinute(2_000_000)
+ *         .build());
+ * executor.run(Paths.get("batch-input-00000.jsonl"), Paths.get("output.jsonl"), Paths.get("errors.jsonl"));
+ * }</pre>
+ * /v1/chat/completions and /v1/embeddings lines are decoded and sent through {@link OpenAiService}, so that its
+ * decorators apply, {@link LocalBatchConfig#getMaxConcurrentRequests()} at a time within the per minute limits.
+ * The input is read as requests are sent and results are appended as they arrive, in no particular order.
+ * <p>
+ * The output file is the checkpoint: each line is flushed once written, and a run skips the custom ids already in
+ * it, after cutting a line left incomplete by a crash. The error file is rewritten by each run, so failed requests
+ * are tried again.
+ */
+public class LocalBatchExecutor {
+
+    private static final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private static final ObjectWriter bodyWriter = mapper.writer();
+
+    private final OpenAiService service;
+    private final LocalBatchConfig config;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final Encoding encoding;
+
+    public LocalBatchExecutor(OpenAiService service, LocalBatchConfig config) {
+        if (config.getMaxConcurrentRequests() <= 0 || config.getMaxAttempts() <= 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests and maxAttempts must be positive");
+        }
+        this.service = service;
+        this.config = config;
+        this.requestBucket = config.getRequestsPerMinute() > 0 ? new TokenBucket(config.getRequestsPerMinute()) : null;
+        this.tokenBucket = config.getTokensPerMinute() > 0 ? new TokenBucket(config.getTokensPerMinute()) : null;
+        this.encoding = tokenBucket != null ? TikTokensUtil.getEncoding(config.getEncoding()) : null;
+    }
+
+    /**
+     * Runs the requests of the input file not yet in the output file, blocking until they are all written
+     */
+    public LocalBatchStats run(Path input, Path output, Path errors) throws IOException {
+        Set<String> done = completed(output);
+        Counters counters = new Counters();
+        try (MappingIterator<JsonNode> lines = mapper.readerFor(JsonNode.class).readValues(input.toFile());
+             LineWriter outputs = new LineWriter(output, StandardOpenOption.APPEND);
+             LineWriter failures = new LineWriter(errors, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Iterable<JsonNode> pending = () -> new Pending(lines, done, counters);
+            Flowable.fromIterable(pending)
+                    .flatMap(line -> Flowable.fromCallable(() -> execute(line, counters)).subscribeOn(Schedulers.io()),
+                            config.getMaxConcurrentRequests())
+                    .blockingForEach(outcome -> {
+                        if (outcome.isSuccess()) {
+                            counters.succeeded.increment();
+                            outputs.write(outcome);
+                        } else {
+                            counters.failed.increment();
+                            failures.write(outcome);
+                        }
+                    });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new LocalBatchStats(counters.skipped.sum(), counters.succeeded.sum(), counters.failed.sum(), counters.retries.sum());
+    }
+
+    /**
+     * @return the custom ids of the output file, cut after its last complete line
+     */
+    private static Set<String> completed(Path output) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(output)) {
+            return done;
+        }
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = channel.size();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (end > 0) {
+                one.clear();
+                channel.read(one, end - 1);
+                if (one.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            channel.truncate(end);
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(output))) {
+            byte[] line;
+            while ((line = BatchResultJoiner.nextLine(source)) != null) {
+                done.add(BatchResultJoiner.customId(line));
+            }
+        }
+        return done;
+    }
+
+    private Outcome execute(JsonNode line, Counters counters) throws InterruptedException {
+        String customId = line.path("custom_id").asText(null);
+        if (customId == null || customId.isEmpty()) {
+            return Outcome.failed(customId, 400, "line without custom_id", "invalid_request_error", null);
+        }
+        String url = line.path("url").asText("");
+        JsonNode body = line.get("body");
+        Object request;
+        Function<Object, Object> call;
+        try {
+            if (url.endsWith("/chat/completions")) {
+                request = mapper.treeToValue(body, ChatCompletionRequest.class);
+                call = chat -> service.createChatCompletion((ChatCompletionRequest) chat);
+            } else if (url.endsWith("/embeddings")) {
+                request = mapper.treeToValue(body, EmbeddingRequest.class);
+                call = embedding -> service.createEmbeddings((EmbeddingRequest) embedding);
+            } else {
+                return Outcome.failed(customId, 400, "unsupported url " + url, "invalid_request_error", null);
+            }
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            return Outcome.failed(customId, 400, "invalid request body: " + e.getMessage(), "invalid_request_error", null);
+        }
+        long tokens = encoding != null ? BatchTokens.estimate(request, encoding,
+                body.toString().getBytes(StandardCharsets.UTF_8).length) : 0;
+        long backoff = config.getInitialBackoff().toMillis();
+        for (int attempt = 1; ; attempt++) {
+            if (requestBucket != null) {
+                requestBucket.acquire(1);
+            }
+            if (tokenBucket != null) {
+                tokenBucket.acquire(tokens);
+            }
+            Outcome failure;
+            boolean retriable;
+            try {
+                return Outcome.succeeded(customId, call.apply(request));
+            } catch (OpenAiHttpException e) {
+                failure = Outcome.failed(customId, e.statusCode, e.getMessage(), e.type, e.code);
+                retriable = isRetriable(e.statusCode);
+            } catch (HttpException e) {
+                failure = Outcome.failed(customId, e.code(), e.getMessage(), null, null);
+                retriable = isRetriable(e.code());
+            } catch (RuntimeException e) {
+                failure = Outcome.notExecuted(customId, "request_failed", String.valueOf(e.getMessage()));
+                retriable = true;
+            }
+            if (!retriable || attempt >= config.getMaxAttempts()) {
+                return failure;
+            }
+            counters.retries.increment();
+            TimeUnit.MILLISECONDS.sleep(backoff);
+            backoff = Math.min(backoff * 2, config.getMaxBackoff().toMillis());
+        }
+    }
+
+    private static boolean isRetriable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    private static String randomId(String prefix) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return prefix + Long.toHexString(random.nextLong() | Long.MIN_VALUE) + Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+    }
+
+    /**
+     * The lines of the input whose custom id is not done yet
+     */
+    private static final class Pending implements Iterator<JsonNode> {
+        private final Iterator<JsonNode> lines;
+        private final Set<String> done;
+        private final Counters counters;
+        private JsonNode next;
+
+        Pending(Iterator<JsonNode> lines, Set<String> done, Counters counters) {
+            this.lines = lines;
+            this.done = done;
+            this.counters = counters;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && lines.hasNext()) {
+                JsonNode line = lines.next();
+                if (done.contains(line.path("custom_id").asText(null))) {
+                    counters.skipped.increment();
+                } else {
+                    next = line;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public JsonNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            JsonNode line = next;
+            next = null;
+            return line;
+        }
+    }
+
+    /**
+     * Writes Batch API output lines with one reused generator, flushing each line
+     */
+    private static final class LineWriter implements Closeable {
+        private final JsonGenerator generator;
+
+        LineWriter(Path path, StandardOpenOption mode) throws IOException {
+            this.generator = mapper.getFactory().createGenerator(new BufferedOutputStream(
+                    Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)));
+            this.generator.setRootValueSeparator(null);
+        }
+
+        void write(Outcome outcome) {
+            try {
+                generator.writeStartObject();
+                generator.writeStringField("id", randomId("batch_req_"));
+                generator.writeStringField("custom_id", outcome.customId);
+                if (outcome.statusCode == 0) {
+                    generator.writeNullField("response");
+                    generator.writeObjectFieldStart("error");
+                    generator.writeStringField("code", outcome.error.getCode());
+                    generator.writeStringField("message", outcome.error.getMessage());
+                    generator.writeEndObject();
+                } else {
+                    generator.writeObjectFieldStart("response");
+                    generator.writeNumberField("status_code", outcome.statusCode);
+                    generator.writeStringField("request_id", randomId("req_"));
+                    generator.writeFieldName("body");
+                    bodyWriter.writeValue(generator, outcome.body != null ? outcome.body : new OpenAiError(outcome.error));
+                    generator.writeEndObject();
+                    generator.writeNullField("error");
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                generator.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static final class Outcome {
+        final String customId;
+        /**
+         * 0 if the request could not be sent
+         */
+        final int statusCode;
+        final Object body;
+        final OpenAiError.OpenAiErrorDetails error;
+
+        private Outcome(String customId, int statusCode, Object body, OpenAiError.OpenAiErrorDetails error) {
+            this.customId = customId;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.error = error;
+        }
+
+        static Outcome succeeded(String customId, Object body) {
+            return new Outcome(customId, 200, body, null);
+        }
+
+        static Outcome failed(String customId, int statusCode, String message, String type, String code) {
+            return new Outcome(customId, statusCode, null, new OpenAiError.OpenAiErrorDetails(message, type, null, code));
+        }
+
+        static Outcome notExecuted(String customId, String code, String message) {
+            return new Outcome(customId, 0, null, new OpenAiError.OpenAiErrorDetails(message, null, null, code));
+        }
+
+        boolean isSuccess() {
+            return body != null;
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder skipped = new LongAdder();
+        final LongAdder succeeded = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder retries = new LongAdder();
+    }
+}
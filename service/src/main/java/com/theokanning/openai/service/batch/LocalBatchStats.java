@@ -0,0 +1,34 @@
+package com.theokanning.openai.service.batch;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of a {@link LocalBatchExecutor#run} call
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class LocalBatchStats {
+
+    /**
+     * Requests already in the output file from a previous run
+     */
+    private final long skipped;
+
+    /**
+     * Requests written to the output file
+     */
+    private final long succeeded;
+
+    /**
+     * Requests written to the error file
+     */
+    private final long failed;
+
+    /**
+     * Sends after a retriable failure
+     */
+    private final long retries;
+}
@@ -0,0 +1,26 @@
+package com.theokanning.openai.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A cached value with its expiration time
+ */
+@Getter
+@AllArgsConstructor
+public class CacheEntry {
+
+    /**
+     * The serialized value. Tiers store bytes rather than objects so that no two callers share a mutable result.
+     */
+    private final byte[] value;
+
+    /**
+     * Epoch millis after which the entry must not be served
+     */
+    private final long expiresAtMillis;
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+}
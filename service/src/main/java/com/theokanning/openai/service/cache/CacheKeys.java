@@ -0,0 +1,95 @@
+package com.theokanning.openai.service.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Cache key helpers: strong hashes of texts and of canonical json
+ */
+public class CacheKeys {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CacheKeys() {
+    }
+
+    public static String sha256Hex(String text) {
+        return sha256Hex(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String sha256Hex(byte[] bytes) {
+        byte[] digest = sha256().digest(bytes);
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Hash of the json serialization of a request with its object keys sorted, so that two equal requests
+     * always give the same key whatever the field order.
+     *
+     * @param namespace     distinguishes requests of different endpoints
+     * @param ignoredFields   top level fields left out of the key, e.g. "user"
+     */
+    public static String canonicalHash(ObjectMapper mapper, String namespace, Object request, String... ignoredFields) {
+        JsonNode tree = mapper.valueToTree(request);
+        if (tree instanceof ObjectNode) {
+            for (String field : ignoredFields) {
+                ((ObjectNode) tree).remove(field);
+            }
+        }
+        try {
+            byte[] json = mapper.writeValueAsBytes(canonical(mapper, tree));
+            MessageDigest digest = sha256();
+            digest.update(namespace.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return sha256Hex(digest.digest(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("request can not be serialized", e);
+        }
+    }
+
+    private static JsonNode canonical(ObjectMapper mapper, JsonNode node) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            Iterator<String> it = node.fieldNames();
+            it.forEachRemaining(names::add);
+            Collections.sort(names);
+            ObjectNode sorted = mapper.createObjectNode();
+            for (String name : names) {
+                sorted.set(name, canonical(mapper, node.get(name)));
+            }
+            return sorted;
+        }
+        if (node.isArray()) {
+            ArrayNode array = mapper.createArrayNode();
+            for (JsonNode element : node) {
+                array.add(canonical(mapper, element));
+            }
+            return array;
+        }
+        return node;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
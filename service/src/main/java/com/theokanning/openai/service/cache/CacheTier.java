@@ -0,0 +1,22 @@
+package com.theokanning.openai.service.cache;
+
+/**
+ * One storage level of a {@link ResponseCache}, e.g. {@link TinyLfuCacheTier} in heap or {@link DiskCacheTier}.
+ * Implementations are thread safe and bound their own size.
+ */
+public interface CacheTier {
+
+    /**
+     * @return the entry, or null if it is missing or expired
+     */
+    CacheEntry get(String key);
+
+    void put(String key, CacheEntry entry);
+
+    void invalidate(String key);
+
+    /**
+     * @return number of entries currently stored
+     */
+    long size();
+}
@@ -0,0 +1,192 @@
+package com.theokanning.openai.service.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tier storing every entry in its own file of a directory, so that cached responses survive restarts and can be
+ * shared by the processes of a host.
+ * <p>
+ * Files are written to a temporary file and moved in place, a reader never sees half an entry. When the directory
+ * grows over {@code maxBytes} the least recently used files are deleted until it is back to 90% of it.
+ * Keys must be file-name safe, which the hex hashes of {@link CacheKeys} are. io errors are logged and turned
+ * into misses, a broken disk never fails a call.
+ */
+@Slf4j
+public class DiskCacheTier implements CacheTier {
+
+    private static final String SUFFIX = ".entry";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+
+    public DiskCacheTier(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(directory);
+            for (Path file : entries()) {
+                bytes.addAndGet(Files.size(file));
+                files.incrementAndGet();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("cache directory " + directory + " is not usable", e);
+        }
+    }
+
+    @Override
+    public CacheEntry get(String key) {
+        Path file = file(key);
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            long expiresAt = in.readLong();
+            if (expiresAt <= System.currentTimeMillis()) {
+                in.close();
+                delete(file);
+                return null;
+            }
+            byte[] value = readAll(in);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new CacheEntry(value, expiresAt);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.warn("could not read cache entry {}", file, e);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) {
+        Path file = file(key);
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeLong(entry.getExpiresAtMillis());
+                out.write(entry.getValue());
+            }
+            long size = Files.size(tmp);
+            long previous = Files.exists(file) ? Files.size(file) : -1;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (previous >= 0) {
+                bytes.addAndGet(size - previous);
+            } else {
+                bytes.addAndGet(size);
+                files.incrementAndGet();
+            }
+        } catch (IOException e) {
+            log.warn("could not write cache entry {}", file, e);
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                    // nothing more to do
+                }
+            }
+            return;
+        }
+        if (bytes.get() > maxBytes) {
+            trim();
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        delete(file(key));
+    }
+
+    @Override
+    public long size() {
+        return files.get();
+    }
+
+    /**
+     * @return bytes used by the entries
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private synchronized void trim() {
+        if (bytes.get() <= maxBytes) {
+            return;
+        }
+        List<Path> lru = new ArrayList<>();
+        try {
+            lru.addAll(entries());
+            lru.sort(Comparator.comparingLong(DiskCacheTier::lastModified));
+        } catch (IOException e) {
+            log.warn("could not list cache directory {}", directory, e);
+            return;
+        }
+        long target = maxBytes / 10 * 9;
+        for (Path file : lru) {
+            if (bytes.get() <= target) {
+                break;
+            }
+            delete(file);
+        }
+    }
+
+    private void delete(Path file) {
+        try {
+            long size = Files.size(file);
+            if (Files.deleteIfExists(file)) {
+                bytes.addAndGet(-size);
+                files.decrementAndGet();
+            }
+        } catch (NoSuchFileException e) {
+            // removed concurrently
+        } catch (IOException e) {
+            log.warn("could not delete cache entry {}", file, e);
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
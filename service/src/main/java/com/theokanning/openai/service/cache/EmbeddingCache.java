@@ -0,0 +1,116 @@
+package com.theokanning.openai.service.cache;
+
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of embedding vectors by model, dimensions and text, see {@link EmbeddingCacheApiDecorator}.
+ * <pre>{@code
+ * EmbeddingCache cache = EmbeddingCache.builder()
+ *         .tier(new TinyLfuCacheTier(100_000))
+ *         .build();
+ * OpenAiService cached = service.withEmbeddingCache(cache);
+ * }</pre>
+ * Vectors are stored as little-endian float32 bytes, 4 bytes per dimension, in the same {@link CacheTier}s as
+ * the {@link ResponseCache}: a 1536 dimensions vector takes 6KB instead of the ~40KB of a list of Doubles.
+ * The key is a SHA-256 of the model, the dimensions and the text, the encoding format is not part of it.
+ */
+@Slf4j
+public class EmbeddingCache {
+
+    private final List<CacheTier> tiers;
+    private final long ttlMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * @param tiers storage levels, fastest first
+     * @param ttl   how long a vector is served, forever by default since a model always gives the same vector
+     */
+    @Builder
+    private EmbeddingCache(@Singular List<CacheTier> tiers, Duration ttl) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("an embedding cache needs at least one tier");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+        this.ttlMillis = ttl != null ? ttl.toMillis() : -1;
+    }
+
+    public List<CacheTier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * @return hits and misses counted per text, duplicates are texts repeated within a request
+     */
+    public EmbeddingCacheStats getStats() {
+        return new EmbeddingCacheStats(hits.sum(), misses.sum(), duplicates.sum());
+    }
+
+    /**
+     * @throws IllegalArgumentException when model or text is null
+     */
+    public static String key(String model, Integer dimensions, String text) {
+        if (model == null || text == null) {
+            throw new IllegalArgumentException("an embedding cache key needs a model and a text");
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(dimensions).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return CacheKeys.sha256Hex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * @return the cached vector, or null
+     */
+    public float[] get(String key) {
+        for (int i = 0; i < tiers.size(); i++) {
+            CacheEntry entry = tiers.get(i).get(key);
+            if (entry != null) {
+                for (int upper = 0; upper < i; upper++) {
+                    tiers.get(upper).put(key, entry);
+                }
+                hits.increment();
+                return EmbeddingVectors.fromBytes(entry.getValue());
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(String key, float[] vector) {
+        long expiresAt = ttlMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis;
+        CacheEntry entry = new CacheEntry(EmbeddingVectors.toBytes(vector), expiresAt);
+        for (CacheTier tier : tiers) {
+            try {
+                tier.put(key, entry);
+            } catch (RuntimeException e) {
+                log.warn("could not store embedding in {}", tier.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    void countDuplicates(int count) {
+        duplicates.add(count);
+    }
+}
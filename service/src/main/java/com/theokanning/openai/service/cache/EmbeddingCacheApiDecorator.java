@@ -0,0 +1,217 @@
+package com.theokanning.openai.service.cache;
+
+import com.theokanning.openai.Usage;
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.embedding.Embedding;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import com.theokanning.openai.embedding.FloatEmbedding;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
+import com.theokanning.openai.service.OpenAiApiDecorator;
+import io.reactivex.Single;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Serves createEmbeddings and createFloatEmbeddings from an {@link EmbeddingCache}: the input texts are split into hits and misses, only
+ * the misses are sent upstream (each distinct text once) and the result lists every input in its original order.
+ * <pre>{@code
+ * OpenAiService service = new OpenAiService(new EmbeddingCacheApiDecorator(api, cache).getApi());
+ * }</pre>
+ * The usage of the result only counts the tokens of the texts sent upstream. Token array inputs and requests without
+ * a model are not cached.
+ */
+public class EmbeddingCacheApiDecorator extends OpenAiApiDecorator {
+
+    private final EmbeddingCache cache;
+
+    public EmbeddingCacheApiDecorator(OpenAiApi delegate, EmbeddingCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        boolean floats = "createFloatEmbeddings".equals(method.getName());
+        if (!floats && !"createEmbeddings".equals(method.getName()) || !(args[0] instanceof EmbeddingRequest)) {
+            return single;
+        }
+        EmbeddingRequest request = (EmbeddingRequest) args[0];
+        List<String> texts = texts(request.getInput());
+        if (texts == null || request.getModel() == null) {
+            // a request without a model is rejected upstream
+            return single;
+        }
+        if (floats) {
+            return (Single<T>) Single.defer(() -> embed(request, texts, upstream -> delegate.createFloatEmbeddings(upstream)
+                    .map(response -> {
+                        List<float[]> vectors = new ArrayList<>(Collections.nCopies(response.getData().size(), null));
+                        for (FloatEmbedding embedding : response.getData()) {
+                            vectors.set(embedding.getIndex(), embedding.getEmbedding());
+                        }
+                        return new Embedded(response.getModel(), vectors, response.getUsage());
+                    }))
+                    .map(EmbeddingCacheApiDecorator::floatResult));
+        }
+        return (Single<T>) Single.defer(() -> embed(request, texts, upstream -> delegate.createEmbeddings(upstream)
+                .map(response -> {
+                    List<float[]> vectors = new ArrayList<>(Collections.nCopies(response.getData().size(), null));
+                    for (Embedding embedding : response.getData()) {
+                        vectors.set(embedding.getIndex(), EmbeddingVectors.toFloatArray(embedding.getEmbedding()));
+                    }
+                    return new Embedded(response.getModel(), vectors, response.getUsage());
+                }))
+                .map(embedded -> result(request, embedded)));
+    }
+
+    /**
+     * @param upstream sends a request for the missing texts
+     * @return the vectors of every input, in input order
+     */
+    private Single<Embedded> embed(EmbeddingRequest request, List<String> texts,
+                                   Function<EmbeddingRequest, Single<Embedded>> upstream) {
+        float[][] vectors = new float[texts.size()][];
+        // distinct missing texts, with their key and the input positions waiting for them
+        Map<String, Miss> misses = new LinkedHashMap<>();
+        int duplicates = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            Miss miss = misses.get(text);
+            if (miss != null) {
+                miss.positions.add(i);
+                duplicates++;
+                continue;
+            }
+            String key = EmbeddingCache.key(request.getModel(), request.getDimensions(), text);
+            float[] vector = cache.get(key);
+            if (vector != null) {
+                vectors[i] = vector;
+            } else {
+                misses.put(text, new Miss(key, i));
+            }
+        }
+        cache.countDuplicates(duplicates);
+        if (misses.isEmpty()) {
+            return Single.just(new Embedded(request.getModel(), Arrays.asList(vectors), new Usage()));
+        }
+
+        EmbeddingRequest missing = new EmbeddingRequest();
+        missing.setModel(request.getModel());
+        missing.setInput(new ArrayList<>(misses.keySet()));
+        missing.setEncodingFormat(request.getEncodingFormat());
+        missing.setDimensions(request.getDimensions());
+        missing.setUser(request.getUser());
+        List<Miss> pending = new ArrayList<>(misses.values());
+        return upstream.apply(missing).map(response -> {
+            for (int i = 0; i < pending.size() && i < response.vectors.size(); i++) {
+                float[] vector = response.vectors.get(i);
+                if (vector == null) {
+                    continue;
+                }
+                Miss miss = pending.get(i);
+                cache.put(miss.key, vector);
+                for (int position : miss.positions) {
+                    vectors[position] = vector;
+                }
+            }
+            return new Embedded(response.model, Arrays.asList(vectors), response.usage);
+        });
+    }
+
+    private static EmbeddingResult result(EmbeddingRequest request, Embedded embedded) {
+        List<Embedding> data = new ArrayList<>(embedded.vectors.size());
+        for (int i = 0; i < embedded.vectors.size(); i++) {
+            Embedding embedding = new Embedding();
+            embedding.setObject("embedding");
+            embedding.setIndex(i);
+            embedding.setEmbedding(EmbeddingVectors.toEmbedding(vector(embedded, i), request.getEncodingFormat()));
+            data.add(embedding);
+        }
+        EmbeddingResult result = new EmbeddingResult();
+        result.setObject("list");
+        result.setModel(embedded.model);
+        result.setData(data);
+        result.setUsage(embedded.usage);
+        return result;
+    }
+
+    private static FloatEmbeddingResult floatResult(Embedded embedded) {
+        List<FloatEmbedding> data = new ArrayList<>(embedded.vectors.size());
+        for (int i = 0; i < embedded.vectors.size(); i++) {
+            FloatEmbedding embedding = new FloatEmbedding();
+            embedding.setObject("embedding");
+            embedding.setIndex(i);
+            // a copy, the cached array may be shared with other results
+            embedding.setEmbedding(vector(embedded, i).clone());
+            data.add(embedding);
+        }
+        FloatEmbeddingResult result = new FloatEmbeddingResult();
+        result.setObject("list");
+        result.setModel(embedded.model);
+        result.setData(data);
+        result.setUsage(embedded.usage);
+        return result;
+    }
+
+    private static float[] vector(Embedded embedded, int index) {
+        float[] vector = embedded.vectors.get(index);
+        if (vector == null) {
+            throw new IllegalStateException("no embedding returned for input " + index);
+        }
+        return vector;
+    }
+
+    /**
+     * @return the input texts, or null if the input is made of tokens
+     */
+    private static List<String> texts(Object input) {
+        if (input instanceof String) {
+            return Collections.singletonList((String) input);
+        }
+        if (input instanceof List && !((List<?>) input).isEmpty()) {
+            for (Object element : (List<?>) input) {
+                if (!(element instanceof String)) {
+                    return null;
+                }
+            }
+            @SuppressWarnings("unchecked")
+            List<String> texts = (List<String>) input;
+            return texts;
+        }
+        return null;
+    }
+
+    /**
+     * Vectors by index, from the cache or upstream
+     */
+    private static final class Embedded {
+        final String model;
+        final List<float[]> vectors;
+        final Usage usage;
+
+        Embedded(String model, List<float[]> vectors, Usage usage) {
+            this.model = model;
+            this.vectors = vectors;
+            this.usage = usage;
+        }
+    }
+
+    private static final class Miss {
+        final String key;
+        final List<Integer> positions = new ArrayList<>(1);
+
+        Miss(String key, int position) {
+            this.key = key;
+            positions.add(position);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.theokanning.openai.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of an {@link EmbeddingCache}, per text
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class EmbeddingCacheStats {
+
+    /**
+     * Texts served from a tier
+     */
+    private final long hits;
+
+    /**
+     * Texts sent upstream
+     */
+    private final long misses;
+
+    /**
+     * Texts repeated within a request, embedded once
+     */
+    private final long duplicates;
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
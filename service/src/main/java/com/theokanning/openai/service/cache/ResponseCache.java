@@ -0,0 +1,173 @@
+package com.theokanning.openai.service.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.completion.CompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.Single;
+import lombok.Builder;
+import lombok.Singular;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Cache of chat completion and completion responses, see {@link ResponseCacheApiDecorator}.
+ * <pre>{@code
+ * ResponseCache cache = ResponseCache.builder()
+ *         .tier(new TinyLfuCacheTier(10_000))
+ *         .tier(new DiskCacheTier(Paths.get("/var/cache/openai"), 1L << 30))
+ *         .ttl(Duration.ofHours(6))
+ *         .build();
+ * OpenAiService cached = service.withResponseCache(cache);
+ * }</pre>
+ * Only deterministic requests are cached by default: temperature 0 or a fixed seed, and never a stream.
+ * The key is a hash of the request serialized with sorted keys, without its {@code user}.
+ * Tiers are looked up in order and an entry found in a lower tier is copied to the upper ones.
+ * <p>
+ * Concurrent misses of the same key share one upstream call. The cache can be shared by several services.
+ */
+@Slf4j
+public class ResponseCache {
+
+    /**
+     * Requests with temperature 0 or a seed, that do not stream
+     */
+    public static final Predicate<Object> DETERMINISTIC = request -> {
+        if (request instanceof ChatCompletionRequest) {
+            ChatCompletionRequest chat = (ChatCompletionRequest) request;
+            return !Boolean.TRUE.equals(chat.getStream()) && (isZero(chat.getTemperature()) || chat.getSeed() != null);
+        }
+        if (request instanceof CompletionRequest) {
+            CompletionRequest completion = (CompletionRequest) request;
+            return !Boolean.TRUE.equals(completion.getStream()) && isZero(completion.getTemperature());
+        }
+        return false;
+    };
+
+    private static final String[] IGNORED_FIELDS = {"user"};
+
+    private final List<CacheTier> tiers;
+    private final Duration ttl;
+    private final Predicate<Object> eligible;
+    private final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private final Map<String, Single<byte[]>> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * @param tiers    storage levels, fastest first
+     * @param ttl      how long a response is served, one hour by default
+     * @param eligible which requests may be cached, {@link #DETERMINISTIC} by default
+     */
+    @Builder
+    private ResponseCache(@Singular List<CacheTier> tiers, Duration ttl, Predicate<Object> eligible) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("a response cache needs at least one tier");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+        this.ttl = ttl != null ? ttl : Duration.ofHours(1);
+        this.eligible = eligible != null ? eligible : DETERMINISTIC;
+    }
+
+    public List<CacheTier> getTiers() {
+        return tiers;
+    }
+
+    public ResponseCacheStats getStats() {
+        return new ResponseCacheStats(hits.sum(), misses.sum(), sharedLoads.sum(), bypassed.sum());
+    }
+
+    /**
+     * @return whether the request may be served from and stored in the cache, counted as bypassed if not
+     */
+    boolean isEligible(Object request) {
+        if (eligible.test(request)) {
+            return true;
+        }
+        bypassed.increment();
+        return false;
+    }
+
+    String key(String namespace, Object request) {
+        return CacheKeys.canonicalHash(mapper, namespace, request, IGNORED_FIELDS);
+    }
+
+    /**
+     * Serves the response from a tier, or subscribes to {@code upstream} unless the same key is already loading
+     */
+    <T> Single<T> get(String key, Single<T> upstream, JavaType type) {
+        return Single.defer(() -> {
+            byte[] cached = lookup(key);
+            if (cached != null) {
+                hits.increment();
+                return Single.just(mapper.<T>readValue(cached, type));
+            }
+            boolean[] leader = {false};
+            Single<byte[]> flight = inflight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                return load(k, upstream);
+            });
+            if (leader[0]) {
+                misses.increment();
+            } else {
+                sharedLoads.increment();
+            }
+            return flight.map(bytes -> mapper.<T>readValue(bytes, type));
+        });
+    }
+
+    private byte[] lookup(String key) {
+        for (int i = 0; i < tiers.size(); i++) {
+            CacheEntry entry = tiers.get(i).get(key);
+            if (entry != null) {
+                for (int upper = 0; upper < i; upper++) {
+                    tiers.get(upper).put(key, entry);
+                }
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Single<byte[]> load(String key, Single<?> upstream) {
+        AtomicReference<Single<byte[]>> self = new AtomicReference<>();
+        Single<byte[]> flight = upstream
+                .map(mapper::writeValueAsBytes)
+                .doOnSuccess(bytes -> {
+                    store(key, bytes);
+                    inflight.remove(key, self.get());
+                })
+                .doOnError(e -> inflight.remove(key, self.get()))
+                .cache();
+        self.set(flight);
+        return flight;
+    }
+
+    private void store(String key, byte[] bytes) {
+        CacheEntry entry = new CacheEntry(bytes, System.currentTimeMillis() + ttl.toMillis());
+        for (CacheTier tier : tiers) {
+            try {
+                tier.put(key, entry);
+            } catch (RuntimeException e) {
+                log.warn("could not store response in {}", tier.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    private static boolean isZero(Double value) {
+        return value != null && value == 0;
+    }
+}
@@ -0,0 +1,48 @@
+package com.theokanning.openai.service.cache;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.completion.CompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.service.OpenAiApiDecorator;
+import io.reactivex.Single;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+
+/**
+ * Serves createChatCompletion and createCompletion from a {@link ResponseCache}, other calls are passed through.
+ * <pre>{@code
+ * OpenAiService service = new OpenAiService(new ResponseCacheApiDecorator(api, cache).getApi());
+ * }</pre>
+ */
+public class ResponseCacheApiDecorator extends OpenAiApiDecorator {
+
+    private final ResponseCache cache;
+
+    public ResponseCacheApiDecorator(OpenAiApi delegate, ResponseCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    public ResponseCache getCache() {
+        return cache;
+    }
+
+    @Override
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        if (args == null || args.length != 1
+                || !(args[0] instanceof ChatCompletionRequest || args[0] instanceof CompletionRequest)
+                || !cache.isEligible(args[0])) {
+            return single;
+        }
+        String key = cache.key(method.getName(), args[0]);
+        return cache.get(key, single, resultType(method));
+    }
+
+    private static JavaType resultType(Method method) {
+        ParameterizedType single = (ParameterizedType) method.getGenericReturnType();
+        return TypeFactory.defaultInstance().constructType(single.getActualTypeArguments()[0]);
+    }
+}
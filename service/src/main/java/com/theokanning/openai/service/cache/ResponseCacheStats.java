@@ -0,0 +1,42 @@
+package com.theokanning.openai.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of a {@link ResponseCache}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ResponseCacheStats {
+
+    /**
+     * Requests served from a tier
+     */
+    private final long hits;
+
+    /**
+     * Requests sent upstream
+     */
+    private final long misses;
+
+    /**
+     * Requests that missed but joined an identical request already in flight instead of calling upstream
+     */
+    private final long sharedLoads;
+
+    /**
+     * Requests that were not eligible for caching
+     */
+    private final long bypassed;
+
+    /**
+     * @return fraction of the eligible requests that did not call upstream
+     */
+    public double getHitRate() {
+        long eligible = hits + misses + sharedLoads;
+        return eligible == 0 ? 0 : (double) (hits + sharedLoads) / eligible;
+    }
+}
@@ -0,0 +1,363 @@
+package com.theokanning.openai.service.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.theokanning.openai.completion.chat.ChatCompletionChoice;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.completion.chat.ChatMessageRole;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.vector_index.VectorMath;
+import lombok.Builder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Cache of chat completions by meaning, see {@link SemanticCacheApiDecorator}: the last user message is embedded
+ * and a cached response is served if an earlier question of the same namespace is at least
+ * {@code threshold} cosine-similar to it.
+ * <pre>{@code
+ * SemanticCache cache = SemanticCache.builder()
+ *         .threshold(0.95)
+ *         .maxEntries(50_000)
+ *         .build();
+ * OpenAiService cached = service.withSemanticCache(cache);
+ * }</pre>
+ * The namespace is a hash of the request without its user and assistant messages: the model, the system prompt,
+ * the tools and every sampling parameter must match. Only single-turn requests are cached by default, a question
+ * asked in the middle of a conversation depends on more than its text.
+ * <p>
+ * Questions are kept in memory, one flat array of vectors per namespace scanned under a read lock. Entries expire
+ * after {@code ttl} and the least recently hit ones are evicted beyond {@code maxEntries}.
+ */
+@Slf4j
+public class SemanticCache {
+
+    /**
+     * Non-streaming requests with one choice whose messages are system messages and a single text user message
+     */
+    public static final Predicate<ChatCompletionRequest> SINGLE_TURN = request -> {
+        if (Boolean.TRUE.equals(request.getStream()) || (request.getN() != null && request.getN() != 1)
+                || request.getMessages() == null) {
+            return false;
+        }
+        int users = 0;
+        for (ChatMessage message : request.getMessages()) {
+            if (message instanceof UserMessage && ((UserMessage) message).getContent() instanceof String) {
+                users++;
+            } else if (!ChatMessageRole.SYSTEM.value().equals(message.getRole())) {
+                return false;
+            }
+        }
+        return users == 1;
+    };
+
+    private final double threshold;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final String embeddingModel;
+    private final Integer embeddingDimensions;
+    private final Predicate<ChatCompletionRequest> eligible;
+    private final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+    /**
+     * Every entry, least recently hit first. Locked before a namespace, never while holding one.
+     */
+    private final LinkedHashMap<Entry, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder embeddingFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder embeddingNanos = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAccumulator maxLookupNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param threshold           cosine similarity from which a cached response is served, 0.95 by default
+     * @param ttl                 how long a response is served, one hour by default
+     * @param maxEntries          responses kept, 10 000 by default
+     * @param embeddingModel      model embedding the questions, text-embedding-3-small by default
+     * @param embeddingDimensions dimensions of the question vectors, null for the model's default
+     * @param eligible            which requests may be cached, {@link #SINGLE_TURN} by default
+     */
+    @Builder
+    private SemanticCache(Double threshold, Duration ttl, Integer maxEntries, String embeddingModel,
+                          Integer embeddingDimensions, Predicate<ChatCompletionRequest> eligible) {
+        this.threshold = threshold != null ? threshold : 0.95;
+        this.ttlMillis = (ttl != null ? ttl : Duration.ofHours(1)).toMillis();
+        this.maxEntries = maxEntries != null ? maxEntries : 10_000;
+        this.embeddingModel = embeddingModel != null ? embeddingModel : "text-embedding-3-small";
+        this.embeddingDimensions = embeddingDimensions;
+        this.eligible = eligible != null ? eligible : SINGLE_TURN;
+    }
+
+    public SemanticCacheStats getStats() {
+        long lookupCount = lookups.sum();
+        return new SemanticCacheStats(hits.sum(), misses.sum(), bypassed.sum(), embeddingFailures.sum(),
+                evictions.sum(), size(),
+                lookupCount == 0 ? 0 : embeddingNanos.sum() / 1e6 / lookupCount,
+                lookupCount == 0 ? 0 : searchNanos.sum() / 1e6 / lookupCount,
+                maxLookupNanos.get() / 1e6);
+    }
+
+    public int size() {
+        synchronized (recency) {
+            return recency.size();
+        }
+    }
+
+    /**
+     * @return whether the request may be served from and stored in the cache, counted as bypassed if not
+     */
+    boolean isEligible(ChatCompletionRequest request) {
+        if (eligible.test(request)) {
+            return true;
+        }
+        bypassed.increment();
+        return false;
+    }
+
+    String namespace(ChatCompletionRequest request) {
+        ObjectNode tree = mapper.valueToTree(request);
+        ArrayNode system = mapper.createArrayNode();
+        for (ChatMessage message : request.getMessages()) {
+            if (ChatMessageRole.SYSTEM.value().equals(message.getRole())) {
+                system.add(mapper.valueToTree(message));
+            }
+        }
+        tree.set("messages", system);
+        return CacheKeys.canonicalHash(mapper, "semantic", tree, "user", "stream", "stream_options");
+    }
+
+    /**
+     * @return the request embedding the last user message
+     */
+    EmbeddingRequest embeddingRequest(ChatCompletionRequest request) {
+        String question = null;
+        for (ChatMessage message : request.getMessages()) {
+            if (ChatMessageRole.USER.value().equals(message.getRole())) {
+                question = message.getTextContent();
+            }
+        }
+        return EmbeddingRequest.builder()
+                .model(embeddingModel)
+                .input(question)
+                .encodingFormat("base64")
+                .dimensions(embeddingDimensions)
+                .build();
+    }
+
+    void countEmbeddingFailure() {
+        embeddingFailures.increment();
+    }
+
+    /**
+     * @param question unit length embedding of the question
+     * @return the response of the closest question of the namespace if it is similar enough, or null
+     */
+    ChatCompletionResult find(String namespaceKey, float[] question, long embeddingTookNanos) {
+        long start = System.nanoTime();
+        Entry best = null;
+        Namespace namespace = namespaces.get(namespaceKey);
+        if (namespace != null) {
+            best = namespace.closest(question, threshold, System.currentTimeMillis());
+        }
+        long searchTook = System.nanoTime() - start;
+        lookups.increment();
+        embeddingNanos.add(embeddingTookNanos);
+        searchNanos.add(searchTook);
+        maxLookupNanos.accumulate(embeddingTookNanos + searchTook);
+        if (best == null) {
+            misses.increment();
+            return null;
+        }
+        synchronized (recency) {
+            recency.get(best);
+        }
+        hits.increment();
+        try {
+            return mapper.readValue(best.response, ChatCompletionResult.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param question unit length embedding of the question
+     */
+    void put(String namespaceKey, float[] question, ChatCompletionResult response) {
+        if (!isComplete(response)) {
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = mapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            log.warn("could not serialize chat completion {}", response.getId(), e);
+            return;
+        }
+        Namespace namespace = namespaces.computeIfAbsent(namespaceKey, key -> new Namespace());
+        Entry entry = new Entry(namespace, bytes, System.currentTimeMillis() + ttlMillis);
+        List<Entry> expired = new ArrayList<>();
+        if (!namespace.add(entry, question, expired)) {
+            return;
+        }
+        synchronized (recency) {
+            for (Entry old : expired) {
+                recency.remove(old);
+            }
+            recency.put(entry, Boolean.TRUE);
+            Iterator<Entry> eldest = recency.keySet().iterator();
+            while (recency.size() > maxEntries) {
+                Entry evicted = eldest.next();
+                eldest.remove();
+                evicted.namespace.remove(evicted);
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Truncated or filtered answers are not worth serving again
+     */
+    private static boolean isComplete(ChatCompletionResult response) {
+        if (response.getChoices() == null || response.getChoices().isEmpty()) {
+            return false;
+        }
+        for (ChatCompletionChoice choice : response.getChoices()) {
+            if ("length".equals(choice.getFinishReason()) || "content_filter".equals(choice.getFinishReason())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Questions of a namespace, contiguous in one array and scanned linearly
+     */
+    private static final class Namespace {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private float[] vectors = new float[0];
+        private Entry[] entries = new Entry[0];
+        private int size;
+        private int dimensions = -1;
+
+        Entry closest(float[] question, double threshold, long now) {
+            lock.readLock().lock();
+            try {
+                if (question.length != dimensions) {
+                    return null;
+                }
+                Entry best = null;
+                float bestScore = (float) threshold;
+                for (int i = 0; i < size; i++) {
+                    float score = VectorMath.dot(question, 0, vectors, i * dimensions, dimensions);
+                    if (score >= bestScore && entries[i].expiresAtMillis > now) {
+                        best = entries[i];
+                        bestScore = score;
+                    }
+                }
+                return best;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Appends the entry, removing the expired ones into {@code expired}
+         *
+         * @return false if the vector does not have the dimensions of the namespace
+         */
+        boolean add(Entry entry, float[] question, List<Entry> expired) {
+            lock.writeLock().lock();
+            try {
+                if (dimensions < 0) {
+                    dimensions = question.length;
+                } else if (dimensions != question.length) {
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                for (int i = size - 1; i >= 0; i--) {
+                    if (entries[i].expiresAtMillis <= now) {
+                        expired.add(entries[i]);
+                        removeAt(i);
+                    }
+                }
+                if (size == entries.length) {
+                    int capacity = Math.max(16, size * 2);
+                    entries = Arrays.copyOf(entries, capacity);
+                    vectors = Arrays.copyOf(vectors, capacity * dimensions);
+                }
+                entries[size] = entry;
+                entry.slot = size;
+                System.arraycopy(question, 0, vectors, size * dimensions, dimensions);
+                size++;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(Entry entry) {
+            lock.writeLock().lock();
+            try {
+                if (entry.slot < size && entries[entry.slot] == entry) {
+                    removeAt(entry.slot);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Moves the last entry into the slot
+         */
+        private void removeAt(int slot) {
+            int last = size - 1;
+            if (slot != last) {
+                entries[slot] = entries[last];
+                entries[slot].slot = slot;
+                System.arraycopy(vectors, last * dimensions, vectors, slot * dimensions, dimensions);
+            }
+            entries[last] = null;
+            size--;
+        }
+    }
+
+    private static final class Entry {
+        final Namespace namespace;
+        final byte[] response;
+        final long expiresAtMillis;
+        /**
+         * Position in the namespace, guarded by its lock
+         */
+        int slot;
+
+        Entry(Namespace namespace, byte[] response, long expiresAtMillis) {
+            this.namespace = namespace;
+            this.response = response;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.theokanning.openai.service.cache;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.service.OpenAiApiDecorator;
+import com.theokanning.openai.service.vector_index.VectorMath;
+import io.reactivex.Single;
+
+import java.lang.reflect.Method;
+
+/**
+ * Serves createChatCompletion from a {@link SemanticCache}, other calls are passed through. The question is
+ * embedded with the delegate before the completion is requested; if the embedding fails the completion is
+ * requested anyway.
+ * <pre>{@code
+ * OpenAiService service = new OpenAiService(new SemanticCacheApiDecorator(api, cache).getApi());
+ * }</pre>
+ */
+public class SemanticCacheApiDecorator extends OpenAiApiDecorator {
+
+    private static final float[] NOT_EMBEDDED = new float[0];
+
+    private final SemanticCache cache;
+
+    public SemanticCacheApiDecorator(OpenAiApi delegate, SemanticCache cache) {
+        super(delegate);
+        this.cache = cache;
+    }
+
+    public SemanticCache getCache() {
+        return cache;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        if (!"createChatCompletion".equals(method.getName()) || args == null || args.length != 1
+                || !(args[0] instanceof ChatCompletionRequest) || !cache.isEligible((ChatCompletionRequest) args[0])) {
+            return single;
+        }
+        ChatCompletionRequest request = (ChatCompletionRequest) args[0];
+        return (Single<T>) Single.defer(() -> lookup(request, (Single<ChatCompletionResult>) single));
+    }
+
+    private Single<ChatCompletionResult> lookup(ChatCompletionRequest request, Single<ChatCompletionResult> upstream) {
+        String namespace = cache.namespace(request);
+        long start = System.nanoTime();
+        return delegate.createFloatEmbeddings(cache.embeddingRequest(request))
+                .map(result -> VectorMath.normalize(result.getData().get(0).getEmbedding()))
+                .onErrorReturnItem(NOT_EMBEDDED)
+                .flatMap(question -> {
+                    if (question == NOT_EMBEDDED) {
+                        cache.countEmbeddingFailure();
+                        return upstream;
+                    }
+                    ChatCompletionResult cached = cache.find(namespace, question, System.nanoTime() - start);
+                    if (cached != null) {
+                        return Single.just(cached);
+                    }
+                    return upstream.doOnSuccess(result -> cache.put(namespace, question, result));
+                });
+    }
+}
@@ -0,0 +1,67 @@
+package com.theokanning.openai.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters and lookup latencies of a {@link SemanticCache}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class SemanticCacheStats {
+
+    /**
+     * Requests served from the cache
+     */
+    private final long hits;
+
+    /**
+     * Requests sent upstream because no cached question was similar enough
+     */
+    private final long misses;
+
+    /**
+     * Requests that were not eligible for caching
+     */
+    private final long bypassed;
+
+    /**
+     * Requests sent upstream because their question could not be embedded
+     */
+    private final long embeddingFailures;
+
+    /**
+     * Responses dropped to stay within the maximum number of entries
+     */
+    private final long evictions;
+
+    /**
+     * Responses currently cached, expired ones included until they are swept
+     */
+    private final int entries;
+
+    /**
+     * Mean time to embed a question
+     */
+    private final double meanEmbeddingMillis;
+
+    /**
+     * Mean time to search the namespace of a question
+     */
+    private final double meanSearchMillis;
+
+    /**
+     * Longest embedding and search of a question
+     */
+    private final double maxLookupMillis;
+
+    /**
+     * @return fraction of the eligible requests served from the cache
+     */
+    public double getHitRate() {
+        long eligible = hits + misses + embeddingFailures;
+        return eligible == 0 ? 0 : (double) hits / eligible;
+    }
+}
@@ -0,0 +1,273 @@
+package com.theokanning.openai.service.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-heap tier bounded by a number of entries, evicting with the W-TinyLFU policy.
+ * <p>
+ * New entries go to a small LRU window (1% of the capacity). An entry leaving the window is only admitted to
+ * the main segmented LRU if it was requested more often than the entry it would evict, frequencies being
+ * estimated by a count-min sketch that is halved periodically so that old popularity fades. One-off requests
+ * therefore never push out the entries that are hit again and again.
+ */
+public class TinyLfuCacheTier implements CacheTier {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final int windowMax;
+    private final int protectedMax;
+    private final int maximumSize;
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private final FrequencySketch sketch;
+    private long evictions;
+
+    public TinyLfuCacheTier(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.maximumSize = maximumSize;
+        this.windowMax = Math.max(1, maximumSize / 100);
+        this.protectedMax = (int) ((maximumSize - windowMax) * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public synchronized CacheEntry get(String key) {
+        int hash = spread(key.hashCode());
+        sketch.increment(hash);
+        Node node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.entry.isExpired(System.currentTimeMillis())) {
+            remove(node);
+            return null;
+        }
+        onAccess(node);
+        return node.entry;
+    }
+
+    @Override
+    public synchronized void put(String key, CacheEntry entry) {
+        int hash = spread(key.hashCode());
+        sketch.increment(hash);
+        Node node = nodes.get(key);
+        if (node != null) {
+            node.entry = entry;
+            onAccess(node);
+            return;
+        }
+        node = new Node(key, hash, entry);
+        nodes.put(key, node);
+        queues[WINDOW].addLast(node);
+        node.queue = WINDOW;
+        if (queues[WINDOW].size > windowMax) {
+            Node candidate = queues[WINDOW].removeFirst();
+            candidate.queue = PROBATION;
+            queues[PROBATION].addLast(candidate);
+            if (nodes.size() > maximumSize) {
+                evictFromMain(candidate);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String key) {
+        Node node = nodes.get(key);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    @Override
+    public synchronized long size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return number of entries evicted to respect the maximum size
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void onAccess(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                queues[WINDOW].moveToLast(node);
+                break;
+            case PROBATION:
+                queues[PROBATION].remove(node);
+                queues[PROTECTED].addLast(node);
+                node.queue = PROTECTED;
+                if (queues[PROTECTED].size > protectedMax) {
+                    Node demoted = queues[PROTECTED].removeFirst();
+                    queues[PROBATION].addLast(demoted);
+                    demoted.queue = PROBATION;
+                }
+                break;
+            default:
+                queues[PROTECTED].moveToLast(node);
+        }
+    }
+
+    /**
+     * Keeps either the candidate coming from the window or the least recently used entry of the main space,
+     * whichever is the most frequently requested
+     */
+    private void evictFromMain(Node candidate) {
+        Node victim = queues[PROBATION].first();
+        if (victim == candidate) {
+            victim = queues[PROTECTED].first() != null ? queues[PROTECTED].first() : candidate;
+        }
+        if (victim != candidate && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+            victim = candidate;
+        }
+        remove(victim);
+        evictions++;
+    }
+
+    private void remove(Node node) {
+        queues[node.queue].remove(node);
+        nodes.remove(node.key);
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Node {
+        final String key;
+        final int hash;
+        CacheEntry entry;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(String key, int hash, CacheEntry entry) {
+            this.key = key;
+            this.hash = hash;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list, least recently used first
+     */
+    private static final class Queue {
+        Node head;
+        Node tail;
+        int size;
+
+        Node first() {
+            return head;
+        }
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node removeFirst() {
+            Node node = head;
+            remove(node);
+            return node;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four rows packed in longs of 16 counters.
+     * All counters are halved after 10 increments per cached entry.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            int length = Integer.highestOneBit(Math.max(8, Math.min(maximumSize, 1 << 26)) - 1) << 1;
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int offset = counterOffset(hash, row);
+                frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xf));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int offset = counterOffset(hash, row);
+                if (((table[index] >>> offset) & 0xf) != 0xf) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h >>> 40) & tableMask;
+        }
+
+        private static int counterOffset(int hash, int row) {
+            // counters of a row live in a 4-counter group of the long, so rows never share a counter
+            return (((hash >>> (row * 8)) & 3) + (row << 2)) << 2;
+        }
+    }
+}
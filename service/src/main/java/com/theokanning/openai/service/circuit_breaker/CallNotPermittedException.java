@@ -0,0 +1,23 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import lombok.Getter;
+
+/**
+ * A call was rejected without being sent because its circuit is open
+ */
+@Getter
+public class CallNotPermittedException extends RuntimeException {
+
+    /**
+     * Name of the circuit that rejected the call
+     */
+    private final String circuit;
+
+    private final CircuitState state;
+
+    public CallNotPermittedException(String circuit, CircuitState state) {
+        super("circuit " + circuit + " is " + state + ", call not permitted");
+        this.circuit = circuit;
+        this.state = state;
+    }
+}
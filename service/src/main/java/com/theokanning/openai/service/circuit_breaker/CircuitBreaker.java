@@ -0,0 +1,316 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A closed / open / half-open state machine deciding whether calls to an endpoint or a backend may be sent.
+ * <p>
+ * The caller asks for a permission before every call and reports its outcome afterwards:
+ * <pre>{@code
+ * if (!breaker.tryAcquirePermission()) {
+ *     throw new CallNotPermittedException(breaker.getName(), breaker.getState());
+ * }
+ * long start = System.nanoTime();
+ * try {
+ *     result = call();
+ *     breaker.onSuccess(System.nanoTime() - start);
+ * } catch (Exception e) {
+ *     breaker.onError(System.nanoTime() - start, e);
+ * }
+ * }</pre>
+ * The state is an immutable phase swapped with compare-and-set and the sliding window is a ring of
+ * time buckets of {@link LongAdder}s, so no lock is taken on the call path. The rates are only evaluated when
+ * a failure or a slow call is recorded, a successful fast call costs a few counter increments.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    private final String name;
+    private final CircuitBreakerConfig config;
+    private final Consumer<CircuitStateTransition> listener;
+    private final LongSupplier ticker;
+    private final long bucketNanos;
+    private final long slowNanos;
+    private final long waitNanos;
+
+    private final AtomicReference<Phase> phase;
+    private final LongAdder notPermitted = new LongAdder();
+
+    CircuitBreaker(String name, CircuitBreakerConfig config, Consumer<CircuitStateTransition> listener, LongSupplier ticker) {
+        if (config.getWindowBuckets() < 1 || config.getHalfOpenCalls() < 1) {
+            throw new IllegalArgumentException("windowBuckets and halfOpenCalls must be positive");
+        }
+        this.name = name;
+        this.config = config;
+        this.listener = listener;
+        this.ticker = ticker;
+        this.bucketNanos = Math.max(1, config.getWindow().toNanos() / config.getWindowBuckets());
+        this.slowNanos = config.getSlowCallDuration().toNanos();
+        this.waitNanos = config.getWaitInOpen().toNanos();
+        this.phase = new AtomicReference<>(closed());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitState getState() {
+        return phase.get().state;
+    }
+
+    /**
+     * Takes a permission to send a call. Moves an open circuit whose wait is over to half-open.
+     *
+     * @return false if the call must not be sent
+     */
+    public boolean tryAcquirePermission() {
+        while (true) {
+            Phase current = phase.get();
+            switch (current.state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (ticker.getAsLong() - current.since < waitNanos) {
+                        notPermitted.increment();
+                        return false;
+                    }
+                    transition(current, halfOpen());
+                    break;
+                default:
+                    int permits = current.permits.get();
+                    if (permits > 0) {
+                        if (current.permits.compareAndSet(permits, permits - 1)) {
+                            return true;
+                        }
+                        break;
+                    }
+                    notPermitted.increment();
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Whether {@link #tryAcquirePermission()} would currently succeed, without taking a permission
+     */
+    public boolean isCallPermitted() {
+        Phase current = phase.get();
+        switch (current.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return ticker.getAsLong() - current.since >= waitNanos;
+            default:
+                return current.permits.get() > 0;
+        }
+    }
+
+    /**
+     * Gives back a permission whose call was cancelled before it completed
+     */
+    public void releasePermission() {
+        Phase current = phase.get();
+        if (current.state == CircuitState.HALF_OPEN) {
+            current.permits.incrementAndGet();
+        }
+    }
+
+    public void onSuccess(long durationNanos) {
+        record(durationNanos, false);
+    }
+
+    /**
+     * Records a failed call, errors that are not {@link CircuitBreakerConfig#getFailures() failures} count as
+     * successes of the endpoint
+     */
+    public void onError(long durationNanos, Throwable error) {
+        record(durationNanos, config.getFailures().test(error));
+    }
+
+    public CircuitBreakerMetrics getMetrics() {
+        Phase current = phase.get();
+        return metrics(current, counts(current));
+    }
+
+    private void record(long durationNanos, boolean failure) {
+        boolean slow = durationNanos >= slowNanos;
+        Phase current = phase.get();
+        if (current.state == CircuitState.CLOSED) {
+            long now = ticker.getAsLong();
+            current.window.record(now, failure, slow);
+            if (failure || slow) {
+                long[] counts = current.window.counts(now);
+                if (counts[0] >= config.getMinimumCalls() && exceedsThresholds(counts)) {
+                    transition(current, open(counts));
+                }
+            }
+        } else if (current.state == CircuitState.HALF_OPEN) {
+            if (failure) {
+                current.trialFailures.incrementAndGet();
+            }
+            if (slow) {
+                current.trialSlow.incrementAndGet();
+            }
+            if (current.trialCalls.incrementAndGet() == config.getHalfOpenCalls()) {
+                long[] counts = counts(current);
+                transition(current, exceedsThresholds(counts) ? open(counts) : closed());
+            }
+        }
+        // outcomes of calls completing while open were permitted before it opened and are dropped
+    }
+
+    private boolean exceedsThresholds(long[] counts) {
+        return rate(counts[1], counts[0]) >= config.getFailureRateThreshold()
+                || rate(counts[2], counts[0]) >= config.getSlowCallRateThreshold();
+    }
+
+    private void transition(Phase from, Phase to) {
+        if (!phase.compareAndSet(from, to)) {
+            return;
+        }
+        CircuitStateTransition transition = new CircuitStateTransition(name, from.state, to.state,
+                metrics(to, to.state == CircuitState.OPEN ? to.openCounts : counts(from)), Instant.now());
+        if (to.state == CircuitState.OPEN) {
+            log.warn("circuit {} opened: {}", name, transition.getMetrics());
+        } else {
+            log.info("circuit {} moved from {} to {}", name, from.state, to.state);
+        }
+        listener.accept(transition);
+    }
+
+    private long[] counts(Phase phase) {
+        switch (phase.state) {
+            case CLOSED:
+                return phase.window.counts(ticker.getAsLong());
+            case OPEN:
+                return phase.openCounts;
+            default:
+                return new long[]{phase.trialCalls.get(), phase.trialFailures.get(), phase.trialSlow.get()};
+        }
+    }
+
+    private CircuitBreakerMetrics metrics(Phase phase, long[] counts) {
+        return new CircuitBreakerMetrics(phase.state, counts[0], rate(counts[1], counts[0]), rate(counts[2], counts[0]),
+                notPermitted.sum());
+    }
+
+    private static double rate(long count, long total) {
+        return total == 0 ? 0 : Math.min(1.0, (double) count / total);
+    }
+
+    private Phase closed() {
+        return new Phase(CircuitState.CLOSED, ticker.getAsLong(), new SlidingWindow(config.getWindowBuckets(), bucketNanos), null, null);
+    }
+
+    private Phase open(long[] counts) {
+        return new Phase(CircuitState.OPEN, ticker.getAsLong(), null, null, counts);
+    }
+
+    private Phase halfOpen() {
+        return new Phase(CircuitState.HALF_OPEN, ticker.getAsLong(), null, new AtomicInteger(config.getHalfOpenCalls()), null);
+    }
+
+    /**
+     * One state of the circuit, replaced as a whole on every transition so that concurrent calls never see
+     * a half-updated circuit
+     */
+    private static final class Phase {
+        final CircuitState state;
+        final long since;
+
+        // closed
+        final SlidingWindow window;
+
+        // half-open
+        final AtomicInteger permits;
+        final AtomicInteger trialCalls = new AtomicInteger();
+        final AtomicInteger trialFailures = new AtomicInteger();
+        final AtomicInteger trialSlow = new AtomicInteger();
+
+        // open: the counts that opened it
+        final long[] openCounts;
+
+        Phase(CircuitState state, long since, SlidingWindow window, AtomicInteger permits, long[] openCounts) {
+            this.state = state;
+            this.since = since;
+            this.window = window;
+            this.permits = permits;
+            this.openCounts = openCounts;
+        }
+    }
+
+    /**
+     * Ring of time buckets, a bucket is replaced by a fresh one the first time it is used in a new period
+     */
+    private static final class SlidingWindow {
+        private final AtomicReferenceArray<Bucket> ring;
+        private final long bucketNanos;
+
+        SlidingWindow(int buckets, long bucketNanos) {
+            this.ring = new AtomicReferenceArray<>(buckets);
+            this.bucketNanos = bucketNanos;
+        }
+
+        void record(long now, boolean failure, boolean slow) {
+            Bucket bucket = bucket(Math.floorDiv(now, bucketNanos));
+            if (failure) {
+                bucket.failures.increment();
+            }
+            if (slow) {
+                bucket.slow.increment();
+            }
+            bucket.calls.increment();
+        }
+
+        /**
+         * @return calls, failures and slow calls of the buckets still in the window
+         */
+        long[] counts(long now) {
+            long epoch = Math.floorDiv(now, bucketNanos);
+            long[] counts = new long[3];
+            for (int i = 0; i < ring.length(); i++) {
+                Bucket bucket = ring.get(i);
+                if (bucket != null && bucket.epoch > epoch - ring.length() && bucket.epoch <= epoch) {
+                    counts[0] += bucket.calls.sum();
+                    counts[1] += bucket.failures.sum();
+                    counts[2] += bucket.slow.sum();
+                }
+            }
+            return counts;
+        }
+
+        private Bucket bucket(long epoch) {
+            int index = (int) Math.floorMod(epoch, (long) ring.length());
+            while (true) {
+                Bucket bucket = ring.get(index);
+                if (bucket != null && bucket.epoch >= epoch) {
+                    // a late thread records into the newer bucket rather than resetting it
+                    return bucket;
+                }
+                Bucket fresh = new Bucket(epoch);
+                if (ring.compareAndSet(index, bucket, fresh)) {
+                    return fresh;
+                }
+            }
+        }
+    }
+
+    private static final class Bucket {
+        final long epoch;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder slow = new LongAdder();
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.OpenAiApiDecorator;
+import io.reactivex.Single;
+import retrofit2.Call;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Guards every call with two circuits of a {@link CircuitBreakerRegistry}: one for the backend and one for
+ * the endpoint (api method) of that backend. A call is only sent if both are permitted, otherwise it fails
+ * immediately with a {@link CallNotPermittedException} instead of waiting for a timeout of an unhealthy provider.
+ * <pre>{@code
+ * CircuitBreakerRegistry circuits = new CircuitBreakerRegistry(CircuitBreakerConfig.builder().build());
+ * circuits.addListener(transition -> log.warn("{}", transition));
+ * OpenAiService service = new OpenAiService(new CircuitBreakerApiDecorator(api, circuits, "openai").getApi());
+ * }</pre>
+ * Streaming calls are judged on their response: a 429/5xx is a failure, and the time until the response
+ * headers decides whether the call was slow.
+ */
+public class CircuitBreakerApiDecorator extends OpenAiApiDecorator {
+
+    private final CircuitBreakerRegistry registry;
+    private final String backend;
+    private final CircuitBreaker backendCircuit;
+    private final Map<Method, CircuitBreaker> endpointCircuits = new ConcurrentHashMap<>();
+
+    /**
+     * @param backend name of the backend, prefix of the endpoint circuit names
+     */
+    public CircuitBreakerApiDecorator(OpenAiApi delegate, CircuitBreakerRegistry registry, String backend) {
+        super(delegate);
+        this.registry = registry;
+        this.backend = backend;
+        this.backendCircuit = registry.circuitBreaker(backend);
+    }
+
+    public CircuitBreakerApiDecorator(OpenAiApi delegate, CircuitBreakerRegistry registry) {
+        this(delegate, registry, "default");
+    }
+
+    public CircuitBreaker getBackendCircuit() {
+        return backendCircuit;
+    }
+
+    @Override
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        CircuitBreaker endpoint = endpointCircuit(method);
+        return Single.defer(() -> {
+            CallNotPermittedException rejection = acquire(endpoint);
+            if (rejection != null) {
+                return Single.error(rejection);
+            }
+            long start = System.nanoTime();
+            AtomicBoolean done = new AtomicBoolean();
+            return single
+                    .doOnSuccess(result -> {
+                        if (done.compareAndSet(false, true)) {
+                            onSuccess(endpoint, System.nanoTime() - start);
+                        }
+                    })
+                    .doOnError(error -> {
+                        if (done.compareAndSet(false, true)) {
+                            onError(endpoint, System.nanoTime() - start, error);
+                        }
+                    })
+                    .doOnDispose(() -> {
+                        if (done.compareAndSet(false, true)) {
+                            release(endpoint);
+                        }
+                    });
+        });
+    }
+
+    @Override
+    protected <T> Call<T> decorateCall(Method method, Object[] args, Call<T> call) {
+        return new CircuitBreakingCall<>(this, endpointCircuit(method), call);
+    }
+
+    private CircuitBreaker endpointCircuit(Method method) {
+        return endpointCircuits.computeIfAbsent(method, m -> registry.circuitBreaker(backend + "/" + m.getName()));
+    }
+
+    /**
+     * @return null if both circuits gave a permission, otherwise the rejection of the first one refusing
+     */
+    CallNotPermittedException acquire(CircuitBreaker endpoint) {
+        if (!backendCircuit.tryAcquirePermission()) {
+            return new CallNotPermittedException(backendCircuit.getName(), backendCircuit.getState());
+        }
+        if (!endpoint.tryAcquirePermission()) {
+            backendCircuit.releasePermission();
+            return new CallNotPermittedException(endpoint.getName(), endpoint.getState());
+        }
+        return null;
+    }
+
+    void onSuccess(CircuitBreaker endpoint, long nanos) {
+        backendCircuit.onSuccess(nanos);
+        endpoint.onSuccess(nanos);
+    }
+
+    void onError(CircuitBreaker endpoint, long nanos, Throwable error) {
+        backendCircuit.onError(nanos, error);
+        endpoint.onError(nanos, error);
+    }
+
+    void release(CircuitBreaker endpoint) {
+        backendCircuit.releasePermission();
+        endpoint.releasePermission();
+    }
+}
@@ -0,0 +1,92 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import com.theokanning.openai.service.DeadlineExceededException;
+import lombok.Builder;
+import lombok.Getter;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+
+/**
+ * Configuration shared by the circuits of a {@link CircuitBreakerRegistry}
+ * <p>
+ * A closed circuit opens when, over the last {@link #window}, at least {@link #minimumCalls} calls were recorded
+ * and either their failure rate reaches {@link #failureRateThreshold} or their slow-call rate reaches
+ * {@link #slowCallRateThreshold}. After {@link #waitInOpen} it lets {@link #halfOpenCalls} trial calls through,
+ * which close it again if they stay under both thresholds.
+ */
+@Getter
+@Builder
+public class CircuitBreakerConfig {
+
+    /**
+     * Default failures: 429, 5xx, io errors and timeouts. Other 4xx are the caller's fault and say nothing
+     * about the health of the endpoint.
+     */
+    public static final Predicate<Throwable> DEFAULT_FAILURES = error -> {
+        if (error instanceof HttpException) {
+            int code = ((HttpException) error).code();
+            return code == 429 || code >= 500;
+        }
+        return error instanceof IOException
+                || error instanceof TimeoutException
+                || error instanceof DeadlineExceededException;
+    };
+
+    /**
+     * Failure rate opening the circuit, between 0 and 1
+     */
+    @Builder.Default
+    private final double failureRateThreshold = 0.5;
+
+    /**
+     * Slow-call rate opening the circuit, between 0 and 1
+     */
+    @Builder.Default
+    private final double slowCallRateThreshold = 0.8;
+
+    /**
+     * Calls taking longer than this are slow. For streaming calls, this is the time until the response headers.
+     */
+    @Builder.Default
+    private final Duration slowCallDuration = Duration.ofSeconds(30);
+
+    /**
+     * Calls needed in the window before the rates are trusted
+     */
+    @Builder.Default
+    private final int minimumCalls = 20;
+
+    /**
+     * Length of the sliding window
+     */
+    @Builder.Default
+    private final Duration window = Duration.ofSeconds(60);
+
+    /**
+     * Number of buckets the window is split in, the window slides by one bucket at a time
+     */
+    @Builder.Default
+    private final int windowBuckets = 10;
+
+    /**
+     * How long an open circuit rejects calls before letting trial calls through
+     */
+    @Builder.Default
+    private final Duration waitInOpen = Duration.ofSeconds(30);
+
+    /**
+     * Number of trial calls of a half-open circuit
+     */
+    @Builder.Default
+    private final int halfOpenCalls = 5;
+
+    /**
+     * Which errors count as failures, see {@link #DEFAULT_FAILURES}
+     */
+    @Builder.Default
+    private final Predicate<Throwable> failures = DEFAULT_FAILURES;
+}
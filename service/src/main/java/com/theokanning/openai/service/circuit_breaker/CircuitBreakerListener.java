@@ -0,0 +1,11 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+/**
+ * Notified of every state change of the circuits of a {@link CircuitBreakerRegistry}.
+ * Listeners run on the thread that completed the call causing the transition and must not block.
+ */
+@FunctionalInterface
+public interface CircuitBreakerListener {
+
+    void onStateTransition(CircuitStateTransition transition);
+}
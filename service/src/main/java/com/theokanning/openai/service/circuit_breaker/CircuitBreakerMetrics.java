@@ -0,0 +1,36 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of a {@link CircuitBreaker}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class CircuitBreakerMetrics {
+
+    private final CircuitState state;
+
+    /**
+     * Calls recorded in the current window, or trial calls completed while half-open
+     */
+    private final long calls;
+
+    /**
+     * Fraction of {@link #calls} that failed, between 0 and 1
+     */
+    private final double failureRate;
+
+    /**
+     * Fraction of {@link #calls} slower than {@link CircuitBreakerConfig#getSlowCallDuration()}, between 0 and 1
+     */
+    private final double slowCallRate;
+
+    /**
+     * Calls rejected since the circuit was created
+     */
+    private final long notPermittedCalls;
+}
@@ -0,0 +1,73 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * The circuits of a client, created on first use and sharing one {@link CircuitBreakerConfig}.
+ * <p>
+ * {@link CircuitBreakerApiDecorator} keeps a circuit per backend and one per endpoint of that backend,
+ * named {@code backend} and {@code backend/method}.
+ */
+@Slf4j
+public class CircuitBreakerRegistry {
+
+    private final CircuitBreakerConfig config;
+    private final LongSupplier ticker;
+    private final Map<String, CircuitBreaker> circuits = new ConcurrentHashMap<>();
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<>();
+
+    public CircuitBreakerRegistry(CircuitBreakerConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    CircuitBreakerRegistry(CircuitBreakerConfig config, LongSupplier ticker) {
+        this.config = config;
+        this.ticker = ticker;
+    }
+
+    public CircuitBreakerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the circuit with this name, created closed if it does not exist yet
+     */
+    public CircuitBreaker circuitBreaker(String name) {
+        return circuits.computeIfAbsent(name, n -> new CircuitBreaker(n, config, this::publish, ticker));
+    }
+
+    /**
+     * @return a snapshot of every circuit by name
+     */
+    public Map<String, CircuitBreakerMetrics> getMetrics() {
+        Map<String, CircuitBreakerMetrics> metrics = new HashMap<>();
+        circuits.forEach((name, circuit) -> metrics.put(name, circuit.getMetrics()));
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    public void addListener(CircuitBreakerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CircuitBreakerListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void publish(CircuitStateTransition transition) {
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateTransition(transition);
+            } catch (RuntimeException e) {
+                log.warn("circuit breaker listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import okhttp3.Request;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import java.io.IOException;
+
+/**
+ * Streaming call guarded by the circuits of a {@link CircuitBreakerApiDecorator}
+ */
+class CircuitBreakingCall<T> implements Call<T> {
+    private final CircuitBreakerApiDecorator decorator;
+    private final CircuitBreaker endpoint;
+    private final Call<T> delegate;
+
+    CircuitBreakingCall(CircuitBreakerApiDecorator decorator, CircuitBreaker endpoint, Call<T> delegate) {
+        this.decorator = decorator;
+        this.endpoint = endpoint;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response<T> execute() throws IOException {
+        CallNotPermittedException rejection = decorator.acquire(endpoint);
+        if (rejection != null) {
+            throw rejection;
+        }
+        long start = System.nanoTime();
+        try {
+            Response<T> response = delegate.execute();
+            onResponse(response, System.nanoTime() - start);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            onFailure(e, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void enqueue(Callback<T> callback) {
+        CallNotPermittedException rejection = decorator.acquire(endpoint);
+        if (rejection != null) {
+            callback.onFailure(this, rejection);
+            return;
+        }
+        long start = System.nanoTime();
+        delegate.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                CircuitBreakingCall.this.onResponse(response, System.nanoTime() - start);
+                callback.onResponse(CircuitBreakingCall.this, response);
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                CircuitBreakingCall.this.onFailure(t, System.nanoTime() - start);
+                callback.onFailure(CircuitBreakingCall.this, t);
+            }
+        });
+    }
+
+    private void onResponse(Response<T> response, long nanos) {
+        if (response.isSuccessful()) {
+            decorator.onSuccess(endpoint, nanos);
+        } else {
+            decorator.onError(endpoint, nanos, new HttpException(response));
+        }
+    }
+
+    private void onFailure(Throwable t, long nanos) {
+        if (delegate.isCanceled()) {
+            decorator.release(endpoint);
+        } else {
+            decorator.onError(endpoint, nanos, t);
+        }
+    }
+
+    @Override
+    public boolean isExecuted() {
+        return delegate.isExecuted();
+    }
+
+    @Override
+    public void cancel() {
+        delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return delegate.isCanceled();
+    }
+
+    @Override
+    @SuppressWarnings("MethodDoesntCallSuperMethod")
+    public Call<T> clone() {
+        return new CircuitBreakingCall<>(decorator, endpoint, delegate.clone());
+    }
+
+    @Override
+    public Request request() {
+        return delegate.request();
+    }
+
+    @Override
+    public Timeout timeout() {
+        return delegate.timeout();
+    }
+}
@@ -0,0 +1,21 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+/**
+ * States of a {@link CircuitBreaker}
+ */
+public enum CircuitState {
+    /**
+     * Calls go through, their outcome is recorded in the sliding window
+     */
+    CLOSED,
+
+    /**
+     * Calls fail fast with a {@link CallNotPermittedException} until the wait duration is over
+     */
+    OPEN,
+
+    /**
+     * A limited number of trial calls go through and decide whether the circuit closes or opens again
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,29 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * Event reported to {@link CircuitBreakerListener}s when a circuit changes state
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class CircuitStateTransition {
+
+    private final String circuit;
+
+    private final CircuitState from;
+
+    private final CircuitState to;
+
+    /**
+     * Metrics of the window that caused the transition
+     */
+    private final CircuitBreakerMetrics metrics;
+
+    private final Instant timestamp;
+}
@@ -0,0 +1,38 @@
+package com.theokanning.openai.service.download;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link FileDownloader}
+ */
+@Getter
+@Builder
+public class DownloadConfig {
+
+    /**
+     * Requests of a file, the first included, each resuming after the bytes already written when the transfer
+     * broke. Speech is generated on each request and is never resumed.
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Wait before resuming a broken transfer
+     */
+    @Builder.Default
+    private final Duration retryDelay = Duration.ofSeconds(1);
+
+    /**
+     * Bytes between two progress reports
+     */
+    @Builder.Default
+    private final long progressInterval = 8 * 1024 * 1024;
+
+    /**
+     * Receives the progress of the downloads, null for none
+     */
+    private final DownloadListener listener;
+}
@@ -0,0 +1,14 @@
+package com.theokanning.openai.service.download;
+
+/**
+ * Progress of a {@link FileDownloader} download, called from the downloading thread
+ */
+@FunctionalInterface
+public interface DownloadListener {
+
+    /**
+     * @param bytes      bytes of the content written so far, including the ones resumed from
+     * @param totalBytes length of the content, -1 when the server did not send it
+     */
+    void onProgress(long bytes, long totalBytes);
+}
@@ -0,0 +1,46 @@
+package com.theokanning.openai.service.download;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a {@link FileDownloader} download
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DownloadStats {
+
+    /**
+     * Bytes already in the target file when the download started
+     */
+    private final long resumedFrom;
+
+    /**
+     * Bytes received and written by this download
+     */
+    private final long transferred;
+
+    /**
+     * Length of the content, -1 when the server did not send it
+     */
+    private final long totalBytes;
+
+    /**
+     * Requests sent, more than one when a broken transfer was resumed
+     */
+    private final int attempts;
+
+    private final Duration elapsed;
+
+    /**
+     * Throughput of this download, in bytes per second
+     */
+    public double getBytesPerSecond() {
+        long nanos = elapsed.toNanos();
+        return nanos > 0 ? transferred * 1e9 / nanos : 0;
+    }
+}
@@ -0,0 +1,363 @@
+package com.theokanning.openai.service.download;
+
+import com.theokanning.openai.audio.CreateSpeechRequest;
+import com.theokanning.openai.service.OpenAiService;
+import io.reactivex.Single;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Saves file content and generated speech without holding them in memory: the body is moved segment by segment
+ * from the connection to the target with {@link BufferedSink#writeAll}.
+ * <pre>{@code
+ * FileDownloader downloader = new FileDownloader(service, DownloadConfig.builder()
+ *         .listener((bytes, total) -> log.info("{} of {} bytes", bytes, total))
+ *         .build());
+ * DownloadStats stats = downloader.downloadFileContent(batch.getOutputFileId(), Paths.get("output.jsonl"));
+ * }</pre>
+ * A broken file transfer is resumed with a range request starting after the bytes already written, and a download
+ * to a path resumes from the bytes already in the file, so an interrupted download is continued by calling it again.
+ * When the server ignores the range and sends the whole content, a file target is rewritten from the start and the
+ * bytes already written are skipped for the other targets.
+ */
+@Slf4j
+public class FileDownloader {
+
+    private final OpenAiService service;
+    private final DownloadConfig config;
+
+    public FileDownloader(OpenAiService service, DownloadConfig config) {
+        if (config.getMaxAttempts() <= 0 || config.getProgressInterval() <= 0) {
+            throw new IllegalArgumentException("maxAttempts and progressInterval must be positive");
+        }
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * Saves the content of a file, continuing after the bytes already in target; delete target to download again
+     */
+    public DownloadStats downloadFileContent(String fileId, Path target) throws IOException {
+        try (FileTarget file = new FileTarget(target, true)) {
+            return downloadFileContent(fileId, file, file.channel.position());
+        }
+    }
+
+    /**
+     * Writes the content of a file to out, which is flushed but not closed
+     */
+    public DownloadStats downloadFileContent(String fileId, OutputStream out) throws IOException {
+        return downloadFileContent(fileId, new StreamTarget(out), 0);
+    }
+
+    /**
+     * Writes the content of a file to channel, which is not closed
+     */
+    public DownloadStats downloadFileContent(String fileId, WritableByteChannel channel) throws IOException {
+        return downloadFileContent(fileId, new StreamTarget(Channels.newOutputStream(channel)), 0);
+    }
+
+    /**
+     * Saves the generated audio, replacing target
+     */
+    public DownloadStats downloadSpeech(CreateSpeechRequest request, Path target) throws IOException {
+        try (FileTarget file = new FileTarget(target, false)) {
+            return downloadSpeech(request, file);
+        }
+    }
+
+    /**
+     * Writes the generated audio to out, which is flushed but not closed
+     */
+    public DownloadStats downloadSpeech(CreateSpeechRequest request, OutputStream out) throws IOException {
+        return downloadSpeech(request, new StreamTarget(out));
+    }
+
+    /**
+     * Writes the generated audio to channel, which is not closed
+     */
+    public DownloadStats downloadSpeech(CreateSpeechRequest request, WritableByteChannel channel) throws IOException {
+        return downloadSpeech(request, new StreamTarget(Channels.newOutputStream(channel)));
+    }
+
+    private DownloadStats downloadFileContent(String fileId, Target target, long offset) throws IOException {
+        long start = System.nanoTime();
+        long resumedFrom = offset;
+        long position = offset;
+        long total = -1;
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            Response<ResponseBody> response;
+            try {
+                response = service.retrieveFileContent(fileId, position);
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof IOException) || attempts >= config.getMaxAttempts()) {
+                    throw e;
+                }
+                log.warn("could not request file {}, retrying", fileId, e);
+                pause();
+                continue;
+            }
+            ResponseBody body = response.body();
+            try {
+                if (response.code() == 416) {
+                    // nothing after position: the content is complete, or target holds something longer
+                    closeQuietly(response.errorBody());
+                    long length = contentRangeTotal(response.headers().get("Content-Range"));
+                    if (length == position) {
+                        total = length;
+                        break;
+                    }
+                    if (position == 0 || !target.truncate()) {
+                        throw new IOException("range not satisfiable at " + position + " for file " + fileId);
+                    }
+                    resumedFrom = 0;
+                    position = 0;
+                    attempts--;
+                    continue;
+                }
+                if (!response.isSuccessful()) {
+                    OpenAiService.execute(Single.error(new HttpException(response)));
+                }
+                long skip = 0;
+                if (response.code() == 206) {
+                    String range = response.headers().get("Content-Range");
+                    if (contentRangeStart(range) != position) {
+                        throw new IOException("unexpected range " + range + " for file " + fileId + " at " + position);
+                    }
+                    total = contentRangeTotal(range);
+                } else {
+                    total = body.contentLength();
+                    if (position > 0 && target.truncate()) {
+                        resumedFrom = 0;
+                        position = 0;
+                    } else {
+                        skip = position;
+                    }
+                }
+                try {
+                    body.source().skip(skip);
+                } catch (IOException e) {
+                    throw new BrokenTransferException(position, e);
+                }
+                position = copy(body.source(), target, position, total);
+                break;
+            } catch (BrokenTransferException e) {
+                position = e.position;
+                if (attempts >= config.getMaxAttempts()) {
+                    throw (IOException) e.getCause();
+                }
+                log.warn("transfer of file {} broke at {} bytes, resuming", fileId, position, e.getCause());
+                pause();
+            } finally {
+                closeQuietly(body);
+            }
+        }
+        return new DownloadStats(resumedFrom, position - resumedFrom, total, attempts, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private DownloadStats downloadSpeech(CreateSpeechRequest request, Target target) throws IOException {
+        long start = System.nanoTime();
+        try (ResponseBody body = service.createSpeech(request)) {
+            long written = copy(body.source(), target, 0, body.contentLength());
+            return new DownloadStats(0, written, body.contentLength(), 1, Duration.ofNanos(System.nanoTime() - start));
+        } catch (BrokenTransferException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /**
+     * @return position after the content
+     * @throws BrokenTransferException when reading the body failed, with what was received written to target
+     */
+    private long copy(BufferedSource source, Target target, long position, long total) throws IOException {
+        ProgressSource progress = new ProgressSource(source, position, total);
+        BufferedSink sink = Okio.buffer(target.sink());
+        try {
+            sink.writeAll(progress);
+        } catch (IOException e) {
+            if (e != progress.failure) {
+                throw e;
+            }
+            sink.flush();
+            throw new BrokenTransferException(progress.position, e);
+        }
+        sink.flush();
+        if (config.getListener() != null) {
+            config.getListener().onProgress(progress.position, total);
+        }
+        return progress.position;
+    }
+
+    private void pause() throws IOException {
+        try {
+            Thread.sleep(config.getRetryDelay().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while resuming a download", e);
+        }
+    }
+
+    /**
+     * @param range e.g. "bytes 1024-2047/2048"
+     */
+    static long contentRangeStart(String range) {
+        if (range == null || !range.startsWith("bytes ") || range.indexOf('-') < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(6, range.indexOf('-')).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param range e.g. "bytes 1024-2047/2048" or "bytes *&#47;2048"
+     * @return -1 when the length is missing or unknown
+     */
+    static long contentRangeTotal(String range) {
+        if (range == null || range.lastIndexOf('/') < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(range.lastIndexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read and reports progress, remembering a read failure to tell it from a write failure
+     */
+    private final class ProgressSource extends ForwardingSource {
+        private final long total;
+        private long position;
+        private long nextReport;
+        private IOException failure;
+
+        ProgressSource(BufferedSource source, long position, long total) {
+            super(source);
+            this.position = position;
+            this.total = total;
+            this.nextReport = position + config.getProgressInterval();
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read;
+            try {
+                read = super.read(sink, byteCount);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            if (read > 0) {
+                position += read;
+                if (position >= nextReport) {
+                    nextReport = position + config.getProgressInterval();
+                    if (config.getListener() != null) {
+                        config.getListener().onProgress(position, total);
+                    }
+                }
+            }
+            return read;
+        }
+    }
+
+    private static final class BrokenTransferException extends IOException {
+        final long position;
+
+        BrokenTransferException(long position, IOException cause) {
+            super(cause);
+            this.position = position;
+        }
+    }
+
+    private interface Target {
+        Sink sink() throws IOException;
+
+        /**
+         * Drops what was written, false when the target cannot be rewound
+         */
+        boolean truncate() throws IOException;
+    }
+
+    private static final class FileTarget implements Target, Closeable {
+        final FileChannel channel;
+
+        FileTarget(Path path, boolean resume) throws IOException {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            channel = resume
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(channel.size());
+        }
+
+        @Override
+        public Sink sink() {
+            return Okio.sink(Channels.newOutputStream(channel));
+        }
+
+        @Override
+        public boolean truncate() throws IOException {
+            channel.truncate(0);
+            channel.position(0);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class StreamTarget implements Target {
+        final OutputStream out;
+
+        StreamTarget(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public Sink sink() {
+            return Okio.sink(out);
+        }
+
+        @Override
+        public boolean truncate() {
+            return false;
+        }
+    }
+}
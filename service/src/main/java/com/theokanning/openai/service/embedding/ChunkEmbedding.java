@@ -0,0 +1,32 @@
+package com.theokanning.openai.service.embedding;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Vector of one chunk of a document, emitted by a {@link CorpusEmbeddingPipeline}
+ */
+@Getter
+@ToString(exclude = "vector")
+@AllArgsConstructor
+public class ChunkEmbedding {
+
+    private final String docId;
+
+    /**
+     * Position of the chunk in its document, from 0
+     */
+    private final int chunkIndex;
+
+    /**
+     * Number of chunks of the document
+     */
+    private final int chunkCount;
+
+    private final String text;
+
+    private final int tokens;
+
+    private final float[] vector;
+}
@@ -0,0 +1,22 @@
+package com.theokanning.openai.service.embedding;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A document of a corpus to embed with a {@link CorpusEmbeddingPipeline}
+ */
+@Getter
+@AllArgsConstructor
+public class CorpusDocument {
+
+    /**
+     * Identifies the document in the results and in the checkpoint file, one line: no line breaks
+     */
+    @NonNull
+    private final String docId;
+
+    @NonNull
+    private final String text;
+}
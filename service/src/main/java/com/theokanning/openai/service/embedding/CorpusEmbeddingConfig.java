@@ -0,0 +1,76 @@
+package com.theokanning.openai.service.embedding;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.file.Path;
+
+/**
+ * Configuration of a {@link CorpusEmbeddingPipeline}
+ */
+@Getter
+@Builder
+public class CorpusEmbeddingConfig {
+
+    /**
+     * Embedding model of every request
+     */
+    @NonNull
+    private final String model;
+
+    /**
+     * Dimensions of the vectors, null for the model's default
+     */
+    private final Integer dimensions;
+
+    /**
+     * Tokenizer of the model, cl100k_base for the text-embedding models
+     */
+    @Builder.Default
+    private final EncodingType encoding = EncodingType.CL100K_BASE;
+
+    /**
+     * Maximum tokens of a chunk, the text-embedding models accept up to 8191
+     */
+    @Builder.Default
+    private final int chunkTokens = 512;
+
+    /**
+     * Tokens repeated at the start of a chunk from the end of the previous one, so that a sentence cut in two
+     * is whole in one of them
+     */
+    @Builder.Default
+    private final int overlapTokens = 64;
+
+    /**
+     * Maximum number of chunks in one request, the api accepts up to 2048
+     */
+    @Builder.Default
+    private final int maxInputs = 2048;
+
+    /**
+     * Maximum number of tokens of one request, the api accepts up to 300k
+     */
+    @Builder.Default
+    private final int maxBatchTokens = 250_000;
+
+    /**
+     * Maximum number of requests in flight
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 4;
+
+    /**
+     * Tokens sent per minute at most, 0 for no limit. Set it under the organization's limit of the model so that
+     * a large corpus does not spend its time in 429s.
+     */
+    @Builder.Default
+    private final long tokensPerMinute = 0;
+
+    /**
+     * File listing the documents already embedded, skipped when the pipeline is run again, null for none
+     */
+    private final Path checkpoint;
+}
@@ -0,0 +1,308 @@
+package com.theokanning.openai.service.embedding;
+
+import com.knuddels.jtokkit.api.Encoding;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.FloatEmbedding;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.TokenBucket;
+import com.theokanning.openai.utils.TikTokensUtil;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embeds a corpus: documents are split in overlapping chunks of {@link CorpusEmbeddingConfig#getChunkTokens()}
+ * tokens, the chunks packed in requests within the input and token limits, and the requests sent
+ * {@link CorpusEmbeddingConfig#getMaxConcurrentRequests()} at a time.
+ * <pre>{@code
+ * CorpusEmbeddingPipeline pipeline = new CorpusEmbeddingPipeline(service, CorpusEmbeddingConfig.builder()
+ *         .model("text-embedding-3-small")
+ *         .checkpoint(Paths.get("corpus.checkpoint"))
+ *         .build());
+ * pipeline.embedFiles(files).blockingForEach(chunk -> store.put(chunk.getDocId(), chunk.getChunkIndex(), chunk.getVector()));
+ * }</pre>
+ * Documents are read and chunked lazily, as requests complete, and chunks are emitted as soon as their request
+ * is answered, in no particular order. A failed request fails the flowable; with a checkpoint, running the
+ * pipeline again resumes where it stopped.
+ * <p>
+ * With a checkpoint file, a document is recorded once all its chunks have been emitted and the subscriber has
+ * returned from the last one, and recorded documents are skipped on the next run: after a crash, only the
+ * documents in progress are embedded again.
+ */
+public class CorpusEmbeddingPipeline {
+
+    private final OpenAiService service;
+    private final CorpusEmbeddingConfig config;
+    private final Encoding encoding;
+    private final TokenBucket tokenBucket;
+
+    public CorpusEmbeddingPipeline(OpenAiService service, CorpusEmbeddingConfig config) {
+        if (config.getOverlapTokens() < 0 || config.getOverlapTokens() >= config.getChunkTokens()) {
+            throw new IllegalArgumentException("the overlap must be shorter than a chunk");
+        }
+        this.service = service;
+        this.config = config;
+        this.encoding = TikTokensUtil.getEncoding(config.getEncoding());
+        this.tokenBucket = config.getTokensPerMinute() > 0 ? new TokenBucket(config.getTokensPerMinute()) : null;
+    }
+
+    /**
+     * Embeds the documents of the iterator, the flowable can only be subscribed once
+     */
+    public Flowable<ChunkEmbedding> embed(Iterator<CorpusDocument> documents) {
+        return Flowable.using(Progress::new,
+                progress -> Flowable.fromIterable(() -> new Batches(documents, progress))
+                        .flatMap(batch -> Flowable.fromCallable(() -> send(batch))
+                                .subscribeOn(Schedulers.io())
+                                .flatMapIterable(chunks -> chunks), config.getMaxConcurrentRequests())
+                        .doOnNext(progress::emitted)
+                        .doOnComplete(progress::terminated)
+                        .doOnError(error -> progress.terminated()),
+                Progress::close);
+    }
+
+    /**
+     * Embeds UTF-8 text files, the path of a file is its document id
+     */
+    public Flowable<ChunkEmbedding> embedFiles(List<Path> files) {
+        Iterator<Path> paths = files.iterator();
+        return embed(new Iterator<CorpusDocument>() {
+            @Override
+            public boolean hasNext() {
+                return paths.hasNext();
+            }
+
+            @Override
+            public CorpusDocument next() {
+                Path file = paths.next();
+                try {
+                    return new CorpusDocument(file.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("could not read " + file, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the chunks the text is split in
+     */
+    public List<String> chunk(String text) {
+        List<String> texts = new ArrayList<>();
+        for (Chunk chunk : chunk("", text)) {
+            texts.add(chunk.text);
+        }
+        return texts;
+    }
+
+    private List<Chunk> chunk(String docId, String text) {
+        List<Integer> tokens = TikTokensUtil.encode(encoding, text);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int size = config.getChunkTokens();
+        int step = size - config.getOverlapTokens();
+        int count = tokens.size() <= size ? 1 : (tokens.size() - size + step - 1) / step + 1;
+        List<Chunk> chunks = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int start = index * step;
+            int end = Math.min(start + size, tokens.size());
+            chunks.add(new Chunk(docId, index, count, TikTokensUtil.decode(encoding, tokens.subList(start, end)), end - start));
+        }
+        return chunks;
+    }
+
+    private List<ChunkEmbedding> send(List<Chunk> batch) throws InterruptedException {
+        List<String> input = new ArrayList<>(batch.size());
+        int tokens = 0;
+        for (Chunk chunk : batch) {
+            input.add(chunk.text);
+            tokens += chunk.tokens;
+        }
+        if (tokenBucket != null) {
+            tokenBucket.acquire(tokens);
+        }
+        FloatEmbeddingResult result = service.createFloatEmbeddings(EmbeddingRequest.builder()
+                .model(config.getModel())
+                .input(input)
+                .dimensions(config.getDimensions())
+                .build());
+        ChunkEmbedding[] embeddings = new ChunkEmbedding[batch.size()];
+        for (FloatEmbedding embedding : result.getData()) {
+            Chunk chunk = batch.get(embedding.getIndex());
+            embeddings[embedding.getIndex()] = new ChunkEmbedding(chunk.docId, chunk.index, chunk.count, chunk.text,
+                    chunk.tokens, embedding.getEmbedding());
+        }
+        for (int i = 0; i < embeddings.length; i++) {
+            if (embeddings[i] == null) {
+                throw new IllegalStateException("no embedding returned for chunk " + batch.get(i).index + " of " + batch.get(i).docId);
+            }
+        }
+        List<ChunkEmbedding> chunks = new ArrayList<>(embeddings.length);
+        Collections.addAll(chunks, embeddings);
+        return chunks;
+    }
+
+    /**
+     * Packs the chunks of the documents in requests, reading the next document only when its chunks are needed
+     */
+    private final class Batches implements Iterator<List<Chunk>> {
+        private final Iterator<CorpusDocument> documents;
+        private final Progress progress;
+        private final Deque<Chunk> pending = new ArrayDeque<>();
+
+        Batches(Iterator<CorpusDocument> documents, Progress progress) {
+            this.documents = documents;
+            this.progress = progress;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return fill();
+        }
+
+        @Override
+        public List<Chunk> next() {
+            if (!fill()) {
+                throw new NoSuchElementException();
+            }
+            List<Chunk> batch = new ArrayList<>();
+            long tokens = 0;
+            while (fill()) {
+                Chunk chunk = pending.peek();
+                if (!batch.isEmpty() && (batch.size() == config.getMaxInputs() || tokens + chunk.tokens > config.getMaxBatchTokens())) {
+                    break;
+                }
+                batch.add(pending.poll());
+                tokens += chunk.tokens;
+            }
+            return batch;
+        }
+
+        /**
+         * @return whether a chunk is pending, chunking the next documents not done yet if needed
+         */
+        private boolean fill() {
+            while (pending.isEmpty() && documents.hasNext()) {
+                CorpusDocument document = documents.next();
+                if (progress.isDone(document.getDocId())) {
+                    continue;
+                }
+                List<Chunk> chunks = chunk(document.getDocId(), document.getText());
+                if (!chunks.isEmpty()) {
+                    progress.chunked(document.getDocId(), chunks.size());
+                    pending.addAll(chunks);
+                }
+            }
+            return !pending.isEmpty();
+        }
+    }
+
+    /**
+     * Documents done, from the checkpoint file, and chunks left to emit per document in progress
+     */
+    private final class Progress implements Closeable {
+        private final Set<String> done = new HashSet<>();
+        private final Map<String, Integer> remaining = new ConcurrentHashMap<>();
+        private final List<String> finished = new ArrayList<>();
+        private final BufferedWriter checkpoint;
+
+        Progress() throws IOException {
+            Path file = config.getCheckpoint();
+            if (file == null) {
+                checkpoint = null;
+                return;
+            }
+            if (Files.exists(file)) {
+                done.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+            checkpoint = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        boolean isDone(String docId) {
+            return done.contains(docId);
+        }
+
+        void chunked(String docId, int chunks) {
+            if (docId.indexOf('\n') >= 0 || docId.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("document ids cannot contain line breaks: " + docId);
+            }
+            remaining.put(docId, chunks);
+        }
+
+        /**
+         * Called before the chunk is passed on: the subscriber has returned from the previous one
+         */
+        void emitted(ChunkEmbedding chunk) throws IOException {
+            record();
+            if (remaining.merge(chunk.getDocId(), -1, Integer::sum) == 0) {
+                remaining.remove(chunk.getDocId());
+                finished.add(chunk.getDocId());
+            }
+        }
+
+        /**
+         * Called on completion or error, the subscriber has returned from the last chunk
+         */
+        void terminated() throws IOException {
+            record();
+        }
+
+        private void record() throws IOException {
+            if (finished.isEmpty()) {
+                return;
+            }
+            if (checkpoint != null) {
+                for (String docId : finished) {
+                    checkpoint.write(docId);
+                    checkpoint.newLine();
+                }
+                checkpoint.flush();
+            }
+            finished.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final String docId;
+        final int index;
+        final int count;
+        final String text;
+        final int tokens;
+
+        Chunk(String docId, int index, int count, String text, int tokens) {
+            this.docId = docId;
+            this.index = index;
+            this.count = count;
+            this.text = text;
+            this.tokens = tokens;
+        }
+    }
+}
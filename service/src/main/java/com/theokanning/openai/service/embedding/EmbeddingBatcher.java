@@ -0,0 +1,243 @@
+package com.theokanning.openai.service.embedding;
+
+import com.theokanning.openai.embedding.Embedding;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coalesces single-text embedding submissions from many threads into batched createEmbeddings calls.
+ * <pre>{@code
+ * EmbeddingBatcher batcher = new EmbeddingBatcher(service, EmbeddingBatcherConfig.builder().model("text-embedding-3-small").build());
+ * CompletableFuture<float[]> vector = batcher.embed("what is the refund policy?");
+ * }</pre>
+ * A batch is sent as soon as it holds {@link EmbeddingBatcherConfig#getMaxInputs()} texts, when the next text
+ * would exceed {@link EmbeddingBatcherConfig#getMaxTokens()}, or when its first text has waited
+ * {@link EmbeddingBatcherConfig#getLinger()}. At most {@link EmbeddingBatcherConfig#getMaxConcurrentRequests()}
+ * batches are in flight; while they are, texts accumulate and the next batches get larger.
+ */
+@Slf4j
+public class EmbeddingBatcher implements AutoCloseable {
+
+    private final OpenAiService service;
+    private final EmbeddingBatcherConfig config;
+    private final BlockingQueue<Pending> queue;
+    private final Semaphore inFlight;
+    private final ExecutorService requests;
+    private final Thread dispatcher;
+    /**
+     * Held to submit, and exclusively to close, so no text is queued after close() drained the queue
+     */
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedInputs = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+
+    public EmbeddingBatcher(OpenAiService service, EmbeddingBatcherConfig config) {
+        this.service = service;
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(config.getMaxQueued());
+        this.inFlight = new Semaphore(config.getMaxConcurrentRequests());
+        AtomicInteger threads = new AtomicInteger();
+        this.requests = Executors.newFixedThreadPool(config.getMaxConcurrentRequests(), runnable -> {
+            Thread thread = new Thread(runnable, "openai-embedding-batch-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatchLoop, "openai-embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * @return the vector of the text, completed once its batch is answered
+     */
+    public CompletableFuture<float[]> embed(String text) {
+        CompletableFuture<float[]> future = new CompletableFuture<>();
+        Pending pending = new Pending(text, config.getTokenCounter().applyAsInt(text), future);
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                rejected.increment();
+                future.completeExceptionally(new IllegalStateException("embedding batcher is closed"));
+                return future;
+            }
+            if (!queue.offer(pending)) {
+                rejected.increment();
+                future.completeExceptionally(new RejectedExecutionException("embedding batcher queue is full"));
+                return future;
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+        submitted.increment();
+        return future;
+    }
+
+    /**
+     * @return one future per text, in the same order
+     */
+    public List<CompletableFuture<float[]>> embedAll(List<String> texts) {
+        List<CompletableFuture<float[]>> futures = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            futures.add(embed(text));
+        }
+        return futures;
+    }
+
+    public EmbeddingBatcherStats getStats() {
+        long sent = batchedInputs.sum();
+        return new EmbeddingBatcherStats(submitted.sum(), rejected.sum(), batches.sum(), sent, failed.sum(), queue.size(),
+                sent == 0 ? 0 : queueNanos.sum() / 1e6 / sent, maxQueueNanos.get() / 1e6);
+    }
+
+    /**
+     * Stops accepting texts, sends the ones already submitted and waits for their batches to be answered
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+            Pending late;
+            while ((late = queue.poll()) != null) {
+                rejected.increment();
+                late.future.completeExceptionally(new IllegalStateException("embedding batcher is closed"));
+            }
+            requests.shutdown();
+            requests.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatchLoop() {
+        Pending carry = null;
+        while (true) {
+            Pending first = carry != null ? carry : next(Long.MAX_VALUE);
+            if (first == null) {
+                return;
+            }
+            carry = null;
+            List<Pending> batch = new ArrayList<>();
+            batch.add(first);
+            long tokens = first.tokens;
+            long deadline = first.submittedNanos + config.getLinger().toNanos();
+            while (batch.size() < config.getMaxInputs()) {
+                Pending next = next(deadline - System.nanoTime());
+                if (next == null) {
+                    break;
+                }
+                if (tokens + next.tokens > config.getMaxTokens()) {
+                    carry = next;
+                    break;
+                }
+                batch.add(next);
+                tokens += next.tokens;
+            }
+            inFlight.acquireUninterruptibly();
+            send(batch);
+        }
+    }
+
+    /**
+     * @return the next submitted text, waiting at most the given time unless the batcher is closed
+     */
+    private Pending next(long waitNanos) {
+        if (closed || waitNanos <= 0) {
+            return queue.poll();
+        }
+        try {
+            return waitNanos == Long.MAX_VALUE ? queue.take() : queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            // woken up by close: drain what is left without waiting
+            return queue.poll();
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        long now = System.nanoTime();
+        for (Pending pending : batch) {
+            long waited = now - pending.submittedNanos;
+            queueNanos.add(waited);
+            maxQueueNanos.accumulate(waited);
+        }
+        batches.increment();
+        batchedInputs.add(batch.size());
+        requests.execute(() -> {
+            try {
+                List<String> input = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    input.add(pending.text);
+                }
+                EmbeddingRequest request = EmbeddingRequest.builder()
+                        .model(config.getModel())
+                        .input(input)
+                        .dimensions(config.getDimensions())
+                        .encodingFormat(config.isBase64() ? "base64" : null)
+                        .build();
+                EmbeddingResult result = service.createEmbeddings(request);
+                for (Embedding embedding : result.getData()) {
+                    batch.get(embedding.getIndex()).future.complete(EmbeddingVectors.toFloatArray(embedding.getEmbedding()));
+                }
+                for (Pending pending : batch) {
+                    if (!pending.future.isDone()) {
+                        failed.increment();
+                        pending.future.completeExceptionally(new IllegalStateException("no embedding returned for the text"));
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.debug("embedding batch of {} texts failed", batch.size(), e);
+                failed.add(batch.size());
+                for (Pending pending : batch) {
+                    pending.future.completeExceptionally(e);
+                }
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static final class Pending {
+        final String text;
+        final int tokens;
+        final CompletableFuture<float[]> future;
+        final long submittedNanos = System.nanoTime();
+
+        Pending(String text, int tokens, CompletableFuture<float[]> future) {
+            this.text = text;
+            this.tokens = tokens;
+            this.future = future;
+        }
+    }
+}
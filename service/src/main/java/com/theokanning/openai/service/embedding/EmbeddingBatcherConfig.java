@@ -0,0 +1,72 @@
+package com.theokanning.openai.service.embedding;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import com.theokanning.openai.utils.TikTokensUtil;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.function.ToIntFunction;
+
+/**
+ * Configuration of an {@link EmbeddingBatcher}
+ */
+@Getter
+@Builder
+public class EmbeddingBatcherConfig {
+
+    /**
+     * Embedding model of every batch
+     */
+    @NonNull
+    private final String model;
+
+    /**
+     * Dimensions of the vectors, null for the model's default
+     */
+    private final Integer dimensions;
+
+    /**
+     * Maximum number of texts in one request, the api accepts up to 2048
+     */
+    @Builder.Default
+    private final int maxInputs = 2048;
+
+    /**
+     * Maximum number of tokens of one request, the api accepts up to 300k.
+     * A single text over the budget is still sent, alone.
+     */
+    @Builder.Default
+    private final int maxTokens = 250_000;
+
+    /**
+     * How long the first text of a batch may wait for other texts to join it
+     */
+    @Builder.Default
+    private final Duration linger = Duration.ofMillis(5);
+
+    /**
+     * Maximum number of requests in flight. While they are all busy, submissions keep queuing and make larger batches.
+     */
+    @Builder.Default
+    private final int maxConcurrentRequests = 4;
+
+    /**
+     * Maximum number of texts waiting for a batch, submissions beyond it fail immediately
+     */
+    @Builder.Default
+    private final int maxQueued = 100_000;
+
+    /**
+     * Counts the tokens of a text, cl100k_base by default
+     */
+    @Builder.Default
+    private final ToIntFunction<String> tokenCounter = text -> TikTokensUtil.tokens(EncodingType.CL100K_BASE, text);
+
+    /**
+     * Whether to ask for base64 vectors, 4 bytes per dimension on the wire instead of a decimal number
+     */
+    @Builder.Default
+    private final boolean base64 = true;
+}
@@ -0,0 +1,61 @@
+package com.theokanning.openai.service.embedding;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of an {@link EmbeddingBatcher}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class EmbeddingBatcherStats {
+
+    /**
+     * Texts accepted
+     */
+    private final long submitted;
+
+    /**
+     * Texts refused because the queue was full or the batcher closed
+     */
+    private final long rejected;
+
+    /**
+     * Requests sent
+     */
+    private final long batches;
+
+    /**
+     * Texts sent in a request
+     */
+    private final long batchedInputs;
+
+    /**
+     * Texts whose request failed
+     */
+    private final long failed;
+
+    /**
+     * Texts currently waiting for a batch
+     */
+    private final int queued;
+
+    /**
+     * Mean time between the submission of a text and the sending of its batch, in millis
+     */
+    private final double meanQueueMillis;
+
+    /**
+     * Longest time a text waited for its batch, in millis
+     */
+    private final double maxQueueMillis;
+
+    /**
+     * Mean number of texts per request
+     */
+    public double getMeanBatchSize() {
+        return batches == 0 ? 0 : (double) batchedInputs / batches;
+    }
+}
@@ -0,0 +1,93 @@
+package com.theokanning.openai.service.embedding;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.theokanning.openai.Usage;
+import com.theokanning.openai.embedding.FloatEmbedding;
+import com.theokanning.openai.service.OpenAiService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the embeddings of a createEmbeddings response one at a time with Jackson's streaming parser, so only the
+ * current vector is held in memory however large the response is.
+ * <pre>{@code
+ * try (EmbeddingStreamReader reader = new EmbeddingStreamReader(body.byteStream())) {
+ *     FloatEmbedding embedding;
+ *     while ((embedding = reader.next()) != null) {
+ *         index.add(ids.get(embedding.getIndex()), embedding.getEmbedding());
+ *     }
+ * }
+ * }</pre>
+ * The model and usage are known once they have been read, which is after the embeddings in OpenAI responses.
+ */
+public class EmbeddingStreamReader implements Closeable {
+
+    private static final ObjectMapper mapper = OpenAiService.defaultObjectMapper();
+    private static final ObjectReader embeddingReader = mapper.readerFor(FloatEmbedding.class);
+    private static final ObjectReader usageReader = mapper.readerFor(Usage.class);
+
+    private final JsonParser parser;
+    private boolean inData;
+    private String model;
+    private Usage usage;
+
+    public EmbeddingStreamReader(InputStream in) throws IOException {
+        this.parser = mapper.getFactory().createParser(in);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IOException("an embeddings response must be a json object");
+        }
+    }
+
+    /**
+     * @return the next embedding, or null once the response has been read
+     */
+    public FloatEmbedding next() throws IOException {
+        while (true) {
+            if (inData) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    return embeddingReader.readValue(parser);
+                }
+                inData = false;
+            }
+            if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                return null;
+            }
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("data".equals(field) && value == JsonToken.START_ARRAY) {
+                inData = true;
+            } else if ("model".equals(field)) {
+                model = parser.getValueAsString();
+            } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                usage = usageReader.readValue(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * @return the model, or null if it has not been read yet
+     */
+    public String getModel() {
+        return model;
+    }
+
+    /**
+     * @return the usage, or null if it has not been read yet
+     */
+    public Usage getUsage() {
+        return usage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
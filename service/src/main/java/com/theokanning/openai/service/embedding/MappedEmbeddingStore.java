@@ -0,0 +1,593 @@
+package com.theokanning.openai.service.embedding;
+
+import com.theokanning.openai.service.cache.EmbeddingCache;
+import com.theokanning.openai.service.vector_index.Quantization;
+import com.theokanning.openai.service.vector_index.VectorIndex;
+import com.theokanning.openai.service.vector_index.VectorMath;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of embedding vectors, memory-mapped, so that embeddings survive restarts without json.
+ * <pre>{@code
+ * MappedEmbeddingStore store = new MappedEmbeddingStore(Paths.get("embeddings.vec"), 1536, Quantization.NONE);
+ * store.put(EmbeddingCache.key(model, null, text), vector);
+ * ...
+ * // after a restart
+ * store.loadInto(embeddingCache);
+ * store.loadInto(vectorIndex);
+ * }</pre>
+ * The vector file holds a 64 byte header then one fixed-width record per vector, little-endian float32 or an int8
+ * scale and codes, see {@link Quantization}. The keys, each with a CRC32 of its record, 40 bytes per record, are in
+ * a {@code .keys} file next to it which is what is read on open to rebuild the in-memory key table; vectors are
+ * only paged in when read, and {@link #view(int)} reads them without copying.
+ * <p>
+ * Keys are 64 hex chars, the SHA-256 of {@link EmbeddingCache#key} or {@code CacheKeys.sha256Hex}, or long ids.
+ * A store is one mapping of at most 2GB, about 350k vectors of 1536 float32 dimensions or 1.4M in int8.
+ * Putting a key again appends a new record that supersedes the previous one. Writes are serialized, reads never
+ * lock.
+ * <p>
+ * Appends are on disk once the OS writes the pages back, and certainly after {@link #flush()} and {@link #close()},
+ * which also record how many records are durable. On open, the records appended since the last flush are checked
+ * against their CRC32 and the store ends before the first one that was not completely written, so a crash loses at
+ * most the appends since the last flush.
+ */
+public class MappedEmbeddingStore implements Closeable {
+
+    private static final long MAGIC = 0x4f41_4945_4d42_0001L;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int COUNT_OFFSET = 24;
+    /**
+     * Records forced to disk by the last flush, which need no checking on open
+     */
+    private static final int DURABLE_COUNT_OFFSET = 32;
+    private static final int KEY_BYTES = 32;
+    /**
+     * Key then CRC32 of the key and the vector record, padded to keep the keys 8-byte aligned
+     */
+    private static final int KEY_RECORD_BYTES = 40;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path file;
+    private final int dimensions;
+    private final Quantization quantization;
+    private final int recordBytes;
+    private final FileChannel vectors;
+    private final FileChannel keys;
+    private volatile Mapping mapping;
+    private volatile int count;
+
+    /**
+     * Opens the store, creating it if the file does not exist
+     *
+     * @throws IllegalArgumentException if the file exists with other dimensions or quantization
+     */
+    public MappedEmbeddingStore(Path file, int dimensions, Quantization quantization) {
+        this.file = file;
+        this.dimensions = dimensions;
+        this.quantization = quantization;
+        this.recordBytes = quantization == Quantization.INT8 ? 4 + dimensions : 4 * dimensions;
+        try {
+            this.vectors = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.keys = FileChannel.open(keysFile(file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            boolean created = vectors.size() == 0;
+            int stored = created ? 0 : readHeader();
+            Mapping initial = map(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(stored, 1)) * 2), new KeyTable(stored));
+            if (created) {
+                initial.vectors.putLong(0, MAGIC);
+                initial.vectors.putInt(8, VERSION);
+                initial.vectors.putInt(12, dimensions);
+                initial.vectors.putInt(16, quantization.ordinal());
+                initial.vectors.putLong(COUNT_OFFSET, 0);
+                initial.vectors.putLong(DURABLE_COUNT_OFFSET, 0);
+            }
+            for (int record = 0; record < stored; record++) {
+                initial.table.put(initial.keys, record);
+            }
+            this.mapping = initial;
+            this.count = stored;
+        } catch (IOException e) {
+            throw new UncheckedIOException("embedding store " + file + " is not usable", e);
+        }
+    }
+
+    /**
+     * @return the sidecar file holding the keys of a store
+     */
+    public static Path keysFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".keys");
+    }
+
+    /**
+     * @return the key of a long id, as returned by {@link #key(int)} for records put by id
+     */
+    public static String key(long id) {
+        byte[] bytes = new byte[KEY_BYTES];
+        ByteBuffer.wrap(bytes).putLong(id);
+        return hex(bytes);
+    }
+
+    public synchronized void put(String key, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("expected a vector of " + dimensions + " dimensions, got " + vector.length);
+        }
+        byte[] keyBytes = parseKey(key);
+        int record = count;
+        Mapping current = mapping;
+        if (record == current.capacity) {
+            current = grow(current);
+        }
+        int position = HEADER_BYTES + record * recordBytes;
+        ByteBuffer target = current.vectors.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        target.position(position);
+        if (quantization == Quantization.INT8) {
+            byte[] codes = new byte[dimensions];
+            target.putFloat(VectorMath.quantize(vector, codes, 0));
+            target.put(codes);
+        } else {
+            target.asFloatBuffer().put(vector);
+        }
+        byte[] written = new byte[recordBytes];
+        ByteBuffer source = current.vectors.duplicate();
+        source.position(position);
+        source.get(written);
+        ByteBuffer keyTarget = current.keys.duplicate();
+        keyTarget.position(record * KEY_RECORD_BYTES);
+        keyTarget.put(keyBytes);
+        keyTarget.putInt(checksum(keyBytes, written));
+        current.table.put(current.keys, record);
+        current.vectors.putLong(COUNT_OFFSET, record + 1);
+        count = record + 1;
+    }
+
+    public void put(long id, float[] vector) {
+        put(key(id), vector);
+    }
+
+    /**
+     * @return a copy of the latest vector of the key, or null
+     */
+    public float[] get(String key) {
+        int record = find(key);
+        return record < 0 ? null : vector(record);
+    }
+
+    public float[] get(long id) {
+        return get(key(id));
+    }
+
+    public boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return the number of records, superseded ones included
+     */
+    public int size() {
+        return count;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    /**
+     * @return the key of a record
+     */
+    public String key(int record) {
+        checkRecord(record);
+        byte[] bytes = new byte[KEY_BYTES];
+        ByteBuffer source = mapping.keys.duplicate();
+        source.position(record * KEY_RECORD_BYTES);
+        source.get(bytes);
+        return hex(bytes);
+    }
+
+    /**
+     * @return the id of a record: the id it was put with, or the first 8 bytes of its hash key
+     */
+    public long id(int record) {
+        checkRecord(record);
+        return mapping.keys.getLong(record * KEY_RECORD_BYTES);
+    }
+
+    /**
+     * @return a copy of the vector of a record, dequantized for int8 stores
+     */
+    public float[] vector(int record) {
+        checkRecord(record);
+        float[] vector = new float[dimensions];
+        ByteBuffer source = mapping.vectors.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        source.position(HEADER_BYTES + record * recordBytes);
+        if (quantization == Quantization.INT8) {
+            float scale = source.getFloat();
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = source.get() * scale;
+            }
+        } else {
+            source.asFloatBuffer().get(vector);
+        }
+        return vector;
+    }
+
+    /**
+     * @return a read-only view of the vector of a record in the mapped file, no copy is made
+     * @throws IllegalStateException for int8 stores, whose vectors have to be dequantized
+     */
+    public FloatBuffer view(int record) {
+        checkRecord(record);
+        if (quantization == Quantization.INT8) {
+            throw new IllegalStateException("int8 vectors cannot be viewed as floats, use vector(record)");
+        }
+        ByteBuffer source = mapping.vectors.duplicate();
+        int position = HEADER_BYTES + record * recordBytes;
+        source.position(position).limit(position + recordBytes);
+        return source.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Adds the latest vector of every key to the index, with {@link #id(int)} as id
+     *
+     * @return the number of vectors added
+     */
+    public int loadInto(VectorIndex index) {
+        int loaded = 0;
+        for (int record = 0; record < count; record++) {
+            if (isLatest(record)) {
+                index.add(id(record), vector(record));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Puts the latest vector of every key in the cache, with {@link #key(int)} as key
+     *
+     * @return the number of vectors put
+     */
+    public int loadInto(EmbeddingCache cache) {
+        int loaded = 0;
+        for (int record = 0; record < count; record++) {
+            if (isLatest(record)) {
+                cache.put(key(record), vector(record));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Writes the appended records back to the disk, then records them as durable
+     */
+    public synchronized void flush() {
+        Mapping current = mapping;
+        current.vectors.force();
+        current.keys.force();
+        current.vectors.putLong(DURABLE_COUNT_OFFSET, count);
+        current.vectors.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        // the mapped buffers stay valid until they are garbage collected, only the channels are closed
+        vectors.close();
+        keys.close();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedEmbeddingStore(" + file + ", " + count + " x " + dimensions + " " + quantization + ")";
+    }
+
+    private int readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        vectors.read(header, 0);
+        if (header.getLong(0) != MAGIC) {
+            throw new IOException(file + " is not an embedding store");
+        }
+        if (header.getInt(12) != dimensions || header.getInt(16) != quantization.ordinal()) {
+            throw new IllegalArgumentException(file + " holds " + header.getInt(12) + " dimensions "
+                    + Quantization.values()[header.getInt(16)] + " vectors, not " + dimensions + " " + quantization);
+        }
+        if (header.getInt(8) != VERSION) {
+            throw new IOException(file + " is an embedding store of version " + header.getInt(8) + ", not " + VERSION);
+        }
+        long durable = header.getLong(DURABLE_COUNT_OFFSET);
+        long stored = header.getLong(COUNT_OFFSET);
+        long written = Math.min((vectors.size() - HEADER_BYTES) / recordBytes, keys.size() / KEY_RECORD_BYTES);
+        if (durable > stored || stored > written) {
+            throw new IOException(file + " counts " + stored + " records, " + durable + " durable, in room for " + written);
+        }
+        // the records appended since the last flush may not have reached the disk, whatever the count says
+        int valid = (int) durable;
+        while (valid < stored && isComplete(valid)) {
+            valid++;
+        }
+        return valid;
+    }
+
+    /**
+     * @return whether the key and the vector of a record match the checksum stored with the key
+     */
+    private boolean isComplete(int record) throws IOException {
+        ByteBuffer key = ByteBuffer.allocate(KEY_RECORD_BYTES);
+        ByteBuffer vector = ByteBuffer.allocate(recordBytes);
+        if (readFully(keys, key, (long) record * KEY_RECORD_BYTES) < KEY_RECORD_BYTES
+                || readFully(vectors, vector, HEADER_BYTES + (long) record * recordBytes) < recordBytes) {
+            return false;
+        }
+        byte[] keyBytes = new byte[KEY_BYTES];
+        key.get(keyBytes);
+        return key.getInt() == checksum(keyBytes, vector.array());
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        ((Buffer) buffer).flip();
+        return total;
+    }
+
+    private static int checksum(byte[] key, byte[] vector) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(vector);
+        return (int) crc.getValue();
+    }
+
+    private Mapping map(int capacity, KeyTable table) throws IOException {
+        MappedByteBuffer vectorMap = vectors.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * recordBytes);
+        vectorMap.order(ByteOrder.LITTLE_ENDIAN);
+        MappedByteBuffer keyMap = keys.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * KEY_RECORD_BYTES);
+        return new Mapping(capacity, vectorMap, keyMap, table);
+    }
+
+    private Mapping grow(Mapping current) {
+        int maxCapacity = (Integer.MAX_VALUE - HEADER_BYTES) / recordBytes;
+        if (current.capacity >= maxCapacity) {
+            throw new IllegalStateException("embedding store " + file + " is full at " + current.capacity + " vectors");
+        }
+        try {
+            Mapping grown = map((int) Math.min((long) current.capacity * 2, maxCapacity), current.table);
+            mapping = grown;
+            return grown;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not grow embedding store " + file, e);
+        }
+    }
+
+    private int find(String key) {
+        return find(parseKey(key));
+    }
+
+    private int find(byte[] key) {
+        while (true) {
+            // count first: a mapping read after it covers every counted record
+            int records = count;
+            Mapping current = mapping;
+            int record = current.table.find(current.keys, key, records);
+            if (record != KeyTable.RETRY) {
+                return record;
+            }
+        }
+    }
+
+    private boolean isLatest(int record) {
+        byte[] key = new byte[KEY_BYTES];
+        ByteBuffer source = mapping.keys.duplicate();
+        source.position(record * KEY_RECORD_BYTES);
+        source.get(key);
+        return find(key) == record;
+    }
+
+    private void checkRecord(int record) {
+        if (record < 0 || record >= count) {
+            throw new IndexOutOfBoundsException("record " + record + " of " + count);
+        }
+    }
+
+    private static byte[] parseKey(String key) {
+        if (key.length() != KEY_BYTES * 2) {
+            throw new IllegalArgumentException("keys are 64 hex chars, got " + key);
+        }
+        byte[] bytes = new byte[KEY_BYTES];
+        for (int i = 0; i < KEY_BYTES; i++) {
+            int high = Character.digit(key.charAt(i * 2), 16);
+            int low = Character.digit(key.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("keys are 64 hex chars, got " + key);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static final class Mapping {
+        final int capacity;
+        final MappedByteBuffer vectors;
+        final MappedByteBuffer keys;
+        final KeyTable table;
+
+        Mapping(int capacity, MappedByteBuffer vectors, MappedByteBuffer keys, KeyTable table) {
+            this.capacity = capacity;
+            this.vectors = vectors;
+            this.keys = keys;
+            this.table = table;
+        }
+    }
+
+    /**
+     * Open addressing table from the first 8 bytes of a key to its latest record, full keys are compared in the
+     * mapped keys file. Written under the store lock, read without it: a new slot gets its prefix before its record,
+     * and a replaced record stays in the slot as the previous one, so a reader that has not seen the new count yet
+     * still finds the record it counts. A resize builds new arrays swapped in one volatile write.
+     */
+    private static final class KeyTable {
+        /**
+         * The key was replaced more than once since the reader read the count
+         */
+        static final int RETRY = -2;
+
+        private volatile Slots slots;
+        private int used;
+
+        KeyTable(int expected) {
+            this.slots = new Slots(Math.max(16, Integer.highestOneBit(Math.max(expected, 1) * 3) * 2));
+        }
+
+        void put(ByteBuffer keys, int record) {
+            long prefix = keys.getLong(record * KEY_RECORD_BYTES);
+            Slots current = slots;
+            int index = current.indexOf(keys, prefix, record);
+            int existing = current.records.get(index);
+            if (existing == 0) {
+                if ((used + 1) * 4 > current.size() * 3) {
+                    current = rehash(keys, current);
+                    index = current.indexOf(keys, prefix, record);
+                }
+                used++;
+                current.prefixes.set(index, prefix);
+            } else {
+                current.previous.set(index, existing);
+            }
+            current.records.set(index, record + 1);
+        }
+
+        /**
+         * @return the latest of the first count records with the key, -1 if there is none, or {@link #RETRY}
+         */
+        int find(ByteBuffer keys, byte[] key, int count) {
+            long prefix = ByteBuffer.wrap(key).getLong();
+            Slots current = slots;
+            int mask = current.size() - 1;
+            for (int index = mix(prefix) & mask; ; index = (index + 1) & mask) {
+                int record = current.records.get(index) - 1;
+                if (record < 0) {
+                    return -1;
+                }
+                if (current.prefixes.get(index) != prefix) {
+                    continue;
+                }
+                if (record >= count) {
+                    // replaced after the count was read, the record it replaced is the one counted
+                    record = current.previous.get(index) - 1;
+                    if (record >= count) {
+                        return RETRY;
+                    }
+                }
+                if (record >= 0 && sameKey(keys, record, key)) {
+                    return record;
+                }
+            }
+        }
+
+        private Slots rehash(ByteBuffer keys, Slots current) {
+            Slots grown = new Slots(current.size() * 2);
+            for (int i = 0; i < current.size(); i++) {
+                int record = current.records.get(i);
+                if (record != 0) {
+                    int index = grown.indexOf(keys, current.prefixes.get(i), record - 1);
+                    grown.prefixes.set(index, current.prefixes.get(i));
+                    grown.previous.set(index, current.previous.get(i));
+                    grown.records.set(index, record);
+                }
+            }
+            slots = grown;
+            return grown;
+        }
+
+        private static int mix(long prefix) {
+            long h = prefix * 0x9e37_79b9_7f4a_7c15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static boolean sameKey(ByteBuffer keys, int record, byte[] key) {
+            for (int i = 0; i < KEY_BYTES; i++) {
+                if (keys.get(record * KEY_RECORD_BYTES + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static final class Slots {
+            final AtomicLongArray prefixes;
+            /**
+             * record + 1, 0 for an empty slot
+             */
+            final AtomicIntegerArray records;
+            /**
+             * record + 1 of the record the current one replaced, 0 if none
+             */
+            final AtomicIntegerArray previous;
+
+            Slots(int size) {
+                this.prefixes = new AtomicLongArray(size);
+                this.records = new AtomicIntegerArray(size);
+                this.previous = new AtomicIntegerArray(size);
+            }
+
+            int size() {
+                return records.length();
+            }
+
+            /**
+             * @return the slot holding the key of the record, or the empty slot where it belongs
+             */
+            int indexOf(ByteBuffer keys, long prefix, int record) {
+                int mask = size() - 1;
+                for (int index = mix(prefix) & mask; ; index = (index + 1) & mask) {
+                    int existing = records.get(index) - 1;
+                    if (existing < 0 || (prefixes.get(index) == prefix && sameRecordKey(keys, existing, record))) {
+                        return index;
+                    }
+                }
+            }
+
+            private static boolean sameRecordKey(ByteBuffer keys, int a, int b) {
+                for (int i = 0; i < KEY_BYTES; i++) {
+                    if (keys.get(a * KEY_RECORD_BYTES + i) != keys.get(b * KEY_RECORD_BYTES + i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
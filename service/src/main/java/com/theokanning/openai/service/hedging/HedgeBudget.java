@@ -0,0 +1,48 @@
+package com.theokanning.openai.service.hedging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting hedges to a fraction of the hedgeable calls.
+ * <p>
+ * Every call deposits {@code maxExtraLoad} of a token, every hedge withdraws a whole token. Credits are capped
+ * so an idle period cannot be followed by a burst of hedges.
+ */
+class HedgeBudget {
+    private static final long UNIT = 1000;
+    private static final long MAX_CREDITS = 10 * UNIT;
+
+    private final long deposit;
+    private final AtomicLong credits = new AtomicLong();
+
+    HedgeBudget(double maxExtraLoad) {
+        if (maxExtraLoad < 0) {
+            throw new IllegalArgumentException("maxExtraLoad must not be negative");
+        }
+        this.deposit = Math.round(maxExtraLoad * UNIT);
+    }
+
+    void deposit() {
+        if (deposit == 0) {
+            return;
+        }
+        long current;
+        do {
+            current = credits.get();
+            if (current >= MAX_CREDITS) {
+                return;
+            }
+        } while (!credits.compareAndSet(current, Math.min(MAX_CREDITS, current + deposit)));
+    }
+
+    boolean tryAcquire() {
+        long current;
+        do {
+            current = credits.get();
+            if (current < UNIT) {
+                return false;
+            }
+        } while (!credits.compareAndSet(current, current - UNIT));
+        return true;
+    }
+}
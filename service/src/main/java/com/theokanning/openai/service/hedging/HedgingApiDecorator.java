@@ -0,0 +1,121 @@
+package com.theokanning.openai.service.hedging;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.OpenAiApiDecorator;
+import io.reactivex.Single;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a duplicate of an idempotent call when the first attempt has not answered within the configured
+ * latency percentile of its endpoint, and returns whichever attempt answers first.
+ * The other attempt is disposed as soon as the first one succeeds, which cancels its http call. Once the hedge is
+ * sent, the call only fails when both attempts failed.
+ * <p>
+ * The percentile is computed from the latencies of the first attempts: when the hedge wins, the first attempt is
+ * recorded with the time it had been running when it was cancelled.
+ * <p>
+ * Hedges are limited by {@link HedgingPolicy#getMaxExtraLoad()}, calls that are not listed in
+ * {@link HedgingPolicy#getMethods()} and the streaming calls are passed through untouched.
+ * <pre>{@code
+ * HedgingApiDecorator hedging = new HedgingApiDecorator(OpenAiService.buildApi(token, timeout), HedgingPolicy.builder().build());
+ * OpenAiService service = new OpenAiService(hedging.getApi());
+ * }</pre>
+ */
+public class HedgingApiDecorator extends OpenAiApiDecorator {
+
+    private final HedgingPolicy policy;
+    private final HedgeBudget budget;
+    private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public HedgingApiDecorator(OpenAiApi delegate, HedgingPolicy policy) {
+        super(delegate);
+        this.policy = policy;
+        this.budget = new HedgeBudget(policy.getMaxExtraLoad());
+    }
+
+    @Override
+    protected <T> Single<T> decorateSingle(Method method, Object[] args, Single<T> single) {
+        if (!policy.getMethods().test(method.getName())) {
+            return single;
+        }
+        LatencyTracker tracker = trackers.computeIfAbsent(method.getName(),
+                name -> new LatencyTracker(policy.getWindowSize(), policy.getPercentile(), policy.getMinSamples()));
+        return Single.defer(() -> {
+            calls.increment();
+            budget.deposit();
+            long start = System.nanoTime();
+            AtomicBoolean hedged = new AtomicBoolean();
+            AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+            Single<T> primary = single.subscribeOn(policy.getScheduler())
+                    .doOnSuccess(result -> tracker.record(System.nanoTime() - start))
+                    .onErrorResumeNext(e -> hedged.get() ? awaitOther(e, firstFailure) : Single.error(e));
+            Single<T> hedge = Single.timer(hedgeDelayNanos(tracker), TimeUnit.NANOSECONDS, policy.getScheduler())
+                    .flatMap(tick -> {
+                        if (!budget.tryAcquire()) {
+                            return Single.never();
+                        }
+                        hedged.set(true);
+                        hedges.increment();
+                        return single.subscribeOn(policy.getScheduler())
+                                .doOnSuccess(result -> {
+                                    hedgeWins.increment();
+                                    // the first attempt is cancelled, it took at least this long
+                                    tracker.record(System.nanoTime() - start);
+                                })
+                                .onErrorResumeNext(e -> awaitOther(e, firstFailure));
+                    });
+            return Single.ambArray(primary, hedge);
+        });
+    }
+
+    /**
+     * Keeps the call waiting for the other attempt when it is the first one to fail, fails it otherwise
+     */
+    private static <T> Single<T> awaitOther(Throwable failure, AtomicReference<Throwable> firstFailure) {
+        if (firstFailure.compareAndSet(null, failure)) {
+            return Single.never();
+        }
+        if (firstFailure.get() != failure) {
+            failure.addSuppressed(firstFailure.get());
+        }
+        return Single.error(failure);
+    }
+
+    /**
+     * @return the number of hedgeable calls
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return the number of hedges sent
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return the number of calls answered by the hedge rather than the first attempt
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    private long hedgeDelayNanos(LatencyTracker tracker) {
+        long percentile = tracker.percentileNanos();
+        long delay = percentile < 0 ? policy.getInitialDelay().toNanos() : percentile;
+        return Math.max(delay, policy.getMinDelay().toNanos());
+    }
+}
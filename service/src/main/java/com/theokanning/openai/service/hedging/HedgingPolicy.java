@@ -0,0 +1,80 @@
+package com.theokanning.openai.service.hedging;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+
+/**
+ * Configuration of hedged requests, see {@link HedgingApiDecorator}
+ * <p>
+ * A hedge is a duplicate of a call that has not answered within the {@link #percentile} latency of its
+ * endpoint. Only idempotent calls may be hedged, by default: createEmbeddings, createFloatEmbeddings,
+ * createModeration and retrieve*.
+ */
+@Getter
+@Builder
+public class HedgingPolicy {
+
+    /**
+     * Default hedged api methods: embeddings (both result types), moderations and the retrieve* lookups.
+     * File content is excluded, duplicating a large download costs more than it saves.
+     */
+    public static final Predicate<String> DEFAULT_METHODS = name ->
+            "createEmbeddings".equals(name)
+                    || "createFloatEmbeddings".equals(name)
+                    || "createModeration".equals(name)
+                    || (name.startsWith("retrieve") && !"retrieveFileContent".equals(name));
+
+    /**
+     * Names of the {@link com.theokanning.openai.client.OpenAiApi} methods that may be hedged
+     */
+    @Builder.Default
+    private final Predicate<String> methods = DEFAULT_METHODS;
+
+    /**
+     * Latency percentile of an endpoint after which the hedge is sent, between 0 and 1
+     */
+    @Builder.Default
+    private final double percentile = 0.95;
+
+    /**
+     * Hedge delay used until {@link #minSamples} latencies of an endpoint have been recorded
+     */
+    @Builder.Default
+    private final Duration initialDelay = Duration.ofSeconds(1);
+
+    /**
+     * Lower bound of the hedge delay, avoids hedging every call of a very fast endpoint
+     */
+    @Builder.Default
+    private final Duration minDelay = Duration.ofMillis(20);
+
+    /**
+     * Number of latencies needed before the percentile is trusted
+     */
+    @Builder.Default
+    private final int minSamples = 20;
+
+    /**
+     * Number of recent latencies per endpoint the percentile is computed from
+     */
+    @Builder.Default
+    private final int windowSize = 1000;
+
+    /**
+     * Maximum extra load caused by hedges, as a fraction of the hedgeable calls. 0.1 means at most 10% more requests.
+     */
+    @Builder.Default
+    private final double maxExtraLoad = 0.1;
+
+    /**
+     * Scheduler the attempts and the hedge timer run on. Attempts must not block the caller thread,
+     * otherwise the hedge could not be sent while the first attempt is waiting.
+     */
+    @Builder.Default
+    private final Scheduler scheduler = Schedulers.io();
+}
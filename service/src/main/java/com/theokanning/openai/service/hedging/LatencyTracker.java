@@ -0,0 +1,58 @@
+package com.theokanning.openai.service.hedging;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the last N latencies of an endpoint and the percentile of them.
+ * <p>
+ * Recording is a couple of atomic writes, the percentile is recomputed (copy and sort) only every
+ * {@link #RECOMPUTE_INTERVAL} samples and read as a volatile field.
+ */
+class LatencyTracker {
+    private static final int RECOMPUTE_INTERVAL = 32;
+
+    private final AtomicLongArray samples;
+    private final AtomicLong count = new AtomicLong();
+    private final double percentile;
+    private final int minSamples;
+
+    private volatile long percentileNanos = -1;
+
+    LatencyTracker(int windowSize, double percentile, int minSamples) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in (0, 1]");
+        }
+        this.samples = new AtomicLongArray(windowSize);
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, minSamples);
+    }
+
+    void record(long nanos) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n % samples.length()), nanos);
+        long recorded = n + 1;
+        if (recorded >= minSamples && (recorded == minSamples || recorded % RECOMPUTE_INTERVAL == 0)) {
+            recompute(recorded);
+        }
+    }
+
+    /**
+     * @return the percentile latency in nanos, or -1 if not enough samples were recorded
+     */
+    long percentileNanos() {
+        return percentileNanos;
+    }
+
+    private void recompute(long recorded) {
+        int size = (int) Math.min(recorded, samples.length());
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        int index = (int) Math.ceil(percentile * size) - 1;
+        percentileNanos = copy[Math.max(0, Math.min(size - 1, index))];
+    }
+}
@@ -0,0 +1,52 @@
+package com.theokanning.openai.service.pool;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.time.Duration;
+
+/**
+ * An OpenAI compatible endpoint and the credentials to call it with, one member of an {@link OpenAiServicePool}
+ */
+@Getter
+@Builder
+public class Backend {
+
+    /**
+     * Name used in statuses and logs, defaults to the base url
+     */
+    private final String name;
+
+    /**
+     * Base url of the api, e.g. "https://api.openai.com/v1/"
+     */
+    @NonNull
+    private final String baseUrl;
+
+    /**
+     * Api key
+     */
+    @NonNull
+    private final String token;
+
+    /**
+     * Optional OpenAI-Organization header
+     */
+    private final String organization;
+
+    /**
+     * Optional OpenAI-Project header
+     */
+    private final String project;
+
+    /**
+     * http read timeout, Duration.ZERO means no timeout
+     */
+    @Builder.Default
+    private final Duration timeout = Duration.ofSeconds(10);
+
+    public String getName() {
+        return name != null ? name : baseUrl;
+    }
+}
@@ -0,0 +1,70 @@
+package com.theokanning.openai.service.pool;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.circuit_breaker.CircuitBreaker;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live state of a backend: its api, calls in flight, quota and ejection
+ */
+class BackendState implements Interceptor {
+    static final String REMAINING_REQUESTS_HEADER = "x-ratelimit-remaining-requests";
+
+    final Backend backend;
+    OkHttpClient client;
+    volatile OpenAiApi api;
+    /**
+     * The api without the circuits, so the health probe reaches the backend while its circuit is open
+     */
+    volatile OpenAiApi probeApi;
+    CircuitBreaker circuit;
+
+    final AtomicInteger outstanding = new AtomicInteger();
+    final LongAdder calls = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    volatile long remainingRequests = -1;
+
+    volatile boolean ejected;
+    volatile long ejectedUntilNanos;
+    final AtomicInteger consecutiveEjections = new AtomicInteger();
+    final AtomicBoolean probing = new AtomicBoolean();
+
+    BackendState(Backend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Records the remaining quota reported by every response
+     */
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        String remaining = response.header(REMAINING_REQUESTS_HEADER);
+        if (remaining != null) {
+            try {
+                remainingRequests = Long.parseLong(remaining.trim());
+            } catch (NumberFormatException e) {
+                // not a count, keep the last known value
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Whether the backend is in the rotation: not ejected and its circuit, if any, lets calls through
+     */
+    boolean isAvailable() {
+        return !ejected && (circuit == null || circuit.isCallPermitted());
+    }
+
+    BackendStatus status() {
+        return new BackendStatus(backend.getName(), outstanding.get(), remainingRequests, ejected, calls.sum(), failures.sum());
+    }
+}
@@ -0,0 +1,41 @@
+package com.theokanning.openai.service.pool;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of a backend of an {@link OpenAiServicePool}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class BackendStatus {
+
+    private final String name;
+
+    /**
+     * Calls in flight
+     */
+    private final int outstanding;
+
+    /**
+     * Remaining request quota last reported by the backend, -1 if unknown
+     */
+    private final long remainingRequests;
+
+    /**
+     * Whether the backend is currently out of the rotation
+     */
+    private final boolean ejected;
+
+    /**
+     * Calls routed to the backend
+     */
+    private final long calls;
+
+    /**
+     * Calls that failed with 429, 5xx or an io error
+     */
+    private final long failures;
+}
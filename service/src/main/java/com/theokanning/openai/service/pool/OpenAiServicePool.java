@@ -0,0 +1,148 @@
+package com.theokanning.openai.service.pool;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.client.OrganizationAndProjectHeaderInterceptor;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.circuit_breaker.CircuitBreakerApiDecorator;
+import com.theokanning.openai.service.circuit_breaker.CircuitBreakerRegistry;
+import io.reactivex.Single;
+import retrofit2.Retrofit;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * An {@link OpenAiService} spreading its calls over several backends, each with its own base url, token and
+ * organization/project. It has the same methods as OpenAiService and can replace it anywhere.
+ * <pre>{@code
+ * OpenAiService service = OpenAiServicePool.builder()
+ *         .backend(Backend.builder().baseUrl("https://api.openai.com/v1/").token(key1).build())
+ *         .backend(Backend.builder().baseUrl("https://my-gateway/v1/").token(key2).build())
+ *         .strategy(RoutingStrategy.LEAST_OUTSTANDING)
+ *         .build();
+ * }</pre>
+ * Backends answering 429/5xx are taken out of the rotation and re-admitted once a health probe succeeds,
+ * see {@link PooledApiHandler}. With {@link Builder#circuitBreakers} every backend is also guarded by its own
+ * circuits, and backends whose circuit is open are skipped by the routing.
+ */
+public class OpenAiServicePool extends OpenAiService {
+
+    private final PooledApiHandler handler;
+
+    private OpenAiServicePool(PooledApiHandler handler) {
+        super(handler.getApi());
+        this.handler = handler;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return a snapshot of every backend, in configuration order
+     */
+    public List<BackendStatus> getBackendStatuses() {
+        return handler.getBackends().stream().map(BackendState::status).collect(Collectors.toList());
+    }
+
+    /**
+     * Stops the health prober and shuts down the executors of every backend's http client
+     */
+    @Override
+    public void shutdownExecutor() {
+        handler.shutdown();
+    }
+
+    public static class Builder {
+        private final List<Backend> backends = new ArrayList<>();
+        private RoutingStrategy strategy = RoutingStrategy.LEAST_OUTSTANDING;
+        private Duration baseEjection = Duration.ofSeconds(5);
+        private Duration maxEjection = Duration.ofMinutes(2);
+        private Duration probeInterval = Duration.ofSeconds(1);
+        private Duration probeTimeout = Duration.ofSeconds(5);
+        private Function<OpenAiApi, Single<?>> probe = OpenAiApi::listModels;
+        private CircuitBreakerRegistry circuitBreakers;
+
+        public Builder backend(Backend backend) {
+            backends.add(backend);
+            return this;
+        }
+
+        public Builder backends(List<Backend> backends) {
+            this.backends.addAll(backends);
+            return this;
+        }
+
+        public Builder strategy(RoutingStrategy strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * Duration of a first ejection, doubled on every consecutive one
+         */
+        public Builder baseEjection(Duration baseEjection) {
+            this.baseEjection = baseEjection;
+            return this;
+        }
+
+        public Builder maxEjection(Duration maxEjection) {
+            this.maxEjection = maxEjection;
+            return this;
+        }
+
+        /**
+         * How often ejected backends whose ejection is over are probed
+         */
+        public Builder probeInterval(Duration probeInterval) {
+            this.probeInterval = probeInterval;
+            return this;
+        }
+
+        public Builder probeTimeout(Duration probeTimeout) {
+            this.probeTimeout = probeTimeout;
+            return this;
+        }
+
+        /**
+         * Health check of an ejected backend, listModels by default
+         */
+        public Builder probe(Function<OpenAiApi, Single<?>> probe) {
+            this.probe = probe;
+            return this;
+        }
+
+        /**
+         * Guards every backend with the circuits of this registry, named after the backend
+         */
+        public Builder circuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+            this.circuitBreakers = circuitBreakers;
+            return this;
+        }
+
+        public OpenAiServicePool build() {
+            List<BackendState> states = new ArrayList<>();
+            for (Backend backend : backends) {
+                BackendState state = new BackendState(backend);
+                state.client = OpenAiService.defaultClient(backend.getToken(), backend.getTimeout())
+                        .newBuilder()
+                        .addInterceptor(new OrganizationAndProjectHeaderInterceptor(backend.getOrganization(), backend.getProject()))
+                        .addInterceptor(state)
+                        .build();
+                Retrofit retrofit = OpenAiService.defaultRetrofit(state.client, OpenAiService.defaultObjectMapper(), backend.getBaseUrl());
+                state.api = retrofit.create(OpenAiApi.class);
+                state.probeApi = state.api;
+                if (circuitBreakers != null) {
+                    CircuitBreakerApiDecorator decorator = new CircuitBreakerApiDecorator(state.api, circuitBreakers, backend.getName());
+                    state.api = decorator.getApi();
+                    state.circuit = decorator.getBackendCircuit();
+                }
+                states.add(state);
+            }
+            return new OpenAiServicePool(new PooledApiHandler(states, strategy, baseEjection, maxEjection, probeInterval, probeTimeout, probe));
+        }
+    }
+}
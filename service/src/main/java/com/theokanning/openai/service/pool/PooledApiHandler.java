@@ -0,0 +1,272 @@
+package com.theokanning.openai.service.pool;
+
+import com.theokanning.openai.client.OpenAiApi;
+import io.reactivex.Single;
+import lombok.extern.slf4j.Slf4j;
+import retrofit2.Call;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes every {@link OpenAiApi} call to one of the pool's backends and keeps their health.
+ * <p>
+ * A backend failing with 429, 5xx or an io error is ejected for an exponentially growing duration (or the
+ * Retry-After of a 429 if longer). Once that duration is over the backend is probed in the background and only
+ * re-admitted if the probe succeeds.
+ */
+@Slf4j
+class PooledApiHandler implements InvocationHandler {
+
+    private final List<BackendState> backends;
+    private final RoutingStrategy strategy;
+    private final Duration baseEjection;
+    private final Duration maxEjection;
+    private final Function<OpenAiApi, Single<?>> probe;
+    private final Duration probeTimeout;
+    private final ScheduledExecutorService prober;
+    private final AtomicInteger next = new AtomicInteger();
+    private final OpenAiApi api;
+
+    PooledApiHandler(List<BackendState> backends, RoutingStrategy strategy, Duration baseEjection, Duration maxEjection,
+                     Duration probeInterval, Duration probeTimeout, Function<OpenAiApi, Single<?>> probe) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("a pool needs at least one backend");
+        }
+        this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+        this.strategy = strategy;
+        this.baseEjection = baseEjection;
+        this.maxEjection = maxEjection;
+        this.probe = probe;
+        this.probeTimeout = probeTimeout;
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "openai-pool-prober");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prober.scheduleWithFixedDelay(this::probeEjected, probeInterval.toMillis(), probeInterval.toMillis(), TimeUnit.MILLISECONDS);
+        this.api = (OpenAiApi) Proxy.newProxyInstance(OpenAiApi.class.getClassLoader(), new Class<?>[]{OpenAiApi.class}, this);
+    }
+
+    OpenAiApi getApi() {
+        return api;
+    }
+
+    List<BackendState> getBackends() {
+        return backends;
+    }
+
+    void shutdown() {
+        prober.shutdownNow();
+        for (BackendState backend : backends) {
+            backend.client.dispatcher().executorService().shutdown();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "OpenAiServicePool" + backends.stream().map(b -> b.backend.getName()).collect(Collectors.toList());
+            }
+        }
+        if (Single.class.isAssignableFrom(method.getReturnType())) {
+            // pick the backend at subscription, so every subscription (retry, hedge...) is routed again
+            return Single.defer(() -> {
+                BackendState backend = select();
+                return track(backend, (Single<Object>) invokeOn(backend, method, args));
+            });
+        }
+        BackendState backend = select();
+        Object result = invokeOn(backend, method, args);
+        if (result instanceof Call) {
+            return new TrackingCall<>(this, backend, (Call<Object>) result);
+        }
+        return result;
+    }
+
+    private static Object invokeOn(BackendState backend, Method method, Object[] args) throws Exception {
+        try {
+            return method.invoke(backend.api, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (Exception) e.getCause();
+        }
+    }
+
+    private <T> Single<T> track(BackendState backend, Single<T> single) {
+        return Single.defer(() -> {
+            begin(backend);
+            AtomicBoolean ended = new AtomicBoolean();
+            return single
+                    .doOnSuccess(result -> {
+                        if (ended.compareAndSet(false, true)) {
+                            end(backend, 200, null);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (ended.compareAndSet(false, true)) {
+                            end(backend, e instanceof HttpException ? ((HttpException) e).code() : -1, e);
+                        }
+                    })
+                    .doOnDispose(() -> {
+                        if (ended.compareAndSet(false, true)) {
+                            end(backend, -1, null);
+                        }
+                    });
+        });
+    }
+
+    void begin(BackendState backend) {
+        backend.calls.increment();
+        backend.outstanding.incrementAndGet();
+    }
+
+    /**
+     * @param code  http status, -1 if there is none
+     * @param error the failure, null if the call succeeded at the transport level or was cancelled
+     */
+    void end(BackendState backend, int code, Throwable error) {
+        backend.outstanding.decrementAndGet();
+        if (code == 429 || code >= 500 || (code == -1 && error instanceof IOException)) {
+            backend.failures.increment();
+            eject(backend, retryAfterNanos(error));
+        }
+    }
+
+    BackendState select() {
+        int size = backends.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        BackendState best = null;
+        if (strategy == RoutingStrategy.REMAINING_QUOTA) {
+            best = selectByQuota(start);
+        }
+        if (best == null) {
+            for (int i = 0; i < size; i++) {
+                BackendState candidate = backends.get((start + i) % size);
+                if (candidate.isAvailable() && (best == null || candidate.outstanding.get() < best.outstanding.get())) {
+                    best = candidate;
+                }
+            }
+        }
+        if (best == null) {
+            // every backend is ejected or has an open circuit: fail open on the one that comes back first
+            for (BackendState candidate : backends) {
+                if (best == null || candidate.ejectedUntilNanos < best.ejectedUntilNanos) {
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    private BackendState selectByQuota(int start) {
+        long knownSum = 0;
+        int known = 0;
+        for (BackendState candidate : backends) {
+            if (candidate.isAvailable() && candidate.remainingRequests >= 0) {
+                knownSum += candidate.remainingRequests;
+                known++;
+            }
+        }
+        double unknownQuota = known == 0 ? 1 : Math.max(1.0, (double) knownSum / known);
+        int size = backends.size();
+        double[] weights = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            BackendState candidate = backends.get((start + i) % size);
+            if (!candidate.isAvailable()) {
+                continue;
+            }
+            double quota = candidate.remainingRequests >= 0 ? candidate.remainingRequests : unknownQuota;
+            weights[i] = quota / (candidate.outstanding.get() + 1);
+            total += weights[i];
+        }
+        if (total <= 0) {
+            return null;
+        }
+        double pick = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < size; i++) {
+            pick -= weights[i];
+            if (weights[i] > 0 && pick < 0) {
+                return backends.get((start + i) % size);
+            }
+        }
+        return null;
+    }
+
+    private void eject(BackendState backend, long minNanos) {
+        synchronized (backend) {
+            if (backend.ejected && !backend.probing.get()) {
+                return;
+            }
+            int ejections = backend.consecutiveEjections.incrementAndGet();
+            long nanos = baseEjection.toNanos() << Math.min(ejections - 1, 20);
+            nanos = Math.max(minNanos, Math.min(nanos, maxEjection.toNanos()));
+            backend.ejectedUntilNanos = System.nanoTime() + nanos;
+            if (!backend.ejected) {
+                log.warn("backend {} ejected for {}ms", backend.backend.getName(), TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+            backend.ejected = true;
+        }
+    }
+
+    private void probeEjected() {
+        for (BackendState backend : backends) {
+            if (!backend.ejected || System.nanoTime() < backend.ejectedUntilNanos || !backend.probing.compareAndSet(false, true)) {
+                continue;
+            }
+            try {
+                probe.apply(backend.probeApi).timeout(probeTimeout.toMillis(), TimeUnit.MILLISECONDS).blockingGet();
+                synchronized (backend) {
+                    backend.consecutiveEjections.set(0);
+                    backend.ejected = false;
+                }
+                log.info("backend {} re-admitted", backend.backend.getName());
+            } catch (Exception e) {
+                eject(backend, retryAfterNanos(e));
+            } finally {
+                backend.probing.set(false);
+            }
+        }
+    }
+
+    private static long retryAfterNanos(Throwable error) {
+        if (!(error instanceof HttpException) || ((HttpException) error).response() == null) {
+            return 0;
+        }
+        String retryAfter = ((HttpException) error).response().headers().get("retry-after");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(retryAfter.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.theokanning.openai.service.pool;
+
+/**
+ * How an {@link OpenAiServicePool} picks the backend of a call among the healthy ones
+ */
+public enum RoutingStrategy {
+    /**
+     * The backend with the fewest calls in flight
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * A random backend weighted by its remaining request quota, as last reported in the x-ratelimit-remaining-requests
+     * header, divided by its calls in flight. Backends that have not reported a quota yet get the average weight.
+     */
+    REMAINING_QUOTA
+}
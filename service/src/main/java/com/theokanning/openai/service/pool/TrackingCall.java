@@ -0,0 +1,86 @@
+package com.theokanning.openai.service.pool;
+
+import okhttp3.Request;
+import okio.Timeout;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+
+/**
+ * Streaming call routed to a backend, counted as in flight until its response (or failure) arrives
+ */
+class TrackingCall<T> implements Call<T> {
+    private final PooledApiHandler pool;
+    private final BackendState backend;
+    private final Call<T> delegate;
+
+    TrackingCall(PooledApiHandler pool, BackendState backend, Call<T> delegate) {
+        this.pool = pool;
+        this.backend = backend;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response<T> execute() throws IOException {
+        pool.begin(backend);
+        try {
+            Response<T> response = delegate.execute();
+            pool.end(backend, response.code(), null);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            pool.end(backend, -1, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void enqueue(Callback<T> callback) {
+        pool.begin(backend);
+        delegate.enqueue(new Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                pool.end(backend, response.code(), null);
+                callback.onResponse(TrackingCall.this, response);
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                pool.end(backend, -1, delegate.isCanceled() ? null : t);
+                callback.onFailure(TrackingCall.this, t);
+            }
+        });
+    }
+
+    @Override
+    public boolean isExecuted() {
+        return delegate.isExecuted();
+    }
+
+    @Override
+    public void cancel() {
+        delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return delegate.isCanceled();
+    }
+
+    @Override
+    @SuppressWarnings("MethodDoesntCallSuperMethod")
+    public Call<T> clone() {
+        return new TrackingCall<>(pool, backend, delegate.clone());
+    }
+
+    @Override
+    public Request request() {
+        return delegate.request();
+    }
+
+    @Override
+    public Timeout timeout() {
+        return delegate.timeout();
+    }
+}
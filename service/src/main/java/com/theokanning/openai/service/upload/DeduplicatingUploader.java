@@ -0,0 +1,190 @@
+package com.theokanning.openai.service.upload;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.assistants.assistant.VectorStoreFileRequest;
+import com.theokanning.openai.file.File;
+import com.theokanning.openai.service.OpenAiService;
+import lombok.extern.slf4j.Slf4j;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Skips the upload of content that was uploaded before, so an ingestion job run again over mostly unchanged
+ * documents only sends and embeds what changed.
+ * <pre>{@code
+ * try (UploadIndex index = new UploadIndex(Paths.get("uploads.jsonl"))) {
+ *     DeduplicatingUploader uploader = new DeduplicatingUploader(service, index);
+ *     for (Path document : documents) {
+ *         uploader.attach(vectorStoreId, document);
+ *     }
+ * }
+ * }</pre>
+ * Sources are identified by the SHA-256 of their bytes, streamed from disk. A hit in the {@link UploadIndex} is
+ * checked with retrieveFile the first time it is used by this uploader, and uploaded again if the file was deleted.
+ * Sources with the same content attached to a vector store share one file, detached once none of them has it.
+ * Files of 64 MB and more are uploaded with a {@link MultipartUploader}.
+ */
+@Slf4j
+public class DeduplicatingUploader {
+
+    private static final long MULTIPART_THRESHOLD = 64L * 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OpenAiService service;
+    private final UploadIndex index;
+    private final MultipartUploader multipartUploader;
+    private final Set<String> validated = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder attached = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder detached = new LongAdder();
+    private final LongAdder hashedBytes = new LongAdder();
+
+    public DeduplicatingUploader(OpenAiService service, UploadIndex index) {
+        this.service = service;
+        this.index = index;
+        this.multipartUploader = new MultipartUploader(service, MultipartUploadConfig.builder().build());
+    }
+
+    /**
+     * @param purpose e.g. "assistants" or "batch"
+     * @return the id of a file with the content of path, uploaded now or before
+     */
+    public String upload(Path path, String purpose) throws IOException {
+        return upload(path, sha256(path), purpose);
+    }
+
+    /**
+     * Attaches the content of path to a vector store unless it is already attached, replacing the file attached for
+     * path before when its content changed. Sources are told apart by their absolute path.
+     *
+     * @return the id of the file attached for path
+     */
+    public String attach(String vectorStoreId, Path path) throws IOException {
+        String source = path.toAbsolutePath().normalize().toString();
+        String sha256 = sha256(path);
+        UploadIndex.Attachment previous = index.attachment(vectorStoreId, source);
+        if (previous != null && previous.sha256.equals(sha256) && isAttached(vectorStoreId, previous.fileId)) {
+            unchanged.increment();
+            return previous.fileId;
+        }
+        String fileId = upload(path, sha256, "assistants");
+        service.createVectorStoreFile(vectorStoreId, VectorStoreFileRequest.builder().fileId(fileId).build());
+        index.putAttachment(vectorStoreId, source, sha256, fileId);
+        attached.increment();
+        // sources with the same content share a file, which stays attached while one of them still has it
+        if (previous != null && !previous.fileId.equals(fileId) && index.attachedSources(vectorStoreId, previous.fileId) == 0) {
+            validated.remove(vectorStoreId + '/' + previous.fileId);
+            try {
+                service.deleteVectorStoreFile(vectorStoreId, previous.fileId);
+                detached.increment();
+            } catch (RuntimeException e) {
+                if (!isNotFound(e)) {
+                    log.warn("could not detach the previous content of {} from {}", source, vectorStoreId, e);
+                }
+            }
+        }
+        return fileId;
+    }
+
+    public DeduplicationStats getStats() {
+        return new DeduplicationStats(uploaded.sum(), reused.sum(), attached.sum(), unchanged.sum(), detached.sum(),
+                hashedBytes.sum());
+    }
+
+    private String upload(Path path, String sha256, String purpose) throws IOException {
+        String known = index.fileId(sha256, purpose);
+        if (known != null && exists(known)) {
+            reused.increment();
+            return known;
+        }
+        if (known != null) {
+            index.removeFile(sha256, purpose);
+        }
+        File file = Files.size(path) >= MULTIPART_THRESHOLD
+                ? multipartUploader.upload(path, purpose)
+                : service.uploadFile(purpose, path.toString());
+        index.putFile(sha256, purpose, file.getId());
+        validated.add(file.getId());
+        uploaded.increment();
+        return file.getId();
+    }
+
+    private boolean exists(String fileId) {
+        if (validated.contains(fileId)) {
+            return true;
+        }
+        try {
+            service.retrieveFile(fileId);
+        } catch (RuntimeException e) {
+            if (isNotFound(e)) {
+                return false;
+            }
+            throw e;
+        }
+        validated.add(fileId);
+        return true;
+    }
+
+    private boolean isAttached(String vectorStoreId, String fileId) {
+        String key = vectorStoreId + '/' + fileId;
+        if (validated.contains(key)) {
+            return true;
+        }
+        try {
+            service.retrieveVectorStoreFile(vectorStoreId, fileId);
+        } catch (RuntimeException e) {
+            if (isNotFound(e)) {
+                return false;
+            }
+            throw e;
+        }
+        validated.add(key);
+        return true;
+    }
+
+    private String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                ((Buffer) buffer).flip();
+                digest.update(buffer);
+                ((Buffer) buffer).clear();
+                hashedBytes.add(read);
+            }
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static boolean isNotFound(RuntimeException e) {
+        return e instanceof OpenAiHttpException && ((OpenAiHttpException) e).statusCode == 404
+                || e instanceof HttpException && ((HttpException) e).code() == 404;
+    }
+}
@@ -0,0 +1,44 @@
+package com.theokanning.openai.service.upload;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters of a {@link DeduplicatingUploader}
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class DeduplicationStats {
+
+    /**
+     * Files uploaded because their content was not in the index or its file was deleted
+     */
+    private final long uploaded;
+
+    /**
+     * Uploads skipped, the content was uploaded before
+     */
+    private final long reused;
+
+    /**
+     * Files attached to a vector store, new sources or changed ones
+     */
+    private final long attached;
+
+    /**
+     * Sources already attached to their vector store with the same content
+     */
+    private final long unchanged;
+
+    /**
+     * Previous contents of changed sources removed from their vector store
+     */
+    private final long detached;
+
+    /**
+     * Bytes read to hash the sources
+     */
+    private final long hashedBytes;
+}
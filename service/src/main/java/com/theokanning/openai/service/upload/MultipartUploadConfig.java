@@ -0,0 +1,46 @@
+package com.theokanning.openai.service.upload;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Configuration of a {@link MultipartUploader}
+ */
+@Getter
+@Builder
+public class MultipartUploadConfig {
+
+    /**
+     * Bytes of each part but the last, at most 64 MB
+     */
+    @Builder.Default
+    private final int partSize = 64 * 1024 * 1024;
+
+    /**
+     * Parts uploaded at once, each on its own connection
+     */
+    @Builder.Default
+    private final int maxConcurrentParts = 4;
+
+    /**
+     * Sends of a part, the first included, while it fails with 408, 429, 5xx or an io error
+     */
+    @Builder.Default
+    private final int maxAttempts = 3;
+
+    /**
+     * Wait before the second attempt of a part, doubled at each retry
+     */
+    @Builder.Default
+    private final Duration initialBackoff = Duration.ofSeconds(1);
+
+    @Builder.Default
+    private final Duration maxBackoff = Duration.ofSeconds(30);
+
+    /**
+     * MIME type of the file, null to derive it from its extension
+     */
+    private final String mimeType;
+}
@@ -0,0 +1,181 @@
+package com.theokanning.openai.service.upload;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.file.File;
+import com.theokanning.openai.service.FileUtil;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.upload.CompleteUploadRequest;
+import com.theokanning.openai.upload.Upload;
+import com.theokanning.openai.upload.UploadRequest;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import retrofit2.HttpException;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads a large file through the Uploads API, sending its parts in parallel so the transfer is not bound to the
+ * throughput of a single connection, and retrying a failed part on its own instead of the whole file.
+ * <pre>{@code
+ * File file = new MultipartUploader(service, MultipartUploadConfig.builder().build())
+ *         .upload(Paths.get("training.jsonl"), "fine-tune");
+ * }</pre>
+ * Each part is memory mapped from the file and written to the connection in small slices, so neither the file
+ * nor a part is ever copied into the heap. A failed upload is cancelled.
+ */
+@Slf4j
+public class MultipartUploader {
+
+    private static final int MAX_PART_SIZE = 64 * 1024 * 1024;
+    private static final int WRITE_SLICE = 64 * 1024;
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final OpenAiService service;
+    private final MultipartUploadConfig config;
+
+    public MultipartUploader(OpenAiService service, MultipartUploadConfig config) {
+        if (config.getPartSize() <= 0 || config.getPartSize() > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("partSize must be positive and at most 64 MB");
+        }
+        if (config.getMaxConcurrentParts() <= 0 || config.getMaxAttempts() <= 0) {
+            throw new IllegalArgumentException("maxConcurrentParts and maxAttempts must be positive");
+        }
+        this.service = service;
+        this.config = config;
+    }
+
+    /**
+     * @param purpose e.g. "batch" or "fine-tune"
+     * @return the file created from the parts
+     */
+    public File upload(Path path, String purpose) throws IOException {
+        long size = Files.size(path);
+        String filename = path.getFileName().toString();
+        Upload upload = service.createUpload(UploadRequest.builder()
+                .filename(filename)
+                .purpose(purpose)
+                .bytes(size)
+                .mimeType(config.getMimeType() != null ? config.getMimeType() : mimeType(filename))
+                .build());
+        int parts = (int) Math.max(1, (size + config.getPartSize() - 1) / config.getPartSize());
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(parts, config.getMaxConcurrentParts()), runnable -> {
+            Thread thread = new Thread(runnable, "openai-upload-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Future<String>> partIds = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                long offset = (long) i * config.getPartSize();
+                int length = (int) Math.min(config.getPartSize(), size - offset);
+                partIds.add(pool.submit(() -> uploadPart(upload.getId(), channel, offset, length)));
+            }
+            List<String> ordered = new ArrayList<>(parts);
+            for (Future<String> partId : partIds) {
+                ordered.add(partId.get());
+            }
+            return service.completeUpload(upload.getId(), CompleteUploadRequest.builder().partIds(ordered).build()).getFile();
+        } catch (ExecutionException e) {
+            cancel(upload);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(upload);
+            throw new IOException("interrupted while uploading " + path, e);
+        } catch (IOException | RuntimeException e) {
+            cancel(upload);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String uploadPart(String uploadId, FileChannel channel, long offset, int length) throws InterruptedException {
+        long backoff = config.getInitialBackoff().toMillis();
+        for (int attempt = 1; ; attempt++) {
+            boolean retriable;
+            RuntimeException failure;
+            try {
+                return service.addUploadPart(uploadId, partBody(channel, offset, length)).getId();
+            } catch (OpenAiHttpException e) {
+                failure = e;
+                retriable = isRetriable(e.statusCode);
+            } catch (HttpException e) {
+                failure = e;
+                retriable = isRetriable(e.code());
+            } catch (RuntimeException e) {
+                failure = e;
+                retriable = true;
+            }
+            if (!retriable || attempt >= config.getMaxAttempts()) {
+                throw failure;
+            }
+            log.warn("part at {} of upload {} failed, retrying", offset, uploadId, failure);
+            TimeUnit.MILLISECONDS.sleep(backoff);
+            backoff = Math.min(backoff * 2, config.getMaxBackoff().toMillis());
+        }
+    }
+
+    private void cancel(Upload upload) {
+        try {
+            service.cancelUpload(upload.getId());
+        } catch (RuntimeException e) {
+            log.warn("could not cancel upload {}", upload.getId(), e);
+        }
+    }
+
+    /**
+     * Maps the part again on each write, as OkHttp may send a body more than once
+     */
+    private static RequestBody partBody(FileChannel channel, long offset, int length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                MappedByteBuffer part = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                for (int position = 0; position < length; position += WRITE_SLICE) {
+                    ((Buffer) part).limit(Math.min(length, position + WRITE_SLICE));
+                    ((Buffer) part).position(position);
+                    sink.write(part);
+                }
+            }
+        };
+    }
+
+    private static boolean isRetriable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    private static String mimeType(String filename) {
+        return filename.endsWith(".jsonl") ? "text/jsonl" : FileUtil.getFileUploadMediaType(filename).toString();
+    }
+}
@@ -0,0 +1,216 @@
+package com.theokanning.openai.service.upload;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent index of the files uploaded by a {@link DeduplicatingUploader}: the file id of each content hash and
+ * purpose, and the content hash and file id attached to a vector store for each source.
+ * <p>
+ * Changes are appended to a json lines journal and flushed as they are made, so an ingestion job killed midway
+ * keeps what it uploaded. The journal is replayed and compacted when the index is opened; a line cut by a crash
+ * is skipped.
+ */
+@Slf4j
+public class UploadIndex implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final Path journal;
+    private final Map<String, String> files = new HashMap<>();
+    private final Map<String, Attachment> attachments = new HashMap<>();
+    /**
+     * Sources attached with each file, by vector store and file id: sources with the same content share a file
+     */
+    private final Map<String, Integer> attachedSources = new HashMap<>();
+    private BufferedWriter writer;
+
+    public UploadIndex(Path journal) {
+        this.journal = journal;
+        try {
+            if (journal.getParent() != null) {
+                Files.createDirectories(journal.getParent());
+            }
+            long lines = Files.exists(journal) ? replay() : 0;
+            if (lines > size()) {
+                compact();
+            }
+            writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException("upload index " + journal + " is not usable", e);
+        }
+    }
+
+    /**
+     * @return entries, files and attachments
+     */
+    public synchronized int size() {
+        return files.size() + attachments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    synchronized String fileId(String sha256, String purpose) {
+        return files.get(fileKey(sha256, purpose));
+    }
+
+    synchronized void putFile(String sha256, String purpose, String fileId) {
+        files.put(fileKey(sha256, purpose), fileId);
+        append(new Entry(sha256, purpose, null, null, fileId));
+    }
+
+    synchronized void removeFile(String sha256, String purpose) {
+        if (files.remove(fileKey(sha256, purpose)) != null) {
+            append(new Entry(sha256, purpose, null, null, null));
+        }
+    }
+
+    synchronized Attachment attachment(String vectorStoreId, String source) {
+        return attachments.get(attachmentKey(vectorStoreId, source));
+    }
+
+    synchronized void putAttachment(String vectorStoreId, String source, String sha256, String fileId) {
+        put(vectorStoreId, source, new Attachment(sha256, fileId));
+        append(new Entry(sha256, null, vectorStoreId, source, fileId));
+    }
+
+    synchronized void removeAttachment(String vectorStoreId, String source) {
+        if (remove(vectorStoreId, source)) {
+            append(new Entry(null, null, vectorStoreId, source, null));
+        }
+    }
+
+    /**
+     * @return the number of sources attached to the vector store with the file
+     */
+    synchronized int attachedSources(String vectorStoreId, String fileId) {
+        return attachedSources.getOrDefault(attachmentKey(vectorStoreId, fileId), 0);
+    }
+
+    private void put(String vectorStoreId, String source, Attachment attachment) {
+        remove(vectorStoreId, source);
+        attachments.put(attachmentKey(vectorStoreId, source), attachment);
+        attachedSources.merge(attachmentKey(vectorStoreId, attachment.fileId), 1, Integer::sum);
+    }
+
+    private boolean remove(String vectorStoreId, String source) {
+        Attachment removed = attachments.remove(attachmentKey(vectorStoreId, source));
+        if (removed == null) {
+            return false;
+        }
+        attachedSources.computeIfPresent(attachmentKey(vectorStoreId, removed.fileId), (key, count) -> count > 1 ? count - 1 : null);
+        return true;
+    }
+
+    private void append(Entry entry) {
+        try {
+            writer.write(MAPPER.writeValueAsString(entry));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write upload index " + journal, e);
+        }
+    }
+
+    private long replay() throws IOException {
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journal, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                Entry entry;
+                try {
+                    entry = MAPPER.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    log.warn("skipping unreadable line {} of upload index {}", lines, journal);
+                    continue;
+                }
+                if (entry.vectorStoreId == null) {
+                    String key = fileKey(entry.sha256, entry.purpose);
+                    if (entry.fileId != null) {
+                        files.put(key, entry.fileId);
+                    } else {
+                        files.remove(key);
+                    }
+                } else {
+                    if (entry.fileId != null) {
+                        put(entry.vectorStoreId, entry.source, new Attachment(entry.sha256, entry.fileId));
+                    } else {
+                        remove(entry.vectorStoreId, entry.source);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void compact() throws IOException {
+        Path tmp = Files.createTempFile(journal.toAbsolutePath().getParent(), journal.getFileName().toString(), ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                String[] key = file.getKey().split("\u0000", 2);
+                out.write(MAPPER.writeValueAsString(new Entry(key[0], key[1], null, null, file.getValue())));
+                out.newLine();
+            }
+            for (Map.Entry<String, Attachment> attachment : attachments.entrySet()) {
+                String[] key = attachment.getKey().split("\u0000", 2);
+                out.write(MAPPER.writeValueAsString(new Entry(attachment.getValue().sha256, null, key[0], key[1],
+                        attachment.getValue().fileId)));
+                out.newLine();
+            }
+        }
+        Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String fileKey(String sha256, String purpose) {
+        return sha256 + '\u0000' + purpose;
+    }
+
+    private static String attachmentKey(String vectorStoreId, String source) {
+        return vectorStoreId + '\u0000' + source;
+    }
+
+    /**
+     * Content of a source attached to a vector store
+     */
+    @AllArgsConstructor
+    static final class Attachment {
+        final String sha256;
+        final String fileId;
+    }
+
+    /**
+     * Line of the journal: a file when vectorStoreId is null, an attachment otherwise; removed when fileId is null
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    private static class Entry {
+        String sha256;
+        String purpose;
+        String vectorStoreId;
+        String source;
+        String fileId;
+    }
+}
@@ -0,0 +1,51 @@
+package com.theokanning.openai.service.vector_index;
+
+import java.util.List;
+
+/**
+ * Exact index scoring the query against every vector, in storage order. Search time grows linearly with the
+ * number of vectors, which is fine for dedup or small corpora; for larger ones use {@link HnswVectorIndex}.
+ * <p>
+ * Adds are serialized, searches never lock and see the vectors added before they started.
+ */
+public class FlatVectorIndex implements VectorIndex {
+
+    private final VectorIndexConfig config;
+    private final VectorStorage storage;
+    private volatile int size;
+
+    public FlatVectorIndex(VectorIndexConfig config) {
+        this.config = config;
+        this.storage = new VectorStorage(config);
+    }
+
+    @Override
+    public synchronized void add(long id, float[] vector) {
+        storage.set(size, id, vector);
+        size = size + 1;
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int k) {
+        ScoredQueue top = new ScoredQueue(k + 1, false);
+        storage.scan(storage.query(query), size, top, k);
+        return storage.hits(top, k);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public VectorIndexConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return approximate heap used by the vectors
+     */
+    public long getMemoryBytes() {
+        return storage.memoryBytes();
+    }
+}
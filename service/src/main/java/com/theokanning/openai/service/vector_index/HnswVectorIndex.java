@@ -0,0 +1,335 @@
+package com.theokanning.openai.service.vector_index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Approximate index on a Hierarchical Navigable Small World graph (Malkov and Yashunin): a search walks greedily
+ * down sparse upper layers to the region of the query, then explores {@link VectorIndexConfig#getEfSearch()}
+ * candidates on the bottom layer, which holds every vector.
+ * <p>
+ * Adds run concurrently: a node is fully written before it is linked, neighbour lists are immutable arrays
+ * replaced under the lock of their node, and searches read them without locking.
+ */
+public class HnswVectorIndex implements VectorIndex {
+
+    private static final int[] NO_LINKS = new int[0];
+    private static final int NODE_CHUNK_SHIFT = 10;
+    private static final int NODE_CHUNK_MASK = (1 << NODE_CHUNK_SHIFT) - 1;
+
+    private final VectorIndexConfig config;
+    private final VectorStorage storage;
+    private final double levelFactor;
+    private final Random random;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger added = new AtomicInteger();
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+    private volatile Node[][] nodes = new Node[0][];
+    private volatile Node entry;
+
+    public HnswVectorIndex(VectorIndexConfig config) {
+        if (config.getM() < 2) {
+            throw new IllegalArgumentException("m must be at least 2");
+        }
+        this.config = config;
+        this.storage = new VectorStorage(config);
+        this.levelFactor = 1 / Math.log(config.getM());
+        this.random = new Random(config.getSeed());
+    }
+
+    @Override
+    public void add(long id, float[] vector) {
+        int number = next.getAndIncrement();
+        storage.set(number, id, vector);
+        Node node = new Node(number, randomLevel());
+        setNode(node);
+
+        Node start = entry;
+        if (start == null) {
+            synchronized (this) {
+                if (entry == null) {
+                    entry = node;
+                    added.incrementAndGet();
+                    return;
+                }
+                start = entry;
+            }
+        }
+        Target target = other -> storage.score(number, other);
+        int current = start.number;
+        float currentScore = target.score(current);
+        for (int layer = start.level; layer > node.level; layer--) {
+            current = greedy(target, current, currentScore, layer);
+            currentScore = target.score(current);
+        }
+        for (int layer = Math.min(node.level, start.level); layer >= 0; layer--) {
+            ScoredQueue found = searchLayer(target, current, currentScore, config.getEfConstruction(), layer);
+            int count = found.size();
+            int[] candidates = new int[count];
+            float[] scores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                scores[i] = found.peekScore();
+                candidates[i] = found.pop();
+            }
+            int[] selected = selectNeighbors(candidates, scores, config.getM());
+            synchronized (node) {
+                if (node.links.get(layer).length == 0) {
+                    node.links.set(layer, selected);
+                } else {
+                    // a concurrent add already linked back to this node, keep its link
+                    for (int neighbour : selected) {
+                        link(node, layer, neighbour);
+                    }
+                }
+            }
+            for (int neighbour : selected) {
+                link(node(neighbour), layer, number);
+            }
+            current = candidates[0];
+            currentScore = scores[0];
+        }
+        if (node.level > start.level) {
+            synchronized (this) {
+                if (node.level > entry.level) {
+                    entry = node;
+                }
+            }
+        }
+        added.incrementAndGet();
+    }
+
+    @Override
+    public List<SearchHit> search(float[] query, int k) {
+        return search(query, k, config.getEfSearch());
+    }
+
+    /**
+     * @param ef candidates to consider, at least k
+     */
+    public List<SearchHit> search(float[] query, int k, int ef) {
+        Node start = entry;
+        if (start == null) {
+            return storage.hits(new ScoredQueue(0, false), k);
+        }
+        VectorStorage.Query prepared = storage.query(query);
+        Target target = other -> storage.score(prepared, other);
+        int current = start.number;
+        float currentScore = target.score(current);
+        for (int layer = start.level; layer > 0; layer--) {
+            current = greedy(target, current, currentScore, layer);
+            currentScore = target.score(current);
+        }
+        return storage.hits(searchLayer(target, current, currentScore, Math.max(ef, k), 0), k);
+    }
+
+    /**
+     * @return the vectors fully added, concurrent adds are not counted until they are linked
+     */
+    @Override
+    public int size() {
+        return added.get();
+    }
+
+    @Override
+    public VectorIndexConfig getConfig() {
+        return config;
+    }
+
+    private int randomLevel() {
+        double uniform = 1 - random.nextDouble();
+        return Math.min((int) (-Math.log(uniform) * levelFactor), 16);
+    }
+
+    private int maxLinks(int layer) {
+        return layer == 0 ? 2 * config.getM() : config.getM();
+    }
+
+    /**
+     * @return the closest node reachable by moving to a closer neighbour while there is one
+     */
+    private int greedy(Target target, int current, float currentScore, int layer) {
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (int neighbour : node(current).links.get(layer)) {
+                float score = target.score(neighbour);
+                if (score > currentScore) {
+                    current = neighbour;
+                    currentScore = score;
+                    moved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return a min-queue of the ef closest nodes found from the start node
+     */
+    private ScoredQueue searchLayer(Target target, int start, float startScore, int ef, int layer) {
+        Visited seen = visited.get();
+        seen.clear();
+        seen.add(start);
+        ScoredQueue candidates = new ScoredQueue(ef, true);
+        ScoredQueue results = new ScoredQueue(ef + 1, false);
+        candidates.push(start, startScore);
+        results.push(start, startScore);
+        while (candidates.size() > 0) {
+            if (results.size() >= ef && candidates.peekScore() < results.peekScore()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            for (int neighbour : node(candidate).links.get(layer)) {
+                if (!seen.add(neighbour)) {
+                    continue;
+                }
+                float score = target.score(neighbour);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the base than to every kept
+     * neighbour, which spreads links in all directions instead of into one cluster. Discarded candidates fill
+     * the remaining slots.
+     *
+     * @param candidates closest first
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int max) {
+        if (candidates.length <= max) {
+            return candidates;
+        }
+        int[] selected = new int[max];
+        int count = 0;
+        int[] pruned = new int[candidates.length];
+        int prunedCount = 0;
+        for (int i = 0; i < candidates.length && count < max; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count; j++) {
+                if (storage.score(candidates[i], selected[j]) > scores[i]) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected[count++] = candidates[i];
+            } else {
+                pruned[prunedCount++] = candidates[i];
+            }
+        }
+        for (int i = 0; i < prunedCount && count < max; i++) {
+            selected[count++] = pruned[i];
+        }
+        return selected;
+    }
+
+    private void link(Node node, int layer, int neighbour) {
+        synchronized (node) {
+            int[] links = node.links.get(layer);
+            for (int link : links) {
+                if (link == neighbour) {
+                    return;
+                }
+            }
+            int max = maxLinks(layer);
+            if (links.length < max) {
+                int[] grown = Arrays.copyOf(links, links.length + 1);
+                grown[links.length] = neighbour;
+                node.links.set(layer, grown);
+                return;
+            }
+            ScoredQueue ranked = new ScoredQueue(links.length + 1, true);
+            ranked.push(neighbour, storage.score(node.number, neighbour));
+            for (int link : links) {
+                ranked.push(link, storage.score(node.number, link));
+            }
+            int[] candidates = new int[ranked.size()];
+            float[] scores = new float[candidates.length];
+            for (int i = 0; i < candidates.length; i++) {
+                scores[i] = ranked.peekScore();
+                candidates[i] = ranked.pop();
+            }
+            node.links.set(layer, selectNeighbors(candidates, scores, max));
+        }
+    }
+
+    private Node node(int number) {
+        return nodes[number >>> NODE_CHUNK_SHIFT][number & NODE_CHUNK_MASK];
+    }
+
+    private void setNode(Node node) {
+        int chunk = node.number >>> NODE_CHUNK_SHIFT;
+        Node[][] current = nodes;
+        if (chunk >= current.length) {
+            synchronized (this) {
+                current = nodes;
+                if (chunk >= current.length) {
+                    Node[][] grown = Arrays.copyOf(current, chunk + 1);
+                    for (int i = current.length; i < grown.length; i++) {
+                        grown[i] = new Node[1 << NODE_CHUNK_SHIFT];
+                    }
+                    nodes = grown;
+                    current = grown;
+                }
+            }
+        }
+        // published to other threads by the volatile write of the first link to this node
+        current[chunk][node.number & NODE_CHUNK_MASK] = node;
+    }
+
+    private interface Target {
+        float score(int node);
+    }
+
+    private static final class Node {
+        final int number;
+        final int level;
+        final AtomicReferenceArray<int[]> links;
+
+        Node(int number, int level) {
+            this.number = number;
+            this.level = level;
+            this.links = new AtomicReferenceArray<>(level + 1);
+            for (int layer = 0; layer <= level; layer++) {
+                links.set(layer, NO_LINKS);
+            }
+        }
+    }
+
+    /**
+     * Visited set reused by the searches of a thread, cleared by bumping a generation instead of zeroing it
+     */
+    private static final class Visited {
+        private int[] marks = new int[1024];
+        private int generation;
+
+        void clear() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int node) {
+            if (node >= marks.length) {
+                marks = Arrays.copyOf(marks, Math.max(node + 1, marks.length * 2));
+            }
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
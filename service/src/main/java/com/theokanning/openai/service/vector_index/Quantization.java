@@ -0,0 +1,18 @@
+package com.theokanning.openai.service.vector_index;
+
+/**
+ * How vectors are stored in an index
+ */
+public enum Quantization {
+
+    /**
+     * 4 bytes per dimension, exact scores
+     */
+    NONE,
+
+    /**
+     * 1 byte per dimension plus one float scale per vector (symmetric, scale = max |x| / 127).
+     * Scores are approximate, usually within 1% for embeddings, the ranking of close hits may change.
+     */
+    INT8
+}
@@ -0,0 +1,93 @@
+package com.theokanning.openai.service.vector_index;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of nodes by score on primitive arrays, the best score on top for a max-queue, the worst for a min-queue
+ */
+final class ScoredQueue {
+
+    private final boolean max;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+
+    ScoredQueue(int capacity, boolean max) {
+        this.max = max;
+        this.nodes = new int[Math.max(capacity, 4)];
+        this.scores = new float[nodes.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int peekNode() {
+        return nodes[0];
+    }
+
+    float peekScore() {
+        return scores[0];
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!above(score, scores[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+
+    /**
+     * Keeps the {@code limit} best nodes, for a min-queue
+     */
+    void offer(int node, float score, int limit) {
+        if (size < limit) {
+            push(node, score);
+        } else if (score > scores[0]) {
+            pop();
+            push(node, score);
+        }
+    }
+
+    int pop() {
+        int top = nodes[0];
+        size--;
+        int node = nodes[size];
+        float score = scores[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && above(scores[child + 1], scores[child])) {
+                child++;
+            }
+            if (!above(scores[child], score)) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+        return top;
+    }
+
+    private boolean above(float a, float b) {
+        return max ? a > b : a < b;
+    }
+}
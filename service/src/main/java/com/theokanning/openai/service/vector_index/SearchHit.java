@@ -0,0 +1,24 @@
+package com.theokanning.openai.service.vector_index;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A vector found by a {@link VectorIndex} search
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class SearchHit {
+
+    /**
+     * Id the vector was added with
+     */
+    private final long id;
+
+    /**
+     * Similarity to the query, higher is closer
+     */
+    private final float score;
+}
@@ -0,0 +1,18 @@
+package com.theokanning.openai.service.vector_index;
+
+/**
+ * How vectors are compared, higher scores are closer
+ */
+public enum Similarity {
+
+    /**
+     * Raw dot product
+     */
+    DOT_PRODUCT,
+
+    /**
+     * Cosine similarity, vectors and queries are normalized once and compared with a dot product.
+     * OpenAI embeddings are already normalized, so both give the same ranking for them.
+     */
+    COSINE
+}
@@ -0,0 +1,34 @@
+package com.theokanning.openai.service.vector_index;
+
+import com.theokanning.openai.embedding.FloatEmbedding;
+
+import java.util.List;
+
+/**
+ * In-process nearest neighbour index over embedding vectors. Implementations accept concurrent adds and searches.
+ * <pre>{@code
+ * VectorIndex index = new HnswVectorIndex(VectorIndexConfig.builder().dimensions(1536).build());
+ * service.streamEmbeddings(request).blockingForEach(embedding -> index.add(ids[embedding.getIndex()], embedding));
+ * List<SearchHit> hits = index.search(query, 10);
+ * }</pre>
+ */
+public interface VectorIndex {
+
+    /**
+     * Adds a vector, the vector is copied. Ids are not checked for uniqueness.
+     */
+    void add(long id, float[] vector);
+
+    default void add(long id, FloatEmbedding embedding) {
+        add(id, embedding.getEmbedding());
+    }
+
+    /**
+     * @return the k closest vectors, closest first
+     */
+    List<SearchHit> search(float[] query, int k);
+
+    int size();
+
+    VectorIndexConfig getConfig();
+}
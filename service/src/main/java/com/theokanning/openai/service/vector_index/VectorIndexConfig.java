@@ -0,0 +1,47 @@
+package com.theokanning.openai.service.vector_index;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Configuration of a {@link FlatVectorIndex} or {@link HnswVectorIndex}, the graph settings only apply to the latter
+ */
+@Getter
+@Builder
+public class VectorIndexConfig {
+
+    /**
+     * Length of the vectors, every added vector and query must have it
+     */
+    private final int dimensions;
+
+    @Builder.Default
+    private final Similarity similarity = Similarity.COSINE;
+
+    @Builder.Default
+    private final Quantization quantization = Quantization.NONE;
+
+    /**
+     * Links per node and layer of the graph, twice as many on the bottom layer
+     */
+    @Builder.Default
+    private final int m = 16;
+
+    /**
+     * Candidates considered when linking a new node, higher builds a better graph more slowly
+     */
+    @Builder.Default
+    private final int efConstruction = 200;
+
+    /**
+     * Candidates considered by a search, at least k, higher gives a better recall more slowly
+     */
+    @Builder.Default
+    private final int efSearch = 64;
+
+    /**
+     * Seed of the random layer assignment
+     */
+    @Builder.Default
+    private final long seed = 42;
+}
@@ -0,0 +1,89 @@
+package com.theokanning.openai.service.vector_index;
+
+/**
+ * Similarity kernels over float32 and int8 vectors.
+ * <p>
+ * The loops keep four independent accumulators so the JIT can unroll them and keep several multiply-adds in flight
+ * instead of waiting on a single sum. The int8 loop is also vectorized by C2 on recent JVMs.
+ */
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    public static float dot(float[] a, float[] b) {
+        checkLength(a.length, b.length);
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length - 3; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static int dot(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int bound = length - 3; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        float norms = (float) Math.sqrt((double) dot(a, a) * dot(b, b));
+        return norms == 0 ? 0 : dot(a, b) / norms;
+    }
+
+    /**
+     * @return a unit length copy of the vector, or a copy of it if it is all zeros
+     */
+    public static float[] normalize(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        float[] normalized = new float[vector.length];
+        float scale = norm == 0 ? 0 : 1 / norm;
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * Quantizes the vector symmetrically to int8 into {@code codes} at {@code offset}
+     *
+     * @return the scale, vector[i] ~ codes[offset + i] * scale
+     */
+    public static float quantize(float[] vector, byte[] codes, int offset) {
+        float max = 0;
+        for (float value : vector) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max == 0 ? 1 : max / 127;
+        for (int i = 0; i < vector.length; i++) {
+            codes[offset + i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    static void checkLength(int expected, int actual) {
+        if (expected != actual) {
+            throw new IllegalArgumentException("expected a vector of " + expected + " dimensions, got " + actual);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.theokanning.openai.service.vector_index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vectors of an index by node number, in chunks of contiguous float32 or int8 values.
+ * <p>
+ * Each node is written once by the thread adding it before the node is published (a volatile size or a link),
+ * chunks are only added, copy-on-write, so readers never lock.
+ */
+final class VectorStorage {
+
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int dimensions;
+    private final boolean normalize;
+    private final boolean int8;
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    VectorStorage(VectorIndexConfig config) {
+        this.dimensions = config.getDimensions();
+        this.normalize = config.getSimilarity() == Similarity.COSINE;
+        this.int8 = config.getQuantization() == Quantization.INT8;
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive");
+        }
+    }
+
+    void set(int node, long id, float[] vector) {
+        float[] values = prepare(vector);
+        Chunk chunk = chunkFor(node);
+        int slot = node & CHUNK_MASK;
+        chunk.ids[slot] = id;
+        if (int8) {
+            chunk.scales[slot] = VectorMath.quantize(values, chunk.codes, slot * dimensions);
+        } else {
+            System.arraycopy(values, 0, chunk.values, slot * dimensions, dimensions);
+        }
+    }
+
+    long id(int node) {
+        return chunks[node >>> CHUNK_SHIFT].ids[node & CHUNK_MASK];
+    }
+
+    Query query(float[] vector) {
+        float[] values = prepare(vector);
+        if (!int8) {
+            return new Query(values, null, 1);
+        }
+        byte[] codes = new byte[dimensions];
+        return new Query(null, codes, VectorMath.quantize(values, codes, 0));
+    }
+
+    float score(Query query, int node) {
+        Chunk chunk = chunks[node >>> CHUNK_SHIFT];
+        int slot = node & CHUNK_MASK;
+        if (int8) {
+            return VectorMath.dot(query.codes, 0, chunk.codes, slot * dimensions, dimensions) * query.scale * chunk.scales[slot];
+        }
+        return VectorMath.dot(query.values, 0, chunk.values, slot * dimensions, dimensions);
+    }
+
+    float score(int a, int b) {
+        Chunk[] current = chunks;
+        Chunk chunkA = current[a >>> CHUNK_SHIFT];
+        Chunk chunkB = current[b >>> CHUNK_SHIFT];
+        int slotA = a & CHUNK_MASK;
+        int slotB = b & CHUNK_MASK;
+        if (int8) {
+            return VectorMath.dot(chunkA.codes, slotA * dimensions, chunkB.codes, slotB * dimensions, dimensions)
+                    * chunkA.scales[slotA] * chunkB.scales[slotB];
+        }
+        return VectorMath.dot(chunkA.values, slotA * dimensions, chunkB.values, slotB * dimensions, dimensions);
+    }
+
+    /**
+     * Scores the first {@code count} nodes chunk by chunk into {@code top}
+     */
+    void scan(Query query, int count, ScoredQueue top, int k) {
+        Chunk[] current = chunks;
+        for (int c = 0; c * CHUNK_SIZE < count; c++) {
+            Chunk chunk = current[c];
+            int slots = Math.min(CHUNK_SIZE, count - c * CHUNK_SIZE);
+            int base = c << CHUNK_SHIFT;
+            if (int8) {
+                for (int slot = 0; slot < slots; slot++) {
+                    int dot = VectorMath.dot(query.codes, 0, chunk.codes, slot * dimensions, dimensions);
+                    top.offer(base | slot, dot * query.scale * chunk.scales[slot], k);
+                }
+            } else {
+                for (int slot = 0; slot < slots; slot++) {
+                    top.offer(base | slot, VectorMath.dot(query.values, 0, chunk.values, slot * dimensions, dimensions), k);
+                }
+            }
+        }
+    }
+
+    /**
+     * Empties the min-queue into hits, best first
+     */
+    List<SearchHit> hits(ScoredQueue results, int k) {
+        while (results.size() > k) {
+            results.pop();
+        }
+        SearchHit[] hits = new SearchHit[results.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            float score = results.peekScore();
+            hits[i] = new SearchHit(id(results.pop()), score);
+        }
+        return new ArrayList<>(Arrays.asList(hits));
+    }
+
+    /**
+     * @return bytes held by the vectors of the allocated chunks
+     */
+    long memoryBytes() {
+        long perNode = 8 + (int8 ? dimensions + 4 : 4L * dimensions);
+        return (long) chunks.length * CHUNK_SIZE * perNode;
+    }
+
+    private float[] prepare(float[] vector) {
+        VectorMath.checkLength(dimensions, vector.length);
+        return normalize ? VectorMath.normalize(vector) : vector;
+    }
+
+    private Chunk chunkFor(int node) {
+        int index = node >>> CHUNK_SHIFT;
+        Chunk[] current = chunks;
+        if (index < current.length) {
+            return current[index];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (index >= current.length) {
+                Chunk[] grown = Arrays.copyOf(current, index + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new Chunk(dimensions, int8);
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[index];
+        }
+    }
+
+    static final class Query {
+        final float[] values;
+        final byte[] codes;
+        final float scale;
+
+        Query(float[] values, byte[] codes, float scale) {
+            this.values = values;
+            this.codes = codes;
+            this.scale = scale;
+        }
+    }
+
+    private static final class Chunk {
+        final long[] ids = new long[CHUNK_SIZE];
+        final float[] values;
+        final byte[] codes;
+        final float[] scales;
+
+        Chunk(int dimensions, boolean int8) {
+            this.values = int8 ? null : new float[CHUNK_SIZE * dimensions];
+            this.codes = int8 ? new byte[CHUNK_SIZE * dimensions] : null;
+            this.scales = int8 ? new float[CHUNK_SIZE] : null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.completion.chat.ChatCompletionChunk;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.util.LatencyInjectingDispatcher;
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestOptionsTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private LatencyInjectingDispatcher dispatcher;
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        dispatcher = new LatencyInjectingDispatcher(LatencyInjectingDispatcher.embeddingResultJson());
+        server.setDispatcher(dispatcher);
+        server.start();
+        client = OpenAiService.defaultClient("token", Duration.ZERO);
+        OpenAiApi api = OpenAiService.defaultRetrofit(client, OpenAiService.defaultObjectMapper(), server.url("/v1/").toString())
+                .create(OpenAiApi.class);
+        service = new OpenAiService(api);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    void timeoutCancelsSlowCall() {
+        dispatcher.latencies(3000);
+        OpenAiService bounded = service.withOptions(RequestOptions.builder().timeout(Duration.ofMillis(200)).build());
+
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> bounded.createEmbeddings(embeddingRequest()));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void methodTimeoutOverridesDefault() {
+        dispatcher.latencies(300);
+        OpenAiService bounded = service.withOptions(RequestOptions.builder()
+                .timeout(Duration.ofMillis(100))
+                .methodTimeout("createEmbeddings", Duration.ofSeconds(5))
+                .build());
+
+        assertEquals(1, bounded.createEmbeddings(embeddingRequest()).getData().size());
+    }
+
+    @Test
+    void exhaustedDeadlineIsRejectedBeforeSending() {
+        OpenAiService expired = service.withOptions(RequestOptions.builder().deadline(Instant.now().minusSeconds(1)).build());
+
+        assertThrows(DeadlineExceededException.class, () -> expired.createEmbeddings(embeddingRequest()));
+        assertThrows(DeadlineExceededException.class, () -> expired.streamChatCompletion(chatRequest()));
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    void streamingCallGetsCallTimeout() {
+        dispatcher.latencies(3000);
+        OpenAiService bounded = service.withOptions(RequestOptions.builder().timeout(Duration.ofMillis(200)).build());
+
+        TestSubscriber<ChatCompletionChunk> subscriber = bounded.streamChatCompletion(chatRequest()).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertError(InterruptedIOException.class);
+    }
+
+    @Test
+    void noOptionsLeavesCallsUntouched() {
+        dispatcher.latencies(200);
+        OpenAiService unbounded = service.withOptions(RequestOptions.builder().build());
+
+        assertEquals(1, unbounded.createEmbeddings(embeddingRequest()).getData().size());
+    }
+
+    private static EmbeddingRequest embeddingRequest() {
+        return EmbeddingRequest.builder()
+                .model("text-embedding-3-small")
+                .input("hello")
+                .build();
+    }
+
+    private static ChatCompletionRequest chatRequest() {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Collections.singletonList(new UserMessage("hello")))
+                .build();
+    }
+}
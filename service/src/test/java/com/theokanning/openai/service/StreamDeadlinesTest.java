@@ -0,0 +1,169 @@
+package com.theokanning.openai.service;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.completion.chat.ChatCompletionChunk;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.UserMessage;
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamDeadlinesTest {
+
+    private static final String FIRST = "data: " + chunk("Hel") + "\n\n";
+    private static final String REST = "data: " + chunk("lo") + "\n\ndata: [DONE]\n\n";
+
+    private MockWebServer server;
+    private MockWebServer alternateServer;
+    private OkHttpClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        alternateServer = new MockWebServer();
+        alternateServer.start();
+        client = OpenAiService.defaultClient("token", Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+        alternateServer.shutdown();
+    }
+
+    @Test
+    void firstChunkTimeoutReissuesToAlternate() {
+        server.enqueue(sse(FIRST + REST).setHeadersDelay(3, TimeUnit.SECONDS));
+        alternateServer.enqueue(sse(FIRST + REST));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .firstChunkTimeout(Duration.ofMillis(300))
+                .alternate(api(alternateServer))
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertNoErrors();
+        subscriber.assertValueCount(3);
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, alternateServer.getRequestCount());
+    }
+
+    @Test
+    void firstChunkTimeoutFailsAfterLastReissue() {
+        server.enqueue(sse(FIRST + REST).setHeadersDelay(3, TimeUnit.SECONDS));
+        server.enqueue(sse(FIRST + REST).setHeadersDelay(3, TimeUnit.SECONDS));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .firstChunkTimeout(Duration.ofMillis(200))
+                .maxReissues(1)
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertError(StreamTimeoutException.class);
+        assertEquals(StreamTimeoutException.Kind.FIRST_CHUNK, ((StreamTimeoutException) subscriber.errors().get(0)).getKind());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void chunkGapKeepsPartialResult() {
+        server.enqueue(sse(FIRST + REST).throttleBody(FIRST.length(), 2, TimeUnit.SECONDS));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .chunkGapTimeout(Duration.ofMillis(300))
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertError(StreamTimeoutException.class);
+        StreamTimeoutException e = (StreamTimeoutException) subscriber.errors().get(0);
+        assertEquals(StreamTimeoutException.Kind.CHUNK_GAP, e.getKind());
+        assertEquals(1, e.getPartialChunks().size());
+        assertEquals("Hel", e.getPartialContent());
+    }
+
+    @Test
+    void chunkGapCompletesWhenConfigured() {
+        server.enqueue(sse(FIRST + REST).throttleBody(FIRST.length(), 2, TimeUnit.SECONDS));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .chunkGapTimeout(Duration.ofMillis(300))
+                .completeOnStall(true)
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertComplete();
+        subscriber.assertValueCount(1);
+    }
+
+    @Test
+    void totalTimeout() {
+        server.enqueue(sse(FIRST + REST).throttleBody(FIRST.length(), 2, TimeUnit.SECONDS));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .totalTimeout(Duration.ofMillis(500))
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertError(StreamTimeoutException.class);
+        assertEquals(StreamTimeoutException.Kind.TOTAL, ((StreamTimeoutException) subscriber.errors().get(0)).getKind());
+        assertEquals("Hel", ((StreamTimeoutException) subscriber.errors().get(0)).getPartialContent());
+    }
+
+    @Test
+    void noDeadlineExpires() {
+        server.enqueue(sse(FIRST + REST));
+        StreamDeadlines deadlines = StreamDeadlines.builder()
+                .firstChunkTimeout(Duration.ofSeconds(1))
+                .chunkGapTimeout(Duration.ofSeconds(1))
+                .totalTimeout(Duration.ofSeconds(1))
+                .build();
+
+        TestSubscriber<ChatCompletionChunk> subscriber = service().streamChatCompletion(request(), deadlines).test();
+
+        assertTrue(subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS));
+        subscriber.assertComplete();
+        subscriber.assertValueCount(3);
+    }
+
+    private OpenAiService service() {
+        return new OpenAiService(api(server));
+    }
+
+    private OpenAiApi api(MockWebServer server) {
+        return OpenAiService.defaultRetrofit(client, OpenAiService.defaultObjectMapper(), server.url("/v1/").toString())
+                .create(OpenAiApi.class);
+    }
+
+    private static ChatCompletionRequest request() {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Collections.singletonList(new UserMessage("hello")))
+                .build();
+    }
+
+    private static MockResponse sse(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/event-stream").setBody(body);
+    }
+
+    private static String chunk(String content) {
+        return "{\"id\":\"1\",\"object\":\"chat.completion.chunk\",\"created\":1,\"model\":\"gpt-4o-mini\"," +
+                "\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"}}]}";
+    }
+}
@@ -0,0 +1,167 @@
+package com.theokanning.openai.service.audio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The stand-in chat streams its reply slowly, a few characters per event, and the stand-in speech answers each
+ * request with its input as the "audio"
+ */
+public class ChatSpeechPipelineTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String REPLY = "Sure, here is the plan for today. First we review the open pull requests, "
+            + "then we merge the ones that pass. After lunch, we write the release notes!\nThat is all.";
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private volatile int chatStatus = 200;
+    private final List<String> spoken = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    if (request.getPath().endsWith("chat/completions")) {
+                        return chat();
+                    }
+                    String input = MAPPER.readTree(request.getBody().readUtf8()).get("input").asText();
+                    spoken.add(input);
+                    return new MockResponse().setHeader("Content-Type", "audio/mpeg").setBody("<" + input + ">");
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void speaksEachSegmentWhileTheReplyStreams() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ChatSpeechStats stats = new ChatSpeechPipeline(service, ChatSpeechConfig.builder().build()).speak(request(), out);
+
+        List<String> expected = Arrays.asList("Sure, here is the plan for today.",
+                "First we review the open pull requests, then we merge the ones that pass.",
+                "After lunch, we write the release notes!", "That is all.");
+        assertEquals(expected, spoken);
+        assertEquals(expected.stream().map(segment -> "<" + segment + ">").collect(Collectors.joining()),
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(REPLY, stats.getText());
+        assertEquals(4, stats.getSegments());
+        assertEquals(out.size(), stats.getBytes());
+        assertTrue(stats.getTimeToFirstToken().compareTo(stats.getTimeToFirstSegment()) <= 0);
+        assertTrue(stats.getTimeToFirstSegment().compareTo(stats.getTimeToFirstAudio()) <= 0);
+        assertTrue(stats.getTimeToFirstAudio().toMillis() * 2 < stats.getElapsed().toMillis(), stats.toString());
+    }
+
+    @Test
+    void holdsNoMoreSegmentsThanConcurrentRequests() throws IOException {
+        List<Integer> spokenAfterWrites = new ArrayList<>();
+        OutputStream slowOut = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                spokenAfterWrites.add(spoken.size());
+            }
+        };
+
+        ChatSpeechStats stats = new ChatSpeechPipeline(service, ChatSpeechConfig.builder().maxConcurrentRequests(1).build())
+                .speak(request(), slowOut);
+
+        assertEquals(4, stats.getSegments());
+        assertEquals(Arrays.asList(1, 2, 3, 4), spokenAfterWrites);
+    }
+
+    @Test
+    void failsWhenTheChatFails() {
+        chatStatus = 500;
+        ChatSpeechPipeline pipeline = new ChatSpeechPipeline(service, ChatSpeechConfig.builder().build());
+        assertThrows(RuntimeException.class, () -> pipeline.speak(request(), new ByteArrayOutputStream()));
+        assertTrue(spoken.isEmpty());
+    }
+
+    @Test
+    void cutsAtSentencesAndLongClauses() {
+        SpeechSegmenter segmenter = new SpeechSegmenter(10, 30, 50);
+        List<String> segments = new ArrayList<>();
+        String text = "Hi. Okay, so this is a fairly long clause, and then it ends. Version 3.14 ships \"today.\" "
+                + "好的。接下来 " + String.join(" ", Collections.nCopies(15, "word"));
+        for (int i = 0; i < text.length(); i += 3) {
+            segments.addAll(segmenter.append(text.substring(i, Math.min(text.length(), i + 3))));
+        }
+        segments.addAll(segmenter.finish());
+
+        assertEquals(Arrays.asList("Hi. Okay, so this is a fairly long clause,", "and then it ends.",
+                "Version 3.14 ships \"today.\"", "好的。", "接下来 word word word word word word word word word",
+                "word word word word word word"), segments);
+    }
+
+    private MockResponse chat() throws IOException {
+        if (chatStatus != 200) {
+            return new MockResponse().setResponseCode(chatStatus).setHeader("Content-Type", "application/json")
+                    .setBody("{\"error\":{\"message\":\"unavailable\",\"type\":\"server_error\"}}");
+        }
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < REPLY.length(); i += 4) {
+            String content = REPLY.substring(i, Math.min(REPLY.length(), i + 4));
+            body.append("data: ").append(MAPPER.writeValueAsString(MAPPER.createObjectNode()
+                    .put("id", "1").put("object", "chat.completion.chunk").put("created", 1).put("model", "gpt-4o-mini")
+                    .set("choices", MAPPER.createArrayNode().add(MAPPER.createObjectNode().put("index", 0)
+                            .set("delta", MAPPER.createObjectNode().put("content", content)))))).append("\n\n");
+        }
+        body.append("data: [DONE]\n\n");
+        int bytes = body.toString().getBytes(StandardCharsets.UTF_8).length;
+        return new MockResponse().setHeader("Content-Type", "text/event-stream").setBody(body.toString())
+                .throttleBody(bytes / 40 + 1, 25, TimeUnit.MILLISECONDS);
+    }
+
+    private static ChatCompletionRequest request() {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Collections.singletonList(new UserMessage("What is the plan?")))
+                .build();
+    }
+}
@@ -0,0 +1,241 @@
+package com.theokanning.openai.service.audio;
+
+import com.theokanning.openai.audio.CreateTranscriptionRequest;
+import com.theokanning.openai.audio.TranscriptionResult;
+import com.theokanning.openai.audio.TranscriptionSegment;
+import com.theokanning.openai.audio.Words;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The recording is a series of tone bursts, one per "word": burst k lasts 1.5 s at 300 + 100 k Hz and starts at
+ * 4.5 k s. The stand-in server finds the bursts of each segment and names them from their frequency.
+ */
+public class LongAudioTranscriberTest {
+
+    private static final float RATE = 16_000;
+    private static final int BURSTS = 12;
+    private static final AudioFormat FORMAT = new AudioFormat(RATE, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long latencyMillis;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                requests.incrementAndGet();
+                Thread.sleep(latencyMillis);
+                try {
+                    return new MockResponse().setHeader("Content-Type", "application/json").setBody(transcribe(request));
+                } catch (Exception e) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(10), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void stitchesOverlappingSegmentsWithoutDuplicates() throws IOException {
+        Path wav = directory.resolve("recording.wav");
+        byte[] pcm = recording();
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 2), AudioFileFormat.Type.WAVE, wav.toFile());
+
+        TranscriptionResult result = transcriber(4).transcribe(request(), wav);
+
+        String expected = IntStream.range(0, BURSTS).mapToObj(k -> "w" + k).collect(Collectors.joining(" "));
+        assertEquals(expected, result.getText());
+        assertTrue(requests.get() >= 3);
+        assertEquals(BURSTS, result.getSegments().size());
+        assertEquals(BURSTS, result.getWords().size());
+        for (int k = 0; k < BURSTS; k++) {
+            TranscriptionSegment segment = result.getSegments().get(k);
+            assertEquals(k, segment.getId());
+            assertEquals(4.5 * k, segment.getStart(), 0.05);
+            Words word = result.getWords().get(k);
+            assertEquals("w" + k, word.getWord());
+            assertEquals(4.5 * k + 1.5, word.getEnd(), 0.05);
+        }
+        assertEquals(pcm.length / 2 / RATE, result.getDuration(), 0.01);
+        try (java.util.stream.Stream<Path> left = Files.list(directory)) {
+            assertEquals(1, left.count());
+        }
+    }
+
+    @Test
+    void transcribesRawPcmInParallel() throws IOException {
+        Path raw = directory.resolve("recording.pcm");
+        Files.write(raw, recording());
+        latencyMillis = 300;
+
+        long start = System.nanoTime();
+        TranscriptionResult sequential = transcriber(1).transcribe(request(), raw, FORMAT);
+        long sequentialNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        TranscriptionResult parallel = transcriber(8).transcribe(request(), raw, FORMAT);
+        long parallelNanos = System.nanoTime() - start;
+
+        assertEquals(sequential.getText(), parallel.getText());
+        assertEquals(BURSTS, parallel.getText().split(" ").length);
+        assertTrue(parallelNanos * 2 < sequentialNanos, "parallel " + parallelNanos + "ns, sequential " + sequentialNanos + "ns");
+    }
+
+    @Test
+    void dropsRepeatedWordsFromPlainTextJunctions() {
+        AudioSplitter.Segment first = new AudioSplitter.Segment(0, 0, 100, 0, 80, false);
+        AudioSplitter.Segment second = new AudioSplitter.Segment(1, 60, 200, 80, 200, true);
+        TranscriptionResult a = new TranscriptionResult();
+        a.setText("The quick brown fox jumps");
+        TranscriptionResult b = new TranscriptionResult();
+        b.setText("Fox jumps over the lazy dog.");
+
+        TranscriptionResult merged = LongAudioTranscriber.merge(Arrays.asList(first, second), Arrays.asList(a, b), 10, 200);
+
+        assertEquals("The quick brown fox jumps over the lazy dog.", merged.getText());
+        assertNull(merged.getSegments());
+    }
+
+    private LongAudioTranscriber transcriber(int maxConcurrentRequests) {
+        return new LongAudioTranscriber(service, LongAudioConfig.builder()
+                .maxSegmentDuration(Duration.ofSeconds(20))
+                .minSegmentDuration(Duration.ofSeconds(10))
+                .overlap(Duration.ofMillis(2500))
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .tempDirectory(directory)
+                .build());
+    }
+
+    private static CreateTranscriptionRequest request() {
+        return CreateTranscriptionRequest.builder()
+                .model("whisper-1")
+                .timestampGranularities(Arrays.asList("segment", "word"))
+                .build();
+    }
+
+    private static byte[] recording() {
+        int samples = (int) (RATE * (4.5 * BURSTS));
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double t = i / RATE;
+            int k = (int) (t / 4.5);
+            double sample = t - 4.5 * k < 1.5 ? 0.5 * Math.sin(2 * Math.PI * (300 + 100 * k) * t) : 0;
+            short value = (short) (sample * Short.MAX_VALUE);
+            pcm[i * 2] = (byte) value;
+            pcm[i * 2 + 1] = (byte) (value >> 8);
+        }
+        return pcm;
+    }
+
+    /**
+     * Answers verbose_json with a segment and a word for each burst of the uploaded WAV
+     */
+    private static String transcribe(RecordedRequest request) throws Exception {
+        assertTrue(request.getBody().clone().readUtf8().contains("verbose_json"));
+        byte[] wav = filePart(request);
+        short[] samples;
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(new ByteArrayInputStream(wav))) {
+            byte[] bytes = new byte[(int) in.getFrameLength() * 2];
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+            samples = new short[bytes.length / 2];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (short) ((bytes[i * 2] & 0xff) | (bytes[i * 2 + 1] << 8));
+            }
+        }
+        StringBuilder segments = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < samples.length) {
+            if (samples[i] == 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int crossings = 0;
+            int lastNonZero = i;
+            while (i < samples.length && i - lastNonZero < 160) {
+                if (samples[i] != 0) {
+                    lastNonZero = i;
+                }
+                if (i > start && (samples[i - 1] < 0) != (samples[i] < 0)) {
+                    crossings++;
+                }
+                i++;
+            }
+            double seconds = (lastNonZero - start) / RATE;
+            long frequency = Math.round(crossings / 2.0 / seconds / 100) * 100;
+            String word = "w" + (frequency - 300) / 100;
+            String times = String.format(Locale.ROOT, "\"start\":%.3f,\"end\":%.3f", start / RATE, (lastNonZero + 1) / RATE);
+            segments.append(segments.length() > 0 ? "," : "").append("{\"id\":0,").append(times).append(",\"text\":\" ").append(word).append("\"}");
+            words.append(words.length() > 0 ? "," : "").append("{\"word\":\"").append(word).append("\",").append(times).append("}");
+            text.append(' ').append(word);
+        }
+        return "{\"task\":\"transcribe\",\"language\":\"english\",\"duration\":" + samples.length / RATE + ",\"text\":\"" + text
+                + "\",\"segments\":[" + segments + "],\"words\":[" + words + "]}";
+    }
+
+    private static byte[] filePart(RecordedRequest request) {
+        byte[] body = request.getBody().readByteArray();
+        String contentType = request.getHeader("Content-Type");
+        byte[] boundary = ("\r\n--" + contentType.substring(contentType.indexOf("boundary=") + 9)).getBytes(StandardCharsets.US_ASCII);
+        int header = indexOf(body, "name=\"file\"".getBytes(StandardCharsets.US_ASCII), 0);
+        int start = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), header) + 4;
+        int end = indexOf(body, boundary, start);
+        return Arrays.copyOfRange(body, start, end);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,135 @@
+package com.theokanning.openai.service.audio;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.audio.CreateSpeechRequest;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The stand-in server answers each request with its input as the "audio", after a delay that is longest for the
+ * first sentences, so later segments are ready first
+ */
+public class LongSpeechSynthesizerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int now = inFlight.incrementAndGet();
+                maxInFlight.accumulateAndGet(now, Math::max);
+                try {
+                    String input = MAPPER.readTree(request.getBody().readUtf8()).get("input").asText();
+                    if (failures.getAndDecrement() > 0) {
+                        return new MockResponse().setResponseCode(503);
+                    }
+                    int sentence = Integer.parseInt(input.substring(input.indexOf('#') + 1, input.indexOf(' ', input.indexOf('#'))));
+                    Thread.sleep(Math.max(0, 200 - sentence * 10));
+                    return new MockResponse().setHeader("Content-Type", "audio/mpeg").setBody("[" + input + "]");
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void writesSegmentsInOrderWithBoundedParallelism() throws IOException {
+        String text = article(40);
+        List<String> segments = LongSpeechSynthesizer.split(text, Locale.ROOT, 60, 150);
+        failures.set(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        SpeechStats stats = synthesizer(3).synthesize(request(text), out);
+
+        String expected = segments.stream().map(segment -> "[" + segment + "]").collect(Collectors.joining());
+        assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(segments.size(), stats.getSegments());
+        assertEquals(out.size(), stats.getBytes());
+        assertTrue(maxInFlight.get() <= 3);
+        assertTrue(stats.getTimeToFirstAudio().compareTo(stats.getElapsed()) < 0);
+    }
+
+    @Test
+    void splitsAtSentenceBoundaries() {
+        String text = article(30);
+        List<String> segments = LongSpeechSynthesizer.split(text, Locale.ROOT, 80, 150);
+
+        assertTrue(segments.get(0).length() <= 80);
+        for (String segment : segments) {
+            assertTrue(segment.length() <= 150);
+            assertTrue(segment.endsWith("."), segment);
+        }
+        assertEquals(text.replaceAll("\\s+", ""), String.join("", segments).replaceAll("\\s+", ""));
+
+        String run = IntStream.range(0, 30).mapToObj(i -> "word" + i).collect(Collectors.joining(" "));
+        List<String> cut = LongSpeechSynthesizer.split(run + " " + new String(new char[70]).replace('\0', 'x'), Locale.ROOT, 40, 50);
+        for (String segment : cut) {
+            assertTrue(segment.length() <= 50);
+            assertFalse(segment.startsWith(" ") || segment.endsWith(" "));
+        }
+        assertTrue(cut.get(0).endsWith("word5"));
+    }
+
+    @Test
+    void rejectsFormatsThatCanNotBeConcatenated() {
+        CreateSpeechRequest request = request("Hello #0 there.");
+        request.setResponseFormat("wav");
+        assertThrows(IllegalArgumentException.class, () -> synthesizer(2).synthesize(request, new ByteArrayOutputStream()));
+    }
+
+    private LongSpeechSynthesizer synthesizer(int maxConcurrentRequests) {
+        return new LongSpeechSynthesizer(service, LongSpeechConfig.builder()
+                .firstSegmentCharacters(60)
+                .maxSegmentCharacters(150)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .initialBackoff(Duration.ofMillis(10))
+                .build());
+    }
+
+    private static CreateSpeechRequest request(String input) {
+        return CreateSpeechRequest.builder().model("tts-1").voice("alloy").input(input).build();
+    }
+
+    private static String article(int sentences) {
+        return IntStream.range(0, sentences)
+                .mapToObj(i -> "Sentence #" + i + " says something" + (i % 3 == 0 ? " at a rather greater length than the others" : "") + ".")
+                .collect(Collectors.joining(" "));
+    }
+}
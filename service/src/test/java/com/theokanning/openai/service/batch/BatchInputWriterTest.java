@@ -0,0 +1,103 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchInputWriterTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void linesAreBatchApiRequests() throws IOException {
+        BatchInputManifest manifest = new BatchInputWriter(BatchInputConfig.builder().directory(directory).build())
+                .write(Stream.of(chat("a", "What is 1 + 2?"), BatchRequestLine.builder()
+                        .customId("b")
+                        .url("/v1/embeddings")
+                        .body(EmbeddingRequest.builder().model("text-embedding-3-small").input("hello").build())
+                        .build()));
+
+        assertEquals(1, manifest.getShards().size());
+        List<String> lines = Files.readAllLines(manifest.getShards().get(0).getPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        JsonNode first = MAPPER.readTree(lines.get(0));
+        assertEquals("a", first.get("custom_id").asText());
+        assertEquals("POST", first.get("method").asText());
+        assertEquals("/v1/chat/completions", first.get("url").asText());
+        assertEquals("gpt-4o-mini", first.get("body").get("model").asText());
+        assertEquals("What is 1 + 2?", first.get("body").get("messages").get(0).get("content").asText());
+        assertEquals("/v1/embeddings", MAPPER.readTree(lines.get(1)).get("url").asText());
+        assertEquals(Files.size(manifest.getShards().get(0).getPath()), manifest.getBytes());
+    }
+
+    @Test
+    void shardsAtLineAndByteLimits() throws IOException {
+        BatchInputManifest byLines = new BatchInputWriter(BatchInputConfig.builder().directory(directory).prefix("lines").maxLines(4).build())
+                .write(IntStream.range(0, 10).mapToObj(i -> chat("r" + i, "question " + i)));
+
+        assertEquals(3, byLines.getShards().size());
+        assertEquals(10, byLines.getLines());
+        assertEquals(4, byLines.getShards().get(1).getLines());
+        assertEquals("r4", byLines.getShards().get(1).getFirstCustomId());
+        assertEquals("r7", byLines.getShards().get(1).getLastCustomId());
+        assertTrue(byLines.getShards().get(2).getPath().endsWith("lines-00002.jsonl"));
+
+        long lineBytes = byLines.getShards().get(0).getBytes() / 4;
+        BatchInputManifest byBytes = new BatchInputWriter(BatchInputConfig.builder().directory(directory).prefix("bytes").maxBytes(lineBytes * 3).build())
+                .write(IntStream.range(0, 10).mapToObj(i -> chat("r" + i, "question " + i)));
+
+        assertEquals(4, byBytes.getShards().size());
+        for (BatchShard shard : byBytes.getShards()) {
+            assertTrue(Files.size(shard.getPath()) <= lineBytes * 3);
+            assertEquals(shard.getLines(), Files.readAllLines(shard.getPath()).size());
+        }
+    }
+
+    @Test
+    void shardsAtTokenLimit() {
+        // "one two three" is 3 tokens, framed by 4 per message and 3 per request
+        BatchInputManifest manifest = new BatchInputWriter(BatchInputConfig.builder().directory(directory).maxTokens(20).build())
+                .write(IntStream.range(0, 5).mapToObj(i -> chat("r" + i, "one two three")));
+
+        assertEquals(3, manifest.getShards().size());
+        assertEquals(20, manifest.getShards().get(0).getTokens());
+        assertEquals(50, manifest.getTokens());
+    }
+
+    @Test
+    void rejectsDuplicatesAndOversizedRequests() {
+        BatchInputWriter writer = new BatchInputWriter(BatchInputConfig.builder().directory(directory).maxBytes(300).build());
+
+        assertThrows(IllegalArgumentException.class, () -> writer.write(Stream.of(chat("a", "x"), chat("a", "y"))));
+        assertThrows(IllegalArgumentException.class, () -> writer.write(Stream.of(chat("a", String.join("", Collections.nCopies(300, "x"))))));
+    }
+
+    private static BatchRequestLine chat(String customId, String question) {
+        return BatchRequestLine.builder()
+                .customId(customId)
+                .body(ChatCompletionRequest.builder()
+                        .model("gpt-4o-mini")
+                        .messages(Collections.singletonList(new UserMessage(question)))
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,132 @@
+package com.theokanning.openai.service.batch;
+
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.FakeBatchDispatcher;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchOrchestratorTest {
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private FakeBatchDispatcher api;
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        api = new FakeBatchDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(api);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void runsShardsWithinLimitAndResubmitsRetriableFailures() throws Exception {
+        api.failOnce.addAll(Arrays.asList("r1", "r2", "r5"));
+        api.badRequests.add("r7");
+        Map<String, BatchResult<ChatCompletionResult>> results = new ConcurrentHashMap<>();
+
+        try (BatchOrchestrator orchestrator = new BatchOrchestrator(service, config().maxInFlight(2).build())) {
+            orchestrator.submit(shards(10, 3), ChatCompletionResult.class, (input, result) ->
+                    assertNull(results.put(input.getCustomId(), result))).get(10, TimeUnit.SECONDS);
+
+            assertEquals(10, results.size());
+            assertTrue(results.get("r1").isSuccess());
+            assertTrue(results.get("r2").isSuccess());
+            assertTrue(results.get("r5").isSuccess());
+            assertEquals(400, results.get("r7").getStatusCode());
+            assertEquals("answer to question 9", results.get("r9").getBody().getChoices().get(0).getMessage().getContent());
+            assertTrue(api.maxActive.get() <= 2);
+
+            BatchOrchestratorStats stats = orchestrator.getStats();
+            assertEquals(9, stats.getSucceededRequests());
+            assertEquals(1, stats.getFailedRequests());
+            assertEquals(3, stats.getResubmittedRequests());
+            assertEquals(6, stats.getCompletedBatches());
+            assertEquals(0, stats.getInFlightBatches());
+            assertEquals(0, stats.getQueuedShards());
+            assertEquals(6, api.deletedFiles.get());
+        }
+    }
+
+    @Test
+    void failedBatchFailsItsJob() throws Exception {
+        api.failBatches = true;
+
+        try (BatchOrchestrator orchestrator = new BatchOrchestrator(service, config().build())) {
+            CompletableFuture<Void> job = orchestrator.submit(shards(2, 10), ChatCompletionResult.class, (input, result) -> {
+            });
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> job.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause().getMessage().contains("invalid endpoint"));
+            assertEquals(1, orchestrator.getStats().getFailedBatches());
+        }
+    }
+
+    @Test
+    void aHungPollDoesNotHoldUpClose() throws Exception {
+        api.pollGate = new CountDownLatch(1);
+        try {
+            BatchOrchestrator orchestrator = new BatchOrchestrator(service, config().build());
+            CompletableFuture<Void> job = orchestrator.submit(shards(2, 10), ChatCompletionResult.class, (input, result) -> {
+            });
+            while (api.heldPolls.get() == 0) {
+                Thread.sleep(5);
+            }
+
+            assertTimeoutPreemptively(Duration.ofSeconds(2), orchestrator::close);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> job.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause().getMessage().contains("closed"));
+        } finally {
+            api.pollGate.countDown();
+        }
+    }
+
+    private BatchOrchestratorConfig.BatchOrchestratorConfigBuilder config() {
+        return BatchOrchestratorConfig.builder()
+                .workDirectory(directory.resolve("work"))
+                .minPollInterval(Duration.ofMillis(10))
+                .maxPollInterval(Duration.ofMillis(50));
+    }
+
+    private BatchInputManifest shards(int requests, int perShard) {
+        return new BatchInputWriter(BatchInputConfig.builder().directory(directory).maxLines(perShard).build())
+                .write(IntStream.range(0, requests).mapToObj(i -> BatchRequestLine.builder()
+                        .customId("r" + i)
+                        .body(ChatCompletionRequest.builder()
+                                .model("gpt-4o-mini")
+                                .messages(Collections.singletonList(new UserMessage("question " + i)))
+                                .build())
+                        .build()));
+    }
+}
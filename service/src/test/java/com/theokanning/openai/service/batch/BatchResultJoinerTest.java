@@ -0,0 +1,180 @@
+package com.theokanning.openai.service.batch;
+
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.UserMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchResultJoinerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readerDecodesSuccessesAndErrors() throws IOException {
+        String lines = success("a", "Paris")
+                + "{\"id\":\"batch_req_2\",\"custom_id\":\"b\",\"response\":{\"body\":{\"error\":{\"message\":\"bad\",\"type\":\"invalid_request_error\"}},"
+                + "\"request_id\":\"req_2\",\"status_code\":400},\"error\":null}\n"
+                + "{\"id\":\"batch_req_3\",\"custom_id\":\"c\",\"response\":null,\"error\":{\"code\":\"batch_expired\",\"message\":\"expired\"}}\n";
+
+        try (BatchOutputReader<ChatCompletionResult> reader = new BatchOutputReader<>(stream(lines), ChatCompletionResult.class)) {
+            BatchResult<ChatCompletionResult> first = reader.next();
+            assertTrue(first.isSuccess());
+            assertEquals("a", first.getCustomId());
+            assertEquals("req_a", first.getRequestId());
+            assertEquals("Paris", first.getBody().getChoices().get(0).getMessage().getContent());
+
+            BatchResult<ChatCompletionResult> second = reader.next();
+            assertFalse(second.isSuccess());
+            assertEquals(400, second.getStatusCode());
+            assertNull(second.getBody());
+            assertEquals("bad", second.getError().getMessage());
+
+            BatchResult<ChatCompletionResult> third = reader.next();
+            assertEquals(0, third.getStatusCode());
+            assertEquals("batch_expired", third.getError().getCode());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void joinsInMemory() throws IOException {
+        List<Path> inputs = writeInputs(5);
+        Map<String, String> joined = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        BatchJoinStats stats = new BatchResultJoiner(directory, 1024 * 1024).join(inputs,
+                Collections.singletonList(stream(success("r3", "three") + success("r1", "one") + success("zz", "?"))),
+                ChatCompletionResult.class, (input, result) -> {
+                    if (result == null) {
+                        missing.add(input.getCustomId());
+                    } else if (input != null) {
+                        joined.put(input.getCustomId(), result.getBody().getChoices().get(0).getMessage().getContent());
+                    }
+                });
+
+        assertEquals(2, joined.size());
+        assertEquals("three", joined.get("r3"));
+        assertEquals(3, missing.size());
+        assertEquals(2, stats.getMatched());
+        assertEquals(3, stats.getMissing());
+        assertEquals(1, stats.getUnknown());
+        assertEquals(0, stats.getPartitions());
+    }
+
+    @Test
+    void spillsWhenInputsDoNotFitInMemory() throws IOException {
+        List<Path> inputs = writeInputs(200);
+        StringBuilder outputs = new StringBuilder();
+        for (int i = 199; i >= 0; i -= 2) {
+            outputs.append(success("r" + i, "answer " + i));
+        }
+        StringBuilder errors = new StringBuilder();
+        for (int i = 0; i < 200; i += 2) {
+            errors.append("{\"id\":\"x\",\"custom_id\":\"r").append(i).append("\",\"response\":{\"status_code\":500,\"body\":{\"error\":{\"message\":\"oops\"}}}}\n");
+        }
+        Map<String, BatchResult<ChatCompletionResult>> joined = new HashMap<>();
+
+        BatchJoinStats stats = new BatchResultJoiner(directory.resolve("spill"), 2048).join(inputs,
+                Arrays.asList(stream(outputs.toString()), stream(errors.toString())), ChatCompletionResult.class,
+                (input, result) -> {
+                    assertEquals(input.getCustomId(), result.getCustomId());
+                    assertNull(joined.put(input.getCustomId(), result));
+                });
+
+        assertTrue(stats.getPartitions() > 1);
+        assertEquals(200, stats.getMatched());
+        assertEquals(0, stats.getMissing());
+        assertEquals("answer 7", joined.get("r7").getBody().getChoices().get(0).getMessage().getContent());
+        assertEquals("oops", joined.get("r8").getError().getMessage());
+        try (Stream<Path> left = Files.list(directory.resolve("spill"))) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void splitsAgainThePartitionsThatDoNotFit() throws IOException {
+        List<Path> inputs = writeInputs(2000);
+        StringBuilder outputs = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            outputs.append(success("r" + i, "answer " + i));
+        }
+        Map<String, String> joined = new HashMap<>();
+
+        BatchJoinStats stats = new BatchResultJoiner(directory.resolve("spill"), 2048).join(inputs,
+                Collections.singletonList(stream(outputs.toString())), ChatCompletionResult.class,
+                (input, result) -> assertNull(joined.put(input.getCustomId(),
+                        result.getBody().getChoices().get(0).getMessage().getContent())));
+
+        assertTrue(stats.getPartitions() > 64);
+        assertEquals(2000, stats.getMatched());
+        assertEquals("answer 1999", joined.get("r1999"));
+        try (Stream<Path> left = Files.list(directory.resolve("spill"))) {
+            assertEquals(0, left.count());
+        }
+    }
+
+    @Test
+    void aPartitionSplitAgainSpreadsOverAllTheNewOnes() {
+        int[] files = new int[64];
+        int lines = 0;
+        for (int i = 0; lines < 64_000; i++) {
+            String customId = "r" + i;
+            if (BatchResultJoiner.partition(customId, 0, 64) == 5) {
+                files[BatchResultJoiner.partition(customId, 1, 64)]++;
+                lines++;
+            }
+        }
+
+        for (int file : files) {
+            assertTrue(file > 800 && file < 1200, Arrays.toString(files));
+        }
+    }
+
+    private List<Path> writeInputs(int count) {
+        BatchInputManifest manifest = new BatchInputWriter(BatchInputConfig.builder().directory(directory).maxLines(64).build())
+                .write(IntStream.range(0, count).mapToObj(i -> BatchRequestLine.builder()
+                        .customId("r" + i)
+                        .body(ChatCompletionRequest.builder()
+                                .model("gpt-4o-mini")
+                                .messages(Collections.singletonList(new UserMessage("question " + i)))
+                                .build())
+                        .build()));
+        List<Path> paths = new ArrayList<>();
+        for (BatchShard shard : manifest.getShards()) {
+            paths.add(shard.getPath());
+        }
+        return paths;
+    }
+
+    private static String success(String customId, String answer) {
+        return "{\"id\":\"batch_req_" + customId + "\",\"custom_id\":\"" + customId + "\",\"response\":{\"status_code\":200,"
+                + "\"request_id\":\"req_" + customId + "\",\"body\":{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1,"
+                + "\"model\":\"gpt-4o-mini\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"" + answer + "\"},"
+                + "\"finish_reason\":\"stop\"}]}},\"error\":null}\n";
+    }
+
+    private static InputStream stream(String lines) {
+        return new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8));
+    }
+}
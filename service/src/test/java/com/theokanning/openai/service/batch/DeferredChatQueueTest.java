@@ -0,0 +1,164 @@
+package com.theokanning.openai.service.batch;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.FakeBatchDispatcher;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeferredChatQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private FakeBatchDispatcher api;
+    private OpenAiService service;
+    private BatchOrchestrator orchestrator;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        api = new FakeBatchDispatcher();
+        server = new MockWebServer();
+        server.setDispatcher(api);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+        orchestrator = new BatchOrchestrator(service, BatchOrchestratorConfig.builder()
+                .workDirectory(directory.resolve("work"))
+                .minPollInterval(Duration.ofMillis(10))
+                .maxPollInterval(Duration.ofMillis(50))
+                .build());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        orchestrator.close();
+        server.shutdown();
+    }
+
+    @Test
+    void batchesRequestsWithDistantDeadlines() throws Exception {
+        api.badQuestions.add("question 2");
+        Instant deadline = Instant.now().plus(Duration.ofHours(12));
+        List<CompletableFuture<ChatCompletionResult>> answers = new ArrayList<>();
+
+        try (DeferredChatQueue queue = new DeferredChatQueue(service, orchestrator, config().maxBatchSize(4).build())) {
+            for (int i = 0; i < 5; i++) {
+                answers.add(queue.submit(request("question " + i), deadline));
+            }
+
+            assertEquals("answer to question 0", content(answers.get(0).get(10, TimeUnit.SECONDS)));
+            assertEquals("answer to question 4", content(answers.get(4).get(10, TimeUnit.SECONDS)));
+            ExecutionException e = assertThrows(ExecutionException.class, () -> answers.get(2).get(10, TimeUnit.SECONDS));
+            assertEquals(400, ((OpenAiHttpException) e.getCause()).statusCode);
+
+            DeferredQueueStats stats = queue.getStats();
+            assertEquals(5, stats.getBatched());
+            assertEquals(4, stats.getCompletedByBatch());
+            assertEquals(1, stats.getFailed());
+            assertEquals(0, stats.getFallbacks());
+            assertEquals(0, stats.getOutstanding());
+            assertEquals(2, api.batchesCreated.get());
+            assertEquals(0, api.chatCompletions.get());
+        }
+    }
+
+    @Test
+    void sendsRequestsWithNearDeadlinesSynchronously() throws Exception {
+        try (DeferredChatQueue queue = new DeferredChatQueue(service, orchestrator, config().build())) {
+            ChatCompletionResult answer = queue.submit(request("now"), Instant.now().plus(Duration.ofMinutes(5)))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals("answer to now", content(answer));
+            assertEquals(1, queue.getStats().getFallbacks());
+            assertEquals(0, queue.getStats().getBatched());
+            assertEquals(1, api.chatCompletions.get());
+            assertEquals(0, api.batchesCreated.get());
+        }
+    }
+
+    @Test
+    void fallsBackWhenTheBatchIsTooSlow() throws Exception {
+        api.holdBatches = true;
+
+        try (DeferredChatQueue queue = new DeferredChatQueue(service, orchestrator, config()
+                .fallbackMargin(Duration.ofMinutes(1))
+                .build())) {
+            CompletableFuture<ChatCompletionResult> answer = queue.submit(request("slow"),
+                    Instant.now().plus(Duration.ofMinutes(1)).plusMillis(500));
+
+            assertEquals("answer to slow", content(answer.get(10, TimeUnit.SECONDS)));
+            assertEquals(1, api.batchesCreated.get());
+            assertEquals(1, api.chatCompletions.get());
+            assertEquals(1, queue.getStats().getFallbacks());
+            assertEquals(0, queue.getStats().getCompletedByBatch());
+        }
+    }
+
+    @Test
+    void queuesSharingAWorkDirectoryKeepTheirShardsApart() throws Exception {
+        Instant deadline = Instant.now().plus(Duration.ofHours(12));
+        api.pollGate = new CountDownLatch(1);
+
+        try (BatchOrchestrator oneAtATime = new BatchOrchestrator(service, BatchOrchestratorConfig.builder()
+                .workDirectory(directory.resolve("work"))
+                .maxInFlight(1)
+                .minPollInterval(Duration.ofMillis(10))
+                .build());
+             DeferredChatQueue first = new DeferredChatQueue(service, oneAtATime, config().maxBatchSize(1).build());
+             DeferredChatQueue second = new DeferredChatQueue(service, oneAtATime, config().maxBatchSize(1).build())) {
+            CompletableFuture<ChatCompletionResult> a = first.submit(request("a"), deadline);
+            while (api.heldPolls.get() == 0) {
+                Thread.sleep(5);
+            }
+            // written while the first batch runs, then uploaded after the first queue deleted its shard
+            CompletableFuture<ChatCompletionResult> b = second.submit(request("b"), deadline);
+            Thread.sleep(100);
+            api.pollGate.countDown();
+
+            assertEquals("answer to a", content(a.get(10, TimeUnit.SECONDS)));
+            assertEquals("answer to b", content(b.get(10, TimeUnit.SECONDS)));
+            assertEquals(2, api.batchesCreated.get());
+            assertEquals(0, api.chatCompletions.get());
+        } finally {
+            api.pollGate.countDown();
+        }
+    }
+
+    private DeferredQueueConfig.DeferredQueueConfigBuilder config() {
+        return DeferredQueueConfig.builder()
+                .workDirectory(directory.resolve("deferred"))
+                .maxLinger(Duration.ofMillis(50));
+    }
+
+    private static ChatCompletionRequest request(String question) {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Collections.singletonList(new UserMessage(question)))
+                .build();
+    }
+
+    private static String content(ChatCompletionResult result) {
+        return result.getChoices().get(0).getMessage().getContent();
+    }
+}
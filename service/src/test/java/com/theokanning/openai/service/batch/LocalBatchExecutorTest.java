@@ -0,0 +1,187 @@
+package com.theokanning.openai.service.batch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.batch.BatchRequestLine;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalBatchExecutorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private final List<String> questions = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> failOnce = ConcurrentHashMap.newKeySet();
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                try {
+                    JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+                    if (request.getPath().endsWith("/embeddings")) {
+                        return json(200, "{\"object\":\"list\",\"model\":\"text-embedding-3-small\",\"data\":[{\"object\":\"embedding\",\"index\":0,"
+                                + "\"embedding\":[0.5,0.25]}],\"usage\":{\"prompt_tokens\":1,\"total_tokens\":1}}");
+                    }
+                    String question = body.get("messages").get(0).get("content").asText();
+                    questions.add(question);
+                    if (question.equals("bad")) {
+                        return json(400, "{\"error\":{\"message\":\"bad question\",\"type\":\"invalid_request_error\"}}");
+                    }
+                    if (failOnce.remove(question)) {
+                        return json(500, "{\"error\":{\"message\":\"overloaded\",\"type\":\"server_error\"}}");
+                    }
+                    return json(200, "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1,\"model\":\"gpt-4o-mini\","
+                            + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"answer to " + question + "\"},"
+                            + "\"finish_reason\":\"stop\"}]}");
+                } catch (IOException e) {
+                    return json(500, "{}");
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void writesBatchApiOutputAndErrorFiles() throws IOException {
+        failOnce.add("q2");
+        Path input = input(Stream.concat(IntStream.range(0, 5).mapToObj(i -> chat("r" + i, "q" + i)), Stream.of(
+                chat("bad", "bad"),
+                BatchRequestLine.builder().customId("e").url("/v1/embeddings")
+                        .body(EmbeddingRequest.builder().model("text-embedding-3-small").input("hello").build()).build(),
+                BatchRequestLine.builder().customId("u").url("/v1/moderations").body(Collections.emptyMap()).build())));
+
+        LocalBatchStats stats = executor().run(input, directory.resolve("output.jsonl"), directory.resolve("errors.jsonl"));
+
+        assertEquals(6, stats.getSucceeded());
+        assertEquals(2, stats.getFailed());
+        assertEquals(1, stats.getRetries());
+        Map<String, BatchResult<ChatCompletionResult>> outputs = read(directory.resolve("output.jsonl"));
+        assertEquals(6, outputs.size());
+        assertEquals("answer to q2", outputs.get("r2").getBody().getChoices().get(0).getMessage().getContent());
+        assertTrue(outputs.get("r2").getRequestId().startsWith("req_"));
+        assertTrue(outputs.get("e").isSuccess());
+        Map<String, BatchResult<ChatCompletionResult>> errors = read(directory.resolve("errors.jsonl"));
+        assertEquals(400, errors.get("bad").getStatusCode());
+        assertEquals("bad question", errors.get("bad").getError().getMessage());
+        assertTrue(errors.get("u").getError().getMessage().contains("unsupported url"));
+    }
+
+    @Test
+    void resumesAfterTheLastCompleteOutputLine() throws IOException {
+        Path input = input(IntStream.range(0, 4).mapToObj(i -> chat("r" + i, "q" + i)));
+        Path output = directory.resolve("output.jsonl");
+        executor().run(input(Stream.of(chat("r0", "q0"), chat("r1", "q1"))), output, directory.resolve("errors.jsonl"));
+        String firstRun = new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+        // a crash while the third line was being written
+        Files.write(output, (firstRun + "{\"id\":\"batch_req_x\",\"custom_id\":\"r2\",\"resp").getBytes(StandardCharsets.UTF_8));
+        questions.clear();
+
+        LocalBatchStats stats = executor().run(input, output, directory.resolve("errors.jsonl"));
+
+        assertEquals(2, stats.getSkipped());
+        assertEquals(2, stats.getSucceeded());
+        assertEquals(2, questions.size());
+        assertFalse(questions.contains("q0"));
+        assertEquals(4, read(output).size());
+        assertEquals(4, Files.readAllLines(output).size());
+    }
+
+    @Test
+    void rejectsLinesWithoutCustomId() throws IOException {
+        Path input = directory.resolve("input.jsonl");
+        Files.write(input, ("{\"url\":\"/v1/chat/completions\",\"body\":{\"model\":\"gpt-4o-mini\","
+                + "\"messages\":[{\"role\":\"user\",\"content\":\"orphan\"}]}}\n").getBytes(StandardCharsets.UTF_8));
+
+        LocalBatchStats stats = executor().run(input, directory.resolve("output.jsonl"), directory.resolve("errors.jsonl"));
+
+        assertEquals(0, stats.getSucceeded());
+        assertEquals(1, stats.getFailed());
+        assertTrue(questions.isEmpty());
+        BatchResult<ChatCompletionResult> error = read(directory.resolve("errors.jsonl")).get(null);
+        assertEquals(400, error.getStatusCode());
+        assertTrue(error.getError().getMessage().contains("custom_id"));
+    }
+
+    private LocalBatchExecutor executor() {
+        return new LocalBatchExecutor(service, LocalBatchConfig.builder()
+                .maxConcurrentRequests(4)
+                .requestsPerMinute(60_000)
+                .tokensPerMinute(1_000_000)
+                .initialBackoff(Duration.ofMillis(10))
+                .build());
+    }
+
+    private Path input(Stream<BatchRequestLine> lines) {
+        return new BatchInputWriter(BatchInputConfig.builder().directory(directory).prefix("input-" + System.nanoTime()).build())
+                .write(lines).getShards().get(0).getPath();
+    }
+
+    private static BatchRequestLine chat(String customId, String question) {
+        return BatchRequestLine.builder()
+                .customId(customId)
+                .body(ChatCompletionRequest.builder()
+                        .model("gpt-4o-mini")
+                        .messages(Collections.singletonList(new UserMessage(question)))
+                        .build())
+                .build();
+    }
+
+    private static Map<String, BatchResult<ChatCompletionResult>> read(Path file) throws IOException {
+        Map<String, BatchResult<ChatCompletionResult>> results = new HashMap<>();
+        try (InputStream in = Files.newInputStream(file);
+             BatchOutputReader<ChatCompletionResult> reader = new BatchOutputReader<>(in, ChatCompletionResult.class)) {
+            BatchResult<ChatCompletionResult> result;
+            while ((result = reader.next()) != null) {
+                assertNull(results.put(result.getCustomId(), result));
+            }
+        }
+        return results;
+    }
+
+    private static MockResponse json(int status, String body) {
+        return new MockResponse().setResponseCode(status).setHeader("Content-Type", "application/json").setBody(body);
+    }
+}
@@ -0,0 +1,140 @@
+package com.theokanning.openai.service.cache;
+
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import com.theokanning.openai.embedding.FloatEmbeddingResult;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.EchoEmbeddingDispatcher;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingCacheTest {
+
+    private MockWebServer server;
+    private final EchoEmbeddingDispatcher dispatcher = new EchoEmbeddingDispatcher();
+    private OpenAiService cached;
+    private EmbeddingCache cache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        OpenAiService service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+        cache = EmbeddingCache.builder().tier(new TinyLfuCacheTier(1000)).build();
+        cached = service.withEmbeddingCache(cache);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void onlyMissesAreSentUpstream() {
+        cached.createEmbeddings(request(Arrays.asList("a", "bb")));
+        EmbeddingResult result = cached.createEmbeddings(request(Arrays.asList("ccc", "a", "dddd", "bb")));
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "bb"), Arrays.asList("ccc", "dddd")), dispatcher.getInputs());
+        assertEquals(4, result.getData().size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, result.getData().get(i).getIndex());
+        }
+        assertArrayEquals(new float[]{3, 0.5f}, vector(result, 0));
+        assertArrayEquals(new float[]{1, 0.5f}, vector(result, 1));
+        assertArrayEquals(new float[]{4, 0.5f}, vector(result, 2));
+        assertArrayEquals(new float[]{2, 0.5f}, vector(result, 3));
+        assertEquals(2, cache.getStats().getHits());
+        assertEquals(4, cache.getStats().getMisses());
+    }
+
+    @Test
+    void duplicatesWithinABatchAreEmbeddedOnce() {
+        EmbeddingResult result = cached.createEmbeddings(request(Arrays.asList("a", "a", "bb", "a")));
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "bb")), dispatcher.getInputs());
+        assertArrayEquals(vector(result, 0), vector(result, 3));
+        assertArrayEquals(new float[]{2, 0.5f}, vector(result, 2));
+        assertEquals(2, cache.getStats().getDuplicates());
+    }
+
+    @Test
+    void fullHitsDoNotCallUpstream() {
+        cached.createEmbeddings(request(Collections.singletonList("a")));
+        EmbeddingResult result = cached.createEmbeddings(request(Collections.singletonList("a")));
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, result.getUsage().getTotalTokens());
+        assertEquals("text-embedding-3-small", result.getModel());
+    }
+
+    @Test
+    void keyDependsOnModelAndDimensions() {
+        EmbeddingRequest small = request(Collections.singletonList("a"));
+        small.setDimensions(256);
+        cached.createEmbeddings(request(Collections.singletonList("a")));
+        cached.createEmbeddings(small);
+
+        assertEquals(2, server.getRequestCount());
+        assertNotEquals(EmbeddingCache.key("m", null, "a"), EmbeddingCache.key("m", 256, "a"));
+        assertNotEquals(EmbeddingCache.key("m", null, "a"), EmbeddingCache.key("n", null, "a"));
+    }
+
+    @Test
+    void base64RequestsGetBase64Results() {
+        EmbeddingRequest request = request(Collections.singletonList("abc"));
+        request.setEncodingFormat("base64");
+        cached.createEmbeddings(request(Collections.singletonList("abc")));
+        EmbeddingResult result = cached.createEmbeddings(request);
+
+        assertTrue(result.getData().get(0).getEmbedding() instanceof String);
+        assertArrayEquals(new float[]{3, 0.5f}, vector(result, 0));
+    }
+
+    @Test
+    void floatEmbeddingsShareTheCache() {
+        cached.createEmbeddings(request(Arrays.asList("a", "bb")));
+        FloatEmbeddingResult result = cached.createFloatEmbeddings(request(Arrays.asList("bb", "ccc")));
+        FloatEmbeddingResult again = cached.createFloatEmbeddings(request(Arrays.asList("ccc", "a")));
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "bb"), Collections.singletonList("ccc")), dispatcher.getInputs());
+        assertArrayEquals(new float[]{2, 0.5f}, result.getData().get(0).getEmbedding());
+        assertArrayEquals(new float[]{3, 0.5f}, result.getData().get(1).getEmbedding());
+        assertArrayEquals(new float[]{3, 0.5f}, again.getData().get(0).getEmbedding());
+        assertArrayEquals(new float[]{1, 0.5f}, again.getData().get(1).getEmbedding());
+        assertEquals(1, again.getData().get(1).getIndex());
+        assertEquals(3, cache.getStats().getHits());
+    }
+
+    @Test
+    void requestsWithoutModelAreNotCached() {
+        EmbeddingRequest request = new EmbeddingRequest();
+        request.setInput(Collections.singletonList("a"));
+
+        cached.createEmbeddings(request);
+        cached.createEmbeddings(request);
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, cache.getStats().getMisses());
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingCache.key(null, null, "a"));
+    }
+
+    private static float[] vector(EmbeddingResult result, int index) {
+        return EmbeddingVectors.toFloatArray(result.getData().get(index).getEmbedding());
+    }
+
+    private static EmbeddingRequest request(List<String> input) {
+        return EmbeddingRequest.builder().model("text-embedding-3-small").input(input).build();
+    }
+}
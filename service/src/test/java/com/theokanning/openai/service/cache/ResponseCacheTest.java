@@ -0,0 +1,138 @@
+package com.theokanning.openai.service.cache;
+
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.LatencyInjectingDispatcher;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTest {
+
+    private static final String CHAT_RESULT = "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1,\"model\":\"gpt-4o-mini\","
+            + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"positive\"},\"finish_reason\":\"stop\"}]}";
+
+    private MockWebServer server;
+    private LatencyInjectingDispatcher dispatcher;
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        dispatcher = new LatencyInjectingDispatcher(CHAT_RESULT);
+        server.setDispatcher(dispatcher);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void deterministicRequestsAreServedFromCache() {
+        ResponseCache cache = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).build();
+        OpenAiService cached = service.withResponseCache(cache);
+
+        ChatCompletionResult first = cached.createChatCompletion(request(0.0, "alice"));
+        ChatCompletionResult second = cached.createChatCompletion(request(0.0, "bob"));
+
+        assertEquals(1, server.getRequestCount(), "user is not part of the key");
+        assertEquals("positive", second.getChoices().get(0).getMessage().getContent());
+        assertNotSame(first, second, "every caller gets its own copy");
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    void nonDeterministicRequestsBypassTheCache() {
+        ResponseCache cache = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).build();
+        OpenAiService cached = service.withResponseCache(cache);
+
+        cached.createChatCompletion(request(0.7, null));
+        cached.createChatCompletion(request(0.7, null));
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, cache.getStats().getBypassed());
+
+        ChatCompletionRequest seeded = request(0.7, null);
+        seeded.setSeed(42);
+        cached.createChatCompletion(seeded);
+        cached.createChatCompletion(seeded);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    void concurrentMissesShareOneCall() throws Exception {
+        dispatcher.latencies(300);
+        ResponseCache cache = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).build();
+        OpenAiService cached = service.withResponseCache(cache);
+
+        List<CompletableFuture<ChatCompletionResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> cached.createChatCompletion(request(0.0, null))));
+        }
+        for (CompletableFuture<ChatCompletionResult> future : futures) {
+            assertEquals("positive", future.get(5, TimeUnit.SECONDS).getChoices().get(0).getMessage().getContent());
+        }
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, cache.getStats().getMisses());
+        assertEquals(5, cache.getStats().getSharedLoads() + cache.getStats().getHits() + 1);
+    }
+
+    @Test
+    void diskTierSurvivesANewCache(@TempDir Path dir) {
+        ResponseCache cache = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).tier(new DiskCacheTier(dir, 1 << 20)).build();
+        service.withResponseCache(cache).createChatCompletion(request(0.0, null));
+
+        ResponseCache restarted = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).tier(new DiskCacheTier(dir, 1 << 20)).build();
+        ChatCompletionResult result = service.withResponseCache(restarted).createChatCompletion(request(0.0, null));
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals("chatcmpl-1", result.getId());
+        assertEquals(1, restarted.getTiers().get(0).size(), "disk hit is promoted to the heap tier");
+    }
+
+    @Test
+    void keyIgnoresFieldOrderOfMaps() {
+        ResponseCache cache = ResponseCache.builder().tier(new TinyLfuCacheTier(100)).build();
+        ChatCompletionRequest a = request(0.0, null);
+        a.setLogitBias(new LinkedHashMap<>());
+        a.getLogitBias().put("1", 1);
+        a.getLogitBias().put("2", 2);
+        ChatCompletionRequest b = request(0.0, null);
+        b.setLogitBias(new LinkedHashMap<>());
+        b.getLogitBias().put("2", 2);
+        b.getLogitBias().put("1", 1);
+
+        assertEquals(cache.key("createChatCompletion", a), cache.key("createChatCompletion", b));
+        assertNotEquals(cache.key("createChatCompletion", a), cache.key("createChatCompletion", request(0.0, null)));
+    }
+
+    private static ChatCompletionRequest request(Double temperature, String user) {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Collections.singletonList(new UserMessage("classify: great product")))
+                .temperature(temperature)
+                .user(user)
+                .build();
+    }
+}
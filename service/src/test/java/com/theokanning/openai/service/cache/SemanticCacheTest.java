@@ -0,0 +1,156 @@
+package com.theokanning.openai.service.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.completion.chat.AssistantMessage;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.completion.chat.SystemMessage;
+import com.theokanning.openai.completion.chat.UserMessage;
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SemanticCacheTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private MockWebServer server;
+    private final AtomicInteger completions = new AtomicInteger();
+    private final Map<String, float[]> vectors = new HashMap<>();
+    private volatile String finishReason = "stop";
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        vectors.put("What is the capital of France?", new float[]{1, 0, 0});
+        vectors.put("what's the capital of france", new float[]{0.99f, 0.05f, 0});
+        vectors.put("How tall is the Eiffel tower?", new float[]{0, 1, 0});
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+                    if (request.getPath().endsWith("/embeddings")) {
+                        String vector = (String) EmbeddingVectors.toEmbedding(vectors.get(body.get("input").asText()), "base64");
+                        return json("{\"object\":\"list\",\"model\":\"text-embedding-3-small\",\"data\":[{\"object\":\"embedding\",\"index\":0,"
+                                + "\"embedding\":\"" + vector + "\"}],\"usage\":{\"prompt_tokens\":1,\"total_tokens\":1}}");
+                    }
+                    return json("{\"id\":\"chatcmpl-" + completions.incrementAndGet() + "\",\"object\":\"chat.completion\",\"created\":1,"
+                            + "\"model\":\"gpt-4o-mini\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"Paris\"},"
+                            + "\"finish_reason\":\"" + finishReason + "\"}]}");
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void similarQuestionIsServedFromCache() {
+        SemanticCache cache = SemanticCache.builder().threshold(0.95).build();
+        OpenAiService cached = service.withSemanticCache(cache);
+
+        ChatCompletionResult first = cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+        ChatCompletionResult second = cached.createChatCompletion(request("Be brief.", "what's the capital of france"));
+        cached.createChatCompletion(request("Be brief.", "How tall is the Eiffel tower?"));
+
+        assertEquals(first.getId(), second.getId());
+        assertEquals("Paris", second.getChoices().get(0).getMessage().getContent());
+        assertEquals(2, completions.get());
+        SemanticCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(2, stats.getEntries());
+        assertEquals(1 / 3.0, stats.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void systemPromptSeparatesNamespaces() {
+        OpenAiService cached = service.withSemanticCache(SemanticCache.builder().build());
+
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+        cached.createChatCompletion(request("Answer in French.", "What is the capital of France?"));
+
+        assertEquals(2, completions.get());
+    }
+
+    @Test
+    void leastRecentlyHitEntriesAreEvicted() {
+        SemanticCache cache = SemanticCache.builder().maxEntries(1).build();
+        OpenAiService cached = service.withSemanticCache(cache);
+
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+        cached.createChatCompletion(request("Be brief.", "How tall is the Eiffel tower?"));
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+
+        assertEquals(3, completions.get());
+        assertEquals(2, cache.getStats().getEvictions());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void expiredEntriesAreNotServed() throws InterruptedException {
+        SemanticCache cache = SemanticCache.builder().ttl(Duration.ofMillis(50)).build();
+        OpenAiService cached = service.withSemanticCache(cache);
+
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+        Thread.sleep(100);
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+
+        assertEquals(2, completions.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void conversationsAndTruncatedAnswersAreNotCached() {
+        SemanticCache cache = SemanticCache.builder().build();
+        OpenAiService cached = service.withSemanticCache(cache);
+        List<ChatMessage> conversation = Arrays.asList(new UserMessage("What is the capital of France?"),
+                new AssistantMessage("Paris"), new UserMessage("How tall is the Eiffel tower?"));
+
+        cached.createChatCompletion(ChatCompletionRequest.builder().model("gpt-4o-mini").messages(conversation).build());
+        finishReason = "length";
+        cached.createChatCompletion(request("Be brief.", "What is the capital of France?"));
+
+        assertEquals(1, cache.getStats().getBypassed());
+        assertEquals(0, cache.size());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    private static ChatCompletionRequest request(String system, String question) {
+        return ChatCompletionRequest.builder()
+                .model("gpt-4o-mini")
+                .messages(Arrays.asList(new SystemMessage(system), new UserMessage(question)))
+                .build();
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+    }
+}
@@ -0,0 +1,70 @@
+package com.theokanning.openai.service.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuCacheTierTest {
+
+    @Test
+    void boundedByMaximumSize() {
+        TinyLfuCacheTier tier = new TinyLfuCacheTier(100);
+        for (int i = 0; i < 1000; i++) {
+            tier.put("k" + i, entry(Long.MAX_VALUE));
+        }
+        assertEquals(100, tier.size());
+        assertEquals(900, tier.getEvictions());
+    }
+
+    @Test
+    void frequentEntriesSurviveAScan() {
+        TinyLfuCacheTier tier = new TinyLfuCacheTier(100);
+        for (int i = 0; i < 50; i++) {
+            tier.put("hot" + i, entry(Long.MAX_VALUE));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(tier.get("hot" + i));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            tier.put("scan" + i, entry(Long.MAX_VALUE));
+        }
+        int survivors = 0;
+        for (int i = 0; i < 50; i++) {
+            if (tier.get("hot" + i) != null) {
+                survivors++;
+            }
+        }
+        assertEquals(50, survivors);
+    }
+
+    @Test
+    void expiredEntriesAreMisses() {
+        TinyLfuCacheTier tier = new TinyLfuCacheTier(10);
+        tier.put("old", entry(System.currentTimeMillis() - 1));
+        assertNull(tier.get("old"));
+        assertEquals(0, tier.size());
+    }
+
+    @Test
+    void diskTierRoundTripAndTrim(@TempDir Path dir) {
+        DiskCacheTier tier = new DiskCacheTier(dir, 10_000);
+        tier.put("a", new CacheEntry(new byte[]{1, 2, 3}, Long.MAX_VALUE));
+        assertArrayEquals(new byte[]{1, 2, 3}, tier.get("a").getValue());
+        assertNull(tier.get("missing"));
+
+        for (int i = 0; i < 30; i++) {
+            tier.put("big" + i, new CacheEntry(new byte[1000], Long.MAX_VALUE));
+        }
+        assertTrue(tier.getBytes() <= 10_000);
+        assertEquals(tier.size(), new DiskCacheTier(dir, 10_000).size(), "a new tier finds the entries on disk");
+    }
+
+    private static CacheEntry entry(long expiresAt) {
+        return new CacheEntry(new byte[0], expiresAt);
+    }
+}
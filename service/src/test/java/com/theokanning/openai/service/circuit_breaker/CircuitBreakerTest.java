@@ -0,0 +1,199 @@
+package com.theokanning.openai.service.circuit_breaker;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.LatencyInjectingDispatcher;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.Test;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final List<CircuitStateTransition> transitions = new ArrayList<>();
+
+    private final CircuitBreakerConfig config = CircuitBreakerConfig.builder()
+            .minimumCalls(10)
+            .failureRateThreshold(0.5)
+            .slowCallRateThreshold(0.8)
+            .slowCallDuration(Duration.ofSeconds(1))
+            .window(Duration.ofSeconds(10))
+            .windowBuckets(10)
+            .waitInOpen(Duration.ofSeconds(5))
+            .halfOpenCalls(3)
+            .build();
+
+    private CircuitBreaker circuit() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(config, now::get);
+        registry.addListener(transitions::add);
+        return registry.circuitBreaker("test");
+    }
+
+    @Test
+    void opensOnFailureRate() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(circuit.tryAcquirePermission());
+            circuit.onSuccess(0);
+        }
+        for (int i = 0; i < 4; i++) {
+            circuit.onError(0, serverError());
+        }
+        assertEquals(CircuitState.CLOSED, circuit.getState(), "below minimum calls");
+
+        circuit.onError(0, serverError());
+
+        assertEquals(CircuitState.OPEN, circuit.getState());
+        assertFalse(circuit.tryAcquirePermission());
+        assertEquals(1, circuit.getMetrics().getNotPermittedCalls());
+        assertEquals(1, transitions.size());
+        assertEquals(CircuitState.OPEN, transitions.get(0).getTo());
+        assertEquals(0.5, transitions.get(0).getMetrics().getFailureRate());
+    }
+
+    @Test
+    void clientErrorsAreNotFailures() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 20; i++) {
+            circuit.onError(0, new HttpException(Response.error(400, ResponseBody.create(MediaType.get("application/json"), "{}"))));
+        }
+        assertEquals(CircuitState.CLOSED, circuit.getState());
+        assertEquals(0.0, circuit.getMetrics().getFailureRate());
+    }
+
+    @Test
+    void opensOnSlowCallRate() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 8; i++) {
+            circuit.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        }
+        circuit.onSuccess(0);
+        assertEquals(CircuitState.CLOSED, circuit.getState());
+        circuit.onSuccess(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(CircuitState.OPEN, circuit.getState());
+    }
+
+    @Test
+    void oldFailuresLeaveTheWindow() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 9; i++) {
+            circuit.onError(0, new IOException());
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        circuit.onError(0, new IOException());
+        assertEquals(CircuitState.CLOSED, circuit.getState());
+        assertEquals(1, circuit.getMetrics().getCalls());
+    }
+
+    @Test
+    void halfOpenTrialsCloseOrReopen() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 10; i++) {
+            circuit.onError(0, new IOException());
+        }
+        assertEquals(CircuitState.OPEN, circuit.getState());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(circuit.tryAcquirePermission());
+        }
+        assertEquals(CircuitState.HALF_OPEN, circuit.getState());
+        assertFalse(circuit.tryAcquirePermission(), "only 3 trial calls");
+        circuit.onError(0, new IOException());
+        circuit.onError(0, new IOException());
+        circuit.onSuccess(0);
+        assertEquals(CircuitState.OPEN, circuit.getState());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(circuit.tryAcquirePermission());
+            circuit.onSuccess(0);
+        }
+        assertEquals(CircuitState.CLOSED, circuit.getState());
+        assertEquals(0, circuit.getMetrics().getCalls(), "a closed circuit starts with an empty window");
+        assertEquals(5, transitions.size());
+    }
+
+    @Test
+    void releasedPermissionIsGivenBack() {
+        CircuitBreaker circuit = circuit();
+        for (int i = 0; i < 10; i++) {
+            circuit.onError(0, new IOException());
+        }
+        now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(circuit.tryAcquirePermission());
+        }
+        circuit.releasePermission();
+        assertTrue(circuit.isCallPermitted());
+        assertTrue(circuit.tryAcquirePermission());
+    }
+
+    @Test
+    void concurrentCallsAreAllCounted() throws InterruptedException {
+        CircuitBreaker circuit = circuit();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    circuit.tryAcquirePermission();
+                    circuit.onSuccess(0);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80_000, circuit.getMetrics().getCalls());
+    }
+
+    @Test
+    void openEndpointFailsFast() throws IOException {
+        MockWebServer server = new MockWebServer();
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500).setBody("{\"error\":{\"message\":\"down\"}}"));
+        }
+        server.enqueue(new MockResponse().setBody(LatencyInjectingDispatcher.embeddingResultJson()));
+        server.start();
+        try {
+            OpenAiApi api = OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString());
+            CircuitBreakerRegistry registry = new CircuitBreakerRegistry(config);
+            registry.addListener(transitions::add);
+            OpenAiService service = new OpenAiService(new CircuitBreakerApiDecorator(api, registry, "openai").getApi());
+            EmbeddingRequest request = EmbeddingRequest.builder().model("text-embedding-3-small").input("hello").build();
+
+            for (int i = 0; i < 10; i++) {
+                assertThrows(OpenAiHttpException.class, () -> service.createEmbeddings(request));
+            }
+            CallNotPermittedException e = assertThrows(CallNotPermittedException.class, () -> service.createEmbeddings(request));
+
+            assertEquals(10, server.getRequestCount());
+            assertEquals(CircuitState.OPEN, e.getState());
+            assertEquals(CircuitState.OPEN, registry.getMetrics().get("openai").getState());
+            assertEquals(CircuitState.OPEN, registry.getMetrics().get("openai/createEmbeddings").getState());
+            assertEquals(2, transitions.size());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static HttpException serverError() {
+        return new HttpException(Response.error(503, ResponseBody.create(MediaType.get("application/json"), "{}")));
+    }
+}
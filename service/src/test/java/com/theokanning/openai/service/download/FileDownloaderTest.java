@@ -0,0 +1,151 @@
+package com.theokanning.openai.service.download;
+
+import com.theokanning.openai.audio.CreateSpeechRequest;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDownloaderTest {
+
+    private static final byte[] CONTENT = content(100_000);
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean breakOnce = new AtomicBoolean();
+    private volatile boolean ignoreRanges;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().endsWith("/audio/speech")) {
+                    return new MockResponse().setHeader("Content-Type", "audio/mpeg").setBody(new Buffer().write(CONTENT));
+                }
+                String range = request.getHeader("Range");
+                ranges.add(range);
+                int start = ignoreRanges || range == null ? 0 : Integer.parseInt(range.substring(6, range.length() - 1));
+                if (start >= CONTENT.length) {
+                    return new MockResponse().setResponseCode(416).setHeader("Content-Range", "bytes */" + CONTENT.length);
+                }
+                MockResponse response = new MockResponse()
+                        .setBody(new Buffer().write(Arrays.copyOfRange(CONTENT, start, CONTENT.length)));
+                if (!ignoreRanges) {
+                    response.setResponseCode(206)
+                            .setHeader("Content-Range", "bytes " + start + "-" + (CONTENT.length - 1) + "/" + CONTENT.length);
+                }
+                if (breakOnce.compareAndSet(true, false)) {
+                    response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+                }
+                return response;
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void resumesFromThePartialFileAndBrokenTransfers() throws IOException {
+        Path target = directory.resolve("output.jsonl");
+        Files.write(target, Arrays.copyOf(CONTENT, 10_000));
+        breakOnce.set(true);
+
+        DownloadStats stats = downloader().downloadFileContent("file-1", target);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(10_000, stats.getResumedFrom());
+        assertEquals(90_000, stats.getTransferred());
+        assertEquals(CONTENT.length, stats.getTotalBytes());
+        assertEquals(2, stats.getAttempts());
+        assertEquals("bytes=10000-", ranges.get(0));
+        assertTrue(Integer.parseInt(ranges.get(1).substring(6, ranges.get(1).length() - 1)) > 10_000);
+        assertTrue(stats.getBytesPerSecond() > 0);
+
+        DownloadStats again = downloader().downloadFileContent("file-1", target);
+        assertEquals(0, again.getTransferred());
+        assertEquals(CONTENT.length, again.getTotalBytes());
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void skipsWhatWasWrittenWhenTheServerIgnoresRanges() throws IOException {
+        ignoreRanges = true;
+        breakOnce.set(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        DownloadStats stats = downloader().downloadFileContent("file-1", out);
+
+        assertArrayEquals(CONTENT, out.toByteArray());
+        assertEquals(2, stats.getAttempts());
+        assertEquals(CONTENT.length, stats.getTransferred());
+
+        Path target = directory.resolve("rewritten");
+        Files.write(target, content(500));
+        downloader().downloadFileContent("file-1", target);
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+    }
+
+    @Test
+    void streamsSpeechWithProgress() throws IOException {
+        List<Long> progress = Collections.synchronizedList(new ArrayList<>());
+        FileDownloader downloader = new FileDownloader(service, DownloadConfig.builder()
+                .progressInterval(16 * 1024)
+                .listener((bytes, total) -> progress.add(bytes))
+                .build());
+        Path target = directory.resolve("speech.mp3");
+
+        DownloadStats stats = downloader.downloadSpeech(CreateSpeechRequest.builder()
+                .model("tts-1")
+                .input("hello")
+                .voice("alloy")
+                .build(), target);
+
+        assertArrayEquals(CONTENT, Files.readAllBytes(target));
+        assertEquals(CONTENT.length, stats.getTransferred());
+        assertTrue(progress.size() >= 6);
+        assertEquals(CONTENT.length, progress.get(progress.size() - 1));
+    }
+
+    private FileDownloader downloader() {
+        return new FileDownloader(service, DownloadConfig.builder().retryDelay(Duration.ofMillis(10)).build());
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + 7);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,145 @@
+package com.theokanning.openai.service.embedding;
+
+import com.knuddels.jtokkit.api.EncodingType;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.EchoEmbeddingDispatcher;
+import com.theokanning.openai.utils.TikTokensUtil;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CorpusEmbeddingPipelineTest {
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private final EchoEmbeddingDispatcher dispatcher = new EchoEmbeddingDispatcher();
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void chunksOverlapAndCoverTheText() {
+        CorpusEmbeddingPipeline pipeline = new CorpusEmbeddingPipeline(service, config().chunkTokens(10).overlapTokens(3).build());
+        String text = text(60);
+        int tokens = TikTokensUtil.tokens(EncodingType.CL100K_BASE, text);
+
+        List<String> chunks = pipeline.chunk(text);
+
+        assertEquals((tokens - 10 + 6) / 7 + 1, chunks.size());
+        assertTrue(text.startsWith(chunks.get(0)));
+        assertTrue(text.endsWith(chunks.get(chunks.size() - 1)));
+        for (int i = 0; i + 1 < chunks.size(); i++) {
+            String next = chunks.get(i + 1);
+            assertTrue(chunks.get(i).endsWith(next.substring(0, 3)) || chunks.get(i).contains(next.substring(0, 3)),
+                    chunks.get(i) + " / " + next);
+        }
+        assertTrue(pipeline.chunk("").isEmpty());
+        assertEquals(1, pipeline.chunk("short").size());
+    }
+
+    @Test
+    void embedsEveryChunkWithinTheBatchLimits() {
+        CorpusEmbeddingPipeline pipeline = new CorpusEmbeddingPipeline(service, config()
+                .chunkTokens(8).overlapTokens(2).maxInputs(7).maxConcurrentRequests(3).build());
+        List<CorpusDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            documents.add(new CorpusDocument("doc-" + i, text(i * 3 + 1)));
+        }
+
+        List<ChunkEmbedding> chunks = pipeline.embed(documents.iterator()).toList().blockingGet();
+
+        Map<String, Set<Integer>> indexes = new HashMap<>();
+        for (ChunkEmbedding chunk : chunks) {
+            indexes.computeIfAbsent(chunk.getDocId(), id -> new HashSet<>()).add(chunk.getChunkIndex());
+            assertArrayEquals(new float[]{chunk.getText().length(), 0.5f}, chunk.getVector());
+        }
+        assertEquals(30, indexes.size());
+        for (ChunkEmbedding chunk : chunks) {
+            assertEquals(chunk.getChunkCount(), indexes.get(chunk.getDocId()).size());
+        }
+        for (List<String> input : dispatcher.getInputs()) {
+            assertTrue(input.size() <= 7);
+        }
+    }
+
+    @Test
+    void resumesFromTheCheckpoint() throws IOException {
+        Path checkpoint = directory.resolve("corpus.checkpoint");
+        List<CorpusDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(new CorpusDocument("doc-" + i, text(5)));
+        }
+        AtomicInteger requests = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                return requests.incrementAndGet() > 3
+                        ? new MockResponse().setResponseCode(500).setBody("{\"error\":{\"message\":\"down\"}}")
+                        : dispatcher.dispatch(request);
+            }
+        });
+        CorpusEmbeddingPipeline pipeline = new CorpusEmbeddingPipeline(service, config()
+                .maxInputs(2).maxConcurrentRequests(1).checkpoint(checkpoint).build());
+
+        List<String> firstRun = new ArrayList<>();
+        assertThrows(RuntimeException.class, () -> pipeline.embed(documents.iterator()).blockingForEach(chunk -> firstRun.add(chunk.getDocId())));
+        List<String> recorded = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        assertEquals(firstRun, recorded);
+        assertEquals(6, recorded.size());
+
+        server.setDispatcher(dispatcher);
+        List<String> secondRun = new ArrayList<>();
+        pipeline.embed(documents.iterator()).blockingForEach(chunk -> secondRun.add(chunk.getDocId()));
+
+        assertEquals(14, secondRun.size());
+        for (String docId : recorded) {
+            assertFalse(secondRun.contains(docId));
+        }
+        assertEquals(20, Files.readAllLines(checkpoint, StandardCharsets.UTF_8).size());
+    }
+
+    private static CorpusEmbeddingConfig.CorpusEmbeddingConfigBuilder config() {
+        return CorpusEmbeddingConfig.builder().model("text-embedding-3-small");
+    }
+
+    private static String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i == 0 ? "" : " ").append("word").append(i);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.theokanning.openai.service.embedding;
+
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.EchoEmbeddingDispatcher;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingBatcherTest {
+
+    private MockWebServer server;
+    private final EchoEmbeddingDispatcher dispatcher = new EchoEmbeddingDispatcher();
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void concurrentSubmissionsAreCoalesced() throws Exception {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(service, config().linger(Duration.ofMillis(100)).build());
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        List<CompletableFuture<CompletableFuture<float[]>>> submissions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String text = repeat(i % 7 + 1);
+            submissions.add(CompletableFuture.supplyAsync(() -> batcher.embed(text), callers));
+        }
+        for (int i = 0; i < 100; i++) {
+            float[] vector = submissions.get(i).get().get(5, TimeUnit.SECONDS);
+            assertArrayEquals(new float[]{i % 7 + 1, 0.5f}, vector, "text " + i);
+        }
+        callers.shutdown();
+
+        EmbeddingBatcherStats stats = batcher.getStats();
+        assertEquals(100, stats.getSubmitted());
+        assertEquals(100, stats.getBatchedInputs());
+        assertTrue(stats.getBatches() <= 5, "expected few batches, got " + stats.getBatches());
+        assertEquals(stats.getBatches(), server.getRequestCount());
+        assertTrue(stats.getMeanBatchSize() >= 20);
+        assertTrue(stats.getMaxQueueMillis() > 0);
+        batcher.close();
+    }
+
+    @Test
+    void batchesRespectMaxInputs() throws Exception {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(service, config().maxInputs(10).linger(Duration.ofMillis(200)).build());
+        List<CompletableFuture<float[]>> futures = batcher.embedAll(texts(25, 1));
+        for (CompletableFuture<float[]> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(3, dispatcher.getInputs().size());
+        for (List<String> input : dispatcher.getInputs()) {
+            assertTrue(input.size() <= 10);
+        }
+        batcher.close();
+    }
+
+    @Test
+    void batchesRespectTokenBudget() throws Exception {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(service, config()
+                .maxTokens(10)
+                .tokenCounter(String::length)
+                .linger(Duration.ofMillis(200))
+                .build());
+        List<CompletableFuture<float[]>> futures = batcher.embedAll(texts(6, 4));
+        futures.add(batcher.embed(repeat(30)));
+        for (CompletableFuture<float[]> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        // batches are sent concurrently and may reach the server in any order
+        List<Integer> sizes = sizes(dispatcher.getInputs());
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(1, 2, 2, 2), sizes);
+        assertTrue(dispatcher.getInputs().contains(Collections.singletonList(repeat(30))), "an oversized text goes alone");
+        batcher.close();
+    }
+
+    @Test
+    void failedBatchFailsEveryFuture() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(500).setBody("{\"error\":{\"message\":\"down\"}}");
+            }
+        });
+        EmbeddingBatcher batcher = new EmbeddingBatcher(service, config().build());
+        List<CompletableFuture<float[]>> futures = batcher.embedAll(texts(3, 1));
+        for (CompletableFuture<float[]> future : futures) {
+            assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        }
+        batcher.close();
+        assertEquals(3, batcher.getStats().getFailed());
+    }
+
+    @Test
+    void closeSendsPendingTextsAndRejectsNewOnes() throws Exception {
+        EmbeddingBatcher batcher = new EmbeddingBatcher(service, config().linger(Duration.ofSeconds(10)).build());
+        CompletableFuture<float[]> pending = batcher.embed("abc");
+        batcher.close();
+
+        assertArrayEquals(new float[]{3, 0.5f}, pending.get(1, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> batcher.embed("late").get());
+        assertEquals(1, batcher.getStats().getRejected());
+    }
+
+    @Test
+    void everySubmissionRacingCloseCompletes() throws Exception {
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                EmbeddingBatcher batcher = new EmbeddingBatcher(service, config().linger(Duration.ofMillis(1)).build());
+                List<CompletableFuture<CompletableFuture<float[]>>> submissions = new ArrayList<>();
+                for (int i = 0; i < 200; i++) {
+                    submissions.add(CompletableFuture.supplyAsync(() -> batcher.embed("abc"), submitters));
+                }
+                batcher.close();
+                for (CompletableFuture<CompletableFuture<float[]>> submission : submissions) {
+                    CompletableFuture<float[]> future = submission.get(5, TimeUnit.SECONDS);
+                    try {
+                        future.get(5, TimeUnit.SECONDS);
+                    } catch (ExecutionException e) {
+                        assertTrue(e.getCause() instanceof IllegalStateException);
+                    }
+                }
+            }
+        } finally {
+            submitters.shutdownNow();
+        }
+    }
+
+    private static EmbeddingBatcherConfig.EmbeddingBatcherConfigBuilder config() {
+        return EmbeddingBatcherConfig.builder().model("text-embedding-3-small").base64(false);
+    }
+
+    private static List<String> texts(int count, int length) {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            texts.add(repeat(length));
+        }
+        return texts;
+    }
+
+    private static String repeat(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    private static List<Integer> sizes(List<List<String>> inputs) {
+        List<Integer> sizes = new ArrayList<>();
+        for (List<String> input : inputs) {
+            sizes.add(input.size());
+        }
+        return sizes;
+    }
+}
@@ -0,0 +1,117 @@
+package com.theokanning.openai.service.embedding;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.EmbeddingVectors;
+import com.theokanning.openai.embedding.FloatEmbedding;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.EchoEmbeddingDispatcher;
+import io.reactivex.subscribers.TestSubscriber;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EmbeddingStreamReaderTest {
+
+    private MockWebServer server;
+    private final EchoEmbeddingDispatcher dispatcher = new EchoEmbeddingDispatcher();
+    private OpenAiService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(dispatcher);
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void readsEmbeddingsThenModelAndUsage() throws IOException {
+        String base64 = Base64.getEncoder().encodeToString(EmbeddingVectors.toBytes(new float[]{1.5f, -2}));
+        String json = "{\"object\":\"list\",\"data\":["
+                + "{\"object\":\"embedding\",\"index\":0,\"embedding\":[0.25,1]},"
+                + "{\"object\":\"embedding\",\"embedding\":\"" + base64 + "\",\"index\":1,\"extra\":{\"a\":[1]}}],"
+                + "\"model\":\"text-embedding-3-large\",\"usage\":{\"prompt_tokens\":5,\"total_tokens\":5}}";
+
+        try (EmbeddingStreamReader reader = new EmbeddingStreamReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+            FloatEmbedding first = reader.next();
+            assertArrayEquals(new float[]{0.25f, 1}, first.getEmbedding());
+            assertNull(reader.getModel());
+            FloatEmbedding second = reader.next();
+            assertEquals(1, second.getIndex());
+            assertArrayEquals(new float[]{1.5f, -2}, second.getEmbedding());
+            assertNull(reader.next());
+            assertNull(reader.next());
+            assertEquals("text-embedding-3-large", reader.getModel());
+            assertEquals(5, reader.getUsage().getTotalTokens());
+        }
+    }
+
+    @Test
+    void streamsEveryEmbeddingInOrder() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            texts.add(new String(new char[i % 13 + 1]).replace('\0', 'x'));
+        }
+        List<FloatEmbedding> embeddings = service.streamEmbeddings(request(texts)).toList().blockingGet();
+
+        assertEquals(500, embeddings.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, embeddings.get(i).getIndex());
+            assertArrayEquals(new float[]{i % 13 + 1, 0.5f}, embeddings.get(i).getEmbedding());
+        }
+    }
+
+    @Test
+    void readsOnlyWhatIsRequested() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            texts.add("text");
+        }
+        TestSubscriber<FloatEmbedding> subscriber = service.streamEmbeddings(request(texts)).test(2);
+
+        subscriber.assertValueCount(2);
+        subscriber.assertNotComplete();
+        subscriber.cancel();
+    }
+
+    @Test
+    void errorResponsesAreMappedToOpenAiHttpException() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(400)
+                        .setBody("{\"error\":{\"message\":\"too many inputs\",\"type\":\"invalid_request_error\"}}");
+            }
+        });
+
+        OpenAiHttpException e = assertThrows(OpenAiHttpException.class,
+                () -> service.streamEmbeddings(request(Collections.singletonList("a"))).blockingFirst());
+        assertEquals(400, e.statusCode);
+        assertEquals("too many inputs", e.getMessage());
+    }
+
+    private static EmbeddingRequest request(List<String> input) {
+        return EmbeddingRequest.builder().model("text-embedding-3-small").input(input).build();
+    }
+}
@@ -0,0 +1,185 @@
+package com.theokanning.openai.service.embedding;
+
+import com.theokanning.openai.service.cache.EmbeddingCache;
+import com.theokanning.openai.service.cache.TinyLfuCacheTier;
+import com.theokanning.openai.service.vector_index.FlatVectorIndex;
+import com.theokanning.openai.service.vector_index.Quantization;
+import com.theokanning.openai.service.vector_index.VectorIndexConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedEmbeddingStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void vectorsSurviveAReopen() throws IOException {
+        Path file = directory.resolve("embeddings.vec");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            for (int i = 0; i < 3000; i++) {
+                store.put(i, vector(i));
+            }
+        }
+
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            assertEquals(3000, store.size());
+            assertArrayEquals(vector(1234), store.get(1234));
+            assertNull(store.get(3000));
+            assertEquals(2999, store.id(2999));
+            FloatBuffer view = store.view(7);
+            assertEquals(8, view.remaining());
+            assertEquals(vector(7)[3], view.get(3));
+            store.put(3000, vector(3000));
+            assertArrayEquals(vector(3000), store.get(3000));
+        }
+    }
+
+    @Test
+    void aKeyPutAgainIsSuperseded() throws IOException {
+        String key = EmbeddingCache.key("text-embedding-3-small", null, "hello");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(directory.resolve("e.vec"), 8, Quantization.NONE)) {
+            store.put(key, vector(1));
+            store.put(2, vector(2));
+            store.put(key, vector(3));
+
+            assertArrayEquals(vector(3), store.get(key));
+            assertEquals(3, store.size());
+            FlatVectorIndex index = new FlatVectorIndex(VectorIndexConfig.builder().dimensions(8).build());
+            assertEquals(2, store.loadInto(index));
+            assertEquals(2, index.size());
+        }
+    }
+
+    @Test
+    void warmsAnEmbeddingCache() throws IOException {
+        String key = EmbeddingCache.key("text-embedding-3-small", 256, "hello");
+        Path file = directory.resolve("e.vec");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            store.put(key, vector(5));
+        }
+        EmbeddingCache cache = EmbeddingCache.builder().tier(new TinyLfuCacheTier(100)).build();
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            assertEquals(1, store.loadInto(cache));
+            assertEquals(key, store.key(0));
+        }
+        assertArrayEquals(vector(5), cache.get(key));
+    }
+
+    @Test
+    void int8StoresQuarterTheBytes() throws IOException {
+        Path file = directory.resolve("e.vec");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 64, Quantization.INT8)) {
+            float[] vector = new float[64];
+            for (int i = 0; i < 64; i++) {
+                vector[i] = (float) Math.sin(i);
+            }
+            store.put(1, vector);
+            float[] read = store.get(1);
+            for (int i = 0; i < 64; i++) {
+                assertEquals(vector[i], read[i], 0.005);
+            }
+            assertThrows(IllegalStateException.class, () -> store.view(0));
+        }
+    }
+
+    @Test
+    void reopeningWithOtherDimensionsFails() throws IOException {
+        Path file = directory.resolve("e.vec");
+        new MappedEmbeddingStore(file, 8, Quantization.NONE).close();
+
+        assertThrows(IllegalArgumentException.class, () -> new MappedEmbeddingStore(file, 16, Quantization.NONE));
+        assertThrows(IllegalArgumentException.class, () -> new MappedEmbeddingStore(file, 8, Quantization.INT8));
+    }
+
+    @Test
+    void keysMustBeHexHashes() throws IOException {
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(directory.resolve("e.vec"), 8, Quantization.NONE)) {
+            assertThrows(IllegalArgumentException.class, () -> store.put("hello", vector(1)));
+            assertThrows(IllegalArgumentException.class, () -> store.put(1, new float[4]));
+        }
+    }
+
+    @Test
+    void recordsNotCompletelyWrittenAreDroppedOnReopen() throws IOException {
+        Path file = directory.resolve("e.vec");
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            for (int i = 0; i < 15; i++) {
+                store.put(i, vector(i));
+            }
+        }
+        // as after a crash: only 10 records were flushed, and the vector of record 12 never reached the disk
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, 10), 32);
+            channel.write(ByteBuffer.allocate(32), 64 + 12 * 32);
+        }
+
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(file, 8, Quantization.NONE)) {
+            assertEquals(12, store.size());
+            assertArrayEquals(vector(11), store.get(11));
+            assertNull(store.get(12));
+            assertNull(store.get(13));
+            store.put(12, vector(12));
+            assertArrayEquals(vector(12), store.get(12));
+        }
+    }
+
+    @Test
+    void readersFindAKeyWhileItIsReplaced() throws Exception {
+        try (MappedEmbeddingStore store = new MappedEmbeddingStore(directory.resolve("e.vec"), 8, Quantization.NONE)) {
+            for (int i = 0; i < 64; i++) {
+                store.put(i, vector(i));
+            }
+            AtomicBoolean writing = new AtomicBoolean(true);
+            AtomicInteger misses = new AtomicInteger();
+            ExecutorService readers = Executors.newFixedThreadPool(2);
+            List<Future<?>> reads = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                reads.add(readers.submit(() -> {
+                    for (int i = 0; writing.get(); i++) {
+                        if (store.get(i % 64) == null) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 100_000; i++) {
+                store.put(i % 64, vector(i % 64));
+            }
+            writing.set(false);
+            for (Future<?> read : reads) {
+                read.get(10, TimeUnit.SECONDS);
+            }
+            readers.shutdown();
+
+            assertEquals(0, misses.get());
+            assertEquals(100_064, store.size());
+        }
+    }
+
+    private static float[] vector(int seed) {
+        float[] vector = new float[8];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = seed + i / 10f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,173 @@
+package com.theokanning.openai.service.hedging;
+
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.embedding.EmbeddingResult;
+import com.theokanning.openai.service.OpenAiService;
+import com.theokanning.openai.service.util.LatencyInjectingDispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import retrofit2.Retrofit;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HedgingApiDecoratorTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private LatencyInjectingDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        dispatcher = new LatencyInjectingDispatcher(LatencyInjectingDispatcher.embeddingResultJson());
+        server.setDispatcher(dispatcher);
+        server.start();
+        client = OpenAiService.defaultClient("token", Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    void slowCallIsHedgedAndLoserCancelled() throws InterruptedException {
+        dispatcher.latencies(3000, 0);
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy(1.0));
+        OpenAiService service = new OpenAiService(hedging.getApi());
+
+        long start = System.nanoTime();
+        EmbeddingResult result = service.createEmbeddings(embeddingRequest());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(1, result.getData().size());
+        assertTrue(elapsedMillis < 2000, "hedge should have answered, took " + elapsedMillis + "ms");
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, hedging.getHedges());
+        assertEquals(1, hedging.getHedgeWins());
+        assertNoRunningCalls();
+    }
+
+    @Test
+    void failedFirstAttemptWaitsForTheHedge() {
+        dispatcher.latencies(300, 600).statuses(500, 200);
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy(1.0));
+        OpenAiService service = new OpenAiService(hedging.getApi());
+
+        EmbeddingResult result = service.createEmbeddings(embeddingRequest());
+
+        assertEquals(1, result.getData().size());
+        assertEquals(1, hedging.getHedgeWins());
+    }
+
+    @Test
+    void failsOnceBothAttemptsFailed() {
+        dispatcher.latencies(300, 0).statuses(500, 503);
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy(1.0));
+        OpenAiService service = new OpenAiService(hedging.getApi());
+
+        assertThrows(RuntimeException.class, () -> service.createEmbeddings(embeddingRequest()));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, hedging.getHedgeWins());
+    }
+
+    @Test
+    void noHedgeWithoutBudget() {
+        dispatcher.latencies(300);
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy(0));
+        OpenAiService service = new OpenAiService(hedging.getApi());
+
+        service.createEmbeddings(embeddingRequest());
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, hedging.getHedges());
+    }
+
+    @Test
+    void fastCallIsNotHedged() {
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy(1.0));
+        OpenAiService service = new OpenAiService(hedging.getApi());
+
+        for (int i = 0; i < 5; i++) {
+            service.createEmbeddings(embeddingRequest());
+        }
+
+        assertEquals(5, server.getRequestCount());
+        assertEquals(5, hedging.getCalls());
+        assertEquals(0, hedging.getHedges());
+    }
+
+    @Test
+    void methodsOutsideThePolicyAreNotHedged() {
+        dispatcher.latencies(300);
+        HedgingPolicy policy = HedgingPolicy.builder()
+                .methods(name -> false)
+                .initialDelay(Duration.ofMillis(50))
+                .maxExtraLoad(1.0)
+                .build();
+        HedgingApiDecorator hedging = new HedgingApiDecorator(api(), policy);
+
+        new OpenAiService(hedging.getApi()).createEmbeddings(embeddingRequest());
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(0, hedging.getCalls());
+    }
+
+    @Test
+    void latencyTrackerPercentile() {
+        LatencyTracker tracker = new LatencyTracker(100, 0.9, 10);
+        for (int i = 1; i <= 9; i++) {
+            tracker.record(i);
+        }
+        assertEquals(-1, tracker.percentileNanos());
+        tracker.record(10);
+        assertEquals(9, tracker.percentileNanos());
+    }
+
+    @Test
+    void budgetLimitsExtraLoad() {
+        HedgeBudget budget = new HedgeBudget(0.1);
+        int granted = 0;
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+            if (budget.tryAcquire()) {
+                granted++;
+            }
+        }
+        assertEquals(10, granted);
+    }
+
+    private HedgingPolicy policy(double maxExtraLoad) {
+        return HedgingPolicy.builder()
+                .initialDelay(Duration.ofMillis(100))
+                .maxExtraLoad(maxExtraLoad)
+                .build();
+    }
+
+    private OpenAiApi api() {
+        Retrofit retrofit = OpenAiService.defaultRetrofit(client, OpenAiService.defaultObjectMapper(), server.url("/v1/").toString());
+        return retrofit.create(OpenAiApi.class);
+    }
+
+    private EmbeddingRequest embeddingRequest() {
+        return EmbeddingRequest.builder()
+                .model("text-embedding-3-small")
+                .input("hello")
+                .build();
+    }
+
+    private void assertNoRunningCalls() throws InterruptedException {
+        for (int i = 0; i < 50 && client.dispatcher().runningCallsCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, client.dispatcher().runningCallsCount(), "losing attempt should have been cancelled");
+    }
+}
@@ -0,0 +1,193 @@
+package com.theokanning.openai.service.pool;
+
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.circuit_breaker.CircuitBreakerConfig;
+import com.theokanning.openai.service.circuit_breaker.CircuitBreakerRegistry;
+import com.theokanning.openai.service.util.LatencyInjectingDispatcher;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpenAiServicePoolTest {
+
+    private MockWebServer serverA;
+    private MockWebServer serverB;
+    private OpenAiServicePool pool;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        serverA = new MockWebServer();
+        serverA.start();
+        serverB = new MockWebServer();
+        serverB.setDispatcher(new LatencyInjectingDispatcher(LatencyInjectingDispatcher.embeddingResultJson()));
+        serverB.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (pool != null) {
+            pool.shutdownExecutor();
+        }
+        serverA.shutdown();
+        serverB.shutdown();
+    }
+
+    @Test
+    void failingBackendIsEjected() {
+        serverA.setDispatcher(new ToggleDispatcher(new AtomicBoolean(false)));
+        pool = pool(RoutingStrategy.LEAST_OUTSTANDING, Duration.ofMinutes(1));
+
+        assertThrows(OpenAiHttpException.class, () -> pool.createEmbeddings(embeddingRequest()));
+        for (int i = 0; i < 10; i++) {
+            pool.createEmbeddings(embeddingRequest());
+        }
+
+        assertEquals(1, serverA.getRequestCount());
+        assertEquals(10, serverB.getRequestCount());
+        BackendStatus a = pool.getBackendStatuses().get(0);
+        assertTrue(a.isEjected());
+        assertEquals(1, a.getFailures());
+        assertEquals(0, a.getOutstanding());
+    }
+
+    @Test
+    void ejectedBackendIsReadmittedAfterProbe() throws InterruptedException {
+        AtomicBoolean healthy = new AtomicBoolean(false);
+        serverA.setDispatcher(new ToggleDispatcher(healthy));
+        pool = pool(RoutingStrategy.LEAST_OUTSTANDING, Duration.ofMillis(100));
+
+        assertThrows(OpenAiHttpException.class, () -> pool.createEmbeddings(embeddingRequest()));
+        assertTrue(pool.getBackendStatuses().get(0).isEjected());
+
+        healthy.set(true);
+        for (int i = 0; i < 100 && pool.getBackendStatuses().get(0).isEjected(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(pool.getBackendStatuses().get(0).isEjected());
+        assertTrue(serverA.getRequestCount() >= 2, "backend should have been probed");
+    }
+
+    @Test
+    void probeBypassesTheOpenCircuit() throws InterruptedException {
+        AtomicBoolean healthy = new AtomicBoolean(false);
+        serverA.setDispatcher(new ToggleDispatcher(healthy));
+        CircuitBreakerRegistry circuits = new CircuitBreakerRegistry(CircuitBreakerConfig.builder()
+                .minimumCalls(1)
+                .waitInOpen(Duration.ofMinutes(1))
+                .build());
+        pool = OpenAiServicePool.builder()
+                .backend(Backend.builder().name("a").baseUrl(serverA.url("/v1/").toString()).token("key-a").build())
+                .backend(Backend.builder().name("b").baseUrl(serverB.url("/v1/").toString()).token("key-b").build())
+                .baseEjection(Duration.ofMillis(100))
+                .probeInterval(Duration.ofMillis(50))
+                .circuitBreakers(circuits)
+                .build();
+
+        assertThrows(OpenAiHttpException.class, () -> pool.createEmbeddings(embeddingRequest()));
+        assertTrue(pool.getBackendStatuses().get(0).isEjected());
+
+        healthy.set(true);
+        for (int i = 0; i < 100 && pool.getBackendStatuses().get(0).isEjected(); i++) {
+            Thread.sleep(20);
+        }
+        assertFalse(pool.getBackendStatuses().get(0).isEjected());
+        assertTrue(serverA.getRequestCount() >= 2, "backend should have been probed");
+    }
+
+    @Test
+    void leastOutstandingAvoidsBusyBackend() throws Exception {
+        serverA.setDispatcher(new LatencyInjectingDispatcher(LatencyInjectingDispatcher.embeddingResultJson()).latencies(1000));
+        pool = pool(RoutingStrategy.LEAST_OUTSTANDING, Duration.ofMinutes(1));
+
+        CompletableFuture<?> slow = CompletableFuture.runAsync(() -> pool.createEmbeddings(embeddingRequest()));
+        for (int i = 0; i < 100 && pool.getBackendStatuses().get(0).getOutstanding() == 0; i++) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 3; i++) {
+            pool.createEmbeddings(embeddingRequest());
+        }
+
+        assertEquals(3, serverB.getRequestCount());
+        slow.get(5, TimeUnit.SECONDS);
+        assertEquals(1, serverA.getRequestCount());
+    }
+
+    @Test
+    void remainingQuotaWeightsRouting() {
+        serverA.setDispatcher(new QuotaDispatcher(0));
+        serverB.setDispatcher(new QuotaDispatcher(1000));
+        pool = pool(RoutingStrategy.REMAINING_QUOTA, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 20; i++) {
+            pool.createEmbeddings(embeddingRequest());
+        }
+
+        assertTrue(serverA.getRequestCount() <= 2, "exhausted backend got " + serverA.getRequestCount() + " calls");
+        assertEquals(1000, pool.getBackendStatuses().get(1).getRemainingRequests());
+    }
+
+    private OpenAiServicePool pool(RoutingStrategy strategy, Duration ejection) {
+        return OpenAiServicePool.builder()
+                .backend(Backend.builder().name("a").baseUrl(serverA.url("/v1/").toString()).token("key-a").build())
+                .backend(Backend.builder().name("b").baseUrl(serverB.url("/v1/").toString()).token("key-b").project("p").build())
+                .strategy(strategy)
+                .baseEjection(ejection)
+                .probeInterval(Duration.ofMillis(50))
+                .build();
+    }
+
+    private static EmbeddingRequest embeddingRequest() {
+        return EmbeddingRequest.builder()
+                .model("text-embedding-3-small")
+                .input("hello")
+                .build();
+    }
+
+    private static class ToggleDispatcher extends Dispatcher {
+        private final AtomicBoolean healthy;
+
+        ToggleDispatcher(AtomicBoolean healthy) {
+            this.healthy = healthy;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if (!healthy.get()) {
+                return new MockResponse().setResponseCode(503)
+                        .setBody("{\"error\":{\"message\":\"overloaded\",\"type\":\"server_error\"}}");
+            }
+            if (request.getPath().endsWith("/models")) {
+                return new MockResponse().setBody("{\"object\":\"list\",\"data\":[]}");
+            }
+            return new MockResponse().setBody(LatencyInjectingDispatcher.embeddingResultJson());
+        }
+    }
+
+    private static class QuotaDispatcher extends Dispatcher {
+        private final long remaining;
+
+        QuotaDispatcher(long remaining) {
+            this.remaining = remaining;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            return new MockResponse()
+                    .setHeader("x-ratelimit-remaining-requests", remaining)
+                    .setBody(LatencyInjectingDispatcher.embeddingResultJson());
+        }
+    }
+}
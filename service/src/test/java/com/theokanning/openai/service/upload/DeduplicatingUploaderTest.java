@@ -0,0 +1,198 @@
+package com.theokanning.openai.service.upload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeduplicatingUploaderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private final Set<String> files = ConcurrentHashMap.newKeySet();
+    private final Set<String> attached = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger uploads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    return handle(request);
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(5), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void skipsContentUploadedInAPreviousRun() throws IOException {
+        Path a = write("a.txt", "alpha");
+        Path copy = write("copy.txt", "alpha");
+        Path index = directory.resolve("index/uploads.jsonl");
+
+        String first;
+        try (UploadIndex uploads = new UploadIndex(index)) {
+            DeduplicatingUploader uploader = new DeduplicatingUploader(service, uploads);
+            first = uploader.upload(a, "assistants");
+            assertEquals(first, uploader.upload(copy, "assistants"));
+            assertNotEquals(first, uploader.upload(a, "batch"));
+        }
+        assertEquals(2, this.uploads.get());
+
+        try (UploadIndex uploads = new UploadIndex(index)) {
+            assertEquals(2, uploads.size());
+            DeduplicatingUploader uploader = new DeduplicatingUploader(service, uploads);
+            assertEquals(first, uploader.upload(a, "assistants"));
+            assertEquals(2, this.uploads.get());
+
+            files.remove(first);
+            DeduplicatingUploader restarted = new DeduplicatingUploader(service, uploads);
+            String replacement = restarted.upload(a, "assistants");
+            assertNotEquals(first, replacement);
+            assertEquals(3, this.uploads.get());
+            assertEquals(1, restarted.getStats().getUploaded());
+        }
+    }
+
+    @Test
+    void attachesOnlyNewAndChangedSources() throws IOException {
+        Path a = write("a.txt", "alpha");
+        Path b = write("b.txt", "beta");
+
+        try (UploadIndex index = new UploadIndex(directory.resolve("uploads.jsonl"))) {
+            DeduplicatingUploader uploader = new DeduplicatingUploader(service, index);
+            String aFile = uploader.attach("vs_1", a);
+            String bFile = uploader.attach("vs_1", b);
+            assertEquals(2, attached.size());
+
+            assertEquals(aFile, uploader.attach("vs_1", a));
+            write("b.txt", "beta, edited");
+            String edited = uploader.attach("vs_1", b);
+
+            assertNotEquals(bFile, edited);
+            assertTrue(attached.contains("vs_1/" + aFile));
+            assertTrue(attached.contains("vs_1/" + edited));
+            assertFalse(attached.contains("vs_1/" + bFile));
+            DeduplicationStats stats = uploader.getStats();
+            assertEquals(3, stats.getUploaded());
+            assertEquals(3, stats.getAttached());
+            assertEquals(1, stats.getUnchanged());
+            assertEquals(1, stats.getDetached());
+
+            attached.remove("vs_1/" + aFile);
+            assertEquals(aFile, new DeduplicatingUploader(service, index).attach("vs_1", a));
+            assertTrue(attached.contains("vs_1/" + aFile));
+            assertEquals(3, uploads.get());
+        }
+    }
+
+    @Test
+    void keepsAFileSharedBySourcesAttachedWhileOneOfThemHasIt() throws IOException {
+        Path a = write("a.txt", "alpha");
+        Path copy = write("copy.txt", "alpha");
+        Path index = directory.resolve("uploads.jsonl");
+
+        try (UploadIndex uploads = new UploadIndex(index)) {
+            DeduplicatingUploader uploader = new DeduplicatingUploader(service, uploads);
+            String shared = uploader.attach("vs_1", a);
+            assertEquals(shared, uploader.attach("vs_1", copy));
+
+            write("a.txt", "alpha, edited");
+            String edited = uploader.attach("vs_1", a);
+
+            assertNotEquals(shared, edited);
+            assertTrue(attached.contains("vs_1/" + shared));
+            assertEquals(shared, uploader.attach("vs_1", copy));
+            assertEquals(0, uploader.getStats().getDetached());
+        }
+
+        try (UploadIndex uploads = new UploadIndex(index)) {
+            DeduplicatingUploader uploader = new DeduplicatingUploader(service, uploads);
+            String shared = uploader.attach("vs_1", copy);
+            write("copy.txt", "alpha, edited too");
+            uploader.attach("vs_1", copy);
+
+            assertFalse(attached.contains("vs_1/" + shared));
+            assertEquals(1, uploader.getStats().getDetached());
+            write("copy.txt", "alpha");
+            assertEquals(shared, uploader.attach("vs_1", copy));
+            assertTrue(attached.contains("vs_1/" + shared));
+        }
+    }
+
+    private MockResponse handle(RecordedRequest request) throws IOException {
+        String path = request.getPath().substring("/v1/".length());
+        String method = request.getMethod();
+        if (method.equals("POST") && path.equals("files")) {
+            uploads.incrementAndGet();
+            String id = "file-" + ids.incrementAndGet();
+            files.add(id);
+            return json(200, "{\"id\":\"" + id + "\",\"object\":\"file\"}");
+        }
+        if (method.equals("GET") && path.startsWith("files/")) {
+            String id = path.substring(6);
+            return files.contains(id) ? json(200, "{\"id\":\"" + id + "\",\"object\":\"file\"}") : notFound();
+        }
+        if (path.startsWith("vector_stores/")) {
+            String[] segments = path.split("/");
+            String vectorStoreId = segments[1];
+            if (method.equals("POST")) {
+                String fileId = MAPPER.readTree(request.getBody().readUtf8()).get("file_id").asText();
+                attached.add(vectorStoreId + "/" + fileId);
+                return json(200, "{\"id\":\"" + fileId + "\",\"object\":\"vector_store.file\",\"status\":\"in_progress\"}");
+            }
+            String key = vectorStoreId + "/" + segments[3];
+            if (method.equals("DELETE")) {
+                return attached.remove(key) ? json(200, "{\"id\":\"" + segments[3] + "\",\"deleted\":true}") : notFound();
+            }
+            return attached.contains(key) ? json(200, "{\"id\":\"" + segments[3] + "\",\"status\":\"completed\"}") : notFound();
+        }
+        return notFound();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MockResponse notFound() {
+        return json(404, "{\"error\":{\"message\":\"not found\",\"type\":\"invalid_request_error\"}}");
+    }
+
+    private static MockResponse json(int status, String body) {
+        return new MockResponse().setResponseCode(status).setHeader("Content-Type", "application/json").setBody(body);
+    }
+}
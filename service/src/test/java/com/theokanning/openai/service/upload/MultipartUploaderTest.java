@@ -0,0 +1,201 @@
+package com.theokanning.openai.service.upload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.file.File;
+import com.theokanning.openai.service.OpenAiService;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartUploaderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private MockWebServer server;
+    private OpenAiService service;
+    private final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+    private final AtomicInteger partRequests = new AtomicInteger();
+    private final AtomicInteger cancelled = new AtomicInteger();
+    private volatile byte[] assembled;
+    private volatile int failPart = -1;
+    private volatile int failStatus = 500;
+    private volatile long partLatencyMillis;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                try {
+                    return handle(request);
+                } catch (IOException e) {
+                    return new MockResponse().setResponseCode(500);
+                }
+            }
+        });
+        server.start();
+        service = new OpenAiService(OpenAiService.buildApi("key", Duration.ofSeconds(10), server.url("/v1/").toString()));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void reassemblesPartsInOrderRetryingAFailedPart() throws IOException {
+        byte[] content = random(1_050_000);
+        Path path = directory.resolve("training.jsonl");
+        Files.write(path, content);
+        failPart = 3;
+
+        File file = uploader(4).upload(path, "fine-tune");
+
+        assertArrayEquals(content, assembled);
+        assertEquals("file-upload_1", file.getId());
+        assertEquals(content.length, file.getBytes());
+        assertEquals(12, partRequests.get());
+        assertEquals(0, cancelled.get());
+    }
+
+    @Test
+    void parallelPartsBeatASingleConnection() throws IOException {
+        byte[] content = random(800_000);
+        Path path = directory.resolve("batch.jsonl");
+        Files.write(path, content);
+        partLatencyMillis = 150;
+
+        long start = System.nanoTime();
+        uploader(1).upload(path, "batch");
+        long sequential = System.nanoTime() - start;
+        assertArrayEquals(content, assembled);
+
+        assembled = null;
+        start = System.nanoTime();
+        uploader(8).upload(path, "batch");
+        long parallel = System.nanoTime() - start;
+        assertArrayEquals(content, assembled);
+
+        assertTrue(parallel * 3 < sequential, "parallel " + parallel + "ns, sequential " + sequential + "ns");
+    }
+
+    @Test
+    void cancelsTheUploadWhenAPartIsRejected() throws IOException {
+        Path path = directory.resolve("training.jsonl");
+        Files.write(path, random(500_000));
+        failPart = 2;
+        failStatus = 400;
+
+        OpenAiHttpException e = assertThrows(OpenAiHttpException.class, () -> uploader(2).upload(path, "fine-tune"));
+
+        assertEquals(400, e.statusCode);
+        assertEquals(1, cancelled.get());
+        assertNull(assembled);
+    }
+
+    private MultipartUploader uploader(int maxConcurrentParts) {
+        return new MultipartUploader(service, MultipartUploadConfig.builder()
+                .partSize(100_000)
+                .maxConcurrentParts(maxConcurrentParts)
+                .initialBackoff(Duration.ofMillis(10))
+                .build());
+    }
+
+    private MockResponse handle(RecordedRequest request) throws IOException, InterruptedException {
+        String path = request.getPath().substring("/v1/".length());
+        if (path.equals("uploads")) {
+            JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+            assertEquals("text/jsonl", body.get("mime_type").asText());
+            return json(200, "{\"id\":\"upload_1\",\"object\":\"upload\",\"status\":\"pending\",\"bytes\":" + body.get("bytes").asLong() + "}");
+        }
+        if (path.endsWith("/parts")) {
+            int index = partRequests.incrementAndGet();
+            Thread.sleep(partLatencyMillis);
+            if (index == failPart) {
+                return json(failStatus, "{\"error\":{\"message\":\"part rejected\",\"type\":\"invalid_request_error\"}}");
+            }
+            String id = "part_" + index;
+            parts.put(id, formData(request));
+            return json(200, "{\"id\":\"" + id + "\",\"object\":\"upload.part\",\"upload_id\":\"upload_1\"}");
+        }
+        if (path.endsWith("/complete")) {
+            ByteArrayOutputStream file = new ByteArrayOutputStream();
+            for (JsonNode partId : MAPPER.readTree(request.getBody().readUtf8()).get("part_ids")) {
+                file.write(parts.get(partId.asText()));
+            }
+            assembled = file.toByteArray();
+            return json(200, "{\"id\":\"upload_1\",\"object\":\"upload\",\"status\":\"completed\",\"file\":{\"id\":\"file-upload_1\","
+                    + "\"object\":\"file\",\"bytes\":" + assembled.length + "}}");
+        }
+        if (path.endsWith("/cancel")) {
+            cancelled.incrementAndGet();
+            return json(200, "{\"id\":\"upload_1\",\"object\":\"upload\",\"status\":\"cancelled\"}");
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    /**
+     * Content of the single part of a multipart/form-data body
+     */
+    private static byte[] formData(RecordedRequest request) {
+        String contentType = request.getHeader("Content-Type");
+        byte[] body = request.getBody().readByteArray();
+        byte[] headersEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] closing = ("\r\n--" + contentType.substring(contentType.indexOf("boundary=") + 9)).getBytes(StandardCharsets.US_ASCII);
+        int start = indexOf(body, headersEnd, 0) + headersEnd.length;
+        int end = start;
+        for (int i = indexOf(body, closing, start); i >= 0; i = indexOf(body, closing, i + 1)) {
+            end = i;
+        }
+        byte[] data = new byte[end - start];
+        System.arraycopy(body, start, data, 0, data.length);
+        return data;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static MockResponse json(int status, String body) {
+        return new MockResponse().setResponseCode(status).setHeader("Content-Type", "application/json").setBody(body);
+    }
+}
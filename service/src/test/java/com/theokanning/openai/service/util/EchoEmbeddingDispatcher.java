@@ -0,0 +1,45 @@
+package com.theokanning.openai.service.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MockWebServer dispatcher embedding every input text as [length, 0.5], recording the inputs of each request
+ */
+public class EchoEmbeddingDispatcher extends Dispatcher {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final List<List<String>> inputs = Collections.synchronizedList(new ArrayList<>());
+
+    public List<List<String>> getInputs() {
+        return inputs;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        try {
+            JsonNode body = MAPPER.readTree(request.getBody().readUtf8());
+            List<String> input = new ArrayList<>();
+            body.get("input").forEach(text -> input.add(text.asText()));
+            inputs.add(input);
+            StringBuilder data = new StringBuilder();
+            for (int i = 0; i < input.size(); i++) {
+                data.append(i == 0 ? "" : ",")
+                        .append("{\"object\":\"embedding\",\"index\":").append(i)
+                        .append(",\"embedding\":[").append(input.get(i).length()).append(",0.5]}");
+            }
+            return new MockResponse().setBody("{\"object\":\"list\",\"model\":\"text-embedding-3-small\",\"data\":[" + data
+                    + "],\"usage\":{\"prompt_tokens\":" + input.size() + ",\"total_tokens\":" + input.size() + "}}");
+        } catch (IOException e) {
+            return new MockResponse().setResponseCode(400);
+        }
+    }
+}
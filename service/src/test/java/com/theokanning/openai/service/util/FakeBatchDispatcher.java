@@ -0,0 +1,152 @@
+package com.theokanning.openai.service.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MockWebServer dispatcher emulating the files, batches and chat completions endpoints. A batch completes on its
+ * second poll, answering each chat request with "answer to " followed by its first message.
+ */
+public class FakeBatchDispatcher extends Dispatcher {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Custom ids answered 500 the first time they are in a batch
+     */
+    public final Set<String> failOnce = ConcurrentHashMap.newKeySet();
+    /**
+     * Custom ids answered 400
+     */
+    public final Set<String> badRequests = ConcurrentHashMap.newKeySet();
+    /**
+     * First messages whose requests are answered 400
+     */
+    public final Set<String> badQuestions = ConcurrentHashMap.newKeySet();
+    /**
+     * Most batches created and not yet completed at once
+     */
+    public final AtomicInteger maxActive = new AtomicInteger();
+    public final AtomicInteger deletedFiles = new AtomicInteger();
+    public final AtomicInteger batchesCreated = new AtomicInteger();
+    public final AtomicInteger chatCompletions = new AtomicInteger();
+    /**
+     * Whether batches fail validation
+     */
+    public volatile boolean failBatches;
+    /**
+     * Whether batches stay in progress
+     */
+    public volatile boolean holdBatches;
+    /**
+     * Batch polls wait for it when set, counted in heldPolls
+     */
+    public volatile CountDownLatch pollGate;
+    public final AtomicInteger heldPolls = new AtomicInteger();
+
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+    private final Map<String, String> batchInputs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> batchPolls = new ConcurrentHashMap<>();
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        try {
+            String path = request.getPath().substring("/v1/".length());
+            if (request.getMethod().equals("POST") && path.equals("chat/completions")) {
+                chatCompletions.incrementAndGet();
+                return json(chatResult(MAPPER.readTree(request.getBody().readUtf8())));
+            }
+            if (request.getMethod().equals("POST") && path.equals("files")) {
+                String id = "file-" + ids.incrementAndGet();
+                StringBuilder lines = new StringBuilder();
+                for (String line : request.getBody().readUtf8().split("\n")) {
+                    if (line.startsWith("{\"custom_id\"")) {
+                        lines.append(line).append('\n');
+                    }
+                }
+                files.put(id, lines.toString());
+                return json("{\"id\":\"" + id + "\",\"object\":\"file\",\"purpose\":\"batch\"}");
+            }
+            if (request.getMethod().equals("DELETE") && path.startsWith("files/")) {
+                deletedFiles.incrementAndGet();
+                return json("{\"id\":\"" + path.substring(6) + "\",\"deleted\":true}");
+            }
+            if (path.startsWith("files/") && path.endsWith("/content")) {
+                return new MockResponse().setBody(files.get(path.substring(6, path.length() - 8)));
+            }
+            if (request.getMethod().equals("POST") && path.equals("batches")) {
+                String id = "batch-" + ids.incrementAndGet();
+                batchInputs.put(id, MAPPER.readTree(request.getBody().readUtf8()).get("input_file_id").asText());
+                batchPolls.put(id, new AtomicInteger());
+                batchesCreated.incrementAndGet();
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                return json("{\"id\":\"" + id + "\",\"status\":\"validating\"}");
+            }
+            if (path.startsWith("batches/")) {
+                String id = path.substring(8);
+                CountDownLatch gate = pollGate;
+                if (gate != null) {
+                    heldPolls.incrementAndGet();
+                    gate.await();
+                }
+                if (failBatches) {
+                    return json("{\"id\":\"" + id + "\",\"status\":\"failed\",\"errors\":{\"data\":[{\"message\":\"invalid endpoint\"}]}}");
+                }
+                if (holdBatches || batchPolls.get(id).incrementAndGet() < 2) {
+                    return json("{\"id\":\"" + id + "\",\"status\":\"in_progress\",\"request_counts\":{\"total\":3,\"completed\":1,\"failed\":0}}");
+                }
+                active.decrementAndGet();
+                return json(complete(id));
+            }
+            return new MockResponse().setResponseCode(404);
+        } catch (IOException | InterruptedException e) {
+            return new MockResponse().setResponseCode(500);
+        }
+    }
+
+    private String complete(String batchId) throws IOException {
+        StringBuilder output = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        for (String line : files.get(batchInputs.get(batchId)).split("\n")) {
+            JsonNode input = MAPPER.readTree(line);
+            String customId = input.get("custom_id").asText();
+            boolean bad = badRequests.contains(customId)
+                    || badQuestions.contains(input.get("body").get("messages").get(0).get("content").asText());
+            if (failOnce.remove(customId) || bad) {
+                int status = bad ? 400 : 500;
+                errors.append("{\"custom_id\":\"").append(customId).append("\",\"response\":{\"status_code\":").append(status)
+                        .append(",\"body\":{\"error\":{\"message\":\"no\"}}}}\n");
+            } else {
+                output.append("{\"custom_id\":\"").append(customId).append("\",\"response\":{\"status_code\":200,\"body\":")
+                        .append(chatResult(input.get("body"))).append("}}\n");
+            }
+        }
+        String outputId = "file-" + ids.incrementAndGet();
+        String errorId = "file-" + ids.incrementAndGet();
+        files.put(outputId, output.toString());
+        files.put(errorId, errors.toString());
+        return "{\"id\":\"" + batchId + "\",\"status\":\"completed\",\"output_file_id\":\"" + outputId
+                + "\",\"error_file_id\":\"" + errorId + "\"}";
+    }
+
+    private static String chatResult(JsonNode request) {
+        String question = request.get("messages").get(0).get("content").asText();
+        return "{\"id\":\"chatcmpl\",\"object\":\"chat.completion\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\","
+                + "\"content\":\"answer to " + question + "\"},\"finish_reason\":\"stop\"}]}";
+    }
+
+    private static MockResponse json(String body) {
+        return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+    }
+}
@@ -0,0 +1,59 @@
+package com.theokanning.openai.service.util;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MockWebServer dispatcher answering every request with the same json body, after an injected latency.
+ * Latencies and statuses are consumed in request order, requests without a queued latency are answered immediately
+ * and those without a queued status with 200.
+ */
+public class LatencyInjectingDispatcher extends Dispatcher {
+    private final Queue<Long> latenciesMillis = new ConcurrentLinkedQueue<>();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private final String body;
+
+    public LatencyInjectingDispatcher(String body) {
+        this.body = body;
+    }
+
+    public LatencyInjectingDispatcher latencies(long... millis) {
+        for (long m : millis) {
+            latenciesMillis.add(m);
+        }
+        return this;
+    }
+
+    public LatencyInjectingDispatcher statuses(int... codes) {
+        for (int code : codes) {
+            statuses.add(code);
+        }
+        return this;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        MockResponse response = new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody(body);
+        Integer status = statuses.poll();
+        if (status != null) {
+            response.setResponseCode(status);
+        }
+        Long latency = latenciesMillis.poll();
+        if (latency != null && latency > 0) {
+            response.setHeadersDelay(latency, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    public static String embeddingResultJson() {
+        return "{\"object\":\"list\",\"model\":\"text-embedding-3-small\",\"data\":[{\"object\":\"embedding\",\"index\":0,\"embedding\":[0.1,0.2,0.3]}]," +
+                "\"usage\":{\"prompt_tokens\":3,\"total_tokens\":3}}";
+    }
+}
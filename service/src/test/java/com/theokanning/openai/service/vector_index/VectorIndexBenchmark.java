@@ -0,0 +1,116 @@
+package com.theokanning.openai.service.vector_index;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Search throughput (queries per second per thread) of the indexes, with the recall@10 of the approximate ones
+ * against the flat index printed during setup. Add {@code -t 8} to measure concurrent searches.
+ * <pre>
+ * java -cp service/target/test-classes:... com.theokanning.openai.service.vector_index.VectorIndexBenchmark
+ * java -cp ... org.openjdk.jmh.Main VectorIndexBenchmark -p size=300000 -p dimensions=1536
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class VectorIndexBenchmark {
+
+    @Param({"50000"})
+    int size;
+
+    @Param({"256"})
+    int dimensions;
+
+    @Param({"flat", "flat-int8", "hnsw", "hnsw-int8"})
+    String index;
+
+    private VectorIndex vectorIndex;
+    private float[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        float[][] vectors = clustered(size, 1);
+        queries = clustered(1000, 2);
+        VectorIndexConfig.VectorIndexConfigBuilder config = VectorIndexConfig.builder().dimensions(dimensions);
+        if (index.endsWith("int8")) {
+            config.quantization(Quantization.INT8);
+        }
+        vectorIndex = index.startsWith("hnsw") ? new HnswVectorIndex(config.build()) : new FlatVectorIndex(config.build());
+        long start = System.nanoTime();
+        // concurrent adds, as an ingestion pipeline would do
+        IntStream.range(0, size).parallel().forEach(i -> vectorIndex.add(i, vectors[i]));
+        System.out.printf("%n%s: built %d vectors in %d ms%n", index, size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!"flat".equals(index)) {
+            FlatVectorIndex exact = new FlatVectorIndex(VectorIndexConfig.builder().dimensions(dimensions).build());
+            for (int i = 0; i < size; i++) {
+                exact.add(i, vectors[i]);
+            }
+            System.out.printf("%s: recall@10 = %.3f%n", index, recall(exact, vectorIndex));
+        }
+    }
+
+    @Benchmark
+    public List<SearchHit> search() {
+        return vectorIndex.search(queries[next++ % queries.length], 10);
+    }
+
+    private double recall(VectorIndex exact, VectorIndex approximate) {
+        int found = 0;
+        int sample = 200;
+        for (int q = 0; q < sample; q++) {
+            Set<Long> expected = new HashSet<>();
+            for (SearchHit hit : exact.search(queries[q], 10)) {
+                expected.add(hit.getId());
+            }
+            for (SearchHit hit : approximate.search(queries[q], 10)) {
+                if (expected.contains(hit.getId())) {
+                    found++;
+                }
+            }
+        }
+        return found / (10.0 * sample);
+    }
+
+    private float[][] clustered(int count, long seed) {
+        Random centers = new Random(0);
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][dimensions];
+        for (int i = 0; i < count; i++) {
+            centers.setSeed(random.nextInt(1000));
+            for (int d = 0; d < dimensions; d++) {
+                vectors[i][d] = (float) (centers.nextGaussian() + random.nextGaussian() * 0.5);
+            }
+        }
+        return vectors;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VectorIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
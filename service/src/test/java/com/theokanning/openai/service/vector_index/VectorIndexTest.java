@@ -0,0 +1,179 @@
+package com.theokanning.openai.service.vector_index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VectorIndexTest {
+
+    private static final int DIMENSIONS = 48;
+
+    @Test
+    void flatIndexIsExact() {
+        float[][] vectors = clustered(2000, 1);
+        FlatVectorIndex index = new FlatVectorIndex(config().build());
+        for (int i = 0; i < vectors.length; i++) {
+            index.add(i, vectors[i]);
+        }
+
+        float[][] queries = clustered(20, 2);
+        for (float[] query : queries) {
+            List<SearchHit> hits = index.search(query, 10);
+            assertEquals(exactTopK(vectors, query, 10), ids(hits));
+            assertEquals(VectorMath.cosine(vectors[(int) hits.get(0).getId()], query), hits.get(0).getScore(), 1e-5);
+            assertTrue(hits.get(0).getScore() >= hits.get(9).getScore());
+        }
+    }
+
+    @Test
+    void dotProductScoresAreNotNormalized() {
+        FlatVectorIndex index = new FlatVectorIndex(config().similarity(Similarity.DOT_PRODUCT).build());
+        float[] small = new float[DIMENSIONS];
+        float[] large = new float[DIMENSIONS];
+        small[0] = 1;
+        large[0] = 3;
+        large[1] = 3;
+        index.add(1, small);
+        index.add(2, large);
+
+        List<SearchHit> hits = index.search(small, 2);
+        assertEquals(2, hits.get(0).getId());
+        assertEquals(3, hits.get(0).getScore(), 1e-6);
+    }
+
+    @Test
+    void int8QuantizationKeepsTheRanking() {
+        float[][] vectors = clustered(2000, 3);
+        FlatVectorIndex exact = new FlatVectorIndex(config().build());
+        FlatVectorIndex quantized = new FlatVectorIndex(config().quantization(Quantization.INT8).build());
+        for (int i = 0; i < vectors.length; i++) {
+            exact.add(i, vectors[i]);
+            quantized.add(i, vectors[i]);
+        }
+
+        assertTrue(recall(exact, quantized, clustered(50, 4)) >= 0.9);
+        assertTrue(quantized.getMemoryBytes() * 3 < exact.getMemoryBytes());
+        float[] query = vectors[7];
+        assertEquals(exact.search(query, 1).get(0).getScore(), quantized.search(query, 1).get(0).getScore(), 0.01);
+    }
+
+    @Test
+    void hnswHasAHighRecall() {
+        float[][] vectors = clustered(5000, 5);
+        FlatVectorIndex exact = new FlatVectorIndex(config().build());
+        HnswVectorIndex hnsw = new HnswVectorIndex(config().build());
+        HnswVectorIndex hnswInt8 = new HnswVectorIndex(config().quantization(Quantization.INT8).build());
+        for (int i = 0; i < vectors.length; i++) {
+            exact.add(i, vectors[i]);
+            hnsw.add(i, vectors[i]);
+            hnswInt8.add(i, vectors[i]);
+        }
+
+        float[][] queries = clustered(100, 6);
+        assertTrue(recall(exact, hnsw, queries) >= 0.95, "recall " + recall(exact, hnsw, queries));
+        assertTrue(recall(exact, hnswInt8, queries) >= 0.85, "int8 recall " + recall(exact, hnswInt8, queries));
+        assertEquals(5000, hnsw.size());
+    }
+
+    @Test
+    void concurrentAddsAreAllReachable() throws Exception {
+        float[][] vectors = clustered(4000, 7);
+        HnswVectorIndex index = new HnswVectorIndex(config().build());
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<?>> adds = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int first = t;
+            adds.add(threads.submit(() -> {
+                for (int i = first; i < vectors.length; i += 8) {
+                    index.add(i, vectors[i]);
+                }
+            }));
+        }
+        for (Future<?> add : adds) {
+            add.get();
+        }
+        threads.shutdown();
+
+        assertEquals(4000, index.size());
+        int found = 0;
+        for (int i = 0; i < vectors.length; i++) {
+            if (index.search(vectors[i], 1).get(0).getId() == i) {
+                found++;
+            }
+        }
+        assertTrue(found >= 3960, "found " + found);
+    }
+
+    @Test
+    void searchesBeforeAnyAddAreEmpty() {
+        assertTrue(new HnswVectorIndex(config().build()).search(new float[DIMENSIONS], 5).isEmpty());
+        assertTrue(new FlatVectorIndex(config().build()).search(new float[DIMENSIONS], 5).isEmpty());
+    }
+
+    @Test
+    void vectorsMustHaveTheConfiguredDimensions() {
+        FlatVectorIndex index = new FlatVectorIndex(config().build());
+        assertThrows(IllegalArgumentException.class, () -> index.add(1, new float[DIMENSIONS + 1]));
+        assertThrows(IllegalArgumentException.class, () -> index.search(new float[3], 1));
+    }
+
+    private static VectorIndexConfig.VectorIndexConfigBuilder config() {
+        return VectorIndexConfig.builder().dimensions(DIMENSIONS);
+    }
+
+    private static double recall(VectorIndex exact, VectorIndex approximate, float[][] queries) {
+        int found = 0;
+        for (float[] query : queries) {
+            Set<Long> expected = new HashSet<>(ids(exact.search(query, 10)));
+            for (SearchHit hit : approximate.search(query, 10)) {
+                if (expected.contains(hit.getId())) {
+                    found++;
+                }
+            }
+        }
+        return found / (10.0 * queries.length);
+    }
+
+    private static List<Long> exactTopK(float[][] vectors, float[] query, int k) {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i < vectors.length; i++) {
+            ids.add(i);
+        }
+        ids.sort((a, b) -> Float.compare(VectorMath.cosine(vectors[b.intValue()], query), VectorMath.cosine(vectors[a.intValue()], query)));
+        return ids.subList(0, k);
+    }
+
+    private static List<Long> ids(List<SearchHit> hits) {
+        List<Long> ids = new ArrayList<>();
+        for (SearchHit hit : hits) {
+            ids.add(hit.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Points around 40 random centers, like embeddings of a corpus on a few topics
+     */
+    static float[][] clustered(int count, long seed) {
+        Random centers = new Random(0);
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSIONS];
+        for (int i = 0; i < count; i++) {
+            int cluster = random.nextInt(40);
+            centers.setSeed(cluster);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                vectors[i][d] = (float) (centers.nextGaussian() + random.nextGaussian() * 0.5);
+            }
+        }
+        return vectors;
+    }
+}